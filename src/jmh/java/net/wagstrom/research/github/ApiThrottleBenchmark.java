@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2011-2012 IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wagstrom.research.github;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cost of handing out a permit from a shared {@link ApiThrottle}
+ *
+ * The throttle has no limits set so no caller ever waits. What is measured
+ * is the slot accounting itself and how it behaves under contention.
+ *
+ * Run with: <code>mvn -P jmh package &amp;&amp; java -jar target/benchmarks.jar</code>
+ *
+ * @author patrick
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ApiThrottleBenchmark {
+    private ApiThrottle throttle;
+
+    @Setup
+    public void setup() {
+        throttle = new ApiThrottle();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void acquire1() throws InterruptedException {
+        throttle.callWait();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void acquire8() throws InterruptedException {
+        throttle.callWait();
+    }
+
+    @Benchmark
+    @Threads(64)
+    public void acquire64() throws InterruptedException {
+        throttle.callWait();
+    }
+}
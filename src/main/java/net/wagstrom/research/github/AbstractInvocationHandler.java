@@ -16,70 +16,94 @@
 package net.wagstrom.research.github;
 
 import java.lang.reflect.Method;
-import java.net.ConnectException;
 
-import org.eclipse.egit.github.core.client.RequestException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Base class for invocation handlers that retry failed calls.
+ *
+ * Subclasses implement {@link #invokeOnce(Method, Object[])} to make a single
+ * attempt, and {@link #invokeWithRetry(Method, Object[])} repeats it in a loop
+ * for as long as the {@link RetryEngine} says it is worth it.
+ *
+ * @author patrick
+ */
 public abstract class AbstractInvocationHandler {
     private static final Logger log = LoggerFactory.getLogger(AbstractInvocationHandler.class); // NOPMD
-    protected static final long SLEEP_DELAY = 5000;
-    protected static final long MAX_SLEEP_DELAY = SLEEP_DELAY * 5;
 
-    protected long failSleepDelay = SLEEP_DELAY;
-    
+    protected final RetryEngine retryEngine;
+
     public AbstractInvocationHandler() {
+        this(new RetryEngine());
     }
-    
-    private void failSleep() {
-        try {
-            Thread.sleep(failSleepDelay);
-            failSleepDelay = failSleepDelay + SLEEP_DELAY;
-        } catch (InterruptedException e) {
-            log.error("Sleep interrupted",e);
-        }
+
+    public AbstractInvocationHandler(final RetryEngine retryEngine) {
+        this.retryEngine = retryEngine;
     }
-    
+
     public abstract Object invoke(Object proxy, Method method, Object[] args)
             throws Throwable;
 
-    protected Object handleInvocationException(Exception e, Object proxy, Method method, Object[] args) throws Throwable {
-        if (failSleepDelay > MAX_SLEEP_DELAY) {
-            log.error("Too many failures. Giving up and returning null");
-            log.error("method: {} args: {}", method, args);
-            return null;
-        }
+    /**
+     * Makes a single attempt at the call.
+     *
+     * @return the result of the call
+     * @throws Exception the exception thrown by the call itself, already
+     *          unwrapped from any reflection exceptions
+     */
+    protected abstract Object invokeOnce(Method method, Object[] args) throws Exception;
 
-        if (e.getMessage().startsWith("API Rate Limit Exceeded for")) {
-            log.warn("Exceeding API rate limit -- Sleep for {}ms and try again", failSleepDelay);
-            failSleep();
-            return invoke(proxy, method, args);
-        } else if (e.getMessage().toLowerCase().indexOf("<title>server error - github</title>") != -1) {
-            log.warn("Received a server error from GitHub -- Sleep for {}ms and try again", failSleepDelay);
-            failSleep();
-            return invoke(proxy, method, args);
-        } else if (e.getMessage().trim().toLowerCase().equals("{\"error\":\"not found\"}")) {
-            log.warn("GitHub returned Not Found: Method: {}, Args: {}", method.getName(), args);
-            return null;
-        } else if (e.getCause() instanceof ConnectException) {
-            log.error("Connection exception: Method: {}, Args: {}", new Object[]{method.getName(), args, e});
-            failSleep();
-            return invoke(proxy, method, args);
-        } else if (e.getCause() != null && e.getCause().getCause() instanceof ConnectException) {
-            log.error("Connection exception (deep): Method: {}, Args: {}", new Object[]{method.getName(), args, e});
-            failSleep();
-            return invoke(proxy, method, args);
-        } else if (e instanceof RequestException) {
-            RequestException re = (RequestException)e;
-            if (re.getStatus() == 404) {
-                log.error("Received 404 error. Returning null", e);
-                return null;
+    /**
+     * Checks if a failure should be passed straight to the caller instead of
+     * being retried here. By default nothing is.
+     */
+    protected boolean propagate(final Exception e) {
+        return false;
+    }
+
+    /**
+     * Makes the call, retrying failures as directed by the retry engine.
+     *
+     * Calls for objects that don't exist and calls that have failed too
+     * often return null. Failures that aren't I/O problems are passed to the
+     * caller.
+     */
+    protected Object invokeWithRetry(final Method method, final Object[] args) throws Throwable {
+        retryEngine.recordCall();
+        int attempt = 0;
+        while (true) {
+            try {
+                return invokeOnce(method, args);
+            } catch (Exception e) {
+                if (propagate(e)) {
+                    throw e;
+                }
+                attempt++;
+                String failure = RetryEngine.classify(e);
+                if (FailureType.FATAL.equals(failure)) {
+                    log.error("Invocation target exception (propagated):", e);
+                    throw e;
+                } else if (FailureType.NOT_FOUND.equals(failure)) {
+                    log.warn("GitHub returned Not Found: Method: {}, Args: {}", method.getName(), args);
+                    return null;
+                }
+                long delay = retryEngine.nextDelay(e, failure, attempt, method.getName());
+                if (delay < 0) {
+                    log.error("Giving up after {} attempts ({}) and returning null: Method: {} Args: {}",
+                            new Object[]{attempt, failure, method.getName(), args, e});
+                    return null;
+                }
+                log.warn("Call failed ({}): Method: {} -- Sleep for {}ms and try again",
+                        new Object[]{failure, method.getName(), delay});
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException ie) {
+                    log.error("Sleep interrupted", ie);
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
             }
         }
-
-        log.error("Unhandled exception: Method: {} Args: {}", new Object[]{method.getName(), args, e});
-        failSleep();
-        return invoke(proxy, method, args); 
     }
 }
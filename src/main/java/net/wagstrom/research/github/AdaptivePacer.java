@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2011-2012 IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wagstrom.research.github;
+
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Finds the fastest rate GitHub will put up with by additive increase,
+ * multiplicative decrease (AIMD).
+ *
+ * Every successful call nudges the rate up so that it grows by
+ * <code>increase</code> calls per second for every second of calls. A
+ * secondary rate limit response cuts the rate by <code>decrease</code> and,
+ * if it carried a <code>Retry-After</code> header, stops all calls until then.
+ * The rate quickly settles just below the point where GitHub starts to push
+ * back.
+ *
+ * Calls that were already in flight, and their retries, tend to be turned
+ * away too. These are part of the same push back, so the rate is cut only
+ * once per pause, and at most once every {@link #SLOW_DOWN_WINDOW}
+ * milliseconds when GitHub doesn't say how long to wait.
+ *
+ * This replaces the fixed gap from {@link ApiThrottle#setMaxRate(int, int)};
+ * the primary rate limit is still enforced by the throttle.
+ *
+ * @author patrick
+ */
+public class AdaptivePacer {
+    private static final Logger log = LoggerFactory.getLogger(AdaptivePacer.class); // NOPMD
+
+    public static final double DEFAULT_INCREASE = 0.05;
+    public static final double DEFAULT_DECREASE = 0.5;
+    public static final long SLOW_DOWN_WINDOW = 5000;
+    // how many calls go by between log messages about the current rate
+    private static final int LOG_INTERVAL = 500;
+
+    private final double minRate;
+    private final double maxRate;
+    private double rate;
+    private double increase = DEFAULT_INCREASE;
+    private double decrease = DEFAULT_DECREASE;
+    private long pausedUntil = -1;
+    private long lastCut = -1;
+    private long successes = 0;
+    private long slowDowns = 0;
+    private String idstr = "";
+
+    /**
+     * @param initialRate calls per second to start at
+     * @param minRate the rate is never cut below this
+     * @param maxRate the rate is never raised above this
+     */
+    public AdaptivePacer(final double initialRate, final double minRate, final double maxRate) {
+        this.minRate = minRate;
+        this.maxRate = maxRate;
+        this.rate = Math.max(minRate, Math.min(maxRate, initialRate));
+    }
+
+    /**
+     * @return the current rate in calls per second
+     */
+    public synchronized double getRate() {
+        return rate;
+    }
+
+    /**
+     * @return the gap to leave between calls in nanoseconds
+     */
+    public synchronized long getIntervalNanos() {
+        return (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+    }
+
+    /**
+     * @return time in milliseconds since the epoch until which no calls should
+     *         be made, -1 if there is no pause
+     */
+    public synchronized long getPausedUntil() {
+        return pausedUntil;
+    }
+
+    /**
+     * Records a call that went through without any push back
+     */
+    public synchronized void onSuccess() {
+        rate = Math.min(maxRate, rate + increase / rate);
+        successes++;
+        if (successes % LOG_INTERVAL == 0) {
+            log.info("[{}] Pacing at {} calls/s", idstr, String.format("%.2f", rate));
+        }
+    }
+
+    /**
+     * Records that GitHub asked us to slow down
+     *
+     * @param retryAfter milliseconds GitHub asked us to wait, or -1 if it didn't say
+     */
+    public void onSlowDown(final long retryAfter) {
+        onSlowDown(retryAfter, System.currentTimeMillis());
+    }
+
+    /**
+     * Records that GitHub asked us to slow down
+     *
+     * @param retryAfter milliseconds GitHub asked us to wait, or -1 if it didn't say
+     * @param now current time in milliseconds since the epoch
+     */
+    protected synchronized void onSlowDown(final long retryAfter, final long now) {
+        slowDowns++;
+        boolean cutAlready = now < pausedUntil || (lastCut != -1 && now < lastCut + SLOW_DOWN_WINDOW);
+        if (retryAfter > 0) {
+            pausedUntil = Math.max(pausedUntil, now + retryAfter);
+        }
+        if (cutAlready) {
+            log.debug("[{}] Secondary rate limit, pacing already cut to {} calls/s", idstr, String.format("%.2f", rate));
+            return;
+        }
+        double previous = rate;
+        rate = Math.max(minRate, rate * decrease);
+        lastCut = now;
+        log.warn("[{}] Secondary rate limit, pacing cut from {} to {} calls/s", new Object[]{idstr,
+                String.format("%.2f", previous), String.format("%.2f", rate)});
+    }
+
+    public synchronized void logSummary() {
+        log.info("[{}] Final pace {} calls/s after {} calls and {} slow downs", new Object[]{idstr,
+                String.format("%.2f", rate), successes, slowDowns});
+    }
+
+    public synchronized void setIncrease(final double increase) {
+        this.increase = increase;
+    }
+
+    public synchronized void setDecrease(final double decrease) {
+        this.decrease = decrease;
+    }
+
+    public synchronized void setId(final String idstr) {
+        this.idstr = idstr;
+    }
+}
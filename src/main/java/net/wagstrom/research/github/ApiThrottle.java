@@ -15,98 +15,368 @@
  */
 package net.wagstrom.research.github;
 
-import java.text.SimpleDateFormat;
-import java.util.Calendar;
-import java.util.Locale;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * ApiThrottle is a simple class that is used by ThrottledGitHubInvovcationHandler to
- * throttle back connections. Eventually I'd like to make it so you have multiple models
- * of throttling, but this is what we get for now.
- * 
- * As of right now this basically has to know the throttling system itself, it doesn't get
- * any feedback from the API it's throttling about when limits are up or anything like that.
- * That would be a more advanced version of this class.
- * 
+ * throttle back connections.
+ *
+ * There are two models of throttling:
+ *
+ * {@link #MODE_FIXED} is the original model. It has to know the throttling system
+ * itself and guesses when the limits are up based on the number of remaining calls.
+ *
+ * {@link #MODE_HEADER} uses the <code>X-RateLimit-Reset</code> and
+ * <code>X-RateLimit-Remaining</code> values returned with every response. Calls are
+ * spaced evenly so the remaining budget runs out right when the window resets. If
+ * no reset time has been seen yet this falls back to the fixed model.
+ *
+ * The throttle is safe to share between threads. Permits are handed out as
+ * time slots measured in nanoseconds: each caller atomically moves the time of
+ * the last granted slot forward by one interval and then parks until its own
+ * slot comes up, so waiting threads never hold a lock. Each slot in the
+ * current window takes one from the remaining count straight away, so the
+ * threads that come after see the budget as it will be. Once the budget is
+ * exhausted the slots after the reset are spaced out over the next window
+ * rather than all falling at the reset.
+ *
+ * Several processes using the same credentials can share one budget by
+ * giving each of their throttles a {@link SharedThrottleState} for the same
+ * file. Slots are then handed out from the shared state, so the calls of all
+ * of the processes are spaced as if they came from one.
+ *
  * @author patrick
  *
  */
 public class ApiThrottle {
-    private int limit;
-    private int limitRemaining;
-    private Calendar lastReset = null;
-    private Calendar lastCall = null;
+    public static final String MODE_FIXED = "fixed";
+    public static final String MODE_HEADER = "header";
+
+    // extra time to wait after the reported reset to account for clock skew
+    public static final long RESET_SKEW = 1000;
+
+    private static final long NANOS_PER_MILLI = 1000000L;
+    // length of a GitHub rate limit window
+    private static final long WINDOW = 3600L * 1000 * NANOS_PER_MILLI;
+
+    private volatile int limit;
+    private final AtomicInteger limitRemaining = new AtomicInteger(-1);
+    private volatile long limitReset = -1;
+    private volatile long lastReset = -1;
+    // start of the most recently granted slot in nanoseconds since the epoch
+    private final AtomicLong lastPermit = new AtomicLong(-1);
+    // offset used to turn System.nanoTime() into nanoseconds since the epoch
+    private final long clockOffset = System.currentTimeMillis() * NANOS_PER_MILLI - System.nanoTime();
     private static final Logger log = LoggerFactory.getLogger(ApiThrottle.class); // NOPMD
-    private static final String DATE_FORMAT = "yyyy-MM-dd'T'HH:mm:ssZ";
-    private final SimpleDateFormat dateFormatter = new SimpleDateFormat(DATE_FORMAT, Locale.US);
-    private long internalMaxRate = -1;
-    private String idstr = "";
+    private volatile long internalMaxRate = -1;
+    private volatile String idstr = "";
+    private volatile String mode = MODE_HEADER;
+    private volatile SharedThrottleState shared = null;
+    private volatile AdaptivePacer pacer = null;
 
     public ApiThrottle() {
         limit = -1;
-        limitRemaining = -1;
     }
 
 
     /**
-     * 
+     * Blocks until it is acceptable to make the next call.
+     */
+    public void callWait() throws InterruptedException {
+        long slot = reserve();
+        long waitTime = slot - clock();
+        while (waitTime > 0) {
+            LockSupport.parkNanos(this, waitTime);
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            waitTime = slot - clock();
+        }
+    }
+
+    /**
+     * Claims the next free slot without waiting for it
+     *
+     * @return the time the caller may proceed in nanoseconds since the epoch
+     */
+    protected long reserve() {
+        SharedThrottleState state = shared;
+        if (state != null) {
+            return state.reserve(this);
+        }
+        long slot = reserveLocal();
+        takeRemaining(slot);
+        return slot;
+    }
+
+    /**
+     * Takes a call from the remaining count for a slot in the current window,
+     * the shared state keeps its own count
+     */
+    private void takeRemaining(final long slot) {
+        long reset = limitReset;
+        if (reset == -1 || slot >= reset * NANOS_PER_MILLI) {
+            return;
+        }
+        while (true) {
+            int remaining = limitRemaining.get();
+            if (remaining < 1 || limitRemaining.compareAndSet(remaining, remaining - 1)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Claims the next free slot as seen by this process only
+     */
+    long reserveLocal() {
+        while (true) {
+            long now = clock();
+            long last = lastPermit.get();
+            long slot = now + computeWaitNanos(now, last);
+            if (lastPermit.compareAndSet(last, slot)) {
+                return slot;
+            }
+        }
+    }
+
+    /**
+     * @return the current time in nanoseconds since the epoch
+     */
+    protected long clock() {
+        return clockOffset + System.nanoTime();
+    }
+
+    /**
+     * Computes how long the next call needs to wait if it is made at time
+     * <code>now</code>.
+     *
+     * This is separated from {@link #callWait()} so it can be tested without
+     * actually sleeping.
+     *
+     * @param now current time in milliseconds since the epoch
+     * @return the number of milliseconds to sleep, 0 if the call may proceed
+     */
+    protected long computeSleepTime(final long now) {
+        long waitNanos = computeWaitNanos(now * NANOS_PER_MILLI, lastPermit.get());
+        return TimeUnit.NANOSECONDS.toMillis(waitNanos + NANOS_PER_MILLI - 1);
+    }
+
+    /**
+     * Computes the wait for a call at <code>now</code> given the start of the
+     * last granted slot. Both times are in nanoseconds since the epoch.
+     */
+    private long computeWaitNanos(final long now, final long last) {
+        long waitTime;
+        long reset = limitReset;
+        if (MODE_HEADER.equals(mode) && reset != -1) {
+            waitTime = headerWaitTime(now, last, reset * NANOS_PER_MILLI);
+        } else {
+            waitTime = fixedWaitTime(now);
+        }
+        AdaptivePacer currentPacer = pacer;
+        if (currentPacer != null) {
+            long pacerWait = 0;
+            if (last != -1) {
+                pacerWait = currentPacer.getIntervalNanos() - (now - last);
+            }
+            long pausedUntil = currentPacer.getPausedUntil();
+            if (pausedUntil != -1) {
+                pacerWait = Math.max(pacerWait, pausedUntil * NANOS_PER_MILLI - now);
+            }
+            if (pacerWait > waitTime) {
+                log.trace("[{}] Adaptive pacing. Waiting for {}ns", idstr, pacerWait);
+                waitTime = pacerWait;
+            }
+        }
+        long maxRate = internalMaxRate;
+        if (maxRate != -1 && last != -1) {
+            long rateWait = maxRate * NANOS_PER_MILLI - (now - last);
+            if (rateWait > waitTime) {
+                log.trace("[{}] Exceeded internal rate. Waiting for {}ns", idstr, rateWait);
+                waitTime = rateWait;
+            }
+        }
+        return waitTime;
+    }
+
+    /**
+     * Pace calls so that the remaining budget is used up evenly over the
+     * time left in the current window.
+     */
+    private long headerWaitTime(final long now, final long last, final long reset) {
+        int remaining = limitRemaining.get();
+        if (log.isDebugEnabled()) {
+            log.debug("[{}] API Status: Limit: {} Remaining: {} Reset: {}", new Object[] {idstr, limit, remaining, new Date(reset / NANOS_PER_MILLI)});
+        }
+        if (now >= reset) {
+            // the window has rolled over since the last response we saw
+            return 0;
+        }
+        if (remaining < 1) {
+            // the first call waits for the reset, the rest are paced after it
+            long slot = reset + RESET_SKEW * NANOS_PER_MILLI;
+            int currentLimit = limit;
+            if (last >= slot) {
+                slot = last + (currentLimit > 0 ? WINDOW / currentLimit : 0);
+            }
+            long waitTime = slot - now;
+            log.info("[{}] Rate limit exhausted. Sleeping for {}ms until reset", idstr, waitTime / NANOS_PER_MILLI);
+            return waitTime;
+        }
+        if (last == -1) {
+            return 0;
+        }
+        long interval = (reset - now) / remaining;
+        long waitTime = interval - (now - last);
+        if (waitTime > 0) {
+            log.trace("[{}] Pacing {} calls over {}ms. Waiting for {}ns", new Object[] {idstr, remaining, (reset - now) / NANOS_PER_MILLI, waitTime});
+            return waitTime;
+        }
+        return 0;
+    }
+
+    /**
+     *
      * FIXME: this method is really tied to GitHub's limits right now.
      * Need to implement a mechanism to better understand when limits expire
      * based on time or count.
-     * 
+     *
      */
-    public void callWait() throws InterruptedException {
-        if (lastReset != null) {
-            log.debug("[{}] API Estimates: Limit: {} Remaining: {} Last Reset: {}", new Object[] {idstr, limit, limitRemaining, dateFormatter.format(lastReset.getTime())});
+    private long fixedWaitTime(final long now) {
+        long resetTime = lastReset;
+        int currentLimit = limit;
+        if (resetTime != -1 && log.isDebugEnabled()) {
+            log.debug("[{}] API Estimates: Limit: {} Remaining: {} Last Reset: {}", new Object[] {idstr, currentLimit, limitRemaining.get(), new Date(resetTime)});
         }
-        if (limitRemaining < 1 && limit != -1) {
-            Calendar sleepEnd = (Calendar)lastReset.clone();
+        if (limitRemaining.get() < 1 && currentLimit != -1 && resetTime != -1) {
             int timeDiff = 3600;
-            if (limit == 60) {
+            if (currentLimit == 60) {
                 timeDiff = 65;
-            } else if (limit == 5000) {
+            } else if (currentLimit == 5000) {
                 timeDiff = 3610;
             }
-            sleepEnd.add(Calendar.SECOND, timeDiff);
-            long sleepTime = sleepEnd.getTimeInMillis() - Calendar.getInstance().getTimeInMillis();
-            if (sleepTime > 0) {
-                log.info("[{}] Sleeping for {}ms", idstr, sleepTime);
-                Thread.sleep(sleepTime);
+            long waitTime = (resetTime + timeDiff * 1000L) * NANOS_PER_MILLI - now;
+            if (waitTime > 0) {
+                log.info("[{}] Sleeping for {}ms", idstr, waitTime / NANOS_PER_MILLI);
+                return waitTime;
             } else {
                 log.info("[{}] Should be no reason to sleep", idstr);
             }
         }
-        if (internalMaxRate != -1 && lastCall != null) {
-            long sleepTime = internalMaxRate - (Calendar.getInstance().getTimeInMillis() - lastCall.getTimeInMillis());
-            if (sleepTime > 0) {
-                log.trace("[{}] Exceeded internal rate. Sleeping for {}ms", idstr, sleepTime);
-                Thread.sleep(sleepTime);
-            }
-        }
-        lastCall = Calendar.getInstance();
+        return 0;
+    }
+
+    /**
+     * Records that a call was made at the given time without waiting
+     *
+     * @param now time of the call in milliseconds since the epoch
+     */
+    protected void recordCall(final long now) {
+        lastPermit.set(now * NANOS_PER_MILLI);
+    }
+
+    /**
+     * Replaces the local view of the limits with the one held by the shared state
+     */
+    void adoptShared(final int sharedLimit, final int sharedRemaining, final long sharedReset, final long sharedPermit) {
+        limit = sharedLimit;
+        limitRemaining.set(sharedRemaining);
+        limitReset = sharedReset;
+        lastPermit.set(sharedPermit);
+    }
+
+    /**
+     * Shares the budget of this throttle with other processes
+     *
+     * @param shared the state for the credentials this throttle is used for
+     */
+    public void setSharedState(final SharedThrottleState shared) {
+        this.shared = shared;
     }
 
     public void setRateLimit(final int limit) {
         this.limit = limit;
+        SharedThrottleState state = shared;
+        if (state != null) {
+            state.publishLimit(limit);
+        }
+    }
+
+    public int getRateLimit() {
+        return limit;
     }
 
     public void setRateLimitRemaining(final int limitRemaining) {
-        this.limitRemaining = limitRemaining;
+        this.limitRemaining.set(limitRemaining);
         // assume that we just reset the time limit
-        if (this.limitRemaining == this.limit - 1) {
-            lastReset = Calendar.getInstance();
+        if (limitRemaining == this.limit - 1) {
+            lastReset = System.currentTimeMillis();
         }
+        SharedThrottleState state = shared;
+        if (state != null) {
+            state.publishRemaining(limitRemaining);
+        }
+    }
+
+    public int getRateLimitRemaining() {
+        return limitRemaining.get();
+    }
+
+    /**
+     * Estimates how many calls can be made right now
+     *
+     * @param now current time in milliseconds since the epoch
+     * @return the number of calls left in the current window, the full limit if the
+     *         window has reset since the last response, or Integer.MAX_VALUE if
+     *         nothing is known about the limits yet
+     */
+    public int getAvailableCalls(final long now) {
+        int remaining = limitRemaining.get();
+        if (remaining == -1) {
+            return Integer.MAX_VALUE;
+        }
+        if (limitReset != -1 && now >= limitReset) {
+            return limit;
+        }
+        return remaining;
+    }
+
+    /**
+     * Sets the time the current rate limit window resets as reported by the
+     * <code>X-RateLimit-Reset</code> header.
+     *
+     * @param resetSeconds the reset time in seconds since the epoch
+     */
+    public void setRateLimitReset(final long resetSeconds) {
+        this.limitReset = resetSeconds * 1000L;
+        SharedThrottleState state = shared;
+        if (state != null) {
+            state.publishReset(limitReset, limitRemaining.get());
+        }
+    }
+
+    /**
+     * @return the time the current window resets in milliseconds since the epoch,
+     *         or -1 if it is not known
+     */
+    public long getRateLimitReset() {
+        return limitReset;
     }
 
     /**
      * Sets the maximum rate as the number of calls in the number of seconds
-     * 
+     *
      * This is external from the given API rate and is used to be nice to servers.
      * Internally it is stored as a long indicating the minimum wait between calls
-     * 
+     *
      * @param calls
      * @param seconds
      */
@@ -115,6 +385,35 @@ public class ApiThrottle {
         log.trace("[{}] Internal maximum rate set to: {}ms", idstr, internalMaxRate);
     }
 
+    /**
+     * Paces calls adaptively rather than at a fixed maximum rate, see
+     * {@link AdaptivePacer}
+     *
+     * @param pacer the pacer to use, or null to go back to fixed pacing
+     */
+    public void setPacer(final AdaptivePacer pacer) {
+        this.pacer = pacer;
+    }
+
+    public AdaptivePacer getPacer() {
+        return pacer;
+    }
+
+    public String getMode() {
+        return mode;
+    }
+
+    /**
+     * Sets the throttling model, either {@link #MODE_FIXED} or {@link #MODE_HEADER}
+     *
+     * @param mode
+     */
+    public void setMode(final String mode) {
+        if (!MODE_FIXED.equals(mode) && !MODE_HEADER.equals(mode)) {
+            throw new IllegalArgumentException("Unknown throttle mode: " + mode);
+        }
+        this.mode = mode;
+    }
 
     public String getId() {
         return idstr;
@@ -21,6 +21,7 @@ import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -71,6 +72,7 @@ import org.slf4j.LoggerFactory;
 
 import com.ibm.research.govsci.graph.BlueprintsBase;
 import com.ibm.research.govsci.graph.Shutdownable;
+import com.tinkerpop.blueprints.CloseableIterable;
 import com.tinkerpop.blueprints.Edge;
 import com.tinkerpop.blueprints.Element;
 import com.tinkerpop.blueprints.Index;
@@ -197,8 +199,11 @@ public class BlueprintsDriver extends BlueprintsBase implements Shutdownable {
      * @return a Map that maps issue_ids to the date that the comments were downloaded
      */
     public Map<Integer, Date> getIssueCommentsAddedAt(final String reponame) {
-        final Vertex node = getOrCreateRepository(reponame);
+        final Vertex node = getRepository(reponame);
         final HashMap<Integer, Date> map = new HashMap<Integer, Date>();
+        if (node == null) {
+            return map;
+        }
 
         final GremlinPipeline<Vertex, Vertex> pipe = new GremlinPipeline<Vertex, Vertex>();
         pipe.start(node).out(EdgeType.ISSUE);
@@ -209,6 +214,25 @@ public class BlueprintsDriver extends BlueprintsBase implements Shutdownable {
         return map;
     }
 
+    /**
+     * @param reponame the name of the repository
+     * @return the number of comments on the issues of the repository as of
+     *         when the issues were last saved
+     */
+    public long getIssueCommentCount(final String reponame) {
+        final Vertex node = getRepository(reponame);
+        long count = 0;
+        if (node == null) {
+            return count;
+        }
+        final GremlinPipeline<Vertex, Vertex> pipe = new GremlinPipeline<Vertex, Vertex>();
+        pipe.start(node).out(EdgeType.ISSUE);
+        for (Vertex issue : pipe) {
+            count += Math.max(0, propertyToCount(issue.getProperty(PropertyName.COMMENTS)));
+        }
+        return count;
+    }
+
     /**
      * Get a map of date when events were added to each issue
      * 
@@ -218,8 +242,11 @@ public class BlueprintsDriver extends BlueprintsBase implements Shutdownable {
      * @return a Map that maps issue_ids to the date that the events were downloaded
      */
     public Map<Integer, Date> getIssueEventsAddedAt(final IRepositoryIdProvider repo) {
-        final Vertex node = getOrCreateRepository(repo.generateId());
+        final Vertex node = getRepository(repo.generateId());
         final HashMap<Integer, Date> map = new HashMap<Integer, Date>();
+        if (node == null) {
+            return map;
+        }
 
         GremlinPipeline<Vertex, Vertex> pipe = new GremlinPipeline<Vertex, Vertex>();
         pipe.start(node).out(EdgeType.ISSUE.toString());
@@ -370,6 +397,26 @@ public class BlueprintsDriver extends BlueprintsBase implements Shutdownable {
         return getOrCreateVertexHelper(IdCols.REPOSITORY, reponame, VertexType.REPOSITORY, repoidx);
     }
 
+    /**
+     * Looks up a repository without adding it to the graph
+     *
+     * @param reponame the name of the repo, eg: defunkt/resque
+     * @return the vertex or null if the repository isn't in the graph
+     */
+    public Vertex getRepository(final String reponame) {
+        return getVertexHelper(IdCols.REPOSITORY, reponame, repoidx);
+    }
+
+    private Vertex getVertexHelper(final String idcol, final Object idval, final Index<Vertex> index) {
+        CloseableIterable<Vertex> vertices = index.get(idcol, idval);
+        try {
+            Iterator<Vertex> iterator = vertices.iterator();
+            return iterator.hasNext() ? iterator.next() : null;
+        } finally {
+            vertices.close();
+        }
+    }
+
     public Vertex getOrCreateTeam(final Team team) {
         return getOrCreateVertexHelper(IdCols.TEAM, team.getId(), VertexType.TEAM, teamidx);
     }
@@ -386,6 +433,16 @@ public class BlueprintsDriver extends BlueprintsBase implements Shutdownable {
         return getOrCreateVertexHelper(IdCols.USER, login, VertexType.USER, useridx);
     }
 
+    /**
+     * Looks up a user without adding it to the graph
+     *
+     * @param login the login of the user
+     * @return the vertex or null if the user isn't in the graph
+     */
+    public Vertex getUser(final String login) {
+        return getVertexHelper(IdCols.USER, login, useridx);
+    }
+
     public Vertex getOrCreateGitUser(final String name, final String email ) {
         String key = name + " <" + email + ">";
         return getOrCreateVertexHelper(IdCols.GITUSER, key, VertexType.GIT_USER, gituseridx);
@@ -426,13 +483,28 @@ public class BlueprintsDriver extends BlueprintsBase implements Shutdownable {
      */
     public Map<String, Date> getProjectUsersLastUpdateHelper(final String reponame,
             final String keyProperty, final String valueProperty) {
-        Vertex node = getOrCreateRepository(reponame);
+        Vertex node = getRepository(reponame);
         HashMap<String, Date> map = new HashMap<String, Date>();
+        if (node == null) {
+            return map;
+        }
         addValuesFromIterable(traversals.getAllRepositoryUsers(node), map,
                 keyProperty, valueProperty);
         return map;
     }
 
+    /**
+     * Gets the repositories related to a repository through its users, with
+     * the number of users each shares with it
+     *
+     * @param reponame the name of the repository, eg mxcl/homebrew
+     * @return a mapping of repository names to the number of shared users
+     * @see Traversals#getRelatedRepositoryCounts(String)
+     */
+    public Map<String, Integer> getRelatedRepositoryCounts(final String reponame) {
+        return traversals.getRelatedRepositoryCounts(reponame);
+    }
+
     /**
      * Return a mapping between pull requests and the date they were augmented
      * with discussions.
@@ -441,8 +513,11 @@ public class BlueprintsDriver extends BlueprintsBase implements Shutdownable {
      * @return
      */
     public Map<Integer, Date> getPullRequestDiscussionsAddedAt(final String reponame) {
-        Vertex node = getOrCreateRepository(reponame);
+        Vertex node = getRepository(reponame);
         HashMap<Integer, Date> map = new HashMap<Integer, Date>();
+        if (node == null) {
+            return map;
+        }
 
         GremlinPipeline<Vertex, Vertex> pipe = new GremlinPipeline<Vertex, Vertex>();
         pipe.start(node).out(EdgeType.PULLREQUEST.toString());
@@ -458,10 +533,118 @@ public class BlueprintsDriver extends BlueprintsBase implements Shutdownable {
      * @return
      */
     public Date getRepositoryLastUpdated(final String reponame) {
-        Vertex node = getOrCreateRepository(reponame);
+        Vertex node = getRepository(reponame);
+        if (node == null) {
+            return null;
+        }
         return propertyToDate(node.getProperty("last_updated"));
     }
 
+    /**
+     * Gets a count saved on a repository, such as {@link PropertyName#WATCHERS}
+     *
+     * @param reponame the name of the repo, eg: defunkt/resque
+     * @param property the name of the count property
+     * @return the count or -1 if it has never been saved
+     */
+    public long getRepositoryCount(final String reponame, final String property) {
+        Vertex node = getRepository(reponame);
+        if (node == null) {
+            return -1;
+        }
+        return propertyToCount(node.getProperty(property));
+    }
+
+    /**
+     * Gets a count saved on a user, such as {@link PropertyName#FOLLOWERS}
+     *
+     * @param login the login of the user
+     * @param property the name of the count property
+     * @return the count or -1 if it has never been saved
+     */
+    public long getUserCount(final String login, final String property) {
+        Vertex node = getUser(login);
+        if (node == null) {
+            return -1;
+        }
+        return propertyToCount(node.getProperty(property));
+    }
+
+    private static long propertyToCount(final Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        return -1;
+    }
+
+    /**
+     * Gets one of the <code>sys_*</code> dates of a user, such as
+     * {@link PropertyName#SYS_LAST_FULL_UPDATE}
+     *
+     * @param login the login of the user
+     * @param property the name of the date property
+     * @return the date or null if it has never been set
+     */
+    public Date getUserSysDate(final String login, final String property) {
+        Vertex node = getUser(login);
+        if (node == null) {
+            return null;
+        }
+        Object date = node.getProperty(property);
+        if (date == null) {
+            return null;
+        }
+        return propertyToDate(((Long) date) * 1000L);
+    }
+
+    /**
+     * Gets the date that this repository was last saved by GitMiner
+     *
+     * @param reponame the name of the repo, eg: defunkt/resque
+     * @return the date or null if the repository has never been saved
+     */
+    public Date getRepositorySysLastUpdated(final String reponame) {
+        Vertex node = getRepository(reponame);
+        if (node == null) {
+            return null;
+        }
+        Object updated = node.getProperty(PropertyName.SYS_LAST_UPDATED);
+        if (updated == null) {
+            return null;
+        }
+        return propertyToDate(((Long) updated) * 1000L);
+    }
+
+    /**
+     * Gets the newest <code>updated_at</code> of the issues saved for a repository
+     * during an incremental crawl
+     *
+     * @param reponame the name of the repo, eg: defunkt/resque
+     * @return the time or null if the issues have never been fully crawled
+     */
+    public Date getRepositoryIssuesSince(final String reponame) {
+        Vertex node = getRepository(reponame);
+        if (node == null) {
+            return null;
+        }
+        Object since = node.getProperty(PropertyName.SYS_ISSUES_SINCE);
+        if (since == null) {
+            return null;
+        }
+        return propertyToDate(((Long) since) * 1000L);
+    }
+
+    /**
+     * Records the newest <code>updated_at</code> of the issues saved for a repository
+     *
+     * @param repo repository of interest
+     * @param since the time to ask for updated issues from on the next crawl
+     */
+    public void setRepositoryIssuesSince(final Repository repo, final Date since) {
+        Vertex node = getOrCreateRepository(repo);
+        setProperty(node, PropertyName.SYS_ISSUES_SINCE, since);
+    }
+
     protected Vertex saveCommentHelper(final Comment comment, final String edgetype) {
         Vertex node = getOrCreateComment(comment.getId());
         setProperty(node, PropertyName.BODY, comment.getBody());
@@ -684,12 +867,35 @@ public class BlueprintsDriver extends BlueprintsBase implements Shutdownable {
 
     public void saveIssueComments(final Repository repo,
             final Issue issue,
-            final Collection<Comment> issueComments) {
+            final Collection<? extends Comment> issueComments) {
+        saveIssueComments(repo, issue, issueComments, true);
+    }
+
+    /**
+     * Saves comments on an issue
+     *
+     * @param markAdded true if these are all of the comments on the issue, in
+     *        which case the time they were added is recorded
+     */
+    public void saveIssueComments(final Repository repo,
+            final Issue issue,
+            final Collection<? extends Comment> issueComments,
+            final boolean markAdded) {
         Vertex issueVtx = saveIssue(repo, issue);
         for (Comment comment : issueComments) {
             saveIssueComment(repo, issue, comment);
         }
-        setProperty(issueVtx, PropertyName.SYS_COMMENTS_ADDED, new Date());
+        if (markAdded) {
+            setProperty(issueVtx, PropertyName.SYS_COMMENTS_ADDED, new Date());
+        }
+    }
+
+    /**
+     * Records that all of the comments on an issue have been saved, without
+     * saving the issue again
+     */
+    public void setIssueCommentsAdded(final Repository repo, final Issue issue) {
+        setProperty(getOrCreateIssue(repo, issue), PropertyName.SYS_COMMENTS_ADDED, new Date());
     }
 
     private Vertex saveIssueComment(final Repository repo,
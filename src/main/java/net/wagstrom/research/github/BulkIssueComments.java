@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2011-2012 IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wagstrom.research.github;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import net.wagstrom.research.github.v3.RepositoryComment;
+
+import org.eclipse.egit.github.core.Comment;
+import org.eclipse.egit.github.core.Issue;
+import org.eclipse.egit.github.core.client.PagedRequest;
+
+/**
+ * Keeps track of the issues of a repository whose comments are to be read
+ * from the list of every issue comment in the repository.
+ *
+ * The list is read from the oldest time any of the issues could have a
+ * comment that hasn't been saved: the last time the comments of an issue
+ * were fetched, or when it was created if they never were. Every issue
+ * comment in the repository updated since then is listed, not only those
+ * of the issues that need them, so the list is only worth reading when it
+ * takes fewer pages than there are issues to fetch the comments of one by
+ * one. Its size is estimated from the comment counts of the issues listed,
+ * as a comment can't have been updated after its issue.
+ *
+ * @author patrick
+ */
+public class BulkIssueComments {
+    private final Map<Integer, Issue> issues = new HashMap<Integer, Issue>();
+    private final Map<Integer, Date> commentDates = new HashMap<Integer, Date>();
+    // the number of comments on the listed issues by the time they were updated
+    private final SortedMap<Long, Long> commentsByUpdate = new TreeMap<Long, Long>();
+
+    /**
+     * Notes an issue that was listed, whether or not it needs its comments
+     */
+    public synchronized void listed(final Issue issue) {
+        long updated = issue.getUpdatedAt() == null ? Long.MAX_VALUE : issue.getUpdatedAt().getTime();
+        Long count = commentsByUpdate.get(updated);
+        commentsByUpdate.put(updated, (count == null ? 0 : count) + Math.max(0, issue.getComments()));
+    }
+
+    /**
+     * Notes an issue whose comments are wanted
+     *
+     * @param lastComments when its comments were last fetched, null if never
+     */
+    public synchronized void add(final Issue issue, final Date lastComments) {
+        issues.put(issue.getNumber(), issue);
+        commentDates.put(issue.getNumber(), lastComments);
+    }
+
+    public synchronized boolean isEmpty() {
+        return issues.isEmpty();
+    }
+
+    public synchronized Collection<Issue> getIssues() {
+        return new ArrayList<Issue>(issues.values());
+    }
+
+    public synchronized Date getLastComments(final Issue issue) {
+        return commentDates.get(issue.getNumber());
+    }
+
+    /**
+     * @param updatedSince the time the issues were listed as updated since,
+     *          or null if every issue was listed
+     * @return the time to list comments from, or null for all of them
+     */
+    public synchronized Date getSince(final Date updatedSince) {
+        if (updatedSince != null) {
+            return updatedSince;
+        }
+        Date since = null;
+        for (Issue issue : issues.values()) {
+            Date from = commentDates.get(issue.getNumber());
+            if (from == null) {
+                // an issue has no comments from before it was created
+                from = issue.getCreatedAt();
+            }
+            if (from == null) {
+                return null;
+            }
+            if (since == null || from.before(since)) {
+                since = from;
+            }
+        }
+        return since;
+    }
+
+    /**
+     * @param since the time comments are listed from, null for all of them
+     * @return the most pages the list of comments can take
+     */
+    public synchronized long getEstimatedPages(final Date since) {
+        long comments = 0;
+        for (Long count : (since == null ? commentsByUpdate : commentsByUpdate.tailMap(since.getTime())).values()) {
+            comments += count;
+        }
+        return (comments + PagedRequest.PAGE_SIZE - 1) / PagedRequest.PAGE_SIZE;
+    }
+
+    /**
+     * @return true if listing the comments from a time takes fewer calls
+     *         than fetching them issue by issue
+     */
+    public synchronized boolean isWorthListing(final Date since) {
+        return getEstimatedPages(since) <= issues.size();
+    }
+
+    /**
+     * Picks the comments of the wanted issues from a page of the list
+     *
+     * @return the comments of each issue on the page by issue number
+     */
+    public synchronized Map<Integer, List<Comment>> group(final Collection<RepositoryComment> comments) {
+        Map<Integer, List<Comment>> byIssue = new HashMap<Integer, List<Comment>>();
+        for (RepositoryComment comment : comments) {
+            if (!issues.containsKey(comment.getIssueNumber())) {
+                continue;
+            }
+            List<Comment> issueComments = byIssue.get(comment.getIssueNumber());
+            if (issueComments == null) {
+                issueComments = new ArrayList<Comment>();
+                byIssue.put(comment.getIssueNumber(), issueComments);
+            }
+            issueComments.add(comment);
+        }
+        return byIssue;
+    }
+
+    public synchronized Issue getIssue(final int number) {
+        return issues.get(number);
+    }
+}
@@ -0,0 +1,444 @@
+/*
+ * Copyright (c) 2011-2012 IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wagstrom.research.github;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import net.wagstrom.research.github.crawler.CrawlEngine;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Numbers on where the time of a crawl goes.
+ *
+ * The throttled client records every API call here: how long the call
+ * itself took by method, how long it waited on the throttle, whether it
+ * failed, and the rate limit left afterwards. The client underneath counts
+ * the bytes read per endpoint family. Retries come from the
+ * {@link RetryEngine}.
+ *
+ * The crawl itself records what it saves to the graph by entity type and
+ * which phase each project is in, and the {@link CrawlEngine} supplies the
+ * queue depths that the estimated time to finish is worked out from.
+ *
+ * There is one set of metrics per process, like {@link GithubProperties}. It
+ * can be published over JMX, served by a {@link CrawlStatusServer} and logged
+ * periodically.
+ *
+ * @author patrick
+ */
+public final class CrawlMetrics implements CrawlMetricsMBean {
+    private static final Logger log = LoggerFactory.getLogger(CrawlMetrics.class); // NOPMD
+    public static final String OBJECT_NAME = "net.wagstrom.research.github:type=CrawlMetrics";
+
+    private static final CrawlMetrics INSTANCE = new CrawlMetrics();
+
+    private final ConcurrentMap<String, LatencyHistogram> latencies = new ConcurrentHashMap<String, LatencyHistogram>();
+    private final ConcurrentMap<String, AtomicLong> errors = new ConcurrentHashMap<String, AtomicLong>();
+    private final ConcurrentMap<String, AtomicLong> bytes = new ConcurrentHashMap<String, AtomicLong>();
+    private final ConcurrentMap<String, Integer> remaining = new ConcurrentHashMap<String, Integer>();
+    private final ConcurrentMap<String, Long> resets = new ConcurrentHashMap<String, Long>();
+    private final ConcurrentMap<String, AtomicLong> saved = new ConcurrentHashMap<String, AtomicLong>();
+    private final ConcurrentMap<String, String> phases = new ConcurrentHashMap<String, String>();
+    private final AtomicLong graphWrites = new AtomicLong();
+    private final LatencyHistogram throttleWaits = new LatencyHistogram();
+    private final long started = System.currentTimeMillis();
+    private volatile RetryEngine retryEngine = null;
+    private volatile CrawlEngine crawlEngine = null;
+    private ScheduledExecutorService reporter = null;
+
+    private CrawlMetrics() {
+    }
+
+    public static CrawlMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Records a call to the API
+     *
+     * @param method name of the method that was called
+     * @param micros how long the call took in microseconds
+     * @param failure the {@link FailureType} if the call failed, otherwise null
+     */
+    public void recordCall(final String method, final long micros, final String failure) {
+        histogram(method).record(micros);
+        if (failure != null) {
+            counter(errors, method + " " + failure).incrementAndGet();
+        }
+    }
+
+    /**
+     * @param micros how long a call waited for the throttle in microseconds
+     */
+    public void recordThrottleWait(final long micros) {
+        throttleWaits.record(micros);
+    }
+
+    /**
+     * @param family the {@link EndpointFamily} the bytes were read for
+     * @param count number of bytes read
+     */
+    public void recordBytes(final String family, final long count) {
+        counter(bytes, family).addAndGet(count);
+    }
+
+    /**
+     * @param id the throttle the value was reported to
+     * @param value the rate limit remaining after the last call
+     */
+    public void recordRateLimitRemaining(final String id, final int value) {
+        remaining.put(id, value);
+    }
+
+    /**
+     * @param id the throttle the value was reported to
+     * @param millis when the rate limit window resets in milliseconds since
+     *        the epoch, or -1 if it isn't known
+     */
+    public void recordRateLimitReset(final String id, final long millis) {
+        resets.put(id, millis);
+    }
+
+    /**
+     * Records a write to the graph
+     *
+     * @param type the {@link VertexType} of the items that were saved
+     * @param count number of items saved
+     */
+    public void recordSaved(final String type, final long count) {
+        graphWrites.incrementAndGet();
+        counter(saved, type).addAndGet(count);
+    }
+
+    /**
+     * Records a write of a list of items to the graph
+     *
+     * @param type the {@link VertexType} of the items that were saved
+     * @param items the items saved, null if they couldn't be fetched and
+     *          nothing was written
+     */
+    public void recordSaved(final String type, final Collection<?> items) {
+        if (items != null) {
+            recordSaved(type, items.size());
+        }
+    }
+
+    /**
+     * @param project the project, e.g. <code>defunkt/resque</code>
+     * @param phase what is being fetched for the project
+     */
+    public void setPhase(final String project, final String phase) {
+        phases.put(project, phase);
+    }
+
+    /**
+     * @param project the project whose crawl has finished
+     */
+    public void clearPhase(final String project) {
+        phases.remove(project);
+    }
+
+    /**
+     * Sets where the queue depths are read from
+     */
+    public void setCrawlEngine(final CrawlEngine crawlEngine) {
+        this.crawlEngine = crawlEngine;
+    }
+
+    /**
+     * Sets where retry counts are read from
+     */
+    public void setRetryEngine(final RetryEngine retryEngine) {
+        this.retryEngine = retryEngine;
+    }
+
+    private LatencyHistogram histogram(final String method) {
+        LatencyHistogram histogram = latencies.get(method);
+        if (histogram == null) {
+            latencies.putIfAbsent(method, new LatencyHistogram());
+            histogram = latencies.get(method);
+        }
+        return histogram;
+    }
+
+    private static AtomicLong counter(final ConcurrentMap<String, AtomicLong> counters, final String key) {
+        AtomicLong counter = counters.get(key);
+        if (counter == null) {
+            counters.putIfAbsent(key, new AtomicLong());
+            counter = counters.get(key);
+        }
+        return counter;
+    }
+
+    private static long total(final Map<String, AtomicLong> counters) {
+        long sum = 0;
+        for (AtomicLong counter : counters.values()) {
+            sum += counter.get();
+        }
+        return sum;
+    }
+
+    public long getCalls() {
+        long calls = 0;
+        for (LatencyHistogram histogram : latencies.values()) {
+            calls += histogram.getCount();
+        }
+        return calls;
+    }
+
+    public long getErrors() {
+        return total(errors);
+    }
+
+    public long getRetries() {
+        RetryEngine engine = retryEngine;
+        if (engine == null) {
+            return 0;
+        }
+        long retries = 0;
+        for (Long count : engine.getRetryCounts().values()) {
+            retries += count;
+        }
+        return retries;
+    }
+
+    public long getBytesRead() {
+        return total(bytes);
+    }
+
+    public long getThrottleWaitMillis() {
+        return throttleWaits.getSum() / 1000;
+    }
+
+    public int getRateLimitRemaining() {
+        int lowest = -1;
+        for (Integer value : remaining.values()) {
+            if (lowest == -1 || value < lowest) {
+                lowest = value;
+            }
+        }
+        return lowest;
+    }
+
+    public long getRateLimitReset() {
+        int lowest = -1;
+        long reset = -1;
+        for (Map.Entry<String, Integer> entry : remaining.entrySet()) {
+            Long value = resets.get(entry.getKey());
+            if (value != null && (lowest == -1 || entry.getValue() < lowest)) {
+                lowest = entry.getValue();
+                reset = value;
+            }
+        }
+        return reset;
+    }
+
+    public long getGraphWrites() {
+        return graphWrites.get();
+    }
+
+    public double getGraphWriteRate() {
+        return rate(graphWrites.get(), System.currentTimeMillis() - started);
+    }
+
+    public int getQueuedTasks() {
+        CrawlEngine engine = crawlEngine;
+        return engine == null ? 0 : engine.getQueued();
+    }
+
+    public int getOutstandingTasks() {
+        CrawlEngine engine = crawlEngine;
+        return engine == null ? 0 : engine.getOutstanding();
+    }
+
+    public long getCompletedTasks() {
+        CrawlEngine engine = crawlEngine;
+        return engine == null ? 0 : engine.getSucceeded() + engine.getFailed() + engine.getSkipped();
+    }
+
+    public long getEtaSeconds() {
+        return eta(getOutstandingTasks(), getCompletedTasks(), System.currentTimeMillis() - started);
+    }
+
+    /**
+     * @return items per second
+     */
+    static double rate(final long count, final long millis) {
+        return millis <= 0 ? 0.0 : count * 1000.0 / millis;
+    }
+
+    /**
+     * Estimates how long the outstanding tasks will take at the rate tasks
+     * have completed so far
+     *
+     * @return seconds, or -1 if no task has completed yet
+     */
+    static long eta(final long outstanding, final long completed, final long millis) {
+        if (outstanding == 0) {
+            return 0;
+        }
+        if (completed == 0 || millis <= 0) {
+            return -1;
+        }
+        return (long) Math.ceil(outstanding * (millis / 1000.0) / completed);
+    }
+
+    public String[] getPhases() {
+        List<String> lines = new ArrayList<String>();
+        for (Map.Entry<String, String> entry : new TreeMap<String, String>(phases).entrySet()) {
+            lines.add(entry.getKey() + ": " + entry.getValue());
+        }
+        return lines.toArray(new String[lines.size()]);
+    }
+
+    public String[] getItemRates() {
+        long millis = System.currentTimeMillis() - started;
+        List<String> lines = new ArrayList<String>();
+        for (Map.Entry<String, AtomicLong> entry : new TreeMap<String, AtomicLong>(saved).entrySet()) {
+            long count = entry.getValue().get();
+            lines.add(String.format("%s: %d (%.2f/s)", entry.getKey(), count, rate(count, millis)));
+        }
+        return lines.toArray(new String[lines.size()]);
+    }
+
+    public String getStatus() {
+        StringBuilder status = new StringBuilder();
+        long reset = getRateLimitReset();
+        long eta = getEtaSeconds();
+        status.append(String.format("tasks: %d outstanding, %d queued, %d completed%n",
+                getOutstandingTasks(), getQueuedTasks(), getCompletedTasks()));
+        status.append("eta: ").append(eta == -1 ? "unknown" : eta + "s").append('\n');
+        status.append(String.format("api calls: %d errors: %d retries: %d%n", getCalls(), getErrors(), getRetries()));
+        status.append(String.format("rate limit remaining: %d reset: %s%n", getRateLimitRemaining(),
+                reset == -1 ? "unknown" : new Date(reset).toString()));
+        status.append(String.format("throttle wait: %dms%n", getThrottleWaitMillis()));
+        status.append(String.format("graph writes: %d (%.2f/s)%n", getGraphWrites(), getGraphWriteRate()));
+        status.append("saved:\n");
+        for (String line : getItemRates()) {
+            status.append("  ").append(line).append('\n');
+        }
+        status.append("phases:\n");
+        for (String line : getPhases()) {
+            status.append("  ").append(line).append('\n');
+        }
+        return status.toString();
+    }
+
+    public String[] getMethodSummaries() {
+        List<String> lines = new ArrayList<String>();
+        for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<String, LatencyHistogram>(latencies).entrySet()) {
+            lines.add(entry.getKey() + ": " + entry.getValue().summary());
+        }
+        for (Map.Entry<String, AtomicLong> entry : new TreeMap<String, AtomicLong>(errors).entrySet()) {
+            lines.add(entry.getKey() + " errors: " + entry.getValue().get());
+        }
+        return lines.toArray(new String[lines.size()]);
+    }
+
+    public String[] getByteSummaries() {
+        List<String> lines = new ArrayList<String>();
+        for (Map.Entry<String, AtomicLong> entry : new TreeMap<String, AtomicLong>(bytes).entrySet()) {
+            lines.add(entry.getKey() + ": " + entry.getValue().get() + " bytes");
+        }
+        return lines.toArray(new String[lines.size()]);
+    }
+
+    public double getLatencyPercentile(final String method, final double percentile) {
+        LatencyHistogram histogram = latencies.get(method);
+        return histogram == null ? 0 : histogram.getPercentile(percentile) / 1000.0;
+    }
+
+    public void logSummary() {
+        log.info("API calls: {} errors: {} retries: {} bytes read: {} rate limit remaining: {}",
+                new Object[]{getCalls(), getErrors(), getRetries(), getBytesRead(), getRateLimitRemaining()});
+        log.info("Throttle waits: {}", throttleWaits.summary());
+        log.info("Tasks outstanding: {} queued: {} completed: {} eta: {}s graph writes: {}",
+                new Object[]{getOutstandingTasks(), getQueuedTasks(), getCompletedTasks(), getEtaSeconds(), getGraphWrites()});
+        for (String line : getItemRates()) {
+            log.info("Saved {}", line);
+        }
+        for (String line : getMethodSummaries()) {
+            log.info("Method {}", line);
+        }
+        for (String line : getByteSummaries()) {
+            log.info("Read {}", line);
+        }
+    }
+
+    /**
+     * Publishes the metrics on the platform MBean server
+     */
+    public void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(this, name);
+            }
+        } catch (JMException e) {
+            log.error("Unable to register metrics with JMX: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Logs a summary every so often until {@link #stopReporting()} is called
+     *
+     * @param seconds time between summaries
+     */
+    public synchronized void startReporting(final long seconds) {
+        if (reporter != null || seconds <= 0) {
+            return;
+        }
+        reporter = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(final Runnable runnable) {
+                Thread thread = new Thread(runnable, "metrics-reporter");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        reporter.scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                logSummary();
+            }
+        }, seconds, seconds, TimeUnit.SECONDS);
+    }
+
+    public synchronized void stopReporting() {
+        if (reporter != null) {
+            reporter.shutdown();
+            reporter = null;
+        }
+    }
+}
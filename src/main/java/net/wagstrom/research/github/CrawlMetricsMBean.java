@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2011-2012 IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wagstrom.research.github;
+
+/**
+ * JMX view of {@link CrawlMetrics}
+ *
+ * @author patrick
+ */
+public interface CrawlMetricsMBean {
+    long getCalls();
+
+    long getErrors();
+
+    long getRetries();
+
+    long getBytesRead();
+
+    /**
+     * @return total time spent waiting on throttles in milliseconds
+     */
+    long getThrottleWaitMillis();
+
+    /**
+     * @return the lowest rate limit remaining reported for any credential
+     */
+    int getRateLimitRemaining();
+
+    /**
+     * @return when the rate limit of the credential with the least remaining
+     *         resets in milliseconds since the epoch, or -1 if not known
+     */
+    long getRateLimitReset();
+
+    /**
+     * @return number of times items were saved to the graph
+     */
+    long getGraphWrites();
+
+    /**
+     * @return graph writes per second since the crawl started
+     */
+    double getGraphWriteRate();
+
+    /**
+     * @return crawl tasks waiting for a thread
+     */
+    int getQueuedTasks();
+
+    /**
+     * @return crawl tasks that haven't finished, including those queued
+     */
+    int getOutstandingTasks();
+
+    long getCompletedTasks();
+
+    /**
+     * @return seconds until the outstanding tasks finish at the rate tasks
+     *         have finished so far, or -1 if none have yet. This grows as
+     *         tasks find more work, such as the users of a project.
+     */
+    long getEtaSeconds();
+
+    /**
+     * @return one line per project with what is being fetched for it
+     */
+    String[] getPhases();
+
+    /**
+     * @return one line per entity type with the number saved and the rate
+     */
+    String[] getItemRates();
+
+    /**
+     * @return all of the above as text
+     */
+    String getStatus();
+
+    /**
+     * @return one line per API method with its call count and latencies
+     */
+    String[] getMethodSummaries();
+
+    /**
+     * @return one line per endpoint family with the bytes read for it
+     */
+    String[] getByteSummaries();
+
+    /**
+     * @param method name of the API method, e.g. <code>get</code>
+     * @param percentile between 0 and 100
+     * @return the latency in milliseconds
+     */
+    double getLatencyPercentile(String method, double percentile);
+
+    void logSummary();
+}
@@ -0,0 +1,326 @@
+/*
+ * Copyright (c) 2011-2012 IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wagstrom.research.github;
+
+import java.io.PrintStream;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import org.eclipse.egit.github.core.IRepositoryIdProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Estimates how many API calls a crawl will make and how long it will take,
+ * without making any calls.
+ *
+ * The estimate walks the same phases as {@link GitHubMain#main()} using the
+ * configured projects, users and organizations and what the graph already
+ * knows about them. Lists are costed by the number of pages their known
+ * sizes need, such as the watcher count of a repository or the follower
+ * count of a user, and items that are fresher than the refresh time are
+ * left out as the crawl would skip them. Repositories and users that have
+ * never been crawled are costed with rough guesses and counted separately,
+ * so the estimate is only as good as the graph it is made from.
+ *
+ * @author patrick
+ */
+public class CrawlPlanner {
+    private static final Logger log = LoggerFactory.getLogger(CrawlPlanner.class); // NOPMD
+
+    // items per page requested by the services
+    static final int PAGE_SIZE = 100;
+    // the events API never returns more than 300 events
+    private static final int EVENT_PAGES = 3;
+    // the most calls an hour GitHub allows a single credential
+    private static final double GITHUB_CALLS_PER_HOUR = 5000.0;
+    // assume a repository has closed as many issues as it has open
+    private static final int UNKNOWN_ISSUE_FACTOR = 2;
+
+    private final Properties props;
+    private final BlueprintsDriver bp;
+    private final long refreshTime;
+    private final Map<String, Long> phases = new LinkedHashMap<String, Long>();
+    private final Set<String> plannedUsers = new HashSet<String>();
+    private int unknownRepositories = 0;
+    private int unknownUsers = 0;
+
+    /**
+     * @param props the crawl configuration
+     * @param bp the graph the crawl would write to
+     */
+    public CrawlPlanner(final Properties props, final BlueprintsDriver bp) {
+        this.props = props;
+        this.bp = bp;
+        double minAgeDouble = Double.parseDouble(props.getProperty(PropNames.GITHUB_REFRESH_TIME, PropDefaults.GITHUB_REFRESH_TIME));
+        this.refreshTime = (long) minAgeDouble * 86400 * 1000;
+    }
+
+    /**
+     * @return the number of calls needed to read a list of a given size
+     */
+    static long pages(final long items) {
+        if (items <= 0) {
+            return 1;
+        }
+        return (items + PAGE_SIZE - 1) / PAGE_SIZE;
+    }
+
+    /**
+     * @param calls the number of calls to make
+     * @param credentials the number of credentials sharing the work
+     * @param callsPerHour the rate each credential is held to
+     * @return the number of hours the calls will take
+     */
+    static double hours(final long calls, final int credentials, final double callsPerHour) {
+        return calls / (Math.max(1, credentials) * callsPerHour);
+    }
+
+    private boolean enabled(final String name, final String def) {
+        return props.getProperty(name, def).equals("true");
+    }
+
+    private boolean needsUpdate(final Date elementDate) {
+        return elementDate == null || System.currentTimeMillis() - elementDate.getTime() >= refreshTime;
+    }
+
+    private void add(final String phase, final long calls) {
+        Long sum = phases.get(phase);
+        phases.put(phase, sum == null ? calls : sum + calls);
+    }
+
+    /**
+     * Works out the calls for every phase of the crawl
+     */
+    public void plan() {
+        if (enabled(PropNames.GITHUB_MINE_REPOS, PropDefaults.GITHUB_MINE_REPOS)) {
+            for (String proj : split(PropNames.GITHUB_PROJECT_NAMES, PropDefaults.GITHUB_PROJECT_NAMES)) {
+                planRepository(proj);
+            }
+        }
+        if (enabled(PropNames.GITHUB_MINE_USERS, PropDefaults.GITHUB_MINE_USERS)) {
+            for (String username : split(PropNames.GITHUB_USERNAMES, PropDefaults.GITHUB_USERNAMES)) {
+                planUser("listed users", username,
+                        bp.getUserSysDate(username, PropertyName.SYS_LAST_FULL_UPDATE),
+                        bp.getUserSysDate(username, PropertyName.SYS_EVENTS_ADDED),
+                        bp.getUserSysDate(username, PropertyName.SYS_GISTS_ADDED));
+            }
+        }
+        if (enabled(PropNames.GITHUB_MINE_ORGANIZATIONS, PropDefaults.GITHUB_MINE_ORGANIZATIONS)) {
+            for (String organization : split(PropNames.GITHUB_ORGANIZATIONS, PropDefaults.GITHUB_ORGANIZATIONS)) {
+                // the organization, its members and its repositories
+                add("organizations", 1 + 1 + pages(bp.getUserCount(organization, PropertyName.PUBLIC_REPO_COUNT)));
+            }
+        }
+    }
+
+    private String[] split(final String name, final String def) {
+        String value = props.getProperty(name, def).trim();
+        if (value.equals("")) {
+            return new String[0];
+        }
+        String[] items = value.split(",");
+        for (int i = 0; i < items.length; i++) {
+            items[i] = items[i].trim();
+        }
+        return items;
+    }
+
+    private void planRepository(final String proj) {
+        if (proj.equals("")) {
+            return;
+        }
+        boolean known = bp.getRepositorySysLastUpdated(proj) != null;
+        if (!known) {
+            unknownRepositories++;
+        }
+        // the repository, its owner and the members of an owning organization
+        add("repositories", 3);
+        long watchers = Math.max(0, bp.getRepositoryCount(proj, PropertyName.WATCHERS));
+        if (enabled(PropNames.GITHUB_MINE_REPO_COLLABORATORS, PropDefaults.GITHUB_MINE_REPO_COLLABORATORS)) {
+            add("collaborators", 1);
+        }
+        if (enabled(PropNames.GITHUB_MINE_REPO_CONTRIBUTORS, PropDefaults.GITHUB_MINE_REPO_CONTRIBUTORS)) {
+            add("contributors", 1);
+        }
+        if (enabled(PropNames.GITHUB_MINE_REPO_WATCHERS, PropDefaults.GITHUB_MINE_REPO_WATCHERS)) {
+            add("watchers", pages(watchers));
+        }
+        if (enabled(PropNames.GITHUB_MINE_REPO_FORKS, PropDefaults.GITHUB_MINE_REPO_FORKS)) {
+            add("forks", pages(bp.getRepositoryCount(proj, PropertyName.FORKS)));
+        }
+
+        boolean minePulls = enabled(PropNames.GITHUB_MINE_REPO_PULLREQUESTS, PropDefaults.GITHUB_MINE_REPO_PULLREQUESTS);
+        boolean incremental = enabled(PropNames.GITHUB_INCREMENTAL_ISSUES, PropDefaults.GITHUB_INCREMENTAL_ISSUES);
+        boolean updatedOnly = incremental && bp.getRepositoryIssuesSince(proj) != null;
+        if (enabled(PropNames.GITHUB_MINE_REPO_ISSUES, PropDefaults.GITHUB_MINE_REPO_ISSUES) && !updatedOnly) {
+            Map<Integer, Date> comments = bp.getIssueCommentsAddedAt(proj);
+            Map<Integer, Date> events = bp.getIssueEventsAddedAt(new IRepositoryIdProvider() {
+                public String generateId() {
+                    return proj;
+                }
+            });
+            long openIssues = Math.max(0, bp.getRepositoryCount(proj, PropertyName.OPEN_ISSUES));
+            long unseen = Math.max(0, openIssues * (known ? 1 : UNKNOWN_ISSUE_FACTOR) - comments.size());
+            // open and closed issues are listed separately
+            add("issue lists", pages(comments.size() + unseen) + 1);
+            long details = unseen;
+            if (enabled(PropNames.GITHUB_BULK_ISSUE_COMMENTS, PropDefaults.GITHUB_BULK_ISSUE_COMMENTS)) {
+                // all of the comments are listed at once, guess one for each new issue
+                add("issue comment lists", pages(bp.getIssueCommentCount(proj) + unseen));
+            } else {
+                details += unseen;
+                for (Date date : comments.values()) {
+                    details += needsUpdate(date) ? 1 : 0;
+                }
+            }
+            for (Date date : events.values()) {
+                details += needsUpdate(date) ? 1 : 0;
+            }
+            add("issue comments and events", details);
+        } else if (updatedOnly) {
+            // only the issues updated since the last crawl, their details
+            // can't be known in advance
+            add("issue lists", 1);
+        }
+        if (minePulls && !updatedOnly) {
+            Map<Integer, Date> pulls = bp.getPullRequestDiscussionsAddedAt(proj);
+            add("pull request lists", pages(pulls.size()) + 1);
+            long details = 0;
+            for (Date date : pulls.values()) {
+                details += needsUpdate(date) ? 2 : 0;
+            }
+            add("pull request details", details);
+        }
+
+        if (enabled(PropNames.GITHUB_MINE_REPO_USERS, PropDefaults.GITHUB_MINE_REPO_USERS)) {
+            Map<String, Date> full = bp.getProjectUsersLastFullUpdate(proj);
+            Map<String, Date> userEvents = bp.getProjectUsersLastEventsUpdate(proj);
+            Map<String, Date> gists = bp.getProjectUsersLastGistsUpdate(proj);
+            for (Map.Entry<String, Date> entry : full.entrySet()) {
+                if (entry.getKey() != null) {
+                    planUser("project users", entry.getKey(), entry.getValue(),
+                            userEvents.get(entry.getKey()), gists.get(entry.getKey()));
+                }
+            }
+            if (full.isEmpty() && watchers > 0) {
+                // a repository that hasn't been crawled has at least its watchers as users
+                unknownUsers += watchers;
+                add("project users", watchers * userCalls(-1, -1, -1, -1, true, true, true));
+            }
+        }
+    }
+
+    private void planUser(final String phase, final String login, final Date lastFull,
+            final Date lastEvents, final Date lastGists) {
+        if (!plannedUsers.add(login.toLowerCase(Locale.ENGLISH))) {
+            return;
+        }
+        boolean full = needsUpdate(lastFull);
+        boolean events = enabled(PropNames.GITHUB_MINE_USER_EVENTS, PropDefaults.GITHUB_MINE_USER_EVENTS) && needsUpdate(lastEvents);
+        boolean gists = enabled(PropNames.GITHUB_MINE_USER_GISTS, PropDefaults.GITHUB_MINE_USER_GISTS)
+                && enabled(PropNames.GITHUB_MINE_GISTS, PropDefaults.GITHUB_MINE_GISTS) && needsUpdate(lastGists);
+        if (lastFull == null) {
+            unknownUsers++;
+        }
+        add(phase, userCalls(bp.getUserCount(login, PropertyName.FOLLOWERS), bp.getUserCount(login, PropertyName.FOLLOWING),
+                bp.getUserCount(login, PropertyName.PUBLIC_REPO_COUNT), bp.getUserCount(login, PropertyName.PUBLIC_GIST_COUNT),
+                full, events, gists));
+    }
+
+    /**
+     * @return the calls to fetch a user with the given counts, -1 for unknown
+     */
+    static long userCalls(final long followers, final long following, final long repos, final long gistCount,
+            final boolean full, final boolean events, final boolean gists) {
+        long calls = 0;
+        if (full) {
+            // the user, followers, following, watched and own repositories
+            calls += 1 + pages(followers) + pages(following) + 1 + pages(repos);
+        }
+        if (events) {
+            calls += EVENT_PAGES;
+        }
+        if (gists) {
+            calls += pages(gistCount);
+        }
+        return calls;
+    }
+
+    public Map<String, Long> getPhases() {
+        return phases;
+    }
+
+    public long getTotal() {
+        long total = 0;
+        for (Long calls : phases.values()) {
+            total += calls;
+        }
+        return total;
+    }
+
+    /**
+     * @return the number of credentials the crawl would use
+     */
+    private int getCredentials() {
+        int credentials = 1;
+        for (String token : split(PropNames.GITHUB_TOKENS, PropDefaults.GITHUB_TOKENS)) {
+            if (!token.equals("")) {
+                credentials++;
+            }
+        }
+        return credentials;
+    }
+
+    /**
+     * @return the calls an hour a single credential is held to
+     */
+    private double getCallsPerHour() {
+        int maxCalls = Integer.parseInt(props.getProperty(PropNames.GITHUB_THROTTLE_MAX_CALLS, PropDefaults.GITHUB_THROTTLE_MAX_CALLS).trim());
+        int interval = Integer.parseInt(props.getProperty(PropNames.GITHUB_THROTTLE_MAX_CALLS_INTERVAL, PropDefaults.GITHUB_THROTTLE_MAX_CALLS_INTERVAL).trim());
+        if (maxCalls > 0 && interval > 0) {
+            return Math.min(GITHUB_CALLS_PER_HOUR, maxCalls * 3600.0 / interval);
+        }
+        return GITHUB_CALLS_PER_HOUR;
+    }
+
+    /**
+     * Prints the estimate
+     */
+    public void report(final PrintStream out) {
+        out.println("Estimated API calls by phase:");
+        for (Map.Entry<String, Long> phase : phases.entrySet()) {
+            out.println(String.format("  %-28s %10d", phase.getKey(), phase.getValue()));
+        }
+        long total = getTotal();
+        int credentials = getCredentials();
+        double callsPerHour = getCallsPerHour();
+        double hours = hours(total, credentials, callsPerHour);
+        out.println(String.format("  %-28s %10d", "total", total));
+        out.println(String.format("%d credentials at %.0f calls/hour each: about %.1f hours (%.1f days)",
+                credentials, callsPerHour, hours, hours / 24));
+        if (unknownRepositories > 0 || unknownUsers > 0) {
+            out.println(String.format("%d repositories and %d users have never been crawled, their cost is a rough guess",
+                    unknownRepositories, unknownUsers));
+        }
+        log.info("Planned {} calls, about {} hours", total, String.format("%.1f", hours));
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2011-2012 IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wagstrom.research.github;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves the status of a running crawl from {@link CrawlMetrics} as plain
+ * text, so a crawl can be checked with a browser or <code>curl</code>
+ * without a JMX console.
+ *
+ * It only listens on the loopback address.
+ *
+ * @author patrick
+ */
+public class CrawlStatusServer implements HttpHandler {
+    private static final Logger log = LoggerFactory.getLogger(CrawlStatusServer.class); // NOPMD
+
+    private final CrawlMetrics metrics;
+    private final int port;
+    private HttpServer server = null;
+
+    /**
+     * @param port port to listen on, 0 to pick a free one
+     */
+    public CrawlStatusServer(final CrawlMetrics metrics, final int port) {
+        this.metrics = metrics;
+        this.port = port;
+    }
+
+    public void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), port), 0);
+        server.createContext("/", this);
+        server.start();
+        log.info("Crawl status at http://localhost:{}/", getPort());
+    }
+
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+            server = null;
+        }
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public void handle(final HttpExchange exchange) throws IOException {
+        try {
+            byte[] body = metrics.getStatus().getBytes("UTF-8");
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            OutputStream out = exchange.getResponseBody();
+            out.write(body);
+            out.close();
+        } finally {
+            exchange.close();
+        }
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright (c) 2011-2012 IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wagstrom.research.github;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import net.wagstrom.research.github.crawler.WorkQueue;
+import net.wagstrom.research.github.v3.HttpArchive;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Spreads a crawl over several worker processes, which may be on other
+ * machines with their own addresses and tokens, while a single coordinator
+ * process writes the graph.
+ *
+ * The coordinator queues each configured project, user and organization in a
+ * {@link WorkQueue}. A worker takes one item at a time and crawls it with its
+ * own graph, recording every response in an {@link HttpArchive}. The
+ * coordinator loads each finished archive into the graph with an ingest, so
+ * the responses are saved exactly as they would be by a live crawl.
+ *
+ * The ingest has to ask the archive for exactly the requests the worker
+ * made, but the worker and the coordinator have different graphs. So an item
+ * is crawled without anything from the graph deciding what is fetched: the
+ * refresh time is 0, so nothing is thought fresh enough to skip, and issues
+ * are listed in full rather than since a bookmark. Only the users a project
+ * is known to have are still read from the graph, so the ingest skips those
+ * the main graph knows of from earlier crawls but the worker didn't fetch.
+ *
+ * @author patrick
+ */
+public class DistributedCrawl {
+    private static final Logger log = LoggerFactory.getLogger(DistributedCrawl.class); // NOPMD
+
+    public static final String TYPE_REPOSITORY = "repository";
+    public static final String TYPE_USER = "user";
+    public static final String TYPE_ORGANIZATION = "organization";
+    private static final char TYPE_SEPARATOR = ':';
+
+    private final Properties props;
+    private final File directory;
+    private final WorkQueue queue;
+    private final long claimTimeout;
+    private final long pollInterval;
+
+    public DistributedCrawl(final Properties props) throws IOException {
+        this.props = props;
+        String dir = props.getProperty(PropNames.GITHUB_QUEUE_DIR, PropDefaults.GITHUB_QUEUE_DIR).trim();
+        if (dir.equals("")) {
+            throw new IOException(PropNames.GITHUB_QUEUE_DIR + " must be set to crawl with workers");
+        }
+        directory = new File(dir);
+        claimTimeout = Long.parseLong(props.getProperty(PropNames.GITHUB_QUEUE_CLAIM_TIMEOUT, PropDefaults.GITHUB_QUEUE_CLAIM_TIMEOUT).trim()) * 1000;
+        pollInterval = Long.parseLong(props.getProperty(PropNames.GITHUB_QUEUE_POLL_INTERVAL, PropDefaults.GITHUB_QUEUE_POLL_INTERVAL).trim()) * 1000;
+        queue = new WorkQueue(directory, claimTimeout);
+    }
+
+    /**
+     * Queues the configured projects, users and organizations that are mined
+     *
+     * @return the number of items queued
+     */
+    public int enqueueConfigured() throws IOException {
+        int count = 0;
+        if (props.getProperty(PropNames.GITHUB_MINE_REPOS, PropDefaults.GITHUB_MINE_REPOS).equals("true")) {
+            count += enqueue(TYPE_REPOSITORY, props.getProperty(PropNames.GITHUB_PROJECT_NAMES, PropDefaults.GITHUB_PROJECT_NAMES));
+        }
+        if (props.getProperty(PropNames.GITHUB_MINE_USERS, PropDefaults.GITHUB_MINE_USERS).equals("true")) {
+            count += enqueue(TYPE_USER, props.getProperty(PropNames.GITHUB_USERNAMES, PropDefaults.GITHUB_USERNAMES));
+        }
+        if (props.getProperty(PropNames.GITHUB_MINE_ORGANIZATIONS, PropDefaults.GITHUB_MINE_ORGANIZATIONS).equals("true")) {
+            count += enqueue(TYPE_ORGANIZATION, props.getProperty(PropNames.GITHUB_ORGANIZATIONS, PropDefaults.GITHUB_ORGANIZATIONS));
+        }
+        return count;
+    }
+
+    private int enqueue(final String type, final String names) throws IOException {
+        int count = 0;
+        for (String name : names.split(",")) {
+            if (!name.trim().equals("") && queue.offer(type + TYPE_SEPARATOR + name.trim())) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Works out the configuration to crawl a single item with
+     *
+     * @param item a queued item such as <code>repository:defunkt/resque</code>
+     * @param archiveMode how the archive is used
+     * @param archiveDir where the responses for the item are kept
+     */
+    Properties itemProperties(final String item, final String archiveMode, final File archiveDir) {
+        int separator = item.indexOf(TYPE_SEPARATOR);
+        if (separator == -1) {
+            throw new IllegalArgumentException("Not a queued item: " + item);
+        }
+        String type = item.substring(0, separator);
+        String name = item.substring(separator + 1);
+        Properties itemProps = new Properties();
+        for (String key : props.stringPropertyNames()) {
+            itemProps.setProperty(key, props.getProperty(key));
+        }
+        itemProps.setProperty(PropNames.GITHUB_PROJECT_NAMES, type.equals(TYPE_REPOSITORY) ? name : "");
+        itemProps.setProperty(PropNames.GITHUB_USERNAMES, type.equals(TYPE_USER) ? name : "");
+        itemProps.setProperty(PropNames.GITHUB_ORGANIZATIONS, type.equals(TYPE_ORGANIZATION) ? name : "");
+        itemProps.setProperty(PropNames.GITHUB_ARCHIVE_MODE, archiveMode);
+        itemProps.setProperty(PropNames.GITHUB_ARCHIVE_DIR, archiveDir.getPath());
+        // the queue takes the place of the journal, and what an ecosystem
+        // crawl picks depends on the graph it runs against
+        itemProps.setProperty(PropNames.GITHUB_CRAWL_JOURNAL, "");
+        itemProps.setProperty(PropNames.GITHUB_ECOSYSTEM_DEPTH, "0");
+        // the worker fetches everything without regard to its graph, so the
+        // ingest makes the same requests against the main graph
+        itemProps.setProperty(PropNames.GITHUB_REFRESH_TIME, "0");
+        itemProps.setProperty(PropNames.GITHUB_INCREMENTAL_ISSUES, "false");
+        return itemProps;
+    }
+
+    /**
+     * Crawls items from the queue until nothing is waiting or being worked
+     * on by other workers
+     *
+     * @param worker a name for this worker that no other worker uses
+     */
+    public void work(final String worker) throws InterruptedException {
+        log.info("Worker {} taking work from {}", worker, directory);
+        int crawled = 0;
+        while (true) {
+            queue.requeueStale();
+            WorkQueue.Claim claim = queue.poll();
+            if (claim == null) {
+                if (queue.getPending() == 0 && queue.getClaimed() == 0) {
+                    break;
+                }
+                // a worker that dies leaves work to be taken up again
+                Thread.sleep(pollInterval);
+            } else if (crawl(claim, worker)) {
+                crawled++;
+            } else {
+                Thread.sleep(pollInterval);
+            }
+        }
+        log.info("Worker {} finished after crawling {} items", worker, crawled);
+    }
+
+    private boolean crawl(final WorkQueue.Claim claim, final String worker) {
+        File result = queue.getWorkDirectory(claim, worker);
+        ScheduledExecutorService renewer = startRenewing(claim);
+        try {
+            log.info("Worker {} crawling {}", worker, claim);
+            new GitHubMain(itemProperties(claim.getItem(), GitHubMain.ARCHIVE_MODE_RECORD, result)).main();
+            queue.publish(claim, result);
+            return true;
+        } catch (IOException e) {
+            log.error("Unable to publish {}: {}", claim, e.getMessage());
+        } catch (RuntimeException e) {
+            log.error("Exception crawling {}", claim, e);
+        } finally {
+            renewer.shutdown();
+        }
+        queue.release(claim);
+        return false;
+    }
+
+    private ScheduledExecutorService startRenewing(final WorkQueue.Claim claim) {
+        ScheduledExecutorService renewer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(final Runnable runnable) {
+                Thread thread = new Thread(runnable, "claim-renewer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        long period = Math.max(1, claimTimeout / 4);
+        renewer.scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                queue.renew(claim);
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+        return renewer;
+    }
+
+    /**
+     * Queues the configured items and loads what the workers fetch for them
+     * into the graph until everything is loaded
+     */
+    public void coordinate() throws IOException, InterruptedException {
+        log.info("Queued {} items in {}", enqueueConfigured(), directory);
+        int loaded = 0;
+        while (true) {
+            File result = queue.nextResult();
+            if (result != null) {
+                String item = WorkQueue.getResultItem(result);
+                log.info("Loading {} into the graph, {} more waiting", item, queue.getReady() - 1);
+                new GitHubMain(itemProperties(item, GitHubMain.ARCHIVE_MODE_INGEST, result)).main();
+                queue.loaded(result);
+                loaded++;
+            } else if (queue.isFinished()) {
+                break;
+            } else {
+                queue.requeueStale();
+                Thread.sleep(pollInterval);
+            }
+        }
+        log.info("Distributed crawl finished, loaded {} items", loaded);
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2011-2012 IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wagstrom.research.github;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decides which repositories an ecosystem crawl visits.
+ *
+ * The crawl starts from the configured projects and works outwards one
+ * level at a time. Each level is made of the repositories that share the
+ * most users with the repositories of the level before, as found by
+ * {@link BlueprintsDriver#getRelatedRepositoryCounts(String)}. The crawl
+ * stops once it has gone deep enough, visited enough repositories or made
+ * enough API calls. The call budget is checked before each repository, so
+ * a level is cut short when the budget runs out partway through it. Every
+ * repository is visited at most once.
+ *
+ * @author patrick
+ */
+public class EcosystemFrontier {
+    private static final Logger log = LoggerFactory.getLogger(EcosystemFrontier.class); // NOPMD
+
+    private final int maxDepth;
+    private final int maxRepositories;
+    private final long maxCalls;
+    private final int minShared;
+    private final Set<String> visited = new HashSet<String>();
+    private int repositories = 0;
+    private long startCalls = 0;
+
+    /**
+     * @param maxDepth the number of levels to go out from the seed projects
+     * @param maxRepositories the most repositories to add beyond the seeds
+     * @param maxCalls the most API calls to make before no more
+     *          repositories are added, 0 for no limit
+     * @param minShared the fewest users a repository must share with the
+     *          level before it to be visited
+     */
+    public EcosystemFrontier(final int maxDepth, final int maxRepositories, final long maxCalls, final int minShared) {
+        this.maxDepth = maxDepth;
+        this.maxRepositories = maxRepositories;
+        this.maxCalls = maxCalls;
+        this.minShared = minShared;
+    }
+
+    /**
+     * @param calls the number of API calls made before the crawl, the call
+     *          budget is counted from here
+     */
+    public synchronized void setStartCalls(final long calls) {
+        startCalls = calls;
+    }
+
+    public synchronized void addSeed(final String reponame) {
+        visited.add(reponame.toLowerCase(Locale.ENGLISH));
+    }
+
+    /**
+     * @param depth the level about to be added, the seeds are level 0
+     * @param calls the number of API calls made so far
+     * @return true if the crawl may go on to this level
+     */
+    public synchronized boolean canExpand(final int depth, final long calls) {
+        if (depth > maxDepth) {
+            log.info("Ecosystem crawl reached depth {}", maxDepth);
+            return false;
+        }
+        if (repositories >= maxRepositories) {
+            log.info("Ecosystem crawl reached {} repositories", repositories);
+            return false;
+        }
+        return withinBudget(calls);
+    }
+
+    /**
+     * @param calls the number of API calls made so far
+     * @return true if another repository may be crawled
+     */
+    public synchronized boolean withinBudget(final long calls) {
+        if (maxCalls > 0 && calls - startCalls >= maxCalls) {
+            log.info("Ecosystem crawl used its budget of {} calls", maxCalls);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Picks the repositories of the next level
+     *
+     * @param shared the related repositories of the current level with the
+     *          number of users each shares with it
+     * @return the repositories to visit, those sharing the most users first
+     */
+    public synchronized List<String> nextLevel(final Map<String, Integer> shared) {
+        List<Map.Entry<String, Integer>> candidates = new ArrayList<Map.Entry<String, Integer>>();
+        for (Map.Entry<String, Integer> entry : shared.entrySet()) {
+            if (entry.getValue() >= minShared && isRepositoryName(entry.getKey())
+                    && !visited.contains(entry.getKey().toLowerCase(Locale.ENGLISH))) {
+                candidates.add(entry);
+            }
+        }
+        Collections.sort(candidates, new Comparator<Map.Entry<String, Integer>>() {
+            public int compare(final Map.Entry<String, Integer> a, final Map.Entry<String, Integer> b) {
+                int order = b.getValue().compareTo(a.getValue());
+                return order != 0 ? order : a.getKey().compareTo(b.getKey());
+            }
+        });
+        List<String> level = new ArrayList<String>();
+        for (Map.Entry<String, Integer> candidate : candidates) {
+            if (repositories >= maxRepositories) {
+                break;
+            }
+            visited.add(candidate.getKey().toLowerCase(Locale.ENGLISH));
+            level.add(candidate.getKey());
+            repositories++;
+        }
+        return level;
+    }
+
+    private static boolean isRepositoryName(final String name) {
+        int slash = name.indexOf('/');
+        return slash > 0 && slash < name.length() - 1 && name.indexOf('/', slash + 1) == -1;
+    }
+
+    public synchronized int getRepositories() {
+        return repositories;
+    }
+}
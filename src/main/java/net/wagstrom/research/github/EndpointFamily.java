@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2011-2012 IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wagstrom.research.github;
+
+/**
+ * Groups API calls by the kind of data they fetch so that the quota spent on
+ * each can be accounted for and limited separately (see {@link QuotaLedger}).
+ *
+ * Each family also has a priority. {@link #PRIORITY_CORE} families are the
+ * repository, issue and pull request data a crawl exists for, everything
+ * else can be held back when quota runs short.
+ *
+ * @author patrick
+ */
+public final class EndpointFamily {
+    /**
+     * This is static class for constants only
+     */
+    private EndpointFamily() {};
+
+    public static final int PRIORITY_CORE = 0;
+    public static final int PRIORITY_NORMAL = 1;
+    public static final int PRIORITY_LOW = 2;
+
+    /** repositories, their forks, contributors and collaborators */
+    public static final String REPOSITORY = "repository";
+    /** issues along with their comments and events */
+    public static final String ISSUES = "issues";
+    /** pull requests along with their review comments */
+    public static final String PULLS = "pulls";
+    /** watchers and stargazers of a repository */
+    public static final String WATCHERS = "watchers";
+    /** user profiles and the lists hanging off them */
+    public static final String USERS = "users";
+    public static final String ORGANIZATIONS = "organizations";
+    public static final String GISTS = "gists";
+    public static final String EVENTS = "events";
+    public static final String OTHER = "other";
+
+    private static final String API_PREFIX = "/api/v3";
+
+    /**
+     * Works out the family of a call from the path it requests
+     *
+     * @param uri the request uri, may include a query string or the
+     *          <code>/api/v3</code> prefix used by GitHub Enterprise
+     * @return one of the family constants, {@link #OTHER} if it isn't known
+     */
+    public static String classify(final String uri) {
+        if (uri == null) {
+            return OTHER;
+        }
+        String path = uri;
+        int query = path.indexOf('?');
+        if (query != -1) {
+            path = path.substring(0, query);
+        }
+        if (path.startsWith(API_PREFIX)) {
+            path = path.substring(API_PREFIX.length());
+        }
+        String[] parts = path.split("/");
+        // parts[0] is the empty string before the leading slash
+        if (parts.length < 2) {
+            return OTHER;
+        }
+        String root = parts[1];
+        if (root.equals("repos")) {
+            if (parts.length < 5) {
+                return REPOSITORY;
+            }
+            String sub = parts[4];
+            if (sub.equals("issues")) {
+                return ISSUES;
+            } else if (sub.equals("pulls")) {
+                return PULLS;
+            } else if (sub.equals("watchers") || sub.equals("stargazers") || sub.equals("subscribers")) {
+                return WATCHERS;
+            } else if (sub.equals("events")) {
+                return EVENTS;
+            }
+            return REPOSITORY;
+        } else if (root.equals("users") || root.equals("user")) {
+            String sub = parts.length > 3 ? parts[3] : "";
+            if (sub.equals("gists")) {
+                return GISTS;
+            } else if (sub.equals("events") || sub.equals("received_events")) {
+                return EVENTS;
+            }
+            return USERS;
+        } else if (root.equals("orgs")) {
+            return ORGANIZATIONS;
+        } else if (root.equals("gists")) {
+            return GISTS;
+        } else if (root.equals("events")) {
+            return EVENTS;
+        }
+        return OTHER;
+    }
+
+    /**
+     * @param family one of the family constants
+     * @return the priority calls of this family are made at
+     */
+    public static int priorityOf(final String family) {
+        if (REPOSITORY.equals(family) || ISSUES.equals(family) || PULLS.equals(family)) {
+            return PRIORITY_CORE;
+        } else if (GISTS.equals(family) || EVENTS.equals(family)) {
+            return PRIORITY_LOW;
+        }
+        return PRIORITY_NORMAL;
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2011-2012 IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wagstrom.research.github;
+
+/**
+ * Kinds of failures the {@link RetryEngine} distinguishes between when
+ * deciding if a call is worth retrying.
+ *
+ * @author patrick
+ */
+public final class FailureType {
+    /**
+     * This is static class for constants only
+     */
+    private FailureType() {};
+
+    /** primary rate limit for the credentials has been used up (403) */
+    public static final String RATE_LIMIT = "rate_limit";
+    /** secondary/abuse rate limit (403 or 429), needs a longer pause */
+    public static final String SECONDARY_LIMIT = "secondary_limit";
+    /** GitHub had an internal problem (5xx) */
+    public static final String SERVER_ERROR = "server_error";
+    /** unable to connect or the connection timed out */
+    public static final String CONNECT = "connect";
+    /** the requested object does not exist (404) */
+    public static final String NOT_FOUND = "not_found";
+    /** the request itself was wrong or not allowed, retrying won't help */
+    public static final String CLIENT_ERROR = "client_error";
+    /** any other I/O problem */
+    public static final String IO = "io";
+    /** not an I/O problem at all, should be passed on to the caller */
+    public static final String FATAL = "fatal";
+}
@@ -15,25 +15,47 @@
  */
 package net.wagstrom.research.github;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 
+import net.wagstrom.research.github.crawler.CrawlEngine;
+import net.wagstrom.research.github.crawler.CrawlJournal;
+import net.wagstrom.research.github.crawler.CrawlTask;
+import net.wagstrom.research.github.crawler.Staleness;
+import net.wagstrom.research.github.v3.CachingGitHubClient;
 import net.wagstrom.research.github.v3.CollaboratorMinerV3;
+import net.wagstrom.research.github.v3.ConditionalRequestCache;
+import net.wagstrom.research.github.v3.CredentialPool;
+import net.wagstrom.research.github.v3.EntityCache;
 import net.wagstrom.research.github.v3.EventMinerV3;
 import net.wagstrom.research.github.v3.GistMinerV3;
+import net.wagstrom.research.github.v3.HttpArchive;
 import net.wagstrom.research.github.v3.IssueMinerV3;
 import net.wagstrom.research.github.v3.OrganizationMinerV3;
+import net.wagstrom.research.github.v3.PageHandler;
+import net.wagstrom.research.github.v3.ParallelPageFetcher;
 import net.wagstrom.research.github.v3.PullMinerV3;
+import net.wagstrom.research.github.v3.RecordingGitHubInvocationHandler;
+import net.wagstrom.research.github.v3.ReplayGitHubInvocationHandler;
+import net.wagstrom.research.github.v3.RepositoryComment;
+import net.wagstrom.research.github.v3.RetryAfterGitHubClient;
 import net.wagstrom.research.github.v3.RepositoryMinerV3;
-import net.wagstrom.research.github.v3.ThrottledGitHubInvocationHandler;
 import net.wagstrom.research.github.v3.UserMinerV3;
 import net.wagstrom.research.github.v3.WatcherMinerV3;
 
+import org.eclipse.egit.github.core.Comment;
+import org.eclipse.egit.github.core.Contributor;
+import org.eclipse.egit.github.core.Gist;
 import org.eclipse.egit.github.core.IssueEvent;
 import org.eclipse.egit.github.core.Repository;
 import org.eclipse.egit.github.core.PullRequest;
@@ -41,6 +63,7 @@ import org.eclipse.egit.github.core.User;
 import org.eclipse.egit.github.core.client.GitHubClient;
 import org.eclipse.egit.github.core.client.IGitHubClient;
 import org.eclipse.egit.github.core.event.Event;
+import org.eclipse.egit.github.core.service.IssueService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -55,33 +78,60 @@ import com.ibm.research.govsci.graph.GraphShutdownHandler;
 public class GitHubMain {
     private static final Logger log = LoggerFactory.getLogger(GitHubMain.class); // NOPMD
     private final ApiThrottle v3throttle;
+    private ConditionalRequestCache requestCache = null;
+    private HttpArchive archive = null;
+    static final String ARCHIVE_MODE_RECORD = "record";
+    private static final String ARCHIVE_MODE_REPLAY = "replay";
+    static final String ARCHIVE_MODE_INGEST = "ingest";
+    // adaptive pacing never drops below one call a minute
+    private static final double ADAPTIVE_MIN_RATE = 1.0 / 60;
+    // runnable tasks held for each crawl thread before submitters run them
+    private static final int CRAWL_QUEUE_PER_THREAD = 64;
     private long refreshTime = 0; // minimum age of a resource in milliseconds
     private Properties props;
     protected BlueprintsDriver bp;
+    private IssueMinerV3 imv3;
+    private PullMinerV3 pmv3;
+    private RepositoryMinerV3 rmv3;
+    private UserMinerV3 umv3;
+    private OrganizationMinerV3 omv3;
+    private GistMinerV3 gmv3;
+    private WatcherMinerV3 wmv3;
+    private CollaboratorMinerV3 cmv3;
+    private EventMinerV3 emv3;
+    private final UserWorkRegistry userWork = new UserWorkRegistry();
 
     public GitHubMain() {
         v3throttle = new ApiThrottle();
         bp = null;
     }
 
+    /**
+     * @param props configuration to crawl with instead of {@link GithubProperties}
+     */
+    public GitHubMain(final Properties props) {
+        this();
+        this.props = props;
+    }
+
     public void main() {
 
         ArrayList <String> projects = new ArrayList<String> ();
         ArrayList <String> users = new ArrayList<String> ();
         ArrayList <String> organizations = new ArrayList<String> ();
-        props = GithubProperties.props();
-
-        int v3MaxCalls = Integer.parseInt(props.getProperty(PropNames.GITHUB_THROTTLE_MAX_CALLS, PropDefaults.GITHUB_THROTTLE_MAX_CALLS));
-        int v3MaxCallsInterval = Integer.parseInt(props.getProperty(PropNames.GITHUB_THROTTLE_MAX_CALLS_INTERVAL, PropDefaults.GITHUB_THROTTLE_MAX_CALLS_INTERVAL));
-        if (v3MaxCalls >0 && v3MaxCallsInterval > 0) {
-            log.info("Setting v3 Max Call Rate: {}/{}", v3MaxCalls, v3MaxCallsInterval);
-            v3throttle.setMaxRate(v3MaxCalls, v3MaxCallsInterval);
+        if (props == null) {
+            props = GithubProperties.props();
         }
-        v3throttle.setId("v3");
+
+        configureThrottle(v3throttle, "v3");
 
         // set the minimum age for an artifact in milliseconds
         double minAgeDouble = Double.parseDouble(props.getProperty(PropNames.GITHUB_REFRESH_TIME, PropDefaults.GITHUB_REFRESH_TIME));
         refreshTime = (long)minAgeDouble * 86400 * 1000;
+        if (props.getProperty(PropNames.GITHUB_ARCHIVE_MODE, PropDefaults.GITHUB_ARCHIVE_MODE).trim().equals(ARCHIVE_MODE_INGEST)) {
+            // an ingest loads everything that was recorded
+            refreshTime = 0;
+        }
         log.info("Minimum artifact refresh time: {}ms", refreshTime);
 
         // get the list of projects
@@ -110,236 +160,1220 @@ public class GitHubMain {
         GraphShutdownHandler gsh = new GraphShutdownHandler();
 
 
-        GitHubClient ghc = new GitHubClient();
-        String githubUsername = props.getProperty(PropNames.GITHUB_LOGIN, PropDefaults.GITHUB_LOGIN).trim();
-        String githubPassword = props.getProperty(PropNames.GITHUB_PASSWORD, PropDefaults.GITHUB_PASSWORD);
-        String githubToken    = props.getProperty(PropNames.GITHUB_TOKEN, PropDefaults.GITHUB_TOKEN).trim();
-        if (!githubUsername.equals("") && !githubPassword.equals("")) {
-            ghc.setCredentials(githubUsername, githubPassword);
-        } else if (!githubToken.equals("")) {
-            ghc.setOAuth2Token(githubToken);
-        } else {
-            log.error("Must set properties {} and {}, or {}", new String[]{PropNames.GITHUB_LOGIN, PropNames.GITHUB_PASSWORD, PropNames.GITHUB_TOKEN});
-            log.error("Without these properties you'll be limited to 60 queries and hour, and I'm not going to do that.");
-            System.exit(-1);
-        }
-        String email = props.getProperty(PropNames.EMAIL_ADDRESS, PropDefaults.EMAIL_ADDRESS).trim();
-        if (email.equals("")) {
-            log.error("Must set property {}", PropNames.EMAIL_ADDRESS);
-            log.error("GitHub has requested that contact information be included in the user agent field. This address is only used to append to GitMiner user agent.");
-            System.exit(-1);
+        String cacheDir = props.getProperty(PropNames.GITHUB_CACHE_DIR, PropDefaults.GITHUB_CACHE_DIR).trim();
+        if (!cacheDir.equals("")) {
+            log.info("Caching responses for conditional requests in {}", cacheDir);
+            requestCache = new ConditionalRequestCache(new File(cacheDir));
         }
-        ghc.setUserAgent("GitMiner ( version: " + Constants.VERSION + ", https://github.com/pridkett/gitminer, based off egit, user: " + githubUsername + " email: " + email + " )");
+
+        RetryEngine retryEngine = createRetryEngine();
+        QuotaLedger ledger = createQuotaLedger();
+        CrawlMetrics metrics = CrawlMetrics.getInstance();
+        metrics.setRetryEngine(retryEngine);
+        metrics.register();
+        metrics.startReporting(Long.parseLong(props.getProperty(PropNames.GITHUB_METRICS_INTERVAL, PropDefaults.GITHUB_METRICS_INTERVAL).trim()));
+        CredentialPool pool = createCredentialPool(retryEngine, ledger);
+        log.info("Using {} GitHub credentials", pool.size());
+        IGitHubClient client = pool.createClient();
+        int pageThreads = Integer.parseInt(props.getProperty(PropNames.GITHUB_PAGE_THREADS, PropDefaults.GITHUB_PAGE_THREADS).trim());
+        ParallelPageFetcher fetcher = new ParallelPageFetcher(pageThreads);
 
         connectToGraph(props);
         gsh.addShutdownHandler(bp);
         Runtime.getRuntime().addShutdownHook(gsh);
 
-        IssueMinerV3 imv3 = new IssueMinerV3(ThrottledGitHubInvocationHandler.createThrottledGitHubClient((IGitHubClient)ghc, v3throttle));
-        PullMinerV3 pmv3 = new PullMinerV3(ThrottledGitHubInvocationHandler.createThrottledGitHubClient((IGitHubClient)ghc, v3throttle));
-        RepositoryMinerV3 rmv3 = new RepositoryMinerV3(ThrottledGitHubInvocationHandler.createThrottledGitHubClient((IGitHubClient)ghc, v3throttle));
-        UserMinerV3 umv3 = new UserMinerV3(ThrottledGitHubInvocationHandler.createThrottledGitHubClient((IGitHubClient)ghc, v3throttle));
-        OrganizationMinerV3 omv3 = new OrganizationMinerV3(ThrottledGitHubInvocationHandler.createThrottledGitHubClient((IGitHubClient)ghc, v3throttle));
-        GistMinerV3 gmv3 = new GistMinerV3(ThrottledGitHubInvocationHandler.createThrottledGitHubClient((IGitHubClient)ghc, v3throttle));
-        WatcherMinerV3 wmv3 = new WatcherMinerV3(ThrottledGitHubInvocationHandler.createThrottledGitHubClient((IGitHubClient)ghc, v3throttle));
-        CollaboratorMinerV3 cmv3 = new CollaboratorMinerV3(ThrottledGitHubInvocationHandler.createThrottledGitHubClient((IGitHubClient)ghc, v3throttle));
-        EventMinerV3 emv3 = new EventMinerV3(ThrottledGitHubInvocationHandler.createThrottledGitHubClient((IGitHubClient)ghc, v3throttle));
+        imv3 = new IssueMinerV3(client, fetcher);
+        pmv3 = new PullMinerV3(client, fetcher);
+        rmv3 = new RepositoryMinerV3(client, fetcher);
+        umv3 = new UserMinerV3(client, fetcher);
+        omv3 = new OrganizationMinerV3(client, fetcher);
+        gmv3 = new GistMinerV3(client, fetcher);
+        wmv3 = new WatcherMinerV3(client, fetcher);
+        cmv3 = new CollaboratorMinerV3(client, fetcher);
+        emv3 = new EventMinerV3(client, fetcher);
+        EntityCache entityCache = null;
+        int entityCacheSize = Integer.parseInt(props.getProperty(PropNames.GITHUB_ENTITY_CACHE_SIZE, PropDefaults.GITHUB_ENTITY_CACHE_SIZE).trim());
+        if (entityCacheSize > 0) {
+            long entityCacheTtl = Long.parseLong(props.getProperty(PropNames.GITHUB_ENTITY_CACHE_TTL, PropDefaults.GITHUB_ENTITY_CACHE_TTL).trim());
+            entityCache = new EntityCache(entityCacheSize, entityCacheTtl * 1000);
+            umv3.setCache(entityCache);
+            omv3.setCache(entityCache);
+            rmv3.setCache(entityCache);
+        }
+
+        int crawlThreads = Integer.parseInt(props.getProperty(PropNames.GITHUB_CRAWL_THREADS, PropDefaults.GITHUB_CRAWL_THREADS).trim());
+        log.info("Crawling with {} threads", crawlThreads);
+        CrawlEngine engine = new CrawlEngine(crawlThreads, crawlThreads * CRAWL_QUEUE_PER_THREAD);
+        CrawlJournal journal = openCrawlJournal();
+        engine.setJournal(journal);
+        metrics.setCrawlEngine(engine);
+        CrawlStatusServer statusServer = startStatusServer(metrics);
 
         if (props.getProperty(PropNames.GITHUB_MINE_REPOS, PropDefaults.GITHUB_MINE_REPOS).equals("true")) {
+            // the repositories that were crawled longest ago go first
+            long now = System.currentTimeMillis();
+            Map<String, CrawlTask> seeds = new LinkedHashMap<String, CrawlTask>();
             for (String proj : projects) {
-                String [] projsplit = proj.split("/");
+                Date lastUpdated;
+                synchronized (bp) {
+                    lastUpdated = bp.getRepositorySysLastUpdated(proj);
+                }
+                seeds.put(proj, engine.submit(new RepositoryTask(proj).setPriority(Staleness.priority(Staleness.WEIGHT_REPOSITORY, now, lastUpdated))));
+            }
+            int ecosystemDepth = Integer.parseInt(props.getProperty(PropNames.GITHUB_ECOSYSTEM_DEPTH, PropDefaults.GITHUB_ECOSYSTEM_DEPTH).trim());
+            if (ecosystemDepth > 0) {
+                EcosystemFrontier frontier = new EcosystemFrontier(ecosystemDepth,
+                        Integer.parseInt(props.getProperty(PropNames.GITHUB_ECOSYSTEM_MAX_REPOSITORIES, PropDefaults.GITHUB_ECOSYSTEM_MAX_REPOSITORIES).trim()),
+                        Long.parseLong(props.getProperty(PropNames.GITHUB_ECOSYSTEM_MAX_CALLS, PropDefaults.GITHUB_ECOSYSTEM_MAX_CALLS).trim()),
+                        Integer.parseInt(props.getProperty(PropNames.GITHUB_ECOSYSTEM_MIN_SHARED, PropDefaults.GITHUB_ECOSYSTEM_MIN_SHARED).trim()));
+                frontier.setStartCalls(metrics.getCalls());
+                for (String proj : projects) {
+                    frontier.addSeed(proj);
+                }
+                log.info("Crawling the ecosystem of the projects {} levels out", ecosystemDepth);
+                engine.submit(new EcosystemTask(frontier, 1, seeds));
+            }
+        }
 
-                Repository repo = rmv3.getRepository(projsplit[0], projsplit[1]);
-                if (repo == null) {
-                    continue;
+        if (props.getProperty(PropNames.GITHUB_MINE_USERS, PropDefaults.GITHUB_MINE_USERS).equals("true")) {
+            int ctr = 0;
+            for (String username : users) {
+                Date lastFullUpdate;
+                Date lastEventsUpdate;
+                Date lastGistsUpdate;
+                synchronized (bp) {
+                    lastFullUpdate = bp.getUserSysDate(username, PropertyName.SYS_LAST_FULL_UPDATE);
+                    lastEventsUpdate = bp.getUserSysDate(username, PropertyName.SYS_EVENTS_ADDED);
+                    lastGistsUpdate = bp.getUserSysDate(username, PropertyName.SYS_GISTS_ADDED);
+                }
+                String label = "listed user " + (++ctr) + "/" + users.size();
+                CrawlTask userTask = planUserTask(username, label, lastFullUpdate, lastEventsUpdate, lastGistsUpdate);
+                if (userTask != null) {
+                    engine.submit(userTask);
                 }
+            }
+        }
+
+        if (props.getProperty(PropNames.GITHUB_MINE_ORGANIZATIONS, PropDefaults.GITHUB_MINE_ORGANIZATIONS).equals("true")) {
+            for (final String organizationName : organizations) {
+                CrawlTask organizationTask = new CrawlTask("organization " + organizationName) {
+                    protected void execute() throws IOException {
+                        log.warn("Fetching organization: {}", organizationName);
+                        User organization = fetched(omv3.getOrganization(organizationName), "organization " + organizationName);
+                        synchronized (bp) {
+                            bp.saveUser(organization);
+                        }
+                        CrawlMetrics.getInstance().recordSaved(VertexType.ORGANIZATION, 1);
+                        // This method fails when you're not an administrator of the organization
+                        //			try {
+                        //				bp.saveOrganizationOwners(organization, om.getOrganizationOwners(organization));
+                        //			} catch (GitHubException e) {
+                        //				log.info("Unable to fetch owners: {}", GitHubErrorPrimative.createGitHubErrorPrimative(e).getError());
+                        //			}
+                        Collection<User> members = fetched(omv3.getPublicMembers(organization.getLogin()),
+                                "members of " + organizationName);
+                        synchronized (bp) {
+                            bp.saveOrganizationPublicMembers(organization, members);
+                        }
+                        CrawlMetrics.getInstance().recordSaved(VertexType.USER, members);
+                        List<Repository> repositories = fetched(rmv3.getRepositories(organization.getLogin()),
+                                "repositories of " + organizationName);
+                        synchronized (bp) {
+                            bp.saveOrganizationPublicRepositories(organizationName, repositories);
+                        }
+                        CrawlMetrics.getInstance().recordSaved(VertexType.REPOSITORY, repositories);
+                        // This fails when not an administrator of the organization
+                        //			try {
+                        //				List<Team> teams = om.getOrganizationTeams(organization);
+                        //				bp.saveOrganizationTeams(organization, teams);
+                        //				for (Team team : teams) {
+                        //					bp.saveTeamMembers(team.getId(), om.getOrganizationTeamMembers(team.getId()));
+                        //					bp.saveTeamRepositories(team.getId(), om.getOrganizationTeamRepositories(team.getId()));
+                        //				}
+                        //			} catch (GitHubException e) {
+                        //				log.info("Unable to fetch teams: {}", GitHubErrorPrimative.createGitHubErrorPrimative(e).getError());
+                        //			}
+                    }
+                };
+                engine.submit(organizationTask.setPriority(
+                        Staleness.priority(Staleness.WEIGHT_ORGANIZATION, System.currentTimeMillis(), (Date) null)));
+            }
+        }
+
+        try {
+            engine.awaitCompletion();
+        } catch (InterruptedException e) {
+            log.error("Interrupted waiting for the crawl to finish");
+            Thread.currentThread().interrupt();
+        }
+        engine.shutdown();
+        engine.logSummary();
+        userWork.logSummary();
+        if (entityCache != null) {
+            entityCache.logSummary();
+        }
+        if (journal != null) {
+            journal.logSummary();
+            if (engine.getFailed() == 0 && engine.getSkipped() == 0 && engine.getOutstanding() == 0) {
+                journal.complete();
+            } else {
+                log.warn("Crawl did not finish everything, run again to resume from {}",
+                        props.getProperty(PropNames.GITHUB_CRAWL_JOURNAL));
+                journal.close();
+            }
+        }
+        fetcher.shutdown();
+        if (statusServer != null) {
+            statusServer.stop();
+        }
+        metrics.stopReporting();
+        metrics.logSummary();
+        retryEngine.logSummary();
+        ledger.logSummary();
+        for (CredentialPool.Credential credential : pool.getCredentials()) {
+            if (credential.getThrottle().getPacer() != null) {
+                credential.getThrottle().getPacer().logSummary();
+            }
+        }
+        if (requestCache != null) {
+            requestCache.logSummary();
+        }
+        if (archive != null) {
+            if (isIngesting() && archive.unservedSize() > 0) {
+                // the crawl asked for different requests than were recorded
+                log.warn("{} of {} recorded requests were not ingested", archive.unservedSize(), archive.size());
+            }
+            try {
+                archive.close();
+            } catch (IOException e) {
+                log.error("Exception closing archive: {}", e.getMessage());
+            }
+        }
+        log.info("Shutting down graph");
+        bp.shutdown();
+        // the graph is closed, and a process may crawl several times
+        Runtime.getRuntime().removeShutdownHook(gsh);
+    }
+
+    /**
+     * Estimates the API calls and time a crawl with the current configuration
+     * would take, using what is already in the graph, without calling GitHub.
+     */
+    public void plan() {
+        if (props == null) {
+            props = GithubProperties.props();
+        }
+        if (connectToGraph(props) == null) {
+            return;
+        }
+        CrawlPlanner planner = new CrawlPlanner(props, bp);
+        planner.plan();
+        planner.report(System.out); // NOPMD
+        log.info("Shutting down graph");
+        bp.shutdown();
+    }
+
+    /**
+     * Serves the crawl status on localhost if a port is configured
+     *
+     * @return the server, or null if there isn't one
+     */
+    private CrawlStatusServer startStatusServer(final CrawlMetrics metrics) {
+        int port = Integer.parseInt(props.getProperty(PropNames.GITHUB_STATUS_PORT, PropDefaults.GITHUB_STATUS_PORT).trim());
+        if (port <= 0) {
+            return null;
+        }
+        CrawlStatusServer server = new CrawlStatusServer(metrics, port);
+        try {
+            server.start();
+        } catch (IOException e) {
+            log.error("Unable to serve the crawl status on port {}: {}", port, e.getMessage());
+            return null;
+        }
+        return server;
+    }
+
+    /**
+     * Crawls a single repository.
+     *
+     * Once the repository itself has been saved each kind of data about it,
+     * such as its watchers or issues, is fetched by a task of its own so they
+     * can run at the same time. The users of the project are fetched after all
+     * of the others have finished, as that is how they end up in the graph.
+     */
+    private class RepositoryTask extends CrawlTask {
+        private final String proj;
+
+        RepositoryTask(final String proj) {
+            super("repository " + proj);
+            this.proj = proj;
+        }
+
+        @Override
+        protected void completed(final CrawlTask.State result) {
+            CrawlMetrics.getInstance().clearPhase(proj);
+        }
+
+        @Override
+        protected void execute() throws IOException {
+            String [] projsplit = proj.split("/");
+            final CrawlMetrics metrics = CrawlMetrics.getInstance();
+            metrics.setPhase(proj, "repository");
+
+            final Repository repo = fetched(rmv3.getRepository(projsplit[0], projsplit[1]), "repository " + proj);
+            synchronized (bp) {
                 bp.saveRepository(repo);
-                log.warn("handling project owner...");
-                handleProjectOwner(repo.getOwner(), umv3, omv3);
+            }
+            metrics.recordSaved(VertexType.REPOSITORY, 1);
+            log.warn("handling project owner...");
+            handleProjectOwner(repo.getOwner(), umv3, omv3);
 
-                if (props.getProperty(PropNames.GITHUB_MINE_REPO_COLLABORATORS, PropDefaults.GITHUB_MINE_REPO_COLLABORATORS).equals("true")) {
-                    bp.saveRepositoryCollaborators(repo, cmv3.getCollaborators(repo));
+            List<CrawlTask> parts = new ArrayList<CrawlTask>();
+            if (props.getProperty(PropNames.GITHUB_MINE_REPO_COLLABORATORS, PropDefaults.GITHUB_MINE_REPO_COLLABORATORS).equals("true")) {
+                parts.add(spawn(new CrawlTask("collaborators " + proj) {
+                    protected void execute() throws IOException {
+                        metrics.setPhase(proj, "collaborators");
+                        List<User> collaborators = fetched(cmv3.getCollaborators(repo), "collaborators of " + proj);
+                        synchronized (bp) {
+                            bp.saveRepositoryCollaborators(repo, collaborators);
+                        }
+                        metrics.recordSaved(VertexType.USER, collaborators);
+                    }
+                }));
+            }
+            if (props.getProperty(PropNames.GITHUB_MINE_REPO_CONTRIBUTORS, PropDefaults.GITHUB_MINE_REPO_CONTRIBUTORS).equals("true")) {
+                parts.add(spawn(new CrawlTask("contributors " + proj) {
+                    protected void execute() throws IOException {
+                        metrics.setPhase(proj, "contributors");
+                        List<Contributor> contributors = fetched(rmv3.getContributors(repo), "contributors of " + proj);
+                        synchronized (bp) {
+                            bp.saveRepositoryContributors(repo, contributors);
+                        }
+                        metrics.recordSaved(VertexType.USER, contributors);
+                    }
+                }));
+            }
+            if (props.getProperty(PropNames.GITHUB_MINE_REPO_WATCHERS, PropDefaults.GITHUB_MINE_REPO_WATCHERS).equals("true")) {
+                parts.add(spawn(new CrawlTask("watchers " + proj) {
+                    protected void execute() throws IOException {
+                        metrics.setPhase(proj, "watchers");
+                        List<User> watchers = fetched(wmv3.getWatchers(repo), "watchers of " + proj);
+                        synchronized (bp) {
+                            bp.saveRepositoryWatchers(repo, watchers);
+                        }
+                        metrics.recordSaved(VertexType.USER, watchers);
+                    }
+                }));
+            }
+            if (props.getProperty(PropNames.GITHUB_MINE_REPO_FORKS, PropDefaults.GITHUB_MINE_REPO_FORKS).equals("true")) {
+                parts.add(spawn(new CrawlTask("forks " + proj) {
+                    protected void execute() throws IOException {
+                        metrics.setPhase(proj, "forks");
+                        List<Repository> forks = fetched(rmv3.getForks(repo), "forks of " + proj);
+                        synchronized (bp) {
+                            bp.saveRepositoryForks(repo, forks);
+                        }
+                        metrics.recordSaved(VertexType.REPOSITORY, forks);
+                    }
+                }));
+            }
+
+            boolean minePulls = props.getProperty(PropNames.GITHUB_MINE_REPO_PULLREQUESTS, PropDefaults.GITHUB_MINE_REPO_PULLREQUESTS).equals("true");
+            IssuesTask issues = null;
+            if (props.getProperty(PropNames.GITHUB_MINE_REPO_ISSUES, PropDefaults.GITHUB_MINE_REPO_ISSUES).equals("true")) {
+                if (repo.isHasIssues()) {
+                    issues = new IssuesTask(repo, proj, minePulls);
+                    spawn(issues);
+                    // the bookmark is only moved once the comments and events
+                    // of every issue have been saved too
+                    final IssuesTask listed = issues;
+                    parts.add(spawn(new CrawlTask("issue bookmark " + proj, issues) {
+                        protected void execute() {
+                            listed.saveBookmark();
+                        }
+                    }));
+                } else {
+                    log.warn("Repository {} does not have issues enabled", repo.generateId());
+                }
+            }
+
+            if (minePulls) {
+                parts.add(spawn(issues == null ? new PullRequestsTask(repo, proj, null)
+                        : new PullRequestsTask(repo, proj, issues, issues)));
+            }
+
+            if (props.getProperty(PropNames.GITHUB_MINE_REPO_USERS, PropDefaults.GITHUB_MINE_REPO_USERS).equals("true")) {
+                spawn(new ProjectUsersTask(proj, parts.toArray(new CrawlTask[parts.size()])));
+            }
+        }
+    }
+
+    /**
+     * Adds a level to an ecosystem crawl once the repositories of the level
+     * before it, and their users, have been crawled.
+     *
+     * The repositories that share the most users with the previous level are
+     * crawled next, see {@link EcosystemFrontier}. Those that are already in
+     * the graph and were refreshed within the refresh time aren't fetched
+     * again, but are still used to find the level after. Repositories of the
+     * level before that failed to crawl are left out rather than stopping
+     * the whole ecosystem crawl.
+     */
+    private class EcosystemTask extends CrawlTask {
+        private final EcosystemFrontier frontier;
+        private final int depth;
+        private final Map<String, CrawlTask> previous;
+
+        /**
+         * @param previous the repositories of the level before, with the
+         *          task crawling each or null if it needed no update
+         */
+        EcosystemTask(final EcosystemFrontier frontier, final int depth, final Map<String, CrawlTask> previous) {
+            super("ecosystem level " + depth, crawlTasks(previous));
+            this.frontier = frontier;
+            this.depth = depth;
+            this.previous = previous;
+            setRunAfterFailures(true);
+        }
+
+        @Override
+        protected void execute() {
+            if (!frontier.canExpand(depth, CrawlMetrics.getInstance().getCalls())) {
+                return;
+            }
+            List<String> sources = new ArrayList<String>();
+            for (Map.Entry<String, CrawlTask> entry : previous.entrySet()) {
+                if (entry.getValue() == null || entry.getValue().getState() == CrawlTask.State.SUCCEEDED) {
+                    sources.add(entry.getKey());
+                } else {
+                    log.warn("Ecosystem repository {} wasn't crawled, its related repositories are left out", entry.getKey());
+                }
+            }
+            Map<String, Integer> shared = new HashMap<String, Integer>();
+            synchronized (bp) {
+                for (String reponame : sources) {
+                    for (Map.Entry<String, Integer> entry : bp.getRelatedRepositoryCounts(reponame).entrySet()) {
+                        Integer count = shared.get(entry.getKey());
+                        shared.put(entry.getKey(), count == null ? entry.getValue() : count + entry.getValue());
+                    }
                 }
-                if (props.getProperty(PropNames.GITHUB_MINE_REPO_CONTRIBUTORS, PropDefaults.GITHUB_MINE_REPO_CONTRIBUTORS).equals("true")) {
-                    bp.saveRepositoryContributors(repo, rmv3.getContributors(repo));
+            }
+            List<String> level = frontier.nextLevel(shared);
+            log.info("Ecosystem level {}: {} repositories from {} related to the level before",
+                    new Object[]{depth, level.size(), shared.size()});
+            if (level.isEmpty()) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            Map<String, CrawlTask> crawled = new LinkedHashMap<String, CrawlTask>();
+            for (String reponame : level) {
+                if (!frontier.withinBudget(CrawlMetrics.getInstance().getCalls())) {
+                    break;
                 }
-                if (props.getProperty(PropNames.GITHUB_MINE_REPO_WATCHERS, PropDefaults.GITHUB_MINE_REPO_WATCHERS).equals("true")) {
-                    bp.saveRepositoryWatchers(repo, wmv3.getWatchers(repo));
+                Date lastUpdated;
+                synchronized (bp) {
+                    lastUpdated = bp.getRepositorySysLastUpdated(reponame);
                 }
-                if (props.getProperty(PropNames.GITHUB_MINE_REPO_FORKS, PropDefaults.GITHUB_MINE_REPO_FORKS).equals("true")) {
-                    bp.saveRepositoryForks(repo, rmv3.getForks(repo));
+                if (!needsUpdate(lastUpdated, true)) {
+                    log.debug("Ecosystem repository {} needs no update - last update {}", reponame, lastUpdated);
+                    crawled.put(reponame, null);
+                    continue;
                 }
+                crawled.put(reponame, spawn(new RepositoryTask(reponame).setPriority(
+                        Staleness.priority(Staleness.WEIGHT_REPOSITORY, now, lastUpdated))));
+            }
+            if (crawled.size() < level.size()) {
+                // the budget ran out partway through the level
+                return;
+            }
+            spawn(new EcosystemTask(frontier, depth + 1, crawled));
+        }
+    }
 
-                if (props.getProperty(PropNames.GITHUB_MINE_REPO_ISSUES, PropDefaults.GITHUB_MINE_REPO_ISSUES).equals("true")) {
-                    if (repo.isHasIssues()) {
-                        Collection<org.eclipse.egit.github.core.Issue> issues3 = imv3.getAllIssues(projsplit[0], projsplit[1]);
-                        if (issues3 != null) {
-                            bp.saveRepositoryIssues(repo, issues3);
+    /**
+     * @return the tasks crawling the repositories of an ecosystem level
+     */
+    private static CrawlTask[] crawlTasks(final Map<String, CrawlTask> repositories) {
+        List<CrawlTask> tasks = new ArrayList<CrawlTask>();
+        for (CrawlTask task : repositories.values()) {
+            if (task != null) {
+                tasks.add(task);
+            }
+        }
+        return tasks.toArray(new CrawlTask[tasks.size()]);
+    }
 
-                            Map<Integer, Date> savedIssues = bp.getIssueCommentsAddedAt(proj);
-                            log.trace("SavedIssues Keys: {}", savedIssues.keySet());
+    /**
+     * Saves the issues of a repository along with their comments and events.
+     *
+     * Each page of issues is saved as soon as it arrives, so only a few pages
+     * are in memory at once no matter how many issues the repository has. The
+     * comments and events of each issue are fetched by a task of their own.
+     *
+     * In incremental mode the newest <code>updated_at</code> seen is kept on the
+     * repository. Later crawls ask only for the issues updated since then and
+     * refresh the pull requests behind them, see {@link IssuePageSaver}.
+     */
+    private class IssuesTask extends CrawlTask {
+        private final Repository repo;
+        private final String proj;
+        private final boolean refreshPulls;
+        private final boolean incremental;
+        private final boolean bulkComments;
+        // issues whose comments are fetched from the list for the whole repository
+        private final BulkIssueComments bulk = new BulkIssueComments();
+        private volatile boolean complete = false;
+        private volatile boolean pullsRefreshed = false;
+        private volatile Date latestUpdate = null;
 
-                            for (org.eclipse.egit.github.core.Issue issue : issues3) {
-                                String issueId = repo.generateId() + ":" + issue.getNumber();
-                                if (!needsUpdate(savedIssues.get(issue.getNumber()), true)) {
-                                    log.debug("Skipping fetching comments for issue {} - recently updated {}", issueId, savedIssues.get(issue.getNumber()));
-                                    continue;
-                                }
-                                log.debug("Pulling comments for issue: {} - last update: {}", issueId, savedIssues.get(issue.getNumber()));
-                                try {
-                                    // Fetch comments BOTH ways -- using the v2 and the v3 apis
-                                    bp.saveIssueComments(repo, issue, imv3.getIssueComments(repo, issue));
-                                } catch (NullPointerException e) {
-                                    log.error("NullPointerException saving issue comments: {}:{}", proj, issue);
-                                }
-                            }
+        /**
+         * @param refreshPulls whether pull requests are being mined at all
+         */
+        IssuesTask(final Repository repo, final String proj, final boolean refreshPulls) {
+            super("issues " + proj);
+            this.repo = repo;
+            this.proj = proj;
+            this.refreshPulls = refreshPulls;
+            this.incremental = props.getProperty(PropNames.GITHUB_INCREMENTAL_ISSUES, PropDefaults.GITHUB_INCREMENTAL_ISSUES).equals("true");
+            this.bulkComments = props.getProperty(PropNames.GITHUB_BULK_ISSUE_COMMENTS, PropDefaults.GITHUB_BULK_ISSUE_COMMENTS).equals("true");
+        }
 
-                            savedIssues = bp.getIssueEventsAddedAt(repo);
-                            for (org.eclipse.egit.github.core.Issue issue : issues3) {
-                                String issueId = repo.generateId() + ":" + issue.getNumber();
-                                if (!needsUpdate(savedIssues.get(issue.getNumber()), true)) {
-                                    log.debug("Skipping fetching events for issue {} - recently updated - {}", new Object[]{issueId, savedIssues.get(issue.getNumber())});
-                                    continue;
-                                } else {
-                                    log.warn("issue {} - last updated: {}", issue.getNumber(), savedIssues.get(issue.getNumber()));
-                                }
-                                log.debug("Pulling events for issue: {} - {}", new Object[]{issueId, savedIssues.get(issue.getNumber())});
-                                try {
-                                    Collection<IssueEvent> evts = imv3.getIssueEvents(repo, issue);
-                                    if (evts != null) {
-                                        log.trace("issue {} events: {}", new Object[]{issueId, evts.size()});
-                                        bp.saveIssueEvents(repo, issue, evts);
-                                    } else {
-                                        log.warn("issue {} events returned null", issueId);
-                                    }
-                                } catch (NullPointerException e) {
-                                    log.error("NullPointer exception getting issue events: {}", issueId);
-                                }
+        @Override
+        protected void execute() throws IOException {
+            Date since = null;
+            if (incremental) {
+                synchronized (bp) {
+                    since = bp.getRepositoryIssuesSince(proj);
+                }
+            }
+            CrawlMetrics.getInstance().setPhase(proj, since == null ? "issues" : "issues updated since " + since);
+            String owner = repo.getOwner().getLogin();
+            IssuePageSaver saver;
+            if (since == null) {
+                saver = new IssuePageSaver(this, false, false);
+                boolean open = imv3.forEachIssue(owner, repo.getName(), IssueService.STATE_OPEN, saver);
+                boolean closed = imv3.forEachIssue(owner, repo.getName(), IssueService.STATE_CLOSED, saver);
+                if (!open && !closed) {
+                    log.warn("No issues for repository {} - probably disabled", proj);
+                }
+                complete = open && closed;
+            } else {
+                log.info("Fetching issues for {} updated since {}", proj, since);
+                saver = new IssuePageSaver(this, true, refreshPulls);
+                complete = imv3.forEachIssueSince(owner, repo.getName(), since, saver);
+                log.info("{} issues updated in {} since {}", new Object[]{saver.getSaved(), proj, since});
+            }
+            latestUpdate = saver.getLatestUpdate();
+            pullsRefreshed = complete && since != null && refreshPulls;
+            if (!bulk.isEmpty()) {
+                fetchCommentsInBulk(since);
+            }
+            if (!complete) {
+                // what was listed is saved, but the list has to be read again
+                throw new IOException("Unable to list all of the issues of " + proj);
+            }
+        }
+
+        /**
+         * Fetches the comments of the issues that need them from the list of
+         * every issue comment in the repository, which takes a call for each
+         * page of comments rather than one for each issue. If the list would
+         * take more calls than that, or can't be read, the comments are
+         * fetched issue by issue instead.
+         *
+         * @param updatedSince the time the issues were listed as updated
+         *        since, or null if every issue was listed
+         */
+        private void fetchCommentsInBulk(final Date updatedSince) {
+            final Date from = bulk.getSince(updatedSince);
+            if (!bulk.isWorthListing(from)) {
+                log.info("Fetching the comments of {} issues of {} one by one, listing them would take about {} pages",
+                        new Object[]{bulk.getIssues().size(), proj, bulk.getEstimatedPages(from)});
+                fetchCommentsIndividually();
+                return;
+            }
+            spawn(new CrawlTask("issue comments " + proj) {
+                protected void execute() {
+                    CrawlMetrics.getInstance().setPhase(proj, "issue comments of " + bulk.getIssues().size() + " issues");
+                    boolean listed = imv3.forEachRepositoryComment(repo, from, new PageHandler<RepositoryComment>() {
+                        public void handlePage(final Collection<RepositoryComment> comments) {
+                            saveCommentPage(comments);
+                        }
+                    });
+                    if (listed) {
+                        // record that each issue has all of its comments, even those with none
+                        synchronized (bp) {
+                            for (org.eclipse.egit.github.core.Issue issue : bulk.getIssues()) {
+                                bp.setIssueCommentsAdded(repo, issue);
                             }
-                        } else {
-                            log.warn("No issues for repository {}/{} - probably disabled", projsplit[0], projsplit[1]);
                         }
                     } else {
-                        log.warn("Repository {} does not have issues enabled", repo.generateId());
+                        log.warn("Unable to list the issue comments of {}, fetching them for each issue", proj);
+                        fetchCommentsIndividually();
                     }
                 }
+            });
+        }
 
-                if (props.getProperty(PropNames.GITHUB_MINE_REPO_PULLREQUESTS, PropDefaults.GITHUB_MINE_REPO_PULLREQUESTS).equals("true")) {
-                    Collection<org.eclipse.egit.github.core.PullRequest> requests3 = pmv3.getAllPullRequests(repo);
-                    if (requests3 != null) {
-                        bp.savePullRequests(repo, requests3);
+        private void fetchCommentsIndividually() {
+            for (org.eclipse.egit.github.core.Issue issue : bulk.getIssues()) {
+                fetchDetails(issue, true, false, false, bulk.getLastComments(issue), null);
+            }
+        }
 
-                        Map<Integer, Date> savedRequests = bp.getPullRequestDiscussionsAddedAt(proj);
-                        log.trace("SavedPullRequest Keys: {}", savedRequests.keySet());
-                        for (org.eclipse.egit.github.core.PullRequest request : requests3) {
-                            if (savedRequests.containsKey(request.getNumber())) {
-                                if (!needsUpdate(savedRequests.get(request.getNumber()), true)) {
-                                    log.debug("Skipping fetching pull request {} - recently updated {}", request.getNumber(), savedRequests.get(request.getNumber()));
-                                    continue;
-                                }
-                            }
+        private void saveCommentPage(final Collection<RepositoryComment> comments) {
+            Map<Integer, List<Comment>> byIssue = bulk.group(comments);
+            int saved = 0;
+            synchronized (bp) {
+                for (Map.Entry<Integer, List<Comment>> entry : byIssue.entrySet()) {
+                    // the issue isn't marked until every page has been saved
+                    bp.saveIssueComments(repo, bulk.getIssue(entry.getKey()), entry.getValue(), false);
+                    saved += entry.getValue().size();
+                }
+            }
+            CrawlMetrics.getInstance().recordSaved(VertexType.COMMENT, saved);
+        }
+
+        /**
+         * @return true if the pull requests were refreshed from the updated
+         *         issues and don't need to be listed again
+         */
+        public boolean isPullsRefreshed() {
+            return pullsRefreshed;
+        }
+
+        /**
+         * Remembers the newest update seen so the next crawl starts from there
+         */
+        void saveBookmark() {
+            if (incremental && complete && latestUpdate != null) {
+                synchronized (bp) {
+                    bp.setRepositoryIssuesSince(repo, latestUpdate);
+                }
+            }
+        }
+
+        void fetchDetails(final org.eclipse.egit.github.core.Issue issue, final boolean comments,
+                final boolean events, final boolean pull, final Date lastComments, final Date lastEvents) {
+            // the name is the key in the crawl journal, so it says what is fetched
+            StringBuilder parts = new StringBuilder();
+            if (comments) {
+                parts.append("comments");
+            }
+            if (events) {
+                parts.append(parts.length() > 0 ? "," : "").append("events");
+            }
+            if (pull) {
+                parts.append(parts.length() > 0 ? "," : "").append("pull");
+            }
+            CrawlTask details = new CrawlTask("issue " + proj + ":" + issue.getNumber() + " " + parts) {
+                protected void execute() throws IOException {
+                    String issueId = repo.generateId() + ":" + issue.getNumber();
+                    List<String> missing = new ArrayList<String>();
+                    if (comments) {
+                        log.debug("Pulling comments for issue: {} - last update: {}", issueId, lastComments);
+                        List<Comment> issueComments = imv3.getIssueComments(repo, issue);
+                        if (issueComments == null) {
+                            missing.add("comments");
+                        } else {
                             try {
-                                PullRequest pullRequest= pmv3.getPullRequest(repo, request.getNumber());
-                                bp.savePullRequest(repo, null, pullRequest, true);
-                                bp.savePullRequestComments(repo, pullRequest, imv3.getPullRequestComments(repo, pullRequest));
+                                synchronized (bp) {
+                                    bp.saveIssueComments(repo, issue, issueComments);
+                                }
+                                CrawlMetrics.getInstance().recordSaved(VertexType.COMMENT, issueComments);
                             } catch (NullPointerException e) {
-                                log.error("NullPointerException saving pull request: {}:{}", proj, request.getNumber());
+                                log.error("NullPointerException saving issue comments: {}:{}", proj, issue);
                             }
                         }
-                    } else {
-                        log.warn("No pull requests for repository {} - probably disabled", repo.generateId());
+                    }
+                    if (events) {
+                        log.debug("Pulling events for issue: {} - {}", new Object[]{issueId, lastEvents});
+                        try {
+                            Collection<IssueEvent> evts = imv3.getIssueEvents(repo, issue);
+                            if (evts != null) {
+                                log.trace("issue {} events: {}", new Object[]{issueId, evts.size()});
+                                synchronized (bp) {
+                                    bp.saveIssueEvents(repo, issue, evts);
+                                }
+                                CrawlMetrics.getInstance().recordSaved(VertexType.ISSUE_EVENT, evts);
+                            } else {
+                                log.warn("issue {} events returned null", issueId);
+                                missing.add("events");
+                            }
+                        } catch (NullPointerException e) {
+                            log.error("NullPointer exception getting issue events: {}", issueId);
+                        }
+                    }
+                    if (pull) {
+                        savePullRequestDetails(repo, proj, issue.getNumber(), pmv3, imv3);
+                    }
+                    if (!missing.isEmpty()) {
+                        throw new IOException("Unable to fetch the " + missing + " of issue " + issueId);
                     }
                 }
+            };
+            long now = System.currentTimeMillis();
+            double priority = Math.max(comments ? Staleness.priority(Staleness.WEIGHT_ISSUE, now, lastComments) : 0.0,
+                    events ? Staleness.priority(Staleness.WEIGHT_ISSUE, now, lastEvents) : 0.0);
+            spawn(details.setPriority(priority));
+        }
+    }
 
-                if (props.getProperty(PropNames.GITHUB_MINE_REPO_USERS, PropDefaults.GITHUB_MINE_REPO_USERS).equals("true")) {
-                    log.trace("calling getProjectUsersLastFullUpdate");
-                    Map<String, Date> allProjectUsers = bp.getProjectUsersLastFullUpdate(proj);
-                    Map<String, Date> allProjectUsersGists = bp.getProjectUsersLastGistsUpdate(proj);
-                    Map<String, Date> allProjectUsersEvents = bp.getProjectUsersLastEventsUpdate(proj);
-                    log.trace("keyset: {}", allProjectUsers.keySet());
-                    int ctr = 0;
-                    int numUsers = allProjectUsers.size();
-                    for (Map.Entry<String, Date> entry : allProjectUsers.entrySet()) {
-                        String username = entry.getKey();
-                        Date lastFullUpdate = entry.getValue();
-                        Date lastGistsUpdate = allProjectUsersGists.get(username);
-                        Date lastEventsUpdate = allProjectUsersEvents.get(username);
-                        if (username == null || username.trim().equals("")) {
-                            log.warn("null/empty username! continuing");
-                            continue;
-                        }
-                        ++ctr;
-                        // FIXME: these should be extracted into a single method...
-                        if (needsUpdate(lastFullUpdate, true)) {
-                            log.trace("last updated: {}", lastFullUpdate);
-                            log.debug("Fetching {} user {}/{}: {}", new Object[]{proj, ctr, numUsers, username});
-                            fetchAllUserData(bp, umv3, rmv3, wmv3, username);
-                        } else {
-                            log.debug("Fecthing {} user {}/{}: {} needs no update - last update {}", new Object[]{proj, ctr, numUsers, username, lastFullUpdate});
-                        }
-                        
-                        if (props.getProperty(PropNames.GITHUB_MINE_USER_EVENTS, PropDefaults.GITHUB_MINE_USER_EVENTS).equals("true") &&
-                                needsUpdate(lastEventsUpdate, true)) {
-                            log.debug("Fetching {} events for user {}/{}: {} - last update: {}", new Object[]{proj, ctr, numUsers, username, lastEventsUpdate});
-                            fetchAllUserEvents(bp, emv3, username);
-                        } else {
-                            log.debug("Fetching {} events for user {}/{}: {} needs no update/disabled - last update: {}", new Object[]{proj, ctr, numUsers, username, lastEventsUpdate});
-                        }
-                        
-                        if (props.getProperty(PropNames.GITHUB_MINE_USER_GISTS, PropDefaults.GITHUB_MINE_USER_GISTS).equals("true") &&
-                                needsUpdate(lastGistsUpdate, true)) {
-                            log.debug("Fetching {} gists for user {}/{}: {} - last update: {}", new Object[]{proj, ctr, numUsers, username, lastEventsUpdate});
-                            fetchAllUserGists(bp, gmv3, username);
-                        } else {
-                            log.debug("Fetching {} gists for user {}/{}: {} needs no update/disabled - last update: {}", new Object[]{proj, ctr, numUsers, username, lastGistsUpdate});
+    /**
+     * Saves each page of issues as it arrives and starts a task for the
+     * comments and events of each issue, and keeps track of the most recent
+     * update time seen.
+     *
+     * When the issues are only those updated since the last crawl their
+     * comments and events are always refreshed. Any of them that are pull
+     * requests can also be refreshed, as a comment or a push to a pull request
+     * also updates its issue.
+     */
+    private class IssuePageSaver implements PageHandler<org.eclipse.egit.github.core.Issue> {
+        private final IssuesTask task;
+        private final boolean updatedOnly;
+        private final boolean refreshPulls;
+        private final Map<Integer, Date> savedComments;
+        private final Map<Integer, Date> savedEvents;
+        private Date latestUpdate = null;
+        private int saved = 0;
+
+        IssuePageSaver(final IssuesTask task, final boolean updatedOnly, final boolean refreshPulls) {
+            this.task = task;
+            this.updatedOnly = updatedOnly;
+            this.refreshPulls = refreshPulls;
+            if (updatedOnly || refreshTime == 0) {
+                // everything is fetched again, and what is asked for mustn't
+                // depend on the graph so an ingest asks for what was recorded
+                savedComments = new HashMap<Integer, Date>();
+                savedEvents = new HashMap<Integer, Date>();
+            } else {
+                synchronized (bp) {
+                    savedComments = bp.getIssueCommentsAddedAt(task.proj);
+                    savedEvents = bp.getIssueEventsAddedAt(task.repo);
+                }
+                log.trace("SavedIssues Keys: {}", savedComments.keySet());
+            }
+        }
+
+        public Date getLatestUpdate() {
+            return latestUpdate;
+        }
+
+        public int getSaved() {
+            return saved;
+        }
+
+        public void handlePage(final Collection<org.eclipse.egit.github.core.Issue> issues) {
+            synchronized (bp) {
+                bp.saveRepositoryIssues(task.repo, issues);
+            }
+            CrawlMetrics.getInstance().recordSaved(VertexType.ISSUE, issues);
+            saved += issues.size();
+            for (org.eclipse.egit.github.core.Issue issue : issues) {
+                Date updated = issue.getUpdatedAt();
+                if (updated != null && (latestUpdate == null || updated.after(latestUpdate))) {
+                    latestUpdate = updated;
+                }
+            }
+            for (org.eclipse.egit.github.core.Issue issue : issues) {
+                String issueId = task.repo.generateId() + ":" + issue.getNumber();
+                Date lastComments = savedComments.get(issue.getNumber());
+                Date lastEvents = savedEvents.get(issue.getNumber());
+                boolean comments = updatedOnly || needsUpdate(lastComments, true);
+                if (!comments) {
+                    log.debug("Skipping fetching comments for issue {} - recently updated {}", issueId, lastComments);
+                }
+                boolean events = updatedOnly || needsUpdate(lastEvents, true);
+                if (!events) {
+                    log.debug("Skipping fetching events for issue {} - recently updated - {}", new Object[]{issueId, lastEvents});
+                } else {
+                    log.warn("issue {} - last updated: {}", issue.getNumber(), lastEvents);
+                }
+                boolean pull = refreshPulls && issue.getPullRequest() != null && issue.getPullRequest().getHtmlUrl() != null;
+                if (task.bulkComments) {
+                    task.bulk.listed(issue);
+                }
+                if (comments && task.bulkComments) {
+                    task.bulk.add(issue, lastComments);
+                    comments = false;
+                }
+                if (comments || events || pull) {
+                    task.fetchDetails(issue, comments, events, pull, lastComments, lastEvents);
+                }
+            }
+        }
+    }
+
+    /**
+     * Saves the pull requests of a repository, fetching the full details and
+     * comments of those that haven't been updated recently.
+     *
+     * Like {@link IssuesTask} each page is saved as soon as it arrives and
+     * the details of each pull request are fetched by a task of their own.
+     * If the issues of the repository were only those updated since the last
+     * crawl the pull requests have already been refreshed from them.
+     */
+    private class PullRequestsTask extends CrawlTask {
+        private final Repository repo;
+        private final String proj;
+        private final IssuesTask issues;
+
+        PullRequestsTask(final Repository repo, final String proj, final IssuesTask issues,
+                final CrawlTask... dependencies) {
+            super("pull requests " + proj, dependencies);
+            this.repo = repo;
+            this.proj = proj;
+            this.issues = issues;
+        }
+
+        @Override
+        protected void execute() throws IOException {
+            if (issues != null && issues.isPullsRefreshed()) {
+                return;
+            }
+            CrawlMetrics.getInstance().setPhase(proj, "pull requests");
+            final Map<Integer, Date> savedRequests;
+            synchronized (bp) {
+                savedRequests = bp.getPullRequestDiscussionsAddedAt(proj);
+            }
+            log.trace("SavedPullRequest Keys: {}", savedRequests.keySet());
+            boolean found = pmv3.forEachPullRequest(repo, new PageHandler<PullRequest>() {
+                public void handlePage(final Collection<PullRequest> requests) {
+                    synchronized (bp) {
+                        bp.savePullRequests(repo, requests);
+                    }
+                    CrawlMetrics.getInstance().recordSaved(VertexType.PULLREQUEST, requests);
+                    for (PullRequest request : requests) {
+                        if (savedRequests.containsKey(request.getNumber())) {
+                            if (!needsUpdate(savedRequests.get(request.getNumber()), true)) {
+                                log.debug("Skipping fetching pull request {} - recently updated {}", request.getNumber(), savedRequests.get(request.getNumber()));
+                                continue;
+                            }
                         }
+                        fetchDetails(request.getNumber(), savedRequests.get(request.getNumber()));
                     }
                 }
+            });
+            if (!found) {
+                throw new IOException("Unable to list the pull requests of " + proj);
             }
         }
 
-        // FIXME: this should check for when the user was last updated
-        if (props.getProperty(PropNames.GITHUB_MINE_USERS, PropDefaults.GITHUB_MINE_USERS).equals("true")) {
-            for (String username : users) {
-                fetchAllUserData(bp, umv3, rmv3, wmv3, username);
-                if (props.getProperty(PropNames.GITHUB_MINE_USER_EVENTS, PropDefaults.GITHUB_MINE_USER_EVENTS).equals("true")) {
+        void fetchDetails(final int number, final Date lastFetched) {
+            CrawlTask details = new CrawlTask("pull request " + proj + ":" + number) {
+                protected void execute() throws IOException {
+                    savePullRequestDetails(repo, proj, number, pmv3, imv3);
+                }
+            };
+            spawn(details.setPriority(Staleness.priority(Staleness.WEIGHT_PULL_REQUEST, System.currentTimeMillis(), lastFetched)));
+        }
+    }
+
+    /**
+     * Fetches the users of a project that haven't been updated recently,
+     * each of them in a task of its own
+     */
+    private class ProjectUsersTask extends CrawlTask {
+        private final String proj;
+
+        ProjectUsersTask(final String proj, final CrawlTask... dependencies) {
+            super("users " + proj, dependencies);
+            this.proj = proj;
+        }
+
+        @Override
+        protected void execute() {
+            log.trace("calling getProjectUsersLastFullUpdate");
+            Map<String, Date> allProjectUsers;
+            Map<String, Date> allProjectUsersGists;
+            Map<String, Date> allProjectUsersEvents;
+            synchronized (bp) {
+                allProjectUsers = bp.getProjectUsersLastFullUpdate(proj);
+                allProjectUsersGists = bp.getProjectUsersLastGistsUpdate(proj);
+                allProjectUsersEvents = bp.getProjectUsersLastEventsUpdate(proj);
+            }
+            log.trace("keyset: {}", allProjectUsers.keySet());
+            int ctr = 0;
+            int numUsers = allProjectUsers.size();
+            List<CrawlTask> userTasks = new ArrayList<CrawlTask>();
+            for (Map.Entry<String, Date> entry : allProjectUsers.entrySet()) {
+                String username = entry.getKey();
+                Date lastFullUpdate = entry.getValue();
+                Date lastGistsUpdate = allProjectUsersGists.get(username);
+                Date lastEventsUpdate = allProjectUsersEvents.get(username);
+                if (username == null || username.trim().equals("")) {
+                    log.warn("null/empty username! continuing");
+                    continue;
+                }
+                if (isIngesting() && !archive.hasRecorded("/users/" + username)) {
+                    // the graph knows of users the worker that recorded the
+                    // archive didn't, and there is nothing to load for them
+                    log.debug("No responses recorded for {} user {}", proj, username);
+                    continue;
+                }
+                ++ctr;
+                CrawlTask userTask = planUserTask(username, proj + " user " + ctr + "/" + numUsers,
+                        lastFullUpdate, lastEventsUpdate, lastGistsUpdate);
+                if (userTask != null) {
+                    userTasks.add(userTask);
+                }
+            }
+            // spawn the stalest users first as those that don't fit in the
+            // queue run straight away
+            Collections.sort(userTasks, new Comparator<CrawlTask>() {
+                public int compare(final CrawlTask a, final CrawlTask b) {
+                    return Double.compare(b.getPriority(), a.getPriority());
+                }
+            });
+            CrawlMetrics.getInstance().setPhase(proj, "users: " + userTasks.size() + " of " + numUsers + " to fetch");
+            for (CrawlTask userTask : userTasks) {
+                spawn(userTask);
+            }
+        }
+    }
+
+    /**
+     * Works out which parts of a user need fetching, whether they are in the
+     * crawl because of a project or because they were listed.
+     *
+     * A part is fetched if it is enabled, hasn't been refreshed within the
+     * refresh time and hasn't already been taken on by another task in this
+     * run, see {@link UserWorkRegistry}.
+     *
+     * @param label describes the user in log messages
+     * @return a task for the parts that need fetching, or null if none do
+     */
+    private CrawlTask planUserTask(final String username, final String label,
+            final Date lastFullUpdate, final Date lastEventsUpdate, final Date lastGistsUpdate) {
+        long now = System.currentTimeMillis();
+        int wanted = 0;
+        double priority = 0.0;
+        if (needsUpdate(lastFullUpdate, true)) {
+            log.trace("last updated: {}", lastFullUpdate);
+            wanted |= UserWorkRegistry.FULL;
+            priority = Math.max(priority, Staleness.priority(Staleness.WEIGHT_USER, now, lastFullUpdate));
+        } else {
+            log.debug("Fetching {}: {} needs no update - last update {}", new Object[]{label, username, lastFullUpdate});
+        }
+
+        if (props.getProperty(PropNames.GITHUB_MINE_USER_EVENTS, PropDefaults.GITHUB_MINE_USER_EVENTS).equals("true") &&
+                needsUpdate(lastEventsUpdate, true)) {
+            wanted |= UserWorkRegistry.EVENTS;
+            priority = Math.max(priority, Staleness.priority(Staleness.WEIGHT_USER, now, lastEventsUpdate));
+        } else {
+            log.debug("Fetching events for {}: {} needs no update/disabled - last update: {}", new Object[]{label, username, lastEventsUpdate});
+        }
+
+        if (props.getProperty(PropNames.GITHUB_MINE_USER_GISTS, PropDefaults.GITHUB_MINE_USER_GISTS).equals("true") &&
+                needsUpdate(lastGistsUpdate, true)) {
+            wanted |= UserWorkRegistry.GISTS;
+            priority = Math.max(priority, Staleness.priority(Staleness.WEIGHT_USER, now, lastGistsUpdate));
+        } else {
+            log.debug("Fetching gists for {}: {} needs no update/disabled - last update: {}", new Object[]{label, username, lastGistsUpdate});
+        }
+
+        if (wanted == 0) {
+            return null;
+        }
+        int parts = userWork.claim(username, wanted);
+        if (parts != wanted) {
+            log.debug("Fetching {}: {} {} already taken on in this run", new Object[]{label, username,
+                    UserWorkRegistry.describe(wanted & ~parts)});
+        }
+        if (parts == 0) {
+            return null;
+        }
+        log.debug("Fetching {}: {} - {}", new Object[]{label, username, UserWorkRegistry.describe(parts)});
+        return new UserTask(username, parts).setPriority(priority);
+    }
+
+    /**
+     * Fetches the data, events and gists of a single user, or those parts
+     * of them that were claimed for it
+     */
+    private class UserTask extends CrawlTask {
+        private final String username;
+        private final int parts;
+
+        UserTask(final String username, final int parts) {
+            super("user " + username + " " + UserWorkRegistry.describe(parts));
+            this.username = username;
+            this.parts = parts;
+        }
+
+        @Override
+        protected void execute() throws IOException {
+            int done = 0;
+            try {
+                if ((parts & UserWorkRegistry.FULL) != 0) {
+                    fetchAllUserData(bp, umv3, rmv3, wmv3, username);
+                    done |= UserWorkRegistry.FULL;
+                }
+                if ((parts & UserWorkRegistry.EVENTS) != 0) {
                     fetchAllUserEvents(bp, emv3, username);
+                    done |= UserWorkRegistry.EVENTS;
                 }
-                if (props.getProperty(PropNames.GITHUB_MINE_USER_GISTS, PropDefaults.GITHUB_MINE_USER_GISTS).equals("true")) {
+                if ((parts & UserWorkRegistry.GISTS) != 0) {
                     fetchAllUserGists(bp, gmv3, username);
+                    done |= UserWorkRegistry.GISTS;
+                }
+            } finally {
+                if (done != parts) {
+                    // let another project have a go at what wasn't fetched
+                    userWork.release(username, parts & ~done);
                 }
             }
         }
+    }
 
-        if (props.getProperty(PropNames.GITHUB_MINE_ORGANIZATIONS, PropDefaults.GITHUB_MINE_ORGANIZATIONS).equals("true")) {
-            for (String organizationName : organizations) {
-                log.warn("Fetching organization: {}", organizationName);
-                User organization = omv3.getOrganization(organizationName);
-                bp.saveUser(organization);
-                // This method fails when you're not an administrator of the organization
-                //			try {
-                //				bp.saveOrganizationOwners(organization, om.getOrganizationOwners(organization));
-                //			} catch (GitHubException e) {
-                //				log.info("Unable to fetch owners: {}", GitHubErrorPrimative.createGitHubErrorPrimative(e).getError());
-                //			}
-                bp.saveOrganizationPublicMembers(organization, omv3.getPublicMembers(organization.getLogin()));
-                bp.saveOrganizationPublicRepositories(organizationName, rmv3.getRepositories(organization.getLogin()));
-                // This fails when not an administrator of the organization
-                //			try {
-                //				List<Team> teams = om.getOrganizationTeams(organization);
-                //				bp.saveOrganizationTeams(organization, teams);
-                //				for (Team team : teams) {
-                //					bp.saveTeamMembers(team.getId(), om.getOrganizationTeamMembers(team.getId()));
-                //					bp.saveTeamRepositories(team.getId(), om.getOrganizationTeamRepositories(team.getId()));
-                //				}
-                //			} catch (GitHubException e) {
-                //				log.info("Unable to fetch teams: {}", GitHubErrorPrimative.createGitHubErrorPrimative(e).getError());
-                //			}
+    private void savePullRequestDetails(final Repository repo, final String proj, final int number,
+            final PullMinerV3 pmv3, final IssueMinerV3 imv3) throws IOException {
+        PullRequest pullRequest = fetched(pmv3.getPullRequest(repo, number), "pull request " + proj + ":" + number);
+        List<Comment> comments = fetched(imv3.getPullRequestComments(repo, pullRequest),
+                "comments of pull request " + proj + ":" + number);
+        try {
+            synchronized (bp) {
+                bp.savePullRequest(repo, null, pullRequest, true);
+                bp.savePullRequestComments(repo, pullRequest, comments);
             }
+            CrawlMetrics.getInstance().recordSaved(VertexType.DISCUSSION, comments);
+        } catch (NullPointerException e) {
+            log.error("NullPointerException saving pull request: {}:{}", proj, number);
         }
+    }
 
-        log.info("Shutting down graph");
-        bp.shutdown();
+    /**
+     * Sets up the credentials to use for the crawl. When replaying an archive
+     * this is a single fake credential that serves the archived responses.
+     */
+    private CredentialPool createCredentialPool(final RetryEngine retryEngine, final QuotaLedger ledger) {
+        String archiveMode = props.getProperty(PropNames.GITHUB_ARCHIVE_MODE, PropDefaults.GITHUB_ARCHIVE_MODE).trim();
+        String archiveDir = props.getProperty(PropNames.GITHUB_ARCHIVE_DIR, PropDefaults.GITHUB_ARCHIVE_DIR).trim();
+        try {
+            if (archiveMode.equals(ARCHIVE_MODE_RECORD)) {
+                log.info("Recording responses to {}", archiveDir);
+                long segmentSize = Long.parseLong(props.getProperty(PropNames.GITHUB_ARCHIVE_SEGMENT_SIZE, PropDefaults.GITHUB_ARCHIVE_SEGMENT_SIZE).trim());
+                archive = new HttpArchive(new File(archiveDir), true, segmentSize * 1024 * 1024);
+            } else if (archiveMode.equals(ARCHIVE_MODE_REPLAY)) {
+                log.info("Replaying responses from {}", archiveDir);
+                archive = new HttpArchive(new File(archiveDir), false);
+                long latency = Long.parseLong(props.getProperty(PropNames.GITHUB_ARCHIVE_LATENCY, PropDefaults.GITHUB_ARCHIVE_LATENCY).trim());
+                int limit = Integer.parseInt(props.getProperty(PropNames.GITHUB_ARCHIVE_RATE_LIMIT, PropDefaults.GITHUB_ARCHIVE_RATE_LIMIT).trim());
+                CredentialPool pool = new CredentialPool(retryEngine, ledger);
+                pool.addCredential(ReplayGitHubInvocationHandler.createReplayGitHubClient(archive, latency, limit), v3throttle);
+                return pool;
+            } else if (archiveMode.equals(ARCHIVE_MODE_INGEST)) {
+                // load the archive into the graph as fast as it can be read,
+                // without any simulated latency or rate limit
+                log.info("Ingesting responses from {}", archiveDir);
+                archive = new HttpArchive(new File(archiveDir), false);
+                ApiThrottle ingestThrottle = new ApiThrottle();
+                ingestThrottle.setId("ingest");
+                CredentialPool pool = new CredentialPool(retryEngine, ledger);
+                pool.addCredential(ReplayGitHubInvocationHandler.createIngestGitHubClient(archive), ingestThrottle);
+                return pool;
+            } else if (!archiveMode.equals("")) {
+                log.error("Unknown value for {}: {}", PropNames.GITHUB_ARCHIVE_MODE, archiveMode);
+                System.exit(-1);
+            }
+        } catch (IOException e) {
+            log.error("Unable to open archive {}: {}", archiveDir, e.getMessage());
+            System.exit(-1);
+        }
+
+        GitHubClient ghc = createGitHubClient();
+        String githubUsername = props.getProperty(PropNames.GITHUB_LOGIN, PropDefaults.GITHUB_LOGIN).trim();
+        String githubPassword = props.getProperty(PropNames.GITHUB_PASSWORD, PropDefaults.GITHUB_PASSWORD);
+        String githubToken    = props.getProperty(PropNames.GITHUB_TOKEN, PropDefaults.GITHUB_TOKEN).trim();
+        if (!githubUsername.equals("") && !githubPassword.equals("")) {
+            ghc.setCredentials(githubUsername, githubPassword);
+        } else if (!githubToken.equals("")) {
+            ghc.setOAuth2Token(githubToken);
+        } else {
+            log.error("Must set properties {} and {}, or {}", new String[]{PropNames.GITHUB_LOGIN, PropNames.GITHUB_PASSWORD, PropNames.GITHUB_TOKEN});
+            log.error("Without these properties you'll be limited to 60 queries and hour, and I'm not going to do that.");
+            System.exit(-1);
+        }
+        String email = props.getProperty(PropNames.EMAIL_ADDRESS, PropDefaults.EMAIL_ADDRESS).trim();
+        if (email.equals("")) {
+            log.error("Must set property {}", PropNames.EMAIL_ADDRESS);
+            log.error("GitHub has requested that contact information be included in the user agent field. This address is only used to append to GitMiner user agent.");
+            System.exit(-1);
+        }
+        String userAgent = "GitMiner ( version: " + Constants.VERSION + ", https://github.com/pridkett/gitminer, based off egit, user: " + githubUsername + " email: " + email + " )";
+        ghc.setUserAgent(userAgent);
+
+        // every credential gets its own throttle, calls go to the one with the most budget left
+        CredentialPool pool = new CredentialPool(retryEngine, ledger);
+        shareThrottle(v3throttle, githubToken.equals("") ? githubUsername : githubToken);
+        pool.addCredential(wrapForRecording(ghc), v3throttle);
+        int tokenCtr = 1;
+        for (String token : props.getProperty(PropNames.GITHUB_TOKENS, PropDefaults.GITHUB_TOKENS).split(",")) {
+            if (token.trim().equals("")) {
+                continue;
+            }
+            GitHubClient tokenClient = createGitHubClient();
+            tokenClient.setOAuth2Token(token.trim());
+            tokenClient.setUserAgent(userAgent);
+            ApiThrottle tokenThrottle = new ApiThrottle();
+            configureThrottle(tokenThrottle, "v3-token" + (++tokenCtr));
+            shareThrottle(tokenThrottle, token.trim());
+            pool.addCredential(wrapForRecording(tokenClient), tokenThrottle);
+        }
+        return pool;
+    }
+
+    /**
+     * @return whether the crawl is loading an archive into the graph
+     */
+    private boolean isIngesting() {
+        return archive != null && props.getProperty(PropNames.GITHUB_ARCHIVE_MODE,
+                PropDefaults.GITHUB_ARCHIVE_MODE).trim().equals(ARCHIVE_MODE_INGEST);
+    }
+
+    /**
+     * Opens the journal that lets an interrupted crawl be resumed, if one has
+     * been set
+     *
+     * @return the journal or null if the crawl isn't journaled
+     */
+    private CrawlJournal openCrawlJournal() {
+        String journalFile = props.getProperty(PropNames.GITHUB_CRAWL_JOURNAL, PropDefaults.GITHUB_CRAWL_JOURNAL).trim();
+        if (journalFile.equals("")) {
+            return null;
+        }
+        try {
+            log.info("Journaling crawl to {}", journalFile);
+            return new CrawlJournal(new File(journalFile));
+        } catch (IOException e) {
+            log.error("Unable to open crawl journal {}: {}", journalFile, e.getMessage());
+            System.exit(-1);
+        }
+        return null;
+    }
+
+    /**
+     * Shares the budget of a throttle with the other processes on this host
+     * that use the same credentials, if a directory for the shared state has
+     * been set
+     */
+    private void shareThrottle(final ApiThrottle throttle, final String credential) {
+        String sharedDir = props.getProperty(PropNames.GITHUB_THROTTLE_SHARED_DIR, PropDefaults.GITHUB_THROTTLE_SHARED_DIR).trim();
+        if (sharedDir.equals("")) {
+            return;
+        }
+        try {
+            SharedThrottleState state = new SharedThrottleState(new File(sharedDir), credential);
+            log.info("[{}] Sharing rate limit through {}", throttle.getId(), state.getFile());
+            throttle.setSharedState(state);
+        } catch (IOException e) {
+            log.error("Unable to open shared throttle state in {}: {}", sharedDir, e.getMessage());
+            System.exit(-1);
+        }
+    }
+
+    /**
+     * Wraps a client so its responses are recorded if an archive is being written
+     */
+    private IGitHubClient wrapForRecording(final IGitHubClient client) {
+        if (archive == null) {
+            return client;
+        }
+        return RecordingGitHubInvocationHandler.createRecordingGitHubClient(client, archive);
+    }
+
+    /**
+     * Creates an unconfigured client for the configured API host, one that
+     * makes conditional requests if a cache directory has been set
+     */
+    private GitHubClient createGitHubClient() {
+        String host = props.getProperty(PropNames.GITHUB_API_HOST, PropDefaults.GITHUB_API_HOST).trim();
+        int port = Integer.parseInt(props.getProperty(PropNames.GITHUB_API_PORT, PropDefaults.GITHUB_API_PORT).trim());
+        String scheme = props.getProperty(PropNames.GITHUB_API_SCHEME, PropDefaults.GITHUB_API_SCHEME).trim();
+        if (requestCache != null) {
+            return new CachingGitHubClient(host, port, scheme, requestCache);
+        }
+        return new RetryAfterGitHubClient(host, port, scheme);
+    }
+
+    /**
+     * Creates the retry engine shared by all credentials using the retry
+     * settings from the properties
+     */
+    private RetryEngine createRetryEngine() {
+        RetryEngine retryEngine = new RetryEngine();
+        retryEngine.setMaxAttempts(Integer.parseInt(props.getProperty(PropNames.GITHUB_RETRY_MAX_ATTEMPTS, PropDefaults.GITHUB_RETRY_MAX_ATTEMPTS).trim()));
+        retryEngine.setBaseDelay(Long.parseLong(props.getProperty(PropNames.GITHUB_RETRY_BASE_DELAY, PropDefaults.GITHUB_RETRY_BASE_DELAY).trim()));
+        retryEngine.setMaxDelay(Long.parseLong(props.getProperty(PropNames.GITHUB_RETRY_MAX_DELAY, PropDefaults.GITHUB_RETRY_MAX_DELAY).trim()));
+        retryEngine.setBudgetRatio(Double.parseDouble(props.getProperty(PropNames.GITHUB_RETRY_BUDGET, PropDefaults.GITHUB_RETRY_BUDGET).trim()));
+        return retryEngine;
+    }
+
+    /**
+     * Creates the ledger that accounts for the quota spent on each endpoint
+     * family, holding back lower priority calls as set in the properties
+     */
+    private QuotaLedger createQuotaLedger() {
+        QuotaLedger ledger = new QuotaLedger();
+        ledger.setCoreReserve(Double.parseDouble(props.getProperty(PropNames.GITHUB_THROTTLE_CORE_RESERVE, PropDefaults.GITHUB_THROTTLE_CORE_RESERVE).trim()));
+        for (String share : props.getProperty(PropNames.GITHUB_THROTTLE_SHARES, PropDefaults.GITHUB_THROTTLE_SHARES).split(",")) {
+            if (share.trim().equals("")) {
+                continue;
+            }
+            String[] parts = share.split(":");
+            if (parts.length != 2) {
+                log.error("Invalid value for {}: {}", PropNames.GITHUB_THROTTLE_SHARES, share);
+                System.exit(-1);
+            }
+            log.info("Limiting {} calls to {} of each rate limit window", parts[0].trim(), parts[1].trim());
+            ledger.setShare(parts[0].trim(), Double.parseDouble(parts[1].trim()));
+        }
+        return ledger;
+    }
+
+    /**
+     * Applies the throttle settings from the properties to a throttle
+     *
+     * @param throttle the throttle to configure
+     * @param id the identifier to use for the throttle in log messages
+     */
+    private void configureThrottle(final ApiThrottle throttle, final String id) {
+        throttle.setId(id);
+        int v3MaxCalls = Integer.parseInt(props.getProperty(PropNames.GITHUB_THROTTLE_MAX_CALLS, PropDefaults.GITHUB_THROTTLE_MAX_CALLS));
+        int v3MaxCallsInterval = Integer.parseInt(props.getProperty(PropNames.GITHUB_THROTTLE_MAX_CALLS_INTERVAL, PropDefaults.GITHUB_THROTTLE_MAX_CALLS_INTERVAL));
+        boolean adaptive = props.getProperty(PropNames.GITHUB_THROTTLE_ADAPTIVE, PropDefaults.GITHUB_THROTTLE_ADAPTIVE).equals("true");
+        if (adaptive) {
+            double maxRate = Double.parseDouble(props.getProperty(PropNames.GITHUB_THROTTLE_ADAPTIVE_MAX_RATE, PropDefaults.GITHUB_THROTTLE_ADAPTIVE_MAX_RATE).trim());
+            double initialRate = 1.0;
+            if (v3MaxCalls > 0 && v3MaxCallsInterval > 0) {
+                initialRate = (double) v3MaxCalls / v3MaxCallsInterval;
+            }
+            log.info("Setting {} adaptive pacing starting at {} calls/s", id, initialRate);
+            AdaptivePacer pacer = new AdaptivePacer(initialRate, ADAPTIVE_MIN_RATE, maxRate);
+            pacer.setId(id);
+            throttle.setPacer(pacer);
+        } else if (v3MaxCalls >0 && v3MaxCallsInterval > 0) {
+            log.info("Setting {} Max Call Rate: {}/{}", new Object[]{id, v3MaxCalls, v3MaxCallsInterval});
+            throttle.setMaxRate(v3MaxCalls, v3MaxCallsInterval);
+        }
+        throttle.setMode(props.getProperty(PropNames.GITHUB_THROTTLE_MODE, PropDefaults.GITHUB_THROTTLE_MODE).trim());
+    }
+
+    /**
+     * Miners log their errors and return null. This turns a null back into a
+     * failure so the task fails and isn't recorded as done in the journal.
+     *
+     * @param value what a miner returned
+     * @param what describes the value in the exception
+     * @return the value if it isn't null
+     * @throws IOException if the value is null
+     */
+    private static <T> T fetched(final T value, final String what) throws IOException {
+        if (value == null) {
+            throw new IOException("Unable to fetch " + what);
+        }
+        return value;
     }
 
     /**
@@ -355,7 +1389,9 @@ public class GitHubMain {
         
         if (user.getType().toLowerCase().equals("organization")) {
             Collection<User> members = omv3.getPublicMembers(user.getLogin());
-            bp.saveOrganizationPublicMembers(user, members);
+            synchronized (bp) {
+                bp.saveOrganizationPublicMembers(user, members);
+            }
         } else {
             log.warn("Project owner is not an organization: {}", user.getType());
         }
@@ -393,53 +1429,69 @@ public class GitHubMain {
     }
 
     private void fetchAllUserEvents(final BlueprintsDriver bp, final EventMinerV3 emv3,
-            final String username) {
-        List<Event> events = emv3.getUserEvents(username);
-        if (events != null) {
+            final String username) throws IOException {
+        List<Event> events = fetched(emv3.getUserEvents(username), "events of user " + username);
+        synchronized (bp) {
             bp.saveUserEvents(username, events);
-        } else {
-            log.debug("user: {} null events", username);
         }
+        CrawlMetrics.getInstance().recordSaved(VertexType.EVENT, events);
     }
     
-    private void fetchAllUserData(final BlueprintsDriver bp, final UserMinerV3 umv3, final RepositoryMinerV3 rmv3, final WatcherMinerV3 wmv3, final String user) {
+    private void fetchAllUserData(final BlueprintsDriver bp, final UserMinerV3 umv3, final RepositoryMinerV3 rmv3,
+            final WatcherMinerV3 wmv3, final String user) throws IOException {
+        List<String> missing = new ArrayList<String>();
         List<User> followers = umv3.getFollowers(user);
         if (followers != null) {
-            bp.saveUserFollowers(user, followers);
+            synchronized (bp) {
+                bp.saveUserFollowers(user, followers);
+            }
         } else {
             log.debug("user: {} null followers", user);
+            missing.add("followers");
         }
 
         List<org.eclipse.egit.github.core.User> following = umv3.getFollowing(user);
         if (following != null) {
-            bp.saveUserFollowing(user, following);
+            synchronized (bp) {
+                bp.saveUserFollowing(user, following);
+            }
         } else {
             log.debug("user: {} null fullowing", user);
+            missing.add("following");
         }
 
         List<org.eclipse.egit.github.core.Repository> watchedRepos = wmv3.getWatched(user);
         if (watchedRepos != null) {
-            bp.saveUserWatchedRepositories(user, watchedRepos);
+            synchronized (bp) {
+                bp.saveUserWatchedRepositories(user, watchedRepos);
+            }
         } else {
             log.debug("user: {} null watched repositories", user);
+            missing.add("watched repositories");
         }
 
         List<org.eclipse.egit.github.core.Repository> userRepos = rmv3.getRepositories(user);
         if (userRepos != null) {
-            bp.saveUserRepositories(user, userRepos);
+            synchronized (bp) {
+                bp.saveUserRepositories(user, userRepos);
+            }
         } else {
             log.debug("user: {} null user repositries", user);
+            missing.add("repositories");
+
+        }
 
+        if (!missing.isEmpty()) {
+            throw new IOException("Unable to fetch the " + missing + " of user " + user);
         }
 
         // yes, the user is saved last, this way if any of the other parts
         // fail we don't accidentally say the user was updated
-        User userInfo = umv3.getUser(user);
-        if (userInfo != null) {
+        User userInfo = fetched(umv3.getUser(user), "user " + user);
+        synchronized (bp) {
             bp.saveUser(userInfo, true);
-        } else {
-            log.debug("user: {} null user information", user);
         }
+        CrawlMetrics.getInstance().recordSaved(VertexType.USER, 1);
     }
     //    private void fetchAllUserData(BlueprintsDriver bp, UserMiner um, RepositoryMiner rm, GistMiner gm, String user) {
     //        List<String> followers = um.getUserFollowers(user);
@@ -491,9 +1543,13 @@ public class GitHubMain {
     //    }
 
     private void fetchAllUserGists(final BlueprintsDriver bp,
-            final GistMinerV3 gmv3, final String user) {
+            final GistMinerV3 gmv3, final String user) throws IOException {
         if (props.getProperty(PropNames.GITHUB_MINE_GISTS, PropDefaults.GITHUB_MINE_GISTS).equals("true")) {
-            bp.saveUserGists(user, gmv3.getGists(user));
+            List<Gist> gists = fetched(gmv3.getGists(user), "gists of user " + user);
+            synchronized (bp) {
+                bp.saveUserGists(user, gists);
+            }
+            CrawlMetrics.getInstance().recordSaved(VertexType.GIST, gists);
         }
     }
 
@@ -15,6 +15,8 @@
  */
 package net.wagstrom.research.github;
 
+import java.io.IOException;
+
 import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.args4j.CmdLineParser;
 import org.kohsuke.args4j.Option;
@@ -43,6 +45,18 @@ public class Github {
     @Option(name="-l", usage="file for logback configuration")
     private String logbackFile = null;
 
+    @Option(name="-ingest", usage="load a recorded archive directory into the graph instead of crawling GitHub")
+    private String ingestDir = null;
+
+    @Option(name="-plan", usage="estimate the API calls and time of a crawl without running it")
+    private boolean plan = false;
+
+    @Option(name="-coordinate", usage="queue the configured work for workers and load what they fetch into the graph")
+    private boolean coordinate = false;
+
+    @Option(name="-worker", usage="crawl work from the queue as a worker with the given name")
+    private String worker = null;
+
     /**
      * @param args
      */
@@ -81,9 +95,20 @@ public class Github {
                 }
                 StatusPrinter.printInCaseOfErrorsOrWarnings(lc);
             }
+            if (ingestDir != null) {
+                log.info("Ingesting archive {} into the graph", ingestDir);
+                GithubProperties.props().setProperty(PropNames.GITHUB_ARCHIVE_MODE, GitHubMain.ARCHIVE_MODE_INGEST);
+                GithubProperties.props().setProperty(PropNames.GITHUB_ARCHIVE_DIR, ingestDir);
+            }
             GitHubMain main = new GitHubMain();
 
-            main.main();
+            if (plan) {
+                main.plan();
+            } else if (coordinate || worker != null) {
+                runDistributed();
+            } else {
+                main.main();
+            }
         } catch (CmdLineException e) {
             System.err.println(e.getMessage()); // NOPMD
             System.err.println("\ngithub [options...] arguments..."); //NOPMD
@@ -99,6 +124,54 @@ public class Github {
         this.logbackFile = logbackFile;
     }
 
+    public String getIngestDir() {
+        return ingestDir;
+    }
+
+    public void setIngestDir(String ingestDir) {
+        this.ingestDir = ingestDir;
+    }
+
+    private void runDistributed() {
+        try {
+            DistributedCrawl crawl = new DistributedCrawl(GithubProperties.props());
+            if (worker != null) {
+                crawl.work(worker);
+            } else {
+                crawl.coordinate();
+            }
+        } catch (IOException e) {
+            log.error("Unable to use the work queue: {}", e.getMessage());
+        } catch (InterruptedException e) {
+            log.error("Interrupted waiting for work");
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public boolean isCoordinate() {
+        return coordinate;
+    }
+
+    public void setCoordinate(boolean coordinate) {
+        this.coordinate = coordinate;
+    }
+
+    public String getWorker() {
+        return worker;
+    }
+
+    public void setWorker(String worker) {
+        this.worker = worker;
+    }
+
+    public boolean isPlan() {
+        return plan;
+    }
+
+    public void setPlan(boolean plan) {
+        this.plan = plan;
+    }
+
     public String getPropsFile() {
         return propsFile;
     }
@@ -5,6 +5,7 @@ public class PropDefaults {
     public static final String GITHUB_LOGIN = "";
     public static final String GITHUB_PASSWORD = "";
     public static final String GITHUB_TOKEN = "";
+    public static final String GITHUB_TOKENS = "";
     
     public static final String GITHUB_PROJECT_NAMES = "";
     public static final String GITHUB_USERNAMES = "";
@@ -12,6 +13,41 @@ public class PropDefaults {
     public static final String GITHUB_REFRESH_TIME = "0.0";
     public static final String GITHUB_THROTTLE_MAX_CALLS = "4980";
     public static final String GITHUB_THROTTLE_MAX_CALLS_INTERVAL = "3600";
+    public static final String GITHUB_THROTTLE_MODE = "header";
+    public static final String GITHUB_THROTTLE_ADAPTIVE = "false";
+    public static final String GITHUB_THROTTLE_ADAPTIVE_MAX_RATE = "10";
+    public static final String GITHUB_THROTTLE_CORE_RESERVE = "0.1";
+    public static final String GITHUB_THROTTLE_SHARES = "";
+    public static final String GITHUB_THROTTLE_SHARED_DIR = "";
+    public static final String GITHUB_API_HOST = "api.github.com";
+    public static final String GITHUB_API_PORT = "-1";
+    public static final String GITHUB_API_SCHEME = "https";
+    public static final String GITHUB_PAGE_THREADS = "4";
+    public static final String GITHUB_CRAWL_THREADS = "4";
+    public static final String GITHUB_CRAWL_JOURNAL = "";
+    public static final String GITHUB_QUEUE_DIR = "";
+    public static final String GITHUB_QUEUE_CLAIM_TIMEOUT = "1800";
+    public static final String GITHUB_QUEUE_POLL_INTERVAL = "10";
+    public static final String GITHUB_ECOSYSTEM_DEPTH = "0";
+    public static final String GITHUB_ECOSYSTEM_MAX_REPOSITORIES = "100";
+    public static final String GITHUB_ECOSYSTEM_MAX_CALLS = "0";
+    public static final String GITHUB_ECOSYSTEM_MIN_SHARED = "2";
+    public static final String GITHUB_CACHE_DIR = "";
+    public static final String GITHUB_ENTITY_CACHE_SIZE = "10000";
+    public static final String GITHUB_ENTITY_CACHE_TTL = "900";
+    public static final String GITHUB_ARCHIVE_MODE = "";
+    public static final String GITHUB_ARCHIVE_DIR = "archive";
+    public static final String GITHUB_ARCHIVE_SEGMENT_SIZE = "256";
+    public static final String GITHUB_ARCHIVE_LATENCY = "0";
+    public static final String GITHUB_ARCHIVE_RATE_LIMIT = "5000";
+    public static final String GITHUB_RETRY_MAX_ATTEMPTS = "8";
+    public static final String GITHUB_RETRY_BASE_DELAY = "1000";
+    public static final String GITHUB_RETRY_MAX_DELAY = "300000";
+    public static final String GITHUB_RETRY_BUDGET = "0.2";
+    public static final String GITHUB_METRICS_INTERVAL = "300";
+    public static final String GITHUB_STATUS_PORT = "0";
+    public static final String GITHUB_INCREMENTAL_ISSUES = "false";
+    public static final String GITHUB_BULK_ISSUE_COMMENTS = "false";
     public static final String GITHUB_MINE_REPOS = "true";
     public static final String GITHUB_MINE_REPO_COLLABORATORS = "true";
     public static final String GITHUB_MINE_REPO_CONTRIBUTORS = "true";
@@ -4,6 +4,7 @@ public class PropNames {
     public static final String GITHUB_LOGIN = "net.wagstrom.research.github.login";
     public static final String GITHUB_PASSWORD = "net.wagstrom.research.github.password";
     public static final String GITHUB_TOKEN = "net.wagstrom.research.github.token";
+    public static final String GITHUB_TOKENS = "net.wagstrom.research.github.tokens";
     public static final String EMAIL_ADDRESS = "net.wagstrom.research.github.email";
     
     public static final String GITHUB_PROJECT_NAMES = "net.wagstrom.research.github.projects";
@@ -12,6 +13,41 @@ public class PropNames {
     public static final String GITHUB_REFRESH_TIME = "net.wagstrom.research.github.refreshTime";
     public static final String GITHUB_THROTTLE_MAX_CALLS = "net.wagstrom.research.github.apiThrottle.maxCalls.v3";
     public static final String GITHUB_THROTTLE_MAX_CALLS_INTERVAL = "net.wagstrom.research.github.apiThrottle.maxCallsInterval.v3";
+    public static final String GITHUB_THROTTLE_MODE = "net.wagstrom.research.github.apiThrottle.mode.v3";
+    public static final String GITHUB_THROTTLE_ADAPTIVE = "net.wagstrom.research.github.apiThrottle.adaptive";
+    public static final String GITHUB_THROTTLE_ADAPTIVE_MAX_RATE = "net.wagstrom.research.github.apiThrottle.adaptive.maxRate";
+    public static final String GITHUB_THROTTLE_CORE_RESERVE = "net.wagstrom.research.github.apiThrottle.coreReserve";
+    public static final String GITHUB_THROTTLE_SHARES = "net.wagstrom.research.github.apiThrottle.shares";
+    public static final String GITHUB_THROTTLE_SHARED_DIR = "net.wagstrom.research.github.apiThrottle.sharedDir";
+    public static final String GITHUB_API_HOST = "net.wagstrom.research.github.api.host";
+    public static final String GITHUB_API_PORT = "net.wagstrom.research.github.api.port";
+    public static final String GITHUB_API_SCHEME = "net.wagstrom.research.github.api.scheme";
+    public static final String GITHUB_PAGE_THREADS = "net.wagstrom.research.github.pageThreads";
+    public static final String GITHUB_CRAWL_THREADS = "net.wagstrom.research.github.crawlThreads";
+    public static final String GITHUB_CRAWL_JOURNAL = "net.wagstrom.research.github.crawlJournal";
+    public static final String GITHUB_QUEUE_DIR = "net.wagstrom.research.github.queue.dir";
+    public static final String GITHUB_QUEUE_CLAIM_TIMEOUT = "net.wagstrom.research.github.queue.claimTimeout";
+    public static final String GITHUB_QUEUE_POLL_INTERVAL = "net.wagstrom.research.github.queue.pollInterval";
+    public static final String GITHUB_ECOSYSTEM_DEPTH = "net.wagstrom.research.github.ecosystem.depth";
+    public static final String GITHUB_ECOSYSTEM_MAX_REPOSITORIES = "net.wagstrom.research.github.ecosystem.maxRepositories";
+    public static final String GITHUB_ECOSYSTEM_MAX_CALLS = "net.wagstrom.research.github.ecosystem.maxCalls";
+    public static final String GITHUB_ECOSYSTEM_MIN_SHARED = "net.wagstrom.research.github.ecosystem.minShared";
+    public static final String GITHUB_CACHE_DIR = "net.wagstrom.research.github.cacheDir";
+    public static final String GITHUB_ENTITY_CACHE_SIZE = "net.wagstrom.research.github.entityCache.size";
+    public static final String GITHUB_ENTITY_CACHE_TTL = "net.wagstrom.research.github.entityCache.ttl";
+    public static final String GITHUB_ARCHIVE_MODE = "net.wagstrom.research.github.archive.mode";
+    public static final String GITHUB_ARCHIVE_DIR = "net.wagstrom.research.github.archive.dir";
+    public static final String GITHUB_ARCHIVE_SEGMENT_SIZE = "net.wagstrom.research.github.archive.segmentSize";
+    public static final String GITHUB_ARCHIVE_LATENCY = "net.wagstrom.research.github.archive.latency";
+    public static final String GITHUB_ARCHIVE_RATE_LIMIT = "net.wagstrom.research.github.archive.rateLimit";
+    public static final String GITHUB_RETRY_MAX_ATTEMPTS = "net.wagstrom.research.github.retry.maxAttempts";
+    public static final String GITHUB_RETRY_BASE_DELAY = "net.wagstrom.research.github.retry.baseDelay";
+    public static final String GITHUB_RETRY_MAX_DELAY = "net.wagstrom.research.github.retry.maxDelay";
+    public static final String GITHUB_RETRY_BUDGET = "net.wagstrom.research.github.retry.budget";
+    public static final String GITHUB_METRICS_INTERVAL = "net.wagstrom.research.github.metrics.interval";
+    public static final String GITHUB_STATUS_PORT = "net.wagstrom.research.github.status.port";
+    public static final String GITHUB_INCREMENTAL_ISSUES = "net.wagstrom.research.github.incrementalIssues";
+    public static final String GITHUB_BULK_ISSUE_COMMENTS = "net.wagstrom.research.github.bulkIssueComments";
     public static final String GITHUB_MINE_REPOS = "net.wagstrom.research.github.miner.repositories";
     public static final String GITHUB_MINE_REPO_COLLABORATORS = "net.wagstrom.research.github.miner.repositories.collaborators";
     public static final String GITHUB_MINE_REPO_CONTRIBUTORS = "net.wagstrom.research.github.miner.repositories.contributors";
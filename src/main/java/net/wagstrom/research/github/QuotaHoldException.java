@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2011-2012 IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wagstrom.research.github;
+
+import java.io.IOException;
+
+/**
+ * A call the {@link QuotaLedger} won't let spend the quota of a credential
+ * until its rate limit window resets. A credential pool moves the call to
+ * another credential instead of waiting.
+ *
+ * @author patrick
+ */
+public class QuotaHoldException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final long waitTime;
+
+    /**
+     * @param family the endpoint family of the call
+     * @param waitTime milliseconds until the call may go ahead
+     */
+    public QuotaHoldException(final String family, final long waitTime) {
+        super("Holding " + family + " call for " + waitTime + "ms");
+        this.waitTime = waitTime;
+    }
+
+    /**
+     * @return milliseconds until the call may go ahead
+     */
+    public long getWaitTime() {
+        return waitTime;
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2011-2012 IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wagstrom.research.github;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps track of how much of the rate limit is spent on each
+ * {@link EndpointFamily} and decides whether a call may use quota right now.
+ *
+ * Two rules hold calls back until the rate limit window resets:
+ * <ul>
+ * <li>calls that aren't {@link EndpointFamily#PRIORITY_CORE} wait once the
+ * credential is down to its reserve, which is kept for core data</li>
+ * <li>a family with a share set waits once it has made that fraction of the
+ * limit worth of calls in the current window</li>
+ * </ul>
+ *
+ * A single ledger is shared by all credentials. Window counts are kept per
+ * throttle, the run totals over all of them.
+ *
+ * @author patrick
+ */
+public class QuotaLedger {
+    private static final Logger log = LoggerFactory.getLogger(QuotaLedger.class); // NOPMD
+
+    private volatile double coreReserve = 0.0;
+    private final Map<String, Double> shares = new ConcurrentHashMap<String, Double>();
+    private final ConcurrentMap<String, AtomicLong> spent = new ConcurrentHashMap<String, AtomicLong>();
+    private final ConcurrentMap<String, Window> windows = new ConcurrentHashMap<String, Window>();
+
+    /**
+     * Calls made by one family through one throttle in one rate limit window
+     */
+    private static class Window {
+        private long reset = -1;
+        private long calls = 0;
+
+        private synchronized long calls(final long currentReset) {
+            if (currentReset != reset) {
+                reset = currentReset;
+                calls = 0;
+            }
+            return calls;
+        }
+
+        private synchronized void increment(final long currentReset) {
+            calls(currentReset);
+            calls++;
+        }
+    }
+
+    public QuotaLedger() {
+    }
+
+    /**
+     * Works out how long a call has to wait before it may spend quota
+     *
+     * @param family the family of the call
+     * @param throttle the throttle of the credential the call will use
+     * @param now current time in milliseconds since the epoch
+     * @return milliseconds to wait, 0 if the call may go ahead
+     */
+    public long admit(final String family, final ApiThrottle throttle, final long now) {
+        int limit = throttle.getRateLimit();
+        long reset = throttle.getRateLimitReset();
+        if (limit < 1 || reset == -1 || now >= reset) {
+            // nothing is known about the window yet or it has just rolled over
+            return 0;
+        }
+        long waitTime = reset - now + ApiThrottle.RESET_SKEW;
+        if (EndpointFamily.priorityOf(family) != EndpointFamily.PRIORITY_CORE
+                && throttle.getAvailableCalls(now) <= coreReserve * limit) {
+            log.debug("[{}] Holding {} call for {}ms, quota is reserved for core data", new Object[]{throttle.getId(), family, waitTime});
+            return waitTime;
+        }
+        Double share = shares.get(family);
+        if (share != null && window(throttle, family).calls(reset) >= share * limit) {
+            log.debug("[{}] Holding {} call for {}ms, share of {} used up", new Object[]{throttle.getId(), family, waitTime, share});
+            return waitTime;
+        }
+        return 0;
+    }
+
+    /**
+     * Records that a call of the given family was made through a throttle
+     */
+    public void record(final String family, final ApiThrottle throttle) {
+        AtomicLong count = spent.get(family);
+        if (count == null) {
+            spent.putIfAbsent(family, new AtomicLong());
+            count = spent.get(family);
+        }
+        count.incrementAndGet();
+        if (shares.containsKey(family)) {
+            window(throttle, family).increment(throttle.getRateLimitReset());
+        }
+    }
+
+    private Window window(final ApiThrottle throttle, final String family) {
+        String key = throttle.getId() + "/" + family;
+        Window window = windows.get(key);
+        if (window == null) {
+            windows.putIfAbsent(key, new Window());
+            window = windows.get(key);
+        }
+        return window;
+    }
+
+    /**
+     * @return the number of calls made for each family so far
+     */
+    public Map<String, Long> getSpent() {
+        Map<String, Long> counts = new TreeMap<String, Long>();
+        for (Map.Entry<String, AtomicLong> entry : spent.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().get());
+        }
+        return counts;
+    }
+
+    /**
+     * Logs the quota spent on each family
+     */
+    public void logSummary() {
+        Map<String, Long> counts = getSpent();
+        long total = 0;
+        for (Long count : counts.values()) {
+            total += count;
+        }
+        log.info("Calls made: {}", total);
+        for (Map.Entry<String, Long> entry : counts.entrySet()) {
+            log.info("Calls for {}: {} ({}%)", new Object[]{entry.getKey(), entry.getValue(),
+                    String.format("%.1f", 100.0 * entry.getValue() / total)});
+        }
+    }
+
+    /**
+     * Sets the fraction of each credential's limit that only core calls may use
+     *
+     * @param coreReserve a value between 0 and 1
+     */
+    public void setCoreReserve(final double coreReserve) {
+        this.coreReserve = coreReserve;
+    }
+
+    public double getCoreReserve() {
+        return coreReserve;
+    }
+
+    /**
+     * Caps the calls a family may make in each rate limit window
+     *
+     * @param family one of the {@link EndpointFamily} constants
+     * @param share the fraction of the limit the family may use
+     */
+    public void setShare(final String family, final double share) {
+        shares.put(family, share);
+    }
+}
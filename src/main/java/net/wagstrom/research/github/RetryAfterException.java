@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2011-2012 IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wagstrom.research.github;
+
+import org.eclipse.egit.github.core.client.RequestError;
+import org.eclipse.egit.github.core.client.RequestException;
+
+/**
+ * A failed request that came with a <code>Retry-After</code> header, which
+ * GitHub sends with secondary rate limit responses.
+ *
+ * @author patrick
+ */
+public class RetryAfterException extends RequestException {
+    private static final long serialVersionUID = 1L;
+
+    private final long retryAfter;
+
+    /**
+     * @param error the error returned by GitHub
+     * @param status the HTTP status of the response
+     * @param retryAfter milliseconds to wait before trying again
+     */
+    public RetryAfterException(final RequestError error, final int status, final long retryAfter) {
+        super(error, status);
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * @return milliseconds to wait before trying again
+     */
+    public long getRetryAfter() {
+        return retryAfter;
+    }
+}
@@ -0,0 +1,272 @@
+/*
+ * Copyright (c) 2011-2012 IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wagstrom.research.github;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.egit.github.core.client.RequestException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decides if and when a failed call should be retried.
+ *
+ * Failures are classified by HTTP status and exception type (see
+ * {@link FailureType}). Retryable failures are delayed by an exponential
+ * backoff with full jitter, so that many workers failing at once do not all
+ * come back at the same moment.
+ *
+ * Retries are also limited by a budget shared by everything using the same
+ * engine. Every original call deposits a fraction of a retry into the budget
+ * and every retry withdraws a whole one, which caps retry traffic at a share
+ * of the real traffic during a long outage. Primary rate limit failures don't
+ * draw from the budget because the throttle already holds those calls back
+ * until the window resets.
+ *
+ * @author patrick
+ */
+public class RetryEngine {
+    private static final Logger log = LoggerFactory.getLogger(RetryEngine.class); // NOPMD
+
+    public static final int DEFAULT_MAX_ATTEMPTS = 8;
+    public static final long DEFAULT_BASE_DELAY = 1000;
+    public static final long DEFAULT_MAX_DELAY = 300000;
+    public static final double DEFAULT_BUDGET_RATIO = 0.2;
+    // GitHub asks clients to wait at least a minute after a secondary limit
+    protected static final long SECONDARY_LIMIT_DELAY = 60000;
+    // retries that can be made before any real traffic has been seen
+    protected static final long MIN_BUDGET = 10;
+    // the most retries that can be banked up
+    protected static final long MAX_BUDGET = 100;
+
+    // budget is kept in thousandths of a retry so fractional deposits work
+    private static final long BUDGET_SCALE = 1000;
+
+    private volatile int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+    private volatile long baseDelay = DEFAULT_BASE_DELAY;
+    private volatile long maxDelay = DEFAULT_MAX_DELAY;
+    private volatile long deposit = (long) (DEFAULT_BUDGET_RATIO * BUDGET_SCALE);
+    private final AtomicLong budget = new AtomicLong(MIN_BUDGET * BUDGET_SCALE);
+    private final ConcurrentMap<String, AtomicLong> retryCounts = new ConcurrentHashMap<String, AtomicLong>();
+    private final Random random = new Random();
+
+    public RetryEngine() {
+    }
+
+    /**
+     * Works out what kind of failure an exception represents
+     *
+     * @param t the exception thrown by the call
+     * @return one of the constants in {@link FailureType}
+     */
+    public static String classify(final Throwable t) {
+        if (t instanceof RequestException) {
+            RequestException re = (RequestException) t;
+            int status = re.getStatus();
+            if (re instanceof RetryAfterException && (status == 403 || status == 429)) {
+                return FailureType.SECONDARY_LIMIT;
+            }
+            String message = re.getMessage() == null ? "" : re.getMessage().toLowerCase();
+            if (status == 404) {
+                return FailureType.NOT_FOUND;
+            } else if (status == 429 || (status == 403 && (message.indexOf("secondary rate limit") != -1
+                    || message.indexOf("abuse") != -1))) {
+                return FailureType.SECONDARY_LIMIT;
+            } else if (status == 403 && message.indexOf("rate limit") != -1) {
+                return FailureType.RATE_LIMIT;
+            } else if (status >= 500) {
+                return FailureType.SERVER_ERROR;
+            } else if (status >= 400) {
+                return FailureType.CLIENT_ERROR;
+            }
+        }
+        for (Throwable cause = t; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ConnectException || cause instanceof SocketTimeoutException
+                    || cause instanceof UnknownHostException || cause instanceof NoRouteToHostException) {
+                return FailureType.CONNECT;
+            }
+            if (cause.getCause() == cause) {
+                break;
+            }
+        }
+        if (t instanceof IOException) {
+            return FailureType.IO;
+        }
+        return FailureType.FATAL;
+    }
+
+    /**
+     * @param failure one of the constants in {@link FailureType}
+     * @return true if it makes sense to try the call again
+     */
+    public static boolean isRetryable(final String failure) {
+        return FailureType.RATE_LIMIT.equals(failure)
+                || FailureType.SECONDARY_LIMIT.equals(failure)
+                || FailureType.SERVER_ERROR.equals(failure)
+                || FailureType.CONNECT.equals(failure)
+                || FailureType.IO.equals(failure);
+    }
+
+    /**
+     * Records that an original (non-retry) call is being made, which adds to
+     * the retry budget.
+     */
+    public void recordCall() {
+        long current;
+        long next;
+        do {
+            current = budget.get();
+            next = Math.min(current + deposit, MAX_BUDGET * BUDGET_SCALE);
+        } while (current != next && !budget.compareAndSet(current, next));
+    }
+
+    /**
+     * Decides if a failed call should be retried and how long to wait first.
+     *
+     * @param failure the classification of the failure
+     * @param attempt how many attempts have failed so far, starting at 1
+     * @param methodName name of the method that failed, used for the retry counts
+     * @return the number of milliseconds to wait before retrying, or -1 to give up
+     */
+    public long nextDelay(final String failure, final int attempt, final String methodName) {
+        if (!isRetryable(failure) || attempt >= maxAttempts) {
+            return -1;
+        }
+        if (!FailureType.RATE_LIMIT.equals(failure) && !withdraw()) {
+            log.warn("Retry budget exhausted, not retrying {}", methodName);
+            return -1;
+        }
+        countRetry(methodName);
+        return backoff(failure, attempt);
+    }
+
+    /**
+     * Decides if a failed call should be retried, waiting at least as long as
+     * GitHub asked for in a <code>Retry-After</code> header.
+     *
+     * @param t the exception thrown by the call
+     * @param failure the classification of the failure
+     * @param attempt how many attempts have failed so far, starting at 1
+     * @param methodName name of the method that failed, used for the retry counts
+     * @return the number of milliseconds to wait before retrying, or -1 to give up
+     */
+    public long nextDelay(final Throwable t, final String failure, final int attempt, final String methodName) {
+        long delay = nextDelay(failure, attempt, methodName);
+        if (delay >= 0 && t instanceof RetryAfterException) {
+            delay = Math.max(delay, ((RetryAfterException) t).getRetryAfter());
+        }
+        return delay;
+    }
+
+    /**
+     * Exponential backoff with full jitter: a random delay between zero and
+     * <code>baseDelay * 2^(attempt - 1)</code>, capped at the maximum delay.
+     */
+    protected long backoff(final String failure, final int attempt) {
+        long ceiling = baseDelay << Math.min(attempt - 1, 30);
+        if (ceiling <= 0 || ceiling > maxDelay) {
+            ceiling = maxDelay;
+        }
+        long delay = (long) (random.nextDouble() * ceiling);
+        if (FailureType.SECONDARY_LIMIT.equals(failure)) {
+            delay += SECONDARY_LIMIT_DELAY;
+        }
+        return delay;
+    }
+
+    private boolean withdraw() {
+        long current;
+        do {
+            current = budget.get();
+            if (current < BUDGET_SCALE) {
+                return false;
+            }
+        } while (!budget.compareAndSet(current, current - BUDGET_SCALE));
+        return true;
+    }
+
+    private void countRetry(final String methodName) {
+        AtomicLong count = retryCounts.get(methodName);
+        if (count == null) {
+            AtomicLong newCount = new AtomicLong();
+            count = retryCounts.putIfAbsent(methodName, newCount);
+            if (count == null) {
+                count = newCount;
+            }
+        }
+        count.incrementAndGet();
+    }
+
+    /**
+     * @return the number of retries made so far for each method name
+     */
+    public Map<String, Long> getRetryCounts() {
+        Map<String, Long> counts = new TreeMap<String, Long>();
+        for (Map.Entry<String, AtomicLong> entry : retryCounts.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().get());
+        }
+        return counts;
+    }
+
+    /**
+     * @return the number of retries that can currently be made from the budget
+     */
+    public long getBudget() {
+        return budget.get() / BUDGET_SCALE;
+    }
+
+    public void logSummary() {
+        Map<String, Long> counts = getRetryCounts();
+        if (counts.isEmpty()) {
+            log.info("No calls were retried");
+        }
+        for (Map.Entry<String, Long> entry : counts.entrySet()) {
+            log.info("Retries for {}: {}", entry.getKey(), entry.getValue());
+        }
+    }
+
+    public void setMaxAttempts(final int maxAttempts) {
+        this.maxAttempts = maxAttempts;
+    }
+
+    public void setBaseDelay(final long baseDelay) {
+        this.baseDelay = baseDelay;
+    }
+
+    public void setMaxDelay(final long maxDelay) {
+        this.maxDelay = maxDelay;
+    }
+
+    /**
+     * Sets the share of real traffic that may be spent on retries
+     *
+     * @param ratio retries allowed per original call, 0.2 allows one retry for
+     *          every five calls
+     */
+    public void setBudgetRatio(final double ratio) {
+        this.deposit = (long) (ratio * BUDGET_SCALE);
+    }
+}
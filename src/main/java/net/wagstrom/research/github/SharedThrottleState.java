@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) 2011-2012 IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wagstrom.research.github;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.math.BigInteger;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Rate limit state for one set of credentials that is shared by every
+ * process on the host using them.
+ *
+ * The state lives in a small memory mapped file. Every update takes an
+ * exclusive lock on the file, reads the current state, changes it and writes
+ * it back, so the processes see each other's calls straight away:
+ * <ul>
+ * <li>a reserved call moves the shared last permit forward and takes one from
+ * the shared remaining count before it is even sent</li>
+ * <li>the limit headers of a response only lower the remaining count, unless
+ * they start a new window</li>
+ * </ul>
+ *
+ * Times are kept in milliseconds and nanoseconds since the epoch, which all of
+ * the processes on the host agree on.
+ *
+ * @author patrick
+ */
+public class SharedThrottleState {
+    private static final Logger log = LoggerFactory.getLogger(SharedThrottleState.class); // NOPMD
+
+    private static final String SUFFIX = ".throttle";
+    private static final int MAGIC = 0x67746d31;
+    private static final int SIZE = 64;
+
+    private static final int MAGIC_OFFSET = 0;
+    private static final int LIMIT_OFFSET = 4;
+    private static final int REMAINING_OFFSET = 8;
+    private static final int RESET_OFFSET = 16;
+    private static final int PERMIT_OFFSET = 24;
+
+    // file locks are held by the whole JVM, so threads and other instances
+    // for the same file in this process take turns on one monitor first
+    private static final ConcurrentMap<String, Object> monitors = new ConcurrentHashMap<String, Object>();
+
+    private final File file;
+    private final Object monitor;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+
+    /**
+     * Opens the shared state for a set of credentials, creating it if this is
+     * the first process to use them
+     *
+     * @param directory where the state files are kept
+     * @param credential the login or token, only a hash of it is used for the
+     *          file name
+     */
+    public SharedThrottleState(final File directory, final String credential) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create directory " + directory);
+        }
+        file = new File(directory, sha1(credential) + SUFFIX);
+        String path = file.getCanonicalPath();
+        monitors.putIfAbsent(path, new Object());
+        monitor = monitors.get(path);
+        raf = new RandomAccessFile(file, "rw");
+        channel = raf.getChannel();
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, SIZE);
+        synchronized (monitor) {
+            FileLock lock = channel.lock();
+            try {
+                if (buffer.getInt(MAGIC_OFFSET) != MAGIC) {
+                    log.info("Creating shared throttle state {}", file);
+                    buffer.putInt(LIMIT_OFFSET, -1);
+                    buffer.putInt(REMAINING_OFFSET, -1);
+                    buffer.putLong(RESET_OFFSET, -1);
+                    buffer.putLong(PERMIT_OFFSET, -1);
+                    buffer.putInt(MAGIC_OFFSET, MAGIC);
+                } else {
+                    log.info("Joining shared throttle state {}", file);
+                }
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    /**
+     * Claims the next slot for a call over all of the processes
+     *
+     * @param throttle the local throttle, it is brought up to date with the
+     *          shared state before the slot is worked out
+     * @return the time the caller may proceed in nanoseconds since the epoch
+     */
+    long reserve(final ApiThrottle throttle) {
+        synchronized (monitor) {
+            FileLock lock = lock();
+            try {
+                int remaining = buffer.getInt(REMAINING_OFFSET);
+                throttle.adoptShared(buffer.getInt(LIMIT_OFFSET), remaining,
+                        buffer.getLong(RESET_OFFSET), buffer.getLong(PERMIT_OFFSET));
+                long slot = throttle.reserveLocal();
+                buffer.putLong(PERMIT_OFFSET, slot);
+                if (remaining > 0) {
+                    buffer.putInt(REMAINING_OFFSET, remaining - 1);
+                }
+                return slot;
+            } finally {
+                release(lock);
+            }
+        }
+    }
+
+    void publishLimit(final int limit) {
+        synchronized (monitor) {
+            FileLock lock = lock();
+            try {
+                buffer.putInt(LIMIT_OFFSET, limit);
+            } finally {
+                release(lock);
+            }
+        }
+    }
+
+    /**
+     * Records the remaining count from a response. Other processes may have
+     * made calls since this one was answered, so the count only goes down.
+     */
+    void publishRemaining(final int remaining) {
+        synchronized (monitor) {
+            FileLock lock = lock();
+            try {
+                int current = buffer.getInt(REMAINING_OFFSET);
+                long reset = buffer.getLong(RESET_OFFSET);
+                if (current == -1 || remaining < current || (reset != -1 && System.currentTimeMillis() >= reset)) {
+                    buffer.putInt(REMAINING_OFFSET, remaining);
+                }
+            } finally {
+                release(lock);
+            }
+        }
+    }
+
+    /**
+     * Records the reset time from a response. A later reset than the one
+     * stored starts a new window, along with the remaining count that came
+     * with it.
+     */
+    void publishReset(final long reset, final int remaining) {
+        synchronized (monitor) {
+            FileLock lock = lock();
+            try {
+                if (reset > buffer.getLong(RESET_OFFSET)) {
+                    buffer.putLong(RESET_OFFSET, reset);
+                    buffer.putInt(REMAINING_OFFSET, remaining);
+                }
+            } finally {
+                release(lock);
+            }
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public void close() throws IOException {
+        channel.close();
+        raf.close();
+    }
+
+    private FileLock lock() {
+        try {
+            return channel.lock();
+        } catch (IOException e) {
+            // carry on unlocked rather than stopping the crawl
+            log.error("Unable to lock shared throttle state {}: {}", file, e.getMessage());
+            return null;
+        }
+    }
+
+    private void release(final FileLock lock) {
+        if (lock == null) {
+            return;
+        }
+        try {
+            lock.release();
+        } catch (IOException e) {
+            log.error("Unable to release lock on shared throttle state {}: {}", file, e.getMessage());
+        }
+    }
+
+    private static String sha1(final String key) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            digest.update(key.getBytes("UTF-8"));
+            String hash = new BigInteger(1, digest.digest()).toString(16);
+            while (hash.length() < 40) {
+                hash = "0" + hash;
+            }
+            return hash;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("No such algorithm SHA-1", e);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("Error encoding to UTF-8", e);
+        }
+    }
+}
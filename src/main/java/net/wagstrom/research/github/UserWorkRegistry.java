@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2011-2012 IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wagstrom.research.github;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps track of the user data that has been taken on during a crawl, so
+ * that each user is fetched at most once per run no matter how many of the
+ * crawled projects they are part of.
+ *
+ * The data of a user is split into parts, the profile and relationships,
+ * the events and the gists. Each part can be claimed once, the first
+ * project to need it fetches it and the rest leave it alone. A part whose
+ * fetch fails is released so a later project can try again.
+ *
+ * @author patrick
+ */
+public class UserWorkRegistry {
+    private static final Logger log = LoggerFactory.getLogger(UserWorkRegistry.class); // NOPMD
+
+    public static final int FULL = 1;
+    public static final int EVENTS = 2;
+    public static final int GISTS = 4;
+
+    private final Map<String, Integer> claimed = new HashMap<String, Integer>();
+    private long requested = 0;
+    private long duplicates = 0;
+
+    /**
+     * Claims the parts of a user that haven't been claimed yet
+     *
+     * @param login the user, logins are compared without regard to case
+     * @param parts the parts wanted, a combination of FULL, EVENTS and GISTS
+     * @return the parts that were claimed, those wanted less those claimed
+     *         earlier in the run
+     */
+    public synchronized int claim(final String login, final int parts) {
+        String key = login.toLowerCase(Locale.ENGLISH);
+        Integer held = claimed.get(key);
+        int already = held == null ? 0 : held;
+        int granted = parts & ~already;
+        claimed.put(key, already | parts);
+        requested += Integer.bitCount(parts);
+        duplicates += Integer.bitCount(parts & already);
+        return granted;
+    }
+
+    /**
+     * Gives up parts of a user that couldn't be fetched
+     */
+    public synchronized void release(final String login, final int parts) {
+        String key = login.toLowerCase(Locale.ENGLISH);
+        Integer held = claimed.get(key);
+        if (held != null) {
+            claimed.put(key, held & ~parts);
+        }
+    }
+
+    /**
+     * @return a short description of a set of parts for log messages
+     */
+    public static String describe(final int parts) {
+        StringBuilder sb = new StringBuilder();
+        if ((parts & FULL) != 0) {
+            sb.append("full");
+        }
+        if ((parts & EVENTS) != 0) {
+            sb.append(sb.length() > 0 ? "," : "").append("events");
+        }
+        if ((parts & GISTS) != 0) {
+            sb.append(sb.length() > 0 ? "," : "").append("gists");
+        }
+        return sb.toString();
+    }
+
+    public synchronized long getDuplicates() {
+        return duplicates;
+    }
+
+    public synchronized void logSummary() {
+        log.info("User work: {} users, {} parts requested, {} duplicate parts not fetched again",
+                new Object[]{claimed.size(), requested, duplicates});
+    }
+}
@@ -1,6 +1,8 @@
 package net.wagstrom.research.github.algorithms;
 
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 import java.util.List;
 
@@ -117,10 +119,47 @@ public class Traversals extends Algorithm {
         
     
         pipe = new GremlinPipeline<Vertex, String>();
+        pipe.setStarts(users);
         pipe.out(EdgeType.REPOWATCHED).dedup().
              property(PropertyName.FULLNAME).fill(childRepositories);
         
         return (Set<String>)(Set<?>)childRepositories;
     }
 
+    /**
+     * Get the repositories related to the current repository along with the
+     * number of the users of the repository that are related to each.
+     *
+     * The relationships are the same as for
+     * {@link #getAllChildRepositories(String)}, but each user is only counted
+     * once for a repository no matter how many events or watches link them.
+     * The repository itself is left out, whatever the case of its name.
+     *
+     * @param reponame the name of the repository, eg mxcl/homebrew
+     * @return a mapping of repository names to the number of shared users
+     */
+    public Map<String, Integer> getRelatedRepositoryCounts(final String reponame) {
+        Vertex repo = driver.getRepository(reponame);
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        if (repo == null) {
+            return counts;
+        }
+        for (Vertex user : getAllRepositoryUsers(repo)) {
+            Set<Object> related = new HashSet<Object>();
+            new GremlinPipeline<Vertex, String>(user).out(EdgeType.USEREVENT).out().
+                 has(PropertyName.TYPE, VertexType.REPOSITORY).
+                 hasNot(PropertyName.FULLNAME, "/").
+                 property(PropertyName.FULLNAME).fill(related);
+            new GremlinPipeline<Vertex, String>(user).out(EdgeType.REPOWATCHED).
+                 property(PropertyName.FULLNAME).fill(related);
+            for (Object name : related) {
+                if (name == null || name.toString().equalsIgnoreCase(reponame)) {
+                    continue;
+                }
+                Integer count = counts.get(name.toString());
+                counts.put(name.toString(), count == null ? 1 : count + 1);
+            }
+        }
+        return counts;
+    }
 }
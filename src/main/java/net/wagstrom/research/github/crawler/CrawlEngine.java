@@ -0,0 +1,278 @@
+/*
+ * Copyright (c) 2011-2012 IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wagstrom.research.github.crawler;
+
+import java.util.Comparator;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs {@link CrawlTask}s on a fixed pool of worker threads as their
+ * dependencies are met.
+ *
+ * All of the workers make their calls through the same throttled client,
+ * so adding workers raises throughput until the rate limit is the only
+ * thing holding the crawl back. Tasks must take care of their own access
+ * to anything that isn't thread safe, such as the graph database.
+ *
+ * Runnable tasks wait in a queue ordered by their priority, so the stalest
+ * data is refreshed first when the rate limit won't stretch to all of it.
+ * Tasks with the same priority run in the order they became runnable. The
+ * queue is bounded. When it is full the thread submitting a task runs it
+ * itself, which keeps tasks that spawn many children, like the issue list
+ * of a big repository, from piling up without limit.
+ *
+ * @author patrick
+ */
+public class CrawlEngine {
+    private static final Logger log = LoggerFactory.getLogger(CrawlEngine.class); // NOPMD
+    private static final AtomicInteger engineCounter = new AtomicInteger();
+
+    private final ThreadPoolExecutor executor;
+    private final Object lock = new Object();
+    private int outstanding = 0;
+    private final AtomicLong succeeded = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private CrawlJournal journal = null;
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * Runs a single task, ordered by the priority of the task
+     */
+    private final class TaskRunner implements Runnable {
+        private final CrawlTask task;
+        private final double priority;
+        private final long order;
+
+        TaskRunner(final CrawlTask task) {
+            this.task = task;
+            this.priority = task.getPriority();
+            this.order = sequence.incrementAndGet();
+        }
+
+        public void run() {
+            runTask(task);
+        }
+    }
+
+    private static final Comparator<Runnable> PRIORITY_ORDER = new Comparator<Runnable>() {
+        public int compare(final Runnable a, final Runnable b) {
+            TaskRunner ra = (TaskRunner) a;
+            TaskRunner rb = (TaskRunner) b;
+            if (ra.priority != rb.priority) {
+                return ra.priority > rb.priority ? -1 : 1;
+            }
+            return ra.order < rb.order ? -1 : (ra.order == rb.order ? 0 : 1);
+        }
+    };
+
+    /**
+     * A priority queue that refuses new entries once it holds a given
+     * number, the executor then has the submitting thread run the task
+     */
+    private static final class BoundedPriorityQueue extends PriorityBlockingQueue<Runnable> {
+        private static final long serialVersionUID = 1L;
+        private final int capacity;
+
+        BoundedPriorityQueue(final int capacity) {
+            super(capacity, PRIORITY_ORDER);
+            this.capacity = capacity;
+        }
+
+        @Override
+        public synchronized boolean offer(final Runnable runnable) {
+            if (size() >= capacity) {
+                return false;
+            }
+            return super.offer(runnable);
+        }
+    }
+
+    /**
+     * @param threads the number of worker threads
+     * @param queueSize the most runnable tasks to hold before submitters run them
+     */
+    public CrawlEngine(final int threads, final int queueSize) {
+        final int engineId = engineCounter.incrementAndGet();
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new BoundedPriorityQueue(queueSize), new ThreadFactory() {
+            private final AtomicInteger threadCounter = new AtomicInteger();
+            public Thread newThread(final Runnable runnable) {
+                Thread thread = new Thread(runnable, "crawl-" + engineId + "-" + threadCounter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        }, new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * Records the tasks in a journal so the crawl can be resumed. Tasks that
+     * the journal says were done by an earlier crawl succeed without running.
+     * A task is only recorded as done once everything it spawned succeeded.
+     * Task names are used as the keys, so they must identify the work.
+     */
+    public void setJournal(final CrawlJournal journal) {
+        this.journal = journal;
+    }
+
+    public CrawlJournal getJournal() {
+        return journal;
+    }
+
+    /**
+     * Adds a task, it starts as soon as its dependencies have finished
+     *
+     * @return the task
+     */
+    public CrawlTask submit(final CrawlTask task) {
+        synchronized (lock) {
+            outstanding++;
+        }
+        if (journal != null) {
+            journal.submitted(task.getName());
+        }
+        if (task.attach(this)) {
+            schedule(task);
+        }
+        return task;
+    }
+
+    private void schedule(final CrawlTask task) {
+        executor.execute(new TaskRunner(task));
+    }
+
+    private void runTask(final CrawlTask task) {
+        CrawlTask.State result = CrawlTask.State.SUCCEEDED;
+        if (task.shouldSkip()) {
+            log.debug("Skipping {}, a task it depends on failed", task);
+            result = CrawlTask.State.SKIPPED;
+        } else if (journal != null && journal.wasDone(task.getName())) {
+            log.debug("Passing over {}, it was done by an earlier crawl", task);
+            journal.resumed();
+        } else {
+            task.started();
+            log.trace("Starting {}", task);
+            try {
+                task.execute();
+            } catch (Exception e) {
+                log.error("Task {} failed", task, e);
+                result = CrawlTask.State.FAILED;
+            }
+        }
+        finished(task, task.executed(result));
+    }
+
+    /**
+     * Passes on the end of a task to the tasks waiting on it and to its parent
+     */
+    private void finished(final CrawlTask task, final boolean done) {
+        if (!done) {
+            return;
+        }
+        CrawlTask.State state = task.getState();
+        if (state == CrawlTask.State.SUCCEEDED) {
+            succeeded.incrementAndGet();
+            // a task whose children failed has to run again to spawn them again
+            if (journal != null && task.isComplete()) {
+                journal.done(task.getName());
+            }
+        } else if (state == CrawlTask.State.FAILED) {
+            failed.incrementAndGet();
+        } else {
+            skipped.incrementAndGet();
+        }
+        try {
+            task.completed(state);
+        } catch (RuntimeException e) {
+            log.error("Exception completing task {}", task, e);
+        }
+        boolean ok = state == CrawlTask.State.SUCCEEDED;
+        for (CrawlTask dependent : task.takeDependents()) {
+            if (dependent.dependencyDone(ok)) {
+                schedule(dependent);
+            }
+        }
+        CrawlTask parent = task.getParent();
+        if (parent != null) {
+            finished(parent, parent.childDone(task.isComplete()));
+        }
+        synchronized (lock) {
+            outstanding--;
+            if (outstanding == 0) {
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Blocks until every task that has been submitted has finished
+     */
+    public void awaitCompletion() throws InterruptedException {
+        synchronized (lock) {
+            while (outstanding > 0) {
+                lock.wait();
+            }
+        }
+    }
+
+    /**
+     * @return the number of tasks that have been submitted but not finished
+     */
+    public int getOutstanding() {
+        synchronized (lock) {
+            return outstanding;
+        }
+    }
+
+    /**
+     * @return the number of tasks waiting for a thread
+     */
+    public int getQueued() {
+        return executor.getQueue().size();
+    }
+
+    public long getSucceeded() {
+        return succeeded.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public long getSkipped() {
+        return skipped.get();
+    }
+
+    public void logSummary() {
+        log.info("Crawl tasks succeeded: {} failed: {} skipped: {}",
+                new Object[]{succeeded.get(), failed.get(), skipped.get()});
+    }
+
+    /**
+     * Stops the worker threads once the queued tasks have run
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
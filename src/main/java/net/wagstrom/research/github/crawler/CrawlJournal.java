@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) 2011-2012 IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wagstrom.research.github.crawler;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An append-only record of the tasks of a crawl, so a crawl that dies can
+ * be resumed without redoing the work it had finished.
+ *
+ * Every task is written to the journal when it is submitted and again when
+ * it succeeds, keyed by its name. When a crawl starts with an existing
+ * journal the tasks it builds from the configuration and the graph are the
+ * same ones as last time, and any that had already succeeded are passed
+ * over without calling GitHub. A repository whose watchers had been saved
+ * is asked only for the rest of its data, a project whose issues had been
+ * half done is listed again but only the remaining issues are fetched.
+ *
+ * Only the last record may be torn by a crash, it is ignored. The journal
+ * is rewritten without the redundant records once it has grown well past
+ * the number of tasks it describes, and deleted once a crawl finishes with
+ * nothing left to do, so the next crawl starts afresh.
+ *
+ * @author patrick
+ */
+public class CrawlJournal {
+    private static final Logger log = LoggerFactory.getLogger(CrawlJournal.class); // NOPMD
+    private static final String ENCODING = "UTF-8";
+    private static final char SUBMITTED = 'S';
+    private static final char DONE = 'D';
+    // never compact before this many records have been written
+    private static final int COMPACT_MIN_RECORDS = 10000;
+
+    private final File file;
+    private final Set<String> previouslyDone = new HashSet<String>();
+    private final Set<String> done = new HashSet<String>();
+    private final Set<String> pending = new LinkedHashSet<String>();
+    private Writer writer;
+    private int records = 0;
+    private int resumed = 0;
+    private boolean failed = false;
+
+    /**
+     * Opens a journal, reading what an earlier crawl left in it
+     *
+     * @param file the journal, created if it doesn't exist
+     * @throws IOException if the journal can't be read or written
+     */
+    public CrawlJournal(final File file) throws IOException {
+        this.file = file;
+        int previouslyPending = 0;
+        if (file.exists()) {
+            Set<String> submitted = new HashSet<String>();
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), ENCODING));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    records++;
+                    if (line.length() < 3 || line.charAt(1) != '\t') {
+                        log.warn("Ignoring damaged record {} in {}", records, file);
+                        continue;
+                    }
+                    String key = line.substring(2);
+                    if (line.charAt(0) == DONE) {
+                        previouslyDone.add(key);
+                    } else if (line.charAt(0) == SUBMITTED) {
+                        submitted.add(key);
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+            submitted.removeAll(previouslyDone);
+            previouslyPending = submitted.size();
+            log.info("Resuming crawl from {}: {} tasks done, {} were pending",
+                    new Object[]{file, previouslyDone.size(), previouslyPending});
+        }
+        writer = open(true);
+        if (records > COMPACT_MIN_RECORDS && records > 2 * (previouslyDone.size() + previouslyPending)) {
+            compact();
+        }
+    }
+
+    private Writer open(final boolean append) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, append), ENCODING));
+    }
+
+    /**
+     * @return true if an earlier crawl had finished the task with this key
+     */
+    public boolean wasDone(final String key) {
+        return previouslyDone.contains(key);
+    }
+
+    /**
+     * Notes that a task with this key was passed over because it was done
+     */
+    public synchronized void resumed() {
+        resumed++;
+    }
+
+    public synchronized void submitted(final String key) {
+        if (done.contains(key) || previouslyDone.contains(key)) {
+            return;
+        }
+        if (pending.add(key)) {
+            append(SUBMITTED, key);
+        }
+    }
+
+    public synchronized void done(final String key) {
+        pending.remove(key);
+        if (previouslyDone.contains(key) || !done.add(key)) {
+            return;
+        }
+        append(DONE, key);
+        if (records > COMPACT_MIN_RECORDS && records > 2 * (previouslyDone.size() + done.size() + pending.size())) {
+            try {
+                compact();
+            } catch (IOException e) {
+                log.error("Unable to compact crawl journal {}: {}", file, e.getMessage());
+            }
+        }
+    }
+
+    private void append(final char type, final String key) {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.write(type);
+            writer.write('\t');
+            writer.write(key.replace('\n', ' '));
+            writer.write('\n');
+            writer.flush();
+            records++;
+        } catch (IOException e) {
+            if (!failed) {
+                log.error("Unable to write to crawl journal {}, the crawl can't be resumed: {}", file, e.getMessage());
+                failed = true;
+            }
+        }
+    }
+
+    /**
+     * Rewrites the journal with a single record for each task, replacing the
+     * old one only once the new one is complete
+     */
+    public synchronized void compact() throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), ENCODING));
+        int written = 0;
+        try {
+            written += write(out, DONE, previouslyDone);
+            written += write(out, DONE, done);
+            written += write(out, SUBMITTED, pending);
+        } finally {
+            out.close();
+        }
+        if (writer != null) {
+            writer.close();
+        }
+        if (!temp.renameTo(file)) {
+            writer = open(true);
+            throw new IOException("Unable to replace " + file + " with " + temp);
+        }
+        log.debug("Compacted crawl journal {} from {} to {} records", new Object[]{file, records, written});
+        records = written;
+        writer = open(true);
+    }
+
+    private static int write(final Writer out, final char type, final Set<String> keys) throws IOException {
+        for (String key : keys) {
+            out.write(type + "\t" + key + "\n");
+        }
+        return keys.size();
+    }
+
+    /**
+     * Removes the journal once a crawl has finished everything, the next
+     * crawl then starts from the beginning
+     */
+    public synchronized void complete() {
+        close();
+        if (!file.delete()) {
+            log.warn("Unable to delete crawl journal {}", file);
+        }
+    }
+
+    public synchronized void close() {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.close();
+        } catch (IOException e) {
+            log.error("Unable to close crawl journal {}: {}", file, e.getMessage());
+        }
+        writer = null;
+    }
+
+    public synchronized int getPending() {
+        return pending.size();
+    }
+
+    public synchronized void logSummary() {
+        log.info("Crawl journal {}: {} tasks done before this run, {} done now, {} pending",
+                new Object[]{file, resumed, done.size(), pending.size()});
+    }
+}
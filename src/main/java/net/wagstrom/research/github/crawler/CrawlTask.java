@@ -0,0 +1,246 @@
+/*
+ * Copyright (c) 2011-2012 IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wagstrom.research.github.crawler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A unit of crawling work, such as fetching the watchers of one repository.
+ *
+ * A task runs on a worker of a {@link CrawlEngine} once every task it
+ * depends on has finished. While it runs it may {@link #spawn(CrawlTask)}
+ * further tasks, and it isn't finished until they are too. A task that
+ * depends on the issue list of a repository therefore also waits for the
+ * comments of each issue.
+ *
+ * If a task fails or is skipped, the tasks that depend on it are skipped,
+ * unless they are set to run after failures and check their dependencies
+ * themselves.
+ *
+ * Of the tasks that are ready to run, those with the highest priority run
+ * first. A task that hasn't been given a priority takes that of the task
+ * that spawned it.
+ *
+ * @author patrick
+ */
+public abstract class CrawlTask {
+    public enum State { WAITING, RUNNING, SUCCEEDED, FAILED, SKIPPED }
+
+    private final String name;
+    private final List<CrawlTask> dependencies;
+    private final List<CrawlTask> dependents = new ArrayList<CrawlTask>();
+    private CrawlTask parent = null;
+    private CrawlEngine engine = null;
+    private State state = State.WAITING;
+    private State outcome = State.SUCCEEDED;
+    private boolean executed = false;
+    private int openChildren = 0;
+    private int openDependencies = 0;
+    private boolean dependencyFailed = false;
+    private boolean descendantFailed = false;
+    private boolean runAfterFailures = false;
+    private double priority = Double.NaN;
+
+    /**
+     * @param name describes the task in log messages
+     * @param dependencies tasks that must finish before this one starts
+     */
+    public CrawlTask(final String name, final CrawlTask... dependencies) {
+        this.name = name;
+        this.dependencies = Arrays.asList(dependencies);
+    }
+
+    /**
+     * Does the work of the task on a worker thread
+     */
+    protected abstract void execute() throws Exception;
+
+    /**
+     * Called once the task and every task it spawned have finished
+     *
+     * @param result how the task ended
+     */
+    protected void completed(final State result) {
+    }
+
+    /**
+     * Starts another task as part of this one
+     *
+     * @param child the task to start, it may have dependencies of its own
+     * @return the child
+     */
+    protected CrawlTask spawn(final CrawlTask child) {
+        synchronized (this) {
+            openChildren++;
+        }
+        child.parent = this;
+        if (Double.isNaN(child.priority)) {
+            child.priority = getPriority();
+        }
+        return engine.submit(child);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @param priority how soon the task should run once it is ready, higher
+     *          runs sooner, see {@link Staleness}
+     * @return the task
+     */
+    public CrawlTask setPriority(final double priority) {
+        this.priority = priority;
+        return this;
+    }
+
+    /**
+     * @param runAfterFailures if true the task runs once its dependencies
+     *          have finished even if some of them failed or were skipped
+     * @return the task
+     */
+    public CrawlTask setRunAfterFailures(final boolean runAfterFailures) {
+        this.runAfterFailures = runAfterFailures;
+        return this;
+    }
+
+    public double getPriority() {
+        return Double.isNaN(priority) ? 0.0 : priority;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized boolean isDone() {
+        return state == State.SUCCEEDED || state == State.FAILED || state == State.SKIPPED;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    CrawlTask getParent() {
+        return parent;
+    }
+
+    /**
+     * Registers the task with an engine and with the tasks it depends on
+     *
+     * @return true if it can run straight away
+     */
+    boolean attach(final CrawlEngine owner) {
+        engine = owner;
+        int open = 0;
+        boolean failed = false;
+        for (CrawlTask dependency : dependencies) {
+            synchronized (dependency) {
+                if (!dependency.isDone()) {
+                    dependency.dependents.add(this);
+                    open++;
+                } else if (dependency.state != State.SUCCEEDED) {
+                    failed = true;
+                }
+            }
+        }
+        synchronized (this) {
+            openDependencies += open;
+            dependencyFailed |= failed;
+            // dependencies may have finished while we were registering
+            return openDependencies == 0;
+        }
+    }
+
+    /**
+     * Called when one of the dependencies has finished
+     *
+     * @return true if this task can now run
+     */
+    synchronized boolean dependencyDone(final boolean succeeded) {
+        openDependencies--;
+        if (!succeeded) {
+            dependencyFailed = true;
+        }
+        return openDependencies == 0;
+    }
+
+    synchronized boolean shouldSkip() {
+        return dependencyFailed && !runAfterFailures;
+    }
+
+    synchronized void started() {
+        state = State.RUNNING;
+    }
+
+    /**
+     * Marks the body of the task as done
+     *
+     * @return true if the task as a whole is now finished
+     */
+    synchronized boolean executed(final State result) {
+        executed = true;
+        outcome = result;
+        return finishIfDone();
+    }
+
+    /**
+     * Called when a spawned task has finished. A failed child doesn't fail
+     * its parent, one missing issue shouldn't stop the rest of a repository,
+     * but the parent is no longer complete.
+     *
+     * @param childComplete true if the child and everything it spawned succeeded
+     * @return true if the task as a whole is now finished
+     */
+    synchronized boolean childDone(final boolean childComplete) {
+        openChildren--;
+        if (!childComplete) {
+            descendantFailed = true;
+        }
+        return finishIfDone();
+    }
+
+    private boolean finishIfDone() {
+        if (executed && openChildren == 0) {
+            state = outcome;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the tasks waiting on this one, which is then forgotten
+     */
+    synchronized List<CrawlTask> takeDependents() {
+        List<CrawlTask> waiting = new ArrayList<CrawlTask>(dependents);
+        dependents.clear();
+        return waiting;
+    }
+
+    synchronized boolean succeeded() {
+        return state == State.SUCCEEDED;
+    }
+
+    /**
+     * @return true if the task and every task it spawned, however deep,
+     *         succeeded, so it doesn't have to be run again on a resume
+     */
+    synchronized boolean isComplete() {
+        return state == State.SUCCEEDED && !descendantFailed;
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2011-2012 IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wagstrom.research.github.crawler;
+
+import java.util.Date;
+
+/**
+ * Turns the <code>sys_*</code> timestamps of the graph into task priorities,
+ * so that a crawl with too little rate limit to refresh everything spends it
+ * on the data that is most out of date.
+ *
+ * The priority of an entity is the number of hours since it was last
+ * fetched times a weight for how much the entity matters. Something that
+ * has never been fetched is treated as having been fetched a year ago.
+ *
+ * @author patrick
+ */
+public final class Staleness {
+    public static final double WEIGHT_REPOSITORY = 4.0;
+    public static final double WEIGHT_ORGANIZATION = 2.0;
+    public static final double WEIGHT_ISSUE = 2.0;
+    public static final double WEIGHT_PULL_REQUEST = 2.0;
+    public static final double WEIGHT_USER = 1.0;
+
+    private static final double MILLIS_PER_HOUR = 3600000.0;
+    private static final double NEVER_FETCHED_HOURS = 365 * 24.0;
+
+    private Staleness() {}
+
+    /**
+     * @param lastFetched when the entity was last fetched, may be null
+     * @param now the current time in milliseconds
+     * @return the number of hours since the entity was fetched
+     */
+    public static double hours(final Date lastFetched, final long now) {
+        if (lastFetched == null) {
+            return NEVER_FETCHED_HOURS;
+        }
+        return Math.max(0.0, (now - lastFetched.getTime()) / MILLIS_PER_HOUR);
+    }
+
+    /**
+     * Works out the priority of a task that refreshes one or more parts of
+     * an entity, such as the comments and events of an issue. The stalest
+     * part sets the priority.
+     *
+     * @param weight how much the entity matters, one of the WEIGHT constants
+     * @param now the current time in milliseconds
+     * @param lastFetched when each part being refreshed was last fetched
+     * @return the priority, higher runs sooner
+     */
+    public static double priority(final double weight, final long now, final Date... lastFetched) {
+        double stalest = 0.0;
+        for (Date date : lastFetched) {
+            stalest = Math.max(stalest, hours(date, now));
+        }
+        return weight * stalest;
+    }
+}
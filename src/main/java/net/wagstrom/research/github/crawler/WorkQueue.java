@@ -0,0 +1,279 @@
+/*
+ * Copyright (c) 2011-2012 IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wagstrom.research.github.crawler;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A queue of crawl work that is shared by processes through a directory, so
+ * workers on other machines can take work from it over a shared file system.
+ *
+ * Each item is an empty file named after the item. A worker claims an item by
+ * renaming its file from <code>pending</code> to <code>claimed</code>, which
+ * only one of them can do, and keeps renewing the claim while it works on it.
+ * A claim that hasn't been renewed within the claim timeout belongs to a
+ * worker that has died and is put back in <code>pending</code>.
+ *
+ * What a worker fetches for an item is written to a directory of its own under
+ * <code>work</code>. Once the item is finished the directory is published to
+ * <code>ready</code>, where the single process that owns the graph picks it up
+ * and moves it to <code>loaded</code> once it is in the graph.
+ *
+ * @author patrick
+ */
+public class WorkQueue {
+    private static final Logger log = LoggerFactory.getLogger(WorkQueue.class); // NOPMD
+
+    private static final String ENCODING = "UTF-8";
+    // separates the item from the worker in the name of a result
+    private static final char WORKER_SEPARATOR = '@';
+
+    private final File pending;
+    private final File claimed;
+    private final File done;
+    private final File work;
+    private final File ready;
+    private final File loaded;
+    private final long claimTimeout;
+
+    /**
+     * An item a worker has claimed
+     */
+    public static class Claim {
+        private final String item;
+        private final String name;
+
+        Claim(final String item, final String name) {
+            this.item = item;
+            this.name = name;
+        }
+
+        public String getItem() {
+            return item;
+        }
+
+        @Override
+        public String toString() {
+            return item;
+        }
+    }
+
+    /**
+     * @param directory where the queue is kept, created if needed
+     * @param claimTimeout milliseconds after which a claim that hasn't been
+     *        renewed is put back
+     */
+    public WorkQueue(final File directory, final long claimTimeout) throws IOException {
+        pending = directory(directory, "pending");
+        claimed = directory(directory, "claimed");
+        done = directory(directory, "done");
+        work = directory(directory, "work");
+        ready = directory(directory, "ready");
+        loaded = directory(directory, "loaded");
+        this.claimTimeout = claimTimeout;
+    }
+
+    private static File directory(final File parent, final String name) throws IOException {
+        File directory = new File(parent, name);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create directory " + directory);
+        }
+        return directory;
+    }
+
+    static String encode(final String value) {
+        try {
+            return URLEncoder.encode(value, ENCODING);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("Error encoding to UTF-8", e);
+        }
+    }
+
+    static String decode(final String value) {
+        try {
+            return URLDecoder.decode(value, ENCODING);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("Error decoding from UTF-8", e);
+        }
+    }
+
+    /**
+     * Adds an item unless it is already waiting or being worked on
+     *
+     * @return true if the item was added
+     */
+    public boolean offer(final String item) throws IOException {
+        String name = encode(item);
+        File file = new File(pending, name);
+        if (file.exists() || new File(claimed, name).exists()) {
+            return false;
+        }
+        // an item that was done before is done again
+        new File(done, name).delete();
+        if (!file.createNewFile()) {
+            return false;
+        }
+        log.debug("Queued {}", item);
+        return true;
+    }
+
+    /**
+     * Takes the item that has been waiting longest
+     *
+     * @return the claim, or null if nothing is waiting
+     */
+    public Claim poll() {
+        for (File file : oldestFirst(pending)) {
+            File claim = new File(claimed, file.getName());
+            if (file.renameTo(claim)) {
+                claim.setLastModified(System.currentTimeMillis());
+                return new Claim(decode(file.getName()), file.getName());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Tells other processes the worker on a claim is still alive
+     */
+    public void renew(final Claim claim) {
+        new File(claimed, claim.name).setLastModified(System.currentTimeMillis());
+    }
+
+    /**
+     * Puts a claim back for another worker to take
+     */
+    public void release(final Claim claim) {
+        if (!new File(claimed, claim.name).renameTo(new File(pending, claim.name))) {
+            log.warn("Unable to release {}, it may have timed out", claim);
+        }
+    }
+
+    /**
+     * Puts back the claims that haven't been renewed within the claim timeout
+     *
+     * @return the number of claims put back
+     */
+    public int requeueStale() {
+        int count = 0;
+        long oldest = System.currentTimeMillis() - claimTimeout;
+        for (File file : list(claimed)) {
+            if (file.lastModified() < oldest && file.renameTo(new File(pending, file.getName()))) {
+                log.warn("Claim on {} timed out, queueing it again", decode(file.getName()));
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return a directory for the worker to write what it fetches for a claim to
+     */
+    public File getWorkDirectory(final Claim claim, final String worker) {
+        return new File(work, claim.name + WORKER_SEPARATOR + encode(worker));
+    }
+
+    /**
+     * Finishes a claim and hands what was fetched for it to the graph owner
+     *
+     * @param result the directory from {@link #getWorkDirectory(Claim, String)}
+     */
+    public void publish(final Claim claim, final File result) throws IOException {
+        if (result.exists() && !result.renameTo(new File(ready, result.getName()))) {
+            throw new IOException("Unable to publish " + result);
+        }
+        if (!new File(claimed, claim.name).renameTo(new File(done, claim.name))) {
+            log.warn("Finished {} after its claim timed out", claim);
+        }
+    }
+
+    /**
+     * @return the result that was published longest ago, or null if there are none
+     */
+    public File nextResult() {
+        File[] results = oldestFirst(ready);
+        return results.length == 0 ? null : results[0];
+    }
+
+    /**
+     * @return the item a result was fetched for
+     */
+    public static String getResultItem(final File result) {
+        String name = result.getName();
+        int separator = name.lastIndexOf(WORKER_SEPARATOR);
+        return decode(separator == -1 ? name : name.substring(0, separator));
+    }
+
+    /**
+     * Records that a result is in the graph
+     */
+    public void loaded(final File result) throws IOException {
+        if (!result.renameTo(new File(loaded, result.getName()))) {
+            throw new IOException("Unable to move " + result + " to " + loaded);
+        }
+    }
+
+    public int getPending() {
+        return list(pending).length;
+    }
+
+    public int getClaimed() {
+        return list(claimed).length;
+    }
+
+    public int getReady() {
+        return list(ready).length;
+    }
+
+    /**
+     * @return true if nothing is waiting, being worked on or waiting to be loaded
+     */
+    public boolean isFinished() {
+        return getPending() == 0 && getClaimed() == 0 && getReady() == 0;
+    }
+
+    private static File[] list(final File directory) {
+        File[] files = directory.listFiles();
+        return files == null ? new File[0] : files;
+    }
+
+    private static File[] oldestFirst(final File directory) {
+        File[] files = list(directory);
+        // the times are read once as they can change while sorting
+        final Map<File, Long> modified = new HashMap<File, Long>();
+        for (File file : files) {
+            modified.put(file, file.lastModified());
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            public int compare(final File a, final File b) {
+                int order = modified.get(a).compareTo(modified.get(b));
+                return order != 0 ? order : a.getName().compareTo(b.getName());
+            }
+        });
+        return files;
+    }
+}
@@ -0,0 +1,457 @@
+/*
+ * Copyright (c) 2011-2012 IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wagstrom.research.github.standin;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.eclipse.egit.github.core.client.GsonUtils;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A stand-in for the GitHub v3 API backed by a {@link SyntheticDataset}.
+ *
+ * It answers the read-only endpoints the miners use with paginated results,
+ * <code>Link</code> headers, rate limit headers and ETags, so GitMiner can be
+ * load tested against repositories and users far larger than anything that
+ * could be crawled from GitHub in a reasonable time. Requests may optionally
+ * be prefixed with <code>/api/v3</code>, which is where egit sends requests for
+ * any host other than api.github.com.
+ *
+ * To point GitMiner at it set <code>net.wagstrom.research.github.api.host</code>,
+ * <code>.api.port</code> and <code>.api.scheme</code>.
+ *
+ * @author patrick
+ */
+public class StandInServer implements HttpHandler {
+    private static final Logger log = LoggerFactory.getLogger(StandInServer.class); // NOPMD
+    private static final String API_PREFIX = "/api/v3";
+    private static final int DEFAULT_PER_PAGE = 30;
+    private static final int MAX_PER_PAGE = 100;
+    private static final long RATE_LIMIT_WINDOW = 3600000;
+
+    @Option(name="-p", usage="port to listen on")
+    private int port = 8080;
+
+    @Option(name="-s", usage="seed for the synthetic data")
+    private long seed = 1;
+
+    @Option(name="-c", usage="properties file with the sizes of the synthetic data")
+    private String sizesFile = null;
+
+    @Option(name="-r", usage="rate limit per hour, 0 for no limit")
+    private int rateLimit = 5000;
+
+    @Option(name="-t", usage="number of threads serving requests")
+    private int threads = 8;
+
+    private HttpServer server = null;
+    private ExecutorService executor = null;
+    private SyntheticDataset dataset = null;
+    private int remaining;
+    private long reset = -1;
+
+    public static void main(final String[] args) {
+        StandInServer standIn = new StandInServer();
+        CmdLineParser parser = new CmdLineParser(standIn);
+        try {
+            parser.parseArgument(args);
+            Properties sizes = new Properties();
+            if (standIn.sizesFile != null) {
+                InputStream input = new FileInputStream(standIn.sizesFile);
+                try {
+                    sizes.load(input);
+                } finally {
+                    input.close();
+                }
+            }
+            standIn.start(sizes);
+        } catch (CmdLineException e) {
+            System.err.println(e.getMessage()); // NOPMD
+            System.err.println("\nstandin [options...]"); //NOPMD
+            parser.printUsage(System.err);
+        } catch (IOException e) {
+            log.error("Unable to start stand-in server", e);
+        }
+    }
+
+    public StandInServer() {
+    }
+
+    /**
+     * @param port port to listen on, 0 to pick a free one
+     * @param seed seed for the synthetic data
+     * @param rateLimit calls allowed per hour, 0 for no limit
+     */
+    public StandInServer(final int port, final long seed, final int rateLimit) {
+        this.port = port;
+        this.seed = seed;
+        this.rateLimit = rateLimit;
+    }
+
+    public void start(final Properties sizes) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        dataset = new SyntheticDataset(seed, sizes, "http://localhost:" + server.getAddress().getPort());
+        executor = Executors.newFixedThreadPool(threads);
+        server.setExecutor(executor);
+        server.createContext("/", this);
+        server.start();
+        log.info("Stand-in GitHub API listening on port {}", getPort());
+    }
+
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdown();
+            server = null;
+        }
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public void handle(final HttpExchange exchange) throws IOException {
+        try {
+            String path = exchange.getRequestURI().getRawPath();
+            String prefix = "";
+            if (path.startsWith(API_PREFIX + "/")) {
+                prefix = API_PREFIX;
+                path = path.substring(API_PREFIX.length());
+            }
+            Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+            if (!exchange.getRequestMethod().equals("GET")) {
+                send(exchange, 405, error("Only GET is supported"), null);
+                return;
+            }
+            Object result = route(path.split("/"), params);
+            if (result == null) {
+                send(exchange, 404, error("Not Found"), null);
+                return;
+            }
+            String link = null;
+            if (result instanceof SyntheticDataset.Listing) {
+                SyntheticDataset.Listing listing = (SyntheticDataset.Listing) result;
+                int perPage = Math.min(MAX_PER_PAGE, Math.max(1, intParam(params, "per_page", DEFAULT_PER_PAGE)));
+                int page = Math.max(1, intParam(params, "page", 1));
+                int pages = Math.max(1, (listing.size() + perPage - 1) / perPage);
+                List<Object> items = new ArrayList<Object>();
+                for (int i = (page - 1) * perPage; i < Math.min(listing.size(), page * perPage); i++) {
+                    items.add(listing.get(i));
+                }
+                result = items;
+                link = linkHeader(exchange, prefix + path, params, page, pages, perPage);
+            }
+            send(exchange, 200, GsonUtils.toJson(result), link);
+        } catch (RuntimeException e) {
+            log.error("Exception serving {}", exchange.getRequestURI(), e);
+            send(exchange, 500, error("Server Error"), null);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Maps a request path onto the dataset
+     *
+     * @return a map for a single object, a listing for a list, or null if
+     *          there is no such endpoint or object
+     */
+    private Object route(final String[] segments, final Map<String, String> params) {
+        // segments[0] is the empty string before the leading slash
+        int n = segments.length;
+        if (n < 3) {
+            return null;
+        }
+        String kind = segments[1];
+        String login = segments[2];
+        if (kind.equals("users")) {
+            if (n == 3) {
+                return dataset.getUser(login);
+            }
+            String list = segments[3];
+            if (list.equals("followers")) {
+                return dataset.getFollowers(login);
+            } else if (list.equals("following")) {
+                return dataset.getFollowing(login);
+            } else if (list.equals("repos")) {
+                return dataset.getRepositories(login);
+            } else if (list.equals("watched") || list.equals("starred") || list.equals("subscriptions")) {
+                return dataset.getWatched(login);
+            } else if (list.equals("gists")) {
+                return dataset.getGists(login);
+            } else if (list.equals("events")) {
+                return dataset.getUserEvents(login);
+            }
+        } else if (kind.equals("orgs")) {
+            if (n == 3) {
+                return dataset.getOrganization(login);
+            }
+            String list = segments[3];
+            if (list.equals("members") || list.equals("public_members")) {
+                return dataset.getMembers(login);
+            } else if (list.equals("repos")) {
+                return dataset.getRepositories(login);
+            }
+        } else if (kind.equals("repos") && n >= 4) {
+            return routeRepository(login, segments[3], segments, params);
+        }
+        return null;
+    }
+
+    private Object routeRepository(final String owner, final String name, final String[] segments, final Map<String, String> params) {
+        int n = segments.length;
+        String fullName = owner + "/" + name;
+        if (n == 4) {
+            return dataset.getRepository(owner, name);
+        }
+        String list = segments[4];
+        if (n == 5) {
+            if (list.equals("contributors")) {
+                return dataset.getContributors(fullName);
+            } else if (list.equals("collaborators")) {
+                return dataset.getCollaborators(fullName);
+            } else if (list.equals("watchers") || list.equals("stargazers") || list.equals("subscribers")) {
+                return dataset.getWatchers(fullName);
+            } else if (list.equals("forks")) {
+                return dataset.getForks(owner, name);
+            } else if (list.equals("languages")) {
+                return dataset.getLanguages(owner, name);
+            } else if (list.equals("issues")) {
+                return dataset.getIssues(owner, name, params.get("state"), parseSince(params.get("since")));
+            } else if (list.equals("pulls")) {
+                return dataset.getPullRequests(owner, name, params.get("state"));
+            }
+            return null;
+        }
+        if (list.equals("issues") && n == 6 && segments[5].equals("comments")) {
+            return dataset.getRepositoryComments(owner, name);
+        }
+        int number;
+        try {
+            number = Integer.parseInt(segments[5]);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        if (list.equals("issues")) {
+            if (n == 6) {
+                return dataset.getIssue(owner, name, number);
+            } else if (n == 7 && segments[6].equals("comments")) {
+                return dataset.getComments(owner, name, number);
+            } else if (n == 7 && segments[6].equals("events")) {
+                return dataset.getIssueEvents(owner, name, number);
+            }
+        } else if (list.equals("pulls")) {
+            if (n == 6) {
+                return dataset.getPullRequest(owner, name, number);
+            } else if (n == 7 && segments[6].equals("comments")) {
+                return dataset.getPullRequestComments(owner, name, number);
+            }
+        }
+        return null;
+    }
+
+    private String linkHeader(final HttpExchange exchange, final String path, final Map<String, String> params,
+            final int page, final int pages, final int perPage) {
+        String host = exchange.getRequestHeaders().getFirst("Host");
+        if (host == null) {
+            host = "localhost:" + getPort();
+        }
+        StringBuilder base = new StringBuilder("http://").append(host).append(path).append('?');
+        for (Map.Entry<String, String> param : params.entrySet()) {
+            if (!param.getKey().equals("page") && !param.getKey().equals("per_page")) {
+                base.append(encode(param.getKey())).append('=').append(encode(param.getValue())).append('&');
+            }
+        }
+        base.append("per_page=").append(perPage).append("&page=");
+        List<String> links = new ArrayList<String>();
+        if (page < pages) {
+            links.add("<" + base + (page + 1) + ">; rel=\"next\"");
+            links.add("<" + base + pages + ">; rel=\"last\"");
+        }
+        if (page > 1) {
+            links.add("<" + base + 1 + ">; rel=\"first\"");
+            links.add("<" + base + (page - 1) + ">; rel=\"prev\"");
+        }
+        if (links.isEmpty()) {
+            return null;
+        }
+        StringBuilder link = new StringBuilder();
+        for (String l : links) {
+            if (link.length() > 0) {
+                link.append(", ");
+            }
+            link.append(l);
+        }
+        return link.toString();
+    }
+
+    private void send(final HttpExchange exchange, final int status, final String body, final String link) throws IOException {
+        Headers headers = exchange.getResponseHeaders();
+        headers.set("Content-Type", "application/json; charset=utf-8");
+        int code = status;
+        byte[] bytes = body.getBytes("UTF-8");
+        String etag = "\"" + md5(bytes) + "\"";
+        if (status == 200) {
+            headers.set("ETag", etag);
+            if (link != null) {
+                headers.set("Link", link);
+            }
+            if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                // like GitHub, a 304 doesn't count against the rate limit
+                code = 304;
+            }
+        }
+        if (code != 304 && !consumeRateLimit(headers)) {
+            code = 403;
+            bytes = error("API Rate Limit Exceeded for stand-in").getBytes("UTF-8");
+        } else if (code == 304) {
+            peekRateLimit(headers);
+        }
+        if (code == 304) {
+            exchange.sendResponseHeaders(code, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(code, bytes.length);
+        OutputStream output = exchange.getResponseBody();
+        output.write(bytes);
+        output.close();
+    }
+
+    /**
+     * Counts a call against the rate limit and sets the rate limit headers
+     *
+     * @return false if the limit has been used up
+     */
+    private synchronized boolean consumeRateLimit(final Headers headers) {
+        if (rateLimit <= 0) {
+            return true;
+        }
+        long now = System.currentTimeMillis();
+        if (now >= reset) {
+            remaining = rateLimit;
+            reset = now + RATE_LIMIT_WINDOW;
+        }
+        boolean allowed = remaining > 0;
+        if (allowed) {
+            remaining--;
+        }
+        peekRateLimit(headers);
+        return allowed;
+    }
+
+    private synchronized void peekRateLimit(final Headers headers) {
+        if (rateLimit <= 0 || reset == -1) {
+            return;
+        }
+        headers.set("X-RateLimit-Limit", String.valueOf(rateLimit));
+        headers.set("X-RateLimit-Remaining", String.valueOf(remaining));
+        headers.set("X-RateLimit-Reset", String.valueOf((reset + 999) / 1000));
+    }
+
+    private static String error(final String message) {
+        return GsonUtils.toJson(Collections.singletonMap("message", message));
+    }
+
+    private static Map<String, String> parseQuery(final String query) {
+        Map<String, String> params = new LinkedHashMap<String, String>();
+        if (query == null) {
+            return params;
+        }
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0) {
+                params.put(decode(pair.substring(0, eq)), decode(pair.substring(eq + 1)));
+            }
+        }
+        return params;
+    }
+
+    private static int intParam(final Map<String, String> params, final String name, final int defaultValue) {
+        try {
+            return params.containsKey(name) ? Integer.parseInt(params.get(name)) : defaultValue;
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private static long parseSince(final String since) {
+        if (since == null) {
+            return -1;
+        }
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        try {
+            return format.parse(since).getTime();
+        } catch (ParseException e) {
+            return -1;
+        }
+    }
+
+    private static String decode(final String value) {
+        try {
+            return URLDecoder.decode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String encode(final String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String md5(final byte[] bytes) {
+        try {
+            return new BigInteger(1, MessageDigest.getInstance("MD5").digest(bytes)).toString(16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("No such algorithm MD5", e);
+        }
+    }
+}
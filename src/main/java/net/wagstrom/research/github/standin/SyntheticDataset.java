@@ -0,0 +1,693 @@
+/*
+ * Copyright (c) 2011-2012 IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wagstrom.research.github.standin;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TimeZone;
+
+/**
+ * A synthetic GitHub that is generated on demand from a seed.
+ *
+ * Nothing is stored. Every user, repository, issue and list entry is computed
+ * from its name or position, so the same seed always produces the same data
+ * and a repository with 50,000 issues costs no more memory than one with ten.
+ * Any user or repository that is asked for exists.
+ *
+ * The size of each kind of list comes from a properties object. A size can be
+ * set for everything, for example <code>issuesPerRepo=200</code>, or for a single
+ * object by appending its name, for example
+ * <code>issuesPerRepo.rails/rails=50000</code> or
+ * <code>followersPerUser.dhh=100000</code>.
+ *
+ * Objects are returned as maps using the same field names as the GitHub API so
+ * they can be turned straight into JSON.
+ *
+ * @author patrick
+ */
+public class SyntheticDataset {
+    public static final String USERS = "users";
+    public static final String REPOS_PER_USER = "reposPerUser";
+    public static final String ISSUES_PER_REPO = "issuesPerRepo";
+    public static final String PULLS_PER_REPO = "pullsPerRepo";
+    public static final String COMMENTS_PER_ISSUE = "commentsPerIssue";
+    public static final String EVENTS_PER_ISSUE = "eventsPerIssue";
+    public static final String COMMENTS_PER_PULL = "commentsPerPull";
+    public static final String FOLLOWERS_PER_USER = "followersPerUser";
+    public static final String FOLLOWING_PER_USER = "followingPerUser";
+    public static final String WATCHERS_PER_REPO = "watchersPerRepo";
+    public static final String WATCHED_PER_USER = "watchedPerUser";
+    public static final String FORKS_PER_REPO = "forksPerRepo";
+    public static final String CONTRIBUTORS_PER_REPO = "contributorsPerRepo";
+    public static final String COLLABORATORS_PER_REPO = "collaboratorsPerRepo";
+    public static final String GISTS_PER_USER = "gistsPerUser";
+    public static final String EVENTS_PER_USER = "eventsPerUser";
+    public static final String MEMBERS_PER_ORG = "membersPerOrg";
+    public static final String CLOSED_FRACTION = "closedFraction";
+
+    private static final String USER_PREFIX = "user";
+    private static final String ISO_FORMAT = "yyyy-MM-dd'T'HH:mm:ss'Z'";
+    // 2008-04-10, about when GitHub launched
+    private static final long EPOCH = 1207785600000L;
+    private static final long HOUR = 3600000L;
+    private static final String[] LANGUAGES = {"Java", "Ruby", "Python", "JavaScript", "C", "Shell"};
+
+    private final long seed;
+    private final Properties sizes;
+    private final String baseUrl;
+    private final int userCount;
+    // stride used to walk the user space without repeating a user within a list
+    private final long userStride;
+
+    /**
+     * @param seed seed for all of the generated data
+     * @param sizes list sizes, see the class description
+     * @param baseUrl base of the URLs embedded in the objects
+     */
+    public SyntheticDataset(final long seed, final Properties sizes, final String baseUrl) {
+        this.seed = seed;
+        this.sizes = sizes;
+        this.baseUrl = baseUrl;
+        this.userCount = Math.max(1, Integer.parseInt(sizes.getProperty(USERS, "1000000").trim()));
+        long stride = 1000003L % userCount;
+        while (stride == 0 || gcd(stride, userCount) != 1) {
+            stride++;
+        }
+        this.userStride = stride;
+    }
+
+    /**
+     * A list that is only generated as it is read
+     */
+    public interface Listing {
+        int size();
+        Map<String, Object> get(int index);
+    }
+
+    /**
+     * Gets the size of a list
+     *
+     * @param key the kind of list, one of the constants in this class
+     * @param name the object the list belongs to
+     */
+    public int size(final String key, final String name) {
+        String value = sizes.getProperty(key + "." + name, sizes.getProperty(key));
+        if (value == null) {
+            return defaultSize(key);
+        }
+        return Integer.parseInt(value.trim());
+    }
+
+    private static int defaultSize(final String key) {
+        if (key.equals(ISSUES_PER_REPO)) {
+            return 200;
+        } else if (key.equals(PULLS_PER_REPO) || key.equals(WATCHERS_PER_REPO) || key.equals(FOLLOWERS_PER_USER)) {
+            return 50;
+        } else if (key.equals(COMMENTS_PER_ISSUE) || key.equals(EVENTS_PER_ISSUE) || key.equals(COMMENTS_PER_PULL)) {
+            return 3;
+        } else if (key.equals(EVENTS_PER_USER)) {
+            return 30;
+        }
+        return 10;
+    }
+
+    /* ---------------------------------------------------------------- users */
+
+    public Map<String, Object> getUser(final String login) {
+        Map<String, Object> user = userStub(login);
+        long hash = hash(login);
+        user.put("name", "Synthetic " + login);
+        user.put("company", "Company " + (hash % 100));
+        user.put("blog", "http://example.com/" + login);
+        user.put("location", "City " + (hash % 50));
+        user.put("email", login + "@example.com");
+        user.put("bio", "");
+        user.put("hireable", (hash & 1) == 0);
+        user.put("public_repos", size(REPOS_PER_USER, login));
+        user.put("public_gists", size(GISTS_PER_USER, login));
+        user.put("followers", size(FOLLOWERS_PER_USER, login));
+        user.put("following", size(FOLLOWING_PER_USER, login));
+        user.put("html_url", "https://github.com/" + login);
+        user.put("created_at", date(EPOCH + (hash % 20000) * HOUR));
+        return user;
+    }
+
+    public Map<String, Object> getOrganization(final String login) {
+        Map<String, Object> org = getUser(login);
+        org.put("type", "Organization");
+        return org;
+    }
+
+    private Map<String, Object> userStub(final String login) {
+        Map<String, Object> user = new LinkedHashMap<String, Object>();
+        user.put("login", login);
+        user.put("id", id(login));
+        user.put("avatar_url", "https://secure.gravatar.com/avatar/" + gravatarId(login));
+        user.put("gravatar_id", gravatarId(login));
+        user.put("url", baseUrl + "/users/" + login);
+        user.put("type", "User");
+        return user;
+    }
+
+    /**
+     * Picks the <code>index</code>th user of a list belonging to <code>owner</code>.
+     * Users within one list never repeat as long as the list is no longer than
+     * the number of users.
+     */
+    private String pickUser(final String owner, final String list, final int index) {
+        long offset = hash(owner + "#" + list) % userCount;
+        return USER_PREFIX + ((offset + index * userStride) % userCount);
+    }
+
+    private Listing userListing(final String owner, final String list, final int size) {
+        return new Listing() {
+            public int size() {
+                return size;
+            }
+
+            public Map<String, Object> get(final int index) {
+                return userStub(pickUser(owner, list, index));
+            }
+        };
+    }
+
+    public Listing getFollowers(final String login) {
+        return userListing(login, FOLLOWERS_PER_USER, size(FOLLOWERS_PER_USER, login));
+    }
+
+    public Listing getFollowing(final String login) {
+        return userListing(login, FOLLOWING_PER_USER, size(FOLLOWING_PER_USER, login));
+    }
+
+    public Listing getMembers(final String org) {
+        return userListing(org, MEMBERS_PER_ORG, size(MEMBERS_PER_ORG, org));
+    }
+
+    public Listing getWatchers(final String repo) {
+        return userListing(repo, WATCHERS_PER_REPO, size(WATCHERS_PER_REPO, repo));
+    }
+
+    public Listing getCollaborators(final String repo) {
+        return userListing(repo, COLLABORATORS_PER_REPO, size(COLLABORATORS_PER_REPO, repo));
+    }
+
+    public Listing getContributors(final String repo) {
+        final int size = size(CONTRIBUTORS_PER_REPO, repo);
+        return new Listing() {
+            public int size() {
+                return size;
+            }
+
+            public Map<String, Object> get(final int index) {
+                Map<String, Object> user = userStub(pickUser(repo, CONTRIBUTORS_PER_REPO, index));
+                // sorted by number of contributions like GitHub does
+                user.put("contributions", (size - index) * 3);
+                return user;
+            }
+        };
+    }
+
+    /* --------------------------------------------------------- repositories */
+
+    public Map<String, Object> getRepository(final String owner, final String name) {
+        String fullName = owner + "/" + name;
+        long hash = hash(fullName);
+        Map<String, Object> repo = new LinkedHashMap<String, Object>();
+        repo.put("id", id(fullName));
+        repo.put("name", name);
+        repo.put("owner", userStub(owner));
+        repo.put("url", baseUrl + "/repos/" + fullName);
+        repo.put("html_url", "https://github.com/" + fullName);
+        repo.put("clone_url", "https://github.com/" + fullName + ".git");
+        repo.put("git_url", "git://github.com/" + fullName + ".git");
+        repo.put("ssh_url", "git@github.com:" + fullName + ".git");
+        repo.put("description", "Synthetic repository " + fullName);
+        repo.put("homepage", "");
+        repo.put("language", LANGUAGES[(int) (hash % LANGUAGES.length)]);
+        repo.put("private", false);
+        repo.put("fork", false);
+        repo.put("has_issues", true);
+        repo.put("has_wiki", true);
+        repo.put("has_downloads", true);
+        repo.put("master_branch", "master");
+        repo.put("size", hash % 100000);
+        repo.put("watchers", size(WATCHERS_PER_REPO, fullName));
+        repo.put("forks", size(FORKS_PER_REPO, fullName));
+        repo.put("open_issues", openIssues(fullName));
+        repo.put("created_at", date(repoCreated(fullName)));
+        repo.put("pushed_at", date(repoCreated(fullName) + size(ISSUES_PER_REPO, fullName) * HOUR));
+        return repo;
+    }
+
+    private long repoCreated(final String fullName) {
+        return EPOCH + (hash(fullName) % 10000) * HOUR;
+    }
+
+    public Listing getRepositories(final String login) {
+        final int size = size(REPOS_PER_USER, login);
+        return new Listing() {
+            public int size() {
+                return size;
+            }
+
+            public Map<String, Object> get(final int index) {
+                return getRepository(login, "repo" + index);
+            }
+        };
+    }
+
+    public Listing getWatched(final String login) {
+        final int size = size(WATCHED_PER_USER, login);
+        return new Listing() {
+            public int size() {
+                return size;
+            }
+
+            public Map<String, Object> get(final int index) {
+                return getRepository(pickUser(login, WATCHED_PER_USER, index), "repo0");
+            }
+        };
+    }
+
+    public Listing getForks(final String owner, final String name) {
+        final String fullName = owner + "/" + name;
+        final int size = size(FORKS_PER_REPO, fullName);
+        return new Listing() {
+            public int size() {
+                return size;
+            }
+
+            public Map<String, Object> get(final int index) {
+                Map<String, Object> fork = getRepository(pickUser(fullName, FORKS_PER_REPO, index), name);
+                fork.put("fork", true);
+                return fork;
+            }
+        };
+    }
+
+    public Map<String, Object> getLanguages(final String owner, final String name) {
+        long hash = hash(owner + "/" + name);
+        Map<String, Object> languages = new LinkedHashMap<String, Object>();
+        languages.put(LANGUAGES[(int) (hash % LANGUAGES.length)], hash % 1000000);
+        languages.put(LANGUAGES[(int) ((hash + 1) % LANGUAGES.length)], hash % 10000);
+        return languages;
+    }
+
+    /* --------------------------------------------------------------- issues */
+
+    /**
+     * The oldest issues are closed, the rest are open
+     */
+    private int closedIssues(final String fullName) {
+        double fraction = Double.parseDouble(sizes.getProperty(CLOSED_FRACTION, "0.7").trim());
+        return (int) Math.round(size(ISSUES_PER_REPO, fullName) * fraction);
+    }
+
+    private int openIssues(final String fullName) {
+        return size(ISSUES_PER_REPO, fullName) - closedIssues(fullName);
+    }
+
+    private boolean isPull(final String fullName, final int number) {
+        return number <= size(PULLS_PER_REPO, fullName);
+    }
+
+    private long issueCreated(final String fullName, final int number) {
+        return repoCreated(fullName) + number * HOUR;
+    }
+
+    private long issueUpdated(final String fullName, final int number) {
+        return issueCreated(fullName, number) + (hash(fullName + "#" + number) % 500) * HOUR;
+    }
+
+    /**
+     * @return the issue or null if it doesn't exist
+     */
+    public Map<String, Object> getIssue(final String owner, final String name, final int number) {
+        String fullName = owner + "/" + name;
+        if (number < 1 || number > size(ISSUES_PER_REPO, fullName)) {
+            return null;
+        }
+        boolean closed = number <= closedIssues(fullName);
+        String url = baseUrl + "/repos/" + fullName + "/issues/" + number;
+        Map<String, Object> issue = new LinkedHashMap<String, Object>();
+        issue.put("id", id(fullName + "#" + number));
+        issue.put("number", number);
+        issue.put("title", "Issue " + number + " of " + fullName);
+        issue.put("body", "Synthetic issue body");
+        issue.put("state", closed ? "closed" : "open");
+        issue.put("user", userStub(pickUser(fullName, ISSUES_PER_REPO, number)));
+        issue.put("labels", new ArrayList<Object>());
+        issue.put("comments", size(COMMENTS_PER_ISSUE, fullName));
+        issue.put("url", url);
+        issue.put("html_url", "https://github.com/" + fullName + "/issues/" + number);
+        issue.put("created_at", date(issueCreated(fullName, number)));
+        issue.put("updated_at", date(issueUpdated(fullName, number)));
+        if (closed) {
+            issue.put("closed_at", date(issueUpdated(fullName, number)));
+        }
+        if (isPull(fullName, number)) {
+            Map<String, Object> pull = new LinkedHashMap<String, Object>();
+            pull.put("html_url", "https://github.com/" + fullName + "/pull/" + number);
+            pull.put("diff_url", "https://github.com/" + fullName + "/pull/" + number + ".diff");
+            pull.put("patch_url", "https://github.com/" + fullName + "/pull/" + number + ".patch");
+            issue.put("pull_request", pull);
+        }
+        return issue;
+    }
+
+    /**
+     * Lists issues newest first
+     *
+     * @param state <code>open</code>, <code>closed</code> or <code>all</code>
+     * @param since only include issues updated at or after this time, -1 for all
+     */
+    public Listing getIssues(final String owner, final String name, final String state, final long since) {
+        final String fullName = owner + "/" + name;
+        int total = size(ISSUES_PER_REPO, fullName);
+        int closed = closedIssues(fullName);
+        int low = 1;
+        int high = total;
+        if ("closed".equals(state)) {
+            high = closed;
+        } else if (!"all".equals(state)) {
+            low = closed + 1;
+        }
+        final List<Integer> numbers = since < 0 ? null : new ArrayList<Integer>();
+        if (numbers != null) {
+            for (int number = high; number >= low; number--) {
+                if (issueUpdated(fullName, number) >= since) {
+                    numbers.add(number);
+                }
+            }
+        }
+        final int first = high;
+        final int size = numbers != null ? numbers.size() : Math.max(0, high - low + 1);
+        return new Listing() {
+            public int size() {
+                return size;
+            }
+
+            public Map<String, Object> get(final int index) {
+                int number = numbers != null ? numbers.get(index) : first - index;
+                return getIssue(owner, name, number);
+            }
+        };
+    }
+
+    private Map<String, Object> comment(final String fullName, final int number, final int index, final String kind) {
+        String key = fullName + "#" + number + kind + index;
+        Map<String, Object> comment = new LinkedHashMap<String, Object>();
+        comment.put("id", id(key));
+        comment.put("body", "Synthetic comment " + index + " on " + number);
+        comment.put("user", userStub(pickUser(fullName + "#" + number, kind, index)));
+        comment.put("created_at", date(issueCreated(fullName, number) + (index + 1) * HOUR));
+        comment.put("updated_at", date(issueCreated(fullName, number) + (index + 1) * HOUR));
+        return comment;
+    }
+
+    public Listing getComments(final String owner, final String name, final int number) {
+        final String fullName = owner + "/" + name;
+        final int size = getIssue(owner, name, number) == null ? 0 : size(COMMENTS_PER_ISSUE, fullName);
+        return new Listing() {
+            public int size() {
+                return size;
+            }
+
+            public Map<String, Object> get(final int index) {
+                Map<String, Object> comment = comment(fullName, number, index, COMMENTS_PER_ISSUE);
+                comment.put("url", baseUrl + "/repos/" + fullName + "/issues/comments/" + comment.get("id"));
+                comment.put("issue_url", baseUrl + "/repos/" + fullName + "/issues/" + number);
+                return comment;
+            }
+        };
+    }
+
+    /**
+     * All of the issue comments in a repository, oldest issue first
+     */
+    public Listing getRepositoryComments(final String owner, final String name) {
+        final String fullName = owner + "/" + name;
+        final int perIssue = size(COMMENTS_PER_ISSUE, fullName);
+        final int size = perIssue * size(ISSUES_PER_REPO, fullName);
+        return new Listing() {
+            public int size() {
+                return size;
+            }
+
+            public Map<String, Object> get(final int index) {
+                return getComments(owner, name, index / perIssue + 1).get(index % perIssue);
+            }
+        };
+    }
+
+    public Listing getIssueEvents(final String owner, final String name, final int number) {
+        final String fullName = owner + "/" + name;
+        final int size = getIssue(owner, name, number) == null ? 0 : size(EVENTS_PER_ISSUE, fullName);
+        final boolean closed = number <= closedIssues(fullName);
+        return new Listing() {
+            public int size() {
+                return size;
+            }
+
+            public Map<String, Object> get(final int index) {
+                String key = fullName + "#" + number + "event" + index;
+                Map<String, Object> event = new LinkedHashMap<String, Object>();
+                event.put("id", id(key));
+                event.put("url", baseUrl + "/repos/" + fullName + "/issues/events/" + id(key));
+                event.put("actor", userStub(pickUser(fullName + "#" + number, EVENTS_PER_ISSUE, index)));
+                String type = "subscribed";
+                if (closed && index == size - 1) {
+                    type = "closed";
+                } else if (index % 2 == 1) {
+                    type = "referenced";
+                    event.put("commit_id", Long.toHexString(hash(key)) + Long.toHexString(hash(key + "sha")));
+                }
+                event.put("event", type);
+                event.put("created_at", date(issueCreated(fullName, number) + (index + 1) * HOUR));
+                return event;
+            }
+        };
+    }
+
+    /* -------------------------------------------------------- pull requests */
+
+    public Map<String, Object> getPullRequest(final String owner, final String name, final int number) {
+        String fullName = owner + "/" + name;
+        Map<String, Object> issue = getIssue(owner, name, number);
+        if (issue == null || !isPull(fullName, number)) {
+            return null;
+        }
+        boolean closed = "closed".equals(issue.get("state"));
+        boolean merged = closed && number % 3 != 0;
+        String htmlUrl = "https://github.com/" + fullName + "/pull/" + number;
+        Map<String, Object> pull = new LinkedHashMap<String, Object>();
+        pull.put("id", issue.get("id"));
+        pull.put("number", number);
+        pull.put("title", issue.get("title"));
+        pull.put("body", issue.get("body"));
+        pull.put("state", issue.get("state"));
+        pull.put("user", issue.get("user"));
+        pull.put("url", baseUrl + "/repos/" + fullName + "/pulls/" + number);
+        pull.put("html_url", htmlUrl);
+        pull.put("diff_url", htmlUrl + ".diff");
+        pull.put("patch_url", htmlUrl + ".patch");
+        pull.put("issue_url", htmlUrl);
+        pull.put("created_at", issue.get("created_at"));
+        pull.put("updated_at", issue.get("updated_at"));
+        pull.put("closed_at", issue.get("closed_at"));
+        pull.put("merged", merged);
+        pull.put("mergeable", !closed);
+        if (merged) {
+            pull.put("merged_at", issue.get("closed_at"));
+            pull.put("merged_by", userStub(owner));
+        }
+        pull.put("comments", size(COMMENTS_PER_ISSUE, fullName));
+        pull.put("review_comments", size(COMMENTS_PER_PULL, fullName));
+        pull.put("commits", 1 + number % 5);
+        pull.put("additions", hash(fullName + number) % 500);
+        pull.put("deletions", hash(fullName + number) % 200);
+        pull.put("changed_files", 1 + number % 10);
+        pull.put("head", marker(pickUser(fullName, ISSUES_PER_REPO, number), name, "feature-" + number));
+        pull.put("base", marker(owner, name, "master"));
+        return pull;
+    }
+
+    private Map<String, Object> marker(final String owner, final String name, final String ref) {
+        Map<String, Object> marker = new LinkedHashMap<String, Object>();
+        marker.put("label", owner + ":" + ref);
+        marker.put("ref", ref);
+        marker.put("sha", Long.toHexString(hash(owner + name + ref)) + Long.toHexString(hash(ref + owner)));
+        marker.put("user", userStub(owner));
+        marker.put("repo", getRepository(owner, name));
+        return marker;
+    }
+
+    public Listing getPullRequests(final String owner, final String name, final String state) {
+        final String fullName = owner + "/" + name;
+        int pulls = Math.min(size(PULLS_PER_REPO, fullName), size(ISSUES_PER_REPO, fullName));
+        int closed = Math.min(closedIssues(fullName), pulls);
+        int low = 1;
+        int high = pulls;
+        if ("closed".equals(state)) {
+            high = closed;
+        } else if (!"all".equals(state)) {
+            low = closed + 1;
+        }
+        final int first = high;
+        final int size = Math.max(0, high - low + 1);
+        return new Listing() {
+            public int size() {
+                return size;
+            }
+
+            public Map<String, Object> get(final int index) {
+                return getPullRequest(owner, name, first - index);
+            }
+        };
+    }
+
+    public Listing getPullRequestComments(final String owner, final String name, final int number) {
+        final String fullName = owner + "/" + name;
+        final int size = getPullRequest(owner, name, number) == null ? 0 : size(COMMENTS_PER_PULL, fullName);
+        return new Listing() {
+            public int size() {
+                return size;
+            }
+
+            public Map<String, Object> get(final int index) {
+                Map<String, Object> comment = comment(fullName, number, index, COMMENTS_PER_PULL);
+                comment.put("url", baseUrl + "/repos/" + fullName + "/pulls/comments/" + comment.get("id"));
+                comment.put("path", "src/File" + index + ".java");
+                comment.put("position", index + 1);
+                comment.put("commit_id", Long.toHexString(hash(fullName + number)) + Long.toHexString(hash(name + number)));
+                return comment;
+            }
+        };
+    }
+
+    /* ------------------------------------------------------- gists, events */
+
+    public Listing getGists(final String login) {
+        final int size = size(GISTS_PER_USER, login);
+        return new Listing() {
+            public int size() {
+                return size;
+            }
+
+            public Map<String, Object> get(final int index) {
+                String id = Long.toString(id(login + "/gist" + index));
+                long created = EPOCH + (hash(login) % 10000 + index) * HOUR;
+                Map<String, Object> file = new LinkedHashMap<String, Object>();
+                file.put("filename", "gist" + index + ".txt");
+                file.put("size", 100 + index);
+                file.put("raw_url", "https://gist.github.com/raw/" + id + "/gist" + index + ".txt");
+                Map<String, Object> files = new LinkedHashMap<String, Object>();
+                files.put("gist" + index + ".txt", file);
+                Map<String, Object> gist = new LinkedHashMap<String, Object>();
+                gist.put("id", id);
+                gist.put("url", baseUrl + "/gists/" + id);
+                gist.put("html_url", "https://gist.github.com/" + id);
+                gist.put("description", "Synthetic gist " + index);
+                gist.put("public", true);
+                gist.put("user", userStub(login));
+                gist.put("files", files);
+                gist.put("comments", 0);
+                gist.put("git_pull_url", "git://gist.github.com/" + id + ".git");
+                gist.put("git_push_url", "git@gist.github.com:" + id + ".git");
+                gist.put("created_at", date(created));
+                gist.put("updated_at", date(created));
+                return gist;
+            }
+        };
+    }
+
+    /**
+     * Public events of a user, newest first. These are all watch and fork
+     * events on repositories picked from the user space.
+     */
+    public Listing getUserEvents(final String login) {
+        final int size = size(EVENTS_PER_USER, login);
+        return new Listing() {
+            public int size() {
+                return size;
+            }
+
+            public Map<String, Object> get(final int index) {
+                String owner = pickUser(login, EVENTS_PER_USER, index);
+                Map<String, Object> repo = new LinkedHashMap<String, Object>();
+                repo.put("id", id(owner + "/repo0"));
+                repo.put("name", owner + "/repo0");
+                repo.put("url", baseUrl + "/repos/" + owner + "/repo0");
+                Map<String, Object> payload = new LinkedHashMap<String, Object>();
+                Map<String, Object> event = new LinkedHashMap<String, Object>();
+                event.put("id", Long.toString(id(login + "/event" + index)));
+                if (index % 2 == 0) {
+                    event.put("type", "WatchEvent");
+                    payload.put("action", "started");
+                } else {
+                    event.put("type", "ForkEvent");
+                    payload.put("forkee", getRepository(login, "repo0"));
+                }
+                event.put("actor", userStub(login));
+                event.put("repo", repo);
+                event.put("payload", payload);
+                event.put("public", true);
+                event.put("created_at", date(EPOCH + (100000L - index) * HOUR));
+                return event;
+            }
+        };
+    }
+
+    /* -------------------------------------------------------------- helpers */
+
+    private static String date(final long time) {
+        SimpleDateFormat format = new SimpleDateFormat(ISO_FORMAT, Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(new Date(time));
+    }
+
+    /**
+     * A 32 digit hex id, as an id with fewer digits isn't taken as a gravatar
+     */
+    private String gravatarId(final String login) {
+        return String.format("%016x%016x", hash(login), hash(login + "@"));
+    }
+
+    private long id(final String key) {
+        return 1 + hash(key) % 1000000000L;
+    }
+
+    /**
+     * A non-negative hash of a key mixed with the seed (splitmix64 finaliser)
+     */
+    protected long hash(final String key) {
+        long z = seed * 0x9E3779B97F4A7C15L + key.hashCode();
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        z = z ^ (z >>> 31);
+        return z & Long.MAX_VALUE;
+    }
+
+    private static long gcd(final long a, final long b) {
+        return b == 0 ? a : gcd(b, a % b);
+    }
+}
@@ -15,12 +15,61 @@
  */
 package net.wagstrom.research.github.v3;
 
+import java.io.IOException;
+
+import org.eclipse.egit.github.core.client.NoSuchPageException;
+import org.eclipse.egit.github.core.client.PageIterator;
+import org.eclipse.egit.github.core.service.GitHubService;
+
 /**
  * This is basically a holder class for future extension
  * 
  * @author pwagstro
  */
 public abstract class AbstractMiner {
+    private EntityCache cache = null;
+
     protected AbstractMiner() {
     }
+
+    /**
+     * Sets a cache of entities fetched earlier in the run, lookups that can
+     * be answered from it don't call GitHub
+     */
+    public void setCache(final EntityCache cache) {
+        this.cache = cache;
+    }
+
+    protected Object getCached(final String type, final String id) {
+        return cache == null ? null : cache.get(type, id);
+    }
+
+    protected void putCached(final String type, final String id, final Object value) {
+        if (cache != null) {
+            cache.put(type, id, value);
+        }
+    }
+
+    /**
+     * Hands each page of a list to a handler as it is read
+     *
+     * @param service the service that created the iterator
+     * @param iterator iterator over the list
+     * @param handler called with each page in order
+     * @throws IOException if any page can't be read
+     */
+    protected <V> void forEachPage(final GitHubService service, final PageIterator<V> iterator,
+            final PageHandler<V> handler) throws IOException {
+        if (service instanceof PagingService) {
+            ((PagingService) service).forEachPage(iterator, handler);
+            return;
+        }
+        try {
+            while (iterator.hasNext()) {
+                handler.handlePage(iterator.next());
+            }
+        } catch (NoSuchPageException e) {
+            throw e.getCause();
+        }
+    }
 }
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2011-2012 IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wagstrom.research.github.v3;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Wraps the connection of a <code>304 Not Modified</code> response so that
+ * headers GitHub leaves out of it, such as <code>Link</code>, are answered from
+ * the cached response instead. Everything else, including the rate limit
+ * headers, comes from the live connection.
+ *
+ * @author patrick
+ */
+public class CachedHeaderConnection extends HttpURLConnection {
+    private final HttpURLConnection wrapped;
+    private final Map<String, String> cachedHeaders;
+
+    /**
+     * @param wrapped the live connection
+     * @param cachedHeaders headers from the cached response, keys are matched
+     *          case insensitively
+     */
+    public CachedHeaderConnection(final HttpURLConnection wrapped, final Map<String, String> cachedHeaders) {
+        super(wrapped.getURL());
+        this.wrapped = wrapped;
+        this.cachedHeaders = cachedHeaders;
+    }
+
+    @Override
+    public String getHeaderField(final String name) {
+        String value = wrapped.getHeaderField(name);
+        if (value == null && name != null) {
+            for (Map.Entry<String, String> entry : cachedHeaders.entrySet()) {
+                if (entry.getKey().equalsIgnoreCase(name)) {
+                    return entry.getValue();
+                }
+            }
+        }
+        return value;
+    }
+
+    @Override
+    public String getHeaderField(final int n) {
+        return wrapped.getHeaderField(n);
+    }
+
+    @Override
+    public String getHeaderFieldKey(final int n) {
+        return wrapped.getHeaderFieldKey(n);
+    }
+
+    @Override
+    public Map<String, List<String>> getHeaderFields() {
+        return wrapped.getHeaderFields();
+    }
+
+    @Override
+    public int getResponseCode() throws IOException {
+        return wrapped.getResponseCode();
+    }
+
+    @Override
+    public String getResponseMessage() throws IOException {
+        return wrapped.getResponseMessage();
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return wrapped.getInputStream();
+    }
+
+    @Override
+    public InputStream getErrorStream() {
+        return wrapped.getErrorStream();
+    }
+
+    @Override
+    public void connect() throws IOException {
+        wrapped.connect();
+    }
+
+    @Override
+    public void disconnect() {
+        wrapped.disconnect();
+    }
+
+    @Override
+    public boolean usingProxy() {
+        return wrapped.usingProxy();
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2011-2012 IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wagstrom.research.github.v3;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.egit.github.core.client.GitHubClient;
+import org.eclipse.egit.github.core.client.GitHubRequest;
+import org.eclipse.egit.github.core.client.GitHubResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * GitHubClient that makes conditional GET requests.
+ *
+ * Responses that carry an <code>ETag</code> or <code>Last-Modified</code>
+ * header are saved in a {@link ConditionalRequestCache}. The next request for
+ * the same URL sends them back as <code>If-None-Match</code> and
+ * <code>If-Modified-Since</code>, and if GitHub answers with
+ * <code>304 Not Modified</code> the result is rebuilt from the cached body.
+ * GitHub does not count 304 responses against the rate limit.
+ *
+ * Responses are cached separately for each credential, as what one token
+ * can see another may not. Only a hash of the credential is kept in the key.
+ *
+ * This sits at the bottom of the client stack, underneath
+ * {@link ThrottledGitHubInvocationHandler}, so retries and throttling work
+ * exactly as for an ordinary client. Like its parent it keeps the
+ * <code>Retry-After</code> header of failed responses.
+ *
+ * @author patrick
+ */
+public class CachingGitHubClient extends RetryAfterGitHubClient {
+    private static final Logger log = LoggerFactory.getLogger(CachingGitHubClient.class); // NOPMD
+    private final ConditionalRequestCache cache;
+    private volatile String credential = "anonymous";
+
+    public CachingGitHubClient(final ConditionalRequestCache cache) {
+        super();
+        this.cache = cache;
+    }
+
+    /**
+     * Creates a client for an API on another host, see
+     * {@link RetryAfterGitHubClient#RetryAfterGitHubClient(String, int, String)}
+     */
+    public CachingGitHubClient(final String hostname, final int port, final String scheme, final ConditionalRequestCache cache) {
+        super(hostname, port, scheme);
+        this.cache = cache;
+    }
+
+    @Override
+    public GitHubClient setCredentials(final String user, final String password) {
+        credential = ConditionalRequestCache.sha1("user " + user);
+        return super.setCredentials(user, password);
+    }
+
+    @Override
+    public GitHubClient setOAuth2Token(final String token) {
+        credential = ConditionalRequestCache.sha1("token " + token);
+        return super.setOAuth2Token(token);
+    }
+
+    /**
+     * @return the key a response is cached under for the credential of this client
+     */
+    String cacheKey(final String uri, final String accept) {
+        String key = credential + " " + uri;
+        return accept == null ? key : key + " " + accept;
+    }
+
+    @Override
+    public GitHubResponse get(final GitHubRequest request) throws IOException {
+        String uri = request.generateUri();
+        String accept = request.getResponseContentType();
+        String key = cacheKey(uri, accept);
+        ConditionalRequestCache.Entry cached = cache.get(key);
+
+        HttpURLConnection httpRequest = createGet(uri);
+        if (accept != null) {
+            httpRequest.setRequestProperty(GitHubHeaders.ACCEPT, accept);
+        }
+        if (cached != null) {
+            if (cached.getEtag() != null) {
+                httpRequest.setRequestProperty(GitHubHeaders.IF_NONE_MATCH, cached.getEtag());
+            }
+            if (cached.getLastModified() != null) {
+                httpRequest.setRequestProperty(GitHubHeaders.IF_MODIFIED_SINCE, cached.getLastModified());
+            }
+        }
+        final int code = httpRequest.getResponseCode();
+        updateRateLimits(httpRequest);
+
+        if (code == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+            log.trace("Not modified: {}", uri);
+            cache.recordHit();
+            Map<String, String> headers = new HashMap<String, String>();
+            if (cached.getLink() != null) {
+                headers.put(GitHubHeaders.LINK, cached.getLink());
+            }
+            return new GitHubResponse(new CachedHeaderConnection(httpRequest, headers),
+                    getBody(request, new ByteArrayInputStream(cached.getBody())));
+        }
+        if (isOk(code)) {
+            cache.recordMiss();
+            byte[] body = readFully(getStream(httpRequest));
+            String etag = httpRequest.getHeaderField(GitHubHeaders.ETAG);
+            String lastModified = httpRequest.getHeaderField(GitHubHeaders.LAST_MODIFIED);
+            if (etag != null || lastModified != null) {
+                cache.put(new ConditionalRequestCache.Entry(key, etag, lastModified,
+                        httpRequest.getHeaderField(GitHubHeaders.LINK), body));
+            }
+            return new GitHubResponse(httpRequest, getBody(request, new ByteArrayInputStream(body)));
+        }
+        if (isEmpty(code)) {
+            return new GitHubResponse(httpRequest, null);
+        }
+        throw createException(getStream(httpRequest), code, httpRequest.getResponseMessage());
+    }
+
+    private static byte[] readFully(final InputStream stream) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = stream.read(buffer)) != -1) {
+                output.write(buffer, 0, read);
+            }
+        } finally {
+            stream.close();
+        }
+        return output.toByteArray();
+    }
+
+    public ConditionalRequestCache getCache() {
+        return cache;
+    }
+}
@@ -31,8 +31,12 @@ public class CollaboratorMinerV3 extends AbstractMiner {
     private static final Logger log = LoggerFactory.getLogger(CollaboratorMinerV3.class); // NOPMD
 
     public CollaboratorMinerV3(final IGitHubClient ghc) {
+        this(ghc, new ParallelPageFetcher(1));
+    }
+
+    public CollaboratorMinerV3(final IGitHubClient ghc, final ParallelPageFetcher fetcher) {
         super();
-        service = new CollaboratorService(ghc);
+        service = new CollaboratorServiceV3(ghc, fetcher);
     }
 
     
@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2011-2012 IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wagstrom.research.github.v3;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.eclipse.egit.github.core.client.IGitHubClient;
+import org.eclipse.egit.github.core.client.PageIterator;
+import org.eclipse.egit.github.core.service.CollaboratorService;
+
+/**
+ * {@link CollaboratorService} that reads paginated lists with a {@link ParallelPageFetcher}
+ *
+ * @author patrick
+ */
+public class CollaboratorServiceV3 extends CollaboratorService {
+    private final ParallelPageFetcher fetcher;
+
+    public CollaboratorServiceV3(final IGitHubClient ghc, final ParallelPageFetcher fetcher) {
+        super(ghc);
+        this.fetcher = fetcher;
+    }
+
+    @Override
+    protected <V> List<V> getAll(final PageIterator<V> iterator) throws IOException {
+        return fetcher.getAll(client, iterator);
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright (c) 2011-2012 IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wagstrom.research.github.v3;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * On-disk store of the validators and bodies of GitHub responses
+ *
+ * Each cached response is kept in its own gzipped file named after the
+ * SHA-1 of its key, so the cache survives between runs and a weekly refresh
+ * can ask GitHub if anything changed instead of downloading it again.
+ *
+ * @author patrick
+ */
+public class ConditionalRequestCache {
+    private static final Logger log = LoggerFactory.getLogger(ConditionalRequestCache.class); // NOPMD
+    private static final int FORMAT_VERSION = 1;
+    private static final String SUFFIX = ".gz";
+
+    private final File directory;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong stores = new AtomicLong();
+
+    /**
+     * A cached response
+     */
+    public static class Entry {
+        private final String key;
+        private final String etag;
+        private final String lastModified;
+        private final String link;
+        private final byte[] body;
+
+        public Entry(final String key, final String etag, final String lastModified, final String link, final byte[] body) {
+            this.key = key;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.link = link;
+            this.body = body;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+
+        public String getLastModified() {
+            return lastModified;
+        }
+
+        public String getLink() {
+            return link;
+        }
+
+        public byte[] getBody() {
+            return body;
+        }
+    }
+
+    /**
+     * @param directory where to keep the cached responses, created if needed
+     */
+    public ConditionalRequestCache(final File directory) {
+        this.directory = directory;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            log.error("Unable to create cache directory {}", directory);
+        }
+    }
+
+    /**
+     * Looks up the cached response for a key
+     *
+     * @param key the key the response was stored under
+     * @return the cached response or null if there is none
+     */
+    public Entry get(final String key) {
+        File file = fileFor(key);
+        if (!file.isFile()) {
+            return null;
+        }
+        DataInputStream input = null;
+        try {
+            input = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))));
+            if (input.readInt() != FORMAT_VERSION) {
+                return null;
+            }
+            String storedKey = input.readUTF();
+            if (!storedKey.equals(key)) {
+                return null;
+            }
+            String etag = readNullable(input);
+            String lastModified = readNullable(input);
+            String link = readNullable(input);
+            byte[] body = new byte[input.readInt()];
+            input.readFully(body);
+            return new Entry(key, etag, lastModified, link, body);
+        } catch (IOException e) {
+            log.warn("Unable to read cache entry {}: {}", file, e.getMessage());
+            return null;
+        } finally {
+            close(input);
+        }
+    }
+
+    /**
+     * Stores a response, replacing any older one with the same key
+     *
+     * @param entry the response to store
+     */
+    public void put(final Entry entry) {
+        File file = fileFor(entry.getKey());
+        File parent = file.getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            log.error("Unable to create cache directory {}", parent);
+            return;
+        }
+        DataOutputStream output = null;
+        File temp = null;
+        try {
+            temp = File.createTempFile("entry", ".tmp", parent);
+            output = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(temp))));
+            output.writeInt(FORMAT_VERSION);
+            output.writeUTF(entry.getKey());
+            writeNullable(output, entry.getEtag());
+            writeNullable(output, entry.getLastModified());
+            writeNullable(output, entry.getLink());
+            output.writeInt(entry.getBody().length);
+            output.write(entry.getBody());
+            output.close();
+            output = null;
+            if (!temp.renameTo(file) && !(file.delete() && temp.renameTo(file))) {
+                throw new IOException("unable to rename " + temp + " to " + file);
+            }
+            temp = null;
+            stores.incrementAndGet();
+        } catch (IOException e) {
+            log.warn("Unable to write cache entry {}: {}", file, e.getMessage());
+        } finally {
+            close(output);
+            if (temp != null && !temp.delete()) {
+                log.warn("Unable to delete temporary file {}", temp);
+            }
+        }
+    }
+
+    public void recordHit() {
+        hits.incrementAndGet();
+    }
+
+    public void recordMiss() {
+        misses.incrementAndGet();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public void logSummary() {
+        log.info("Conditional request cache: {} not modified, {} changed or new, {} stored",
+                new Object[]{hits.get(), misses.get(), stores.get()});
+    }
+
+    private File fileFor(final String key) {
+        String hash = sha1(key);
+        return new File(new File(directory, hash.substring(0, 2)), hash + SUFFIX);
+    }
+
+    static String sha1(final String key) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            digest.update(key.getBytes("UTF-8"));
+            String hash = new BigInteger(1, digest.digest()).toString(16);
+            while (hash.length() < 40) {
+                hash = "0" + hash;
+            }
+            return hash;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("No such algorithm SHA-1", e);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("Error encoding to UTF-8", e);
+        }
+    }
+
+    private static String readNullable(final DataInputStream input) throws IOException {
+        if (input.readBoolean()) {
+            return input.readUTF();
+        }
+        return null;
+    }
+
+    private static void writeNullable(final DataOutputStream output, final String value) throws IOException {
+        output.writeBoolean(value != null);
+        if (value != null) {
+            output.writeUTF(value);
+        }
+    }
+
+    private static void close(final Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                log.warn("Exception closing cache file: {}", e.getMessage());
+            }
+        }
+    }
+}
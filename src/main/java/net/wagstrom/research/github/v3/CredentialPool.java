@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2011-2012 IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wagstrom.research.github.v3;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import net.wagstrom.research.github.ApiThrottle;
+import net.wagstrom.research.github.QuotaLedger;
+import net.wagstrom.research.github.RetryEngine;
+
+import org.eclipse.egit.github.core.client.IGitHubClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A set of GitHub credentials, each with its own client and throttle.
+ *
+ * Calls made through the client returned by {@link #createClient()} are sent
+ * to whichever credential has the most calls left in its current rate limit
+ * window. Credentials that have been revoked are dropped from the pool.
+ *
+ * @author patrick
+ */
+public class CredentialPool {
+    private static final Logger log = LoggerFactory.getLogger(CredentialPool.class); // NOPMD
+    private final List<Credential> credentials = new ArrayList<Credential>();
+    private final RetryEngine retryEngine;
+    private final QuotaLedger ledger;
+
+    /**
+     * A single set of credentials in the pool
+     */
+    public static class Credential {
+        private final IGitHubClient client;
+        private final ApiThrottle throttle;
+        private boolean revoked = false;
+
+        protected Credential(final IGitHubClient client, final ApiThrottle throttle, final RetryEngine retryEngine, final QuotaLedger ledger) {
+            this.client = ThrottledGitHubInvocationHandler.createThrottledGitHubClient(client, throttle, true, retryEngine, ledger);
+            this.throttle = throttle;
+        }
+
+        public IGitHubClient getClient() {
+            return client;
+        }
+
+        public ApiThrottle getThrottle() {
+            return throttle;
+        }
+
+        public String getId() {
+            return throttle.getId();
+        }
+
+        public boolean isRevoked() {
+            return revoked;
+        }
+    }
+
+    public CredentialPool() {
+        this(new RetryEngine());
+    }
+
+    /**
+     * @param retryEngine retry policy shared by all credentials in the pool
+     */
+    public CredentialPool(final RetryEngine retryEngine) {
+        this(retryEngine, null);
+    }
+
+    /**
+     * @param retryEngine retry policy shared by all credentials in the pool
+     * @param ledger quota accounting shared by all credentials in the pool, may be null
+     */
+    public CredentialPool(final RetryEngine retryEngine, final QuotaLedger ledger) {
+        this.retryEngine = retryEngine;
+        this.ledger = ledger;
+    }
+
+    /**
+     * Adds a credential to the pool
+     *
+     * @param client an unthrottled client that has already been configured with
+     *          the credentials
+     * @param throttle the throttle to use for this credential only
+     */
+    public synchronized void addCredential(final IGitHubClient client, final ApiThrottle throttle) {
+        credentials.add(new Credential(client, throttle, retryEngine, ledger));
+    }
+
+    public synchronized int size() {
+        return credentials.size();
+    }
+
+    public synchronized List<Credential> getCredentials() {
+        return new ArrayList<Credential>(credentials);
+    }
+
+    /**
+     * Picks the credential to use for the next call.
+     *
+     * This is the credential with the most calls remaining. If all of the
+     * credentials are exhausted this picks the one that resets first, its throttle
+     * will then wait until the reset.
+     *
+     * @return the credential to use or null if all have been revoked
+     */
+    public synchronized Credential select() {
+        return select(Collections.<Credential>emptySet());
+    }
+
+    /**
+     * Picks the credential to use for the next call from those not excluded
+     *
+     * @param excluded credentials that can't be used for this call
+     * @return the credential to use or null if all have been revoked or excluded
+     */
+    public synchronized Credential select(final Set<Credential> excluded) {
+        long now = System.currentTimeMillis();
+        Credential best = null;
+        int bestAvailable = 0;
+        for (Credential credential : credentials) {
+            if (credential.revoked || excluded.contains(credential)) {
+                continue;
+            }
+            int available = credential.throttle.getAvailableCalls(now);
+            if (best == null || available > bestAvailable
+                    || (available < 1 && bestAvailable < 1 && resetsBefore(credential, best))) {
+                best = credential;
+                bestAvailable = available;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @param among the credentials to look at
+     * @return the first time one of them resets in milliseconds since the
+     *         epoch, or -1 if none of them knows when it resets
+     */
+    public synchronized long getEarliestReset(final Set<Credential> among) {
+        Credential first = null;
+        for (Credential credential : among) {
+            if (first == null || resetsBefore(credential, first)) {
+                first = credential;
+            }
+        }
+        return first == null ? -1 : first.throttle.getRateLimitReset();
+    }
+
+    private boolean resetsBefore(final Credential a, final Credential b) {
+        long resetA = a.throttle.getRateLimitReset();
+        long resetB = b.throttle.getRateLimitReset();
+        return resetA != -1 && (resetB == -1 || resetA < resetB);
+    }
+
+    /**
+     * Removes a credential from use for the rest of the run
+     *
+     * @param credential the credential that has been revoked
+     */
+    public synchronized void revoke(final Credential credential) {
+        if (!credential.revoked) {
+            log.error("[{}] Credentials have been revoked, removing from pool", credential.getId());
+            credential.revoked = true;
+        }
+    }
+
+    /**
+     * Creates a client that dispatches calls over the credentials in this pool.
+     *
+     * @return a new client proxy
+     */
+    public IGitHubClient createClient() {
+        return (IGitHubClient)(Proxy.newProxyInstance(Thread.currentThread().getContextClassLoader(),
+                new Class[] {IGitHubClient.class},
+                new PooledGitHubInvocationHandler(this)));
+    }
+}
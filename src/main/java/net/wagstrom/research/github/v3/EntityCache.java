@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2011-2012 IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wagstrom.research.github.v3;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Remembers entities fetched earlier in a run, so that asking the miners
+ * for the same user, repository or organization again doesn't cost another
+ * API call.
+ *
+ * Entries are keyed by the type of entity and its id, ids are compared
+ * without regard to case. An entry expires once it is older than the time
+ * to live, and the least recently used entries are dropped once the cache
+ * is full. Failed lookups are never cached.
+ *
+ * @author patrick
+ */
+public class EntityCache {
+    private static final Logger log = LoggerFactory.getLogger(EntityCache.class); // NOPMD
+
+    public static final String USER = "user";
+    public static final String ORGANIZATION = "organization";
+    public static final String ORGANIZATION_PUBLIC_MEMBERS = "organization-public-members";
+    public static final String REPOSITORY = "repository";
+    public static final String USER_REPOSITORIES = "user-repositories";
+
+    private final long ttl;
+    private final Map<String, CachedEntity> entries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+
+    private static final class CachedEntity {
+        private final Object value;
+        private final long stored;
+
+        CachedEntity(final Object value, final long stored) {
+            this.value = value;
+            this.stored = stored;
+        }
+    }
+
+    /**
+     * @param maxEntries the most entities to hold
+     * @param ttl how long an entity is kept in milliseconds
+     */
+    public EntityCache(final int maxEntries, final long ttl) {
+        this.ttl = ttl;
+        this.entries = new LinkedHashMap<String, CachedEntity>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, CachedEntity> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    private static String keyFor(final String type, final String id) {
+        return type + ":" + id.toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * @return the cached entity or null if it isn't cached or has expired
+     */
+    public Object get(final String type, final String id) {
+        String key = keyFor(type, id);
+        long now = System.currentTimeMillis();
+        synchronized (entries) {
+            CachedEntity entry = entries.get(key);
+            if (entry != null && now - entry.stored > ttl) {
+                entries.remove(key);
+                expired.incrementAndGet();
+                entry = null;
+            }
+            if (entry == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+            hits.incrementAndGet();
+            return entry.value;
+        }
+    }
+
+    /**
+     * Caches an entity, null values are ignored
+     */
+    public void put(final String type, final String id, final Object value) {
+        if (value == null) {
+            return;
+        }
+        String key = keyFor(type, id);
+        synchronized (entries) {
+            entries.put(key, new CachedEntity(value, System.currentTimeMillis()));
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public void logSummary() {
+        log.info("Entity cache: {} hits, {} misses, {} expired, {} held",
+                new Object[]{hits.get(), misses.get(), expired.get(), size()});
+    }
+}
@@ -28,8 +28,12 @@ public class EventMinerV3 extends AbstractMiner {
     private static final Logger log = LoggerFactory.getLogger(EventMinerV3.class); // NOPMD
 
     public EventMinerV3(final IGitHubClient ghc) {
+        this(ghc, new ParallelPageFetcher(1));
+    }
+
+    public EventMinerV3(final IGitHubClient ghc, final ParallelPageFetcher fetcher) {
         super();
-        service = new EventServiceV3(ghc);
+        service = new EventServiceV3(ghc, fetcher);
     }
 
     public List<Event> getUserEvents(final String user) {
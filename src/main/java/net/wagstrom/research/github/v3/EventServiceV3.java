@@ -1,11 +1,10 @@
 package net.wagstrom.research.github.v3;
 
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.List;
 
 import org.eclipse.egit.github.core.client.IGitHubClient;
-import org.eclipse.egit.github.core.client.NoSuchPageException;
 import org.eclipse.egit.github.core.client.PageIterator;
 import org.eclipse.egit.github.core.event.Event;
 import org.eclipse.egit.github.core.service.EventService;
@@ -15,20 +14,23 @@ import org.slf4j.LoggerFactory;
 public class EventServiceV3 extends EventService {
     private static final Logger log = LoggerFactory.getLogger(EventService.class); // NOPMD
     
+    private final ParallelPageFetcher fetcher;
+
     public EventServiceV3(final IGitHubClient ghc) {
+        this(ghc, new ParallelPageFetcher(1));
+    }
+
+    public EventServiceV3(final IGitHubClient ghc, final ParallelPageFetcher fetcher) {
         super(ghc);
+        this.fetcher = fetcher;
     }
 
     protected <V> List<V> getAll(final PageIterator<V> iterator) {
         List<V> elements = new ArrayList<V>();
-        Collection<V> elements2 = null;
         try {
-            while (iterator.hasNext()) {
-                elements2 = iterator.next();
-                elements.addAll(elements2);
-            }
-        } catch (NoSuchPageException pageException) {
-            log.error("NoSuchPageException caught: ", pageException);
+            elements = fetcher.getAll(client, iterator);
+        } catch (IOException e) {
+            log.error("IOException caught: ", e);
         }
         return elements;
     }
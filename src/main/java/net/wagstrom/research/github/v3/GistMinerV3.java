@@ -30,8 +30,12 @@ public class GistMinerV3 extends AbstractMiner {
     private static final Logger log = LoggerFactory.getLogger(GistMinerV3.class); // NOPMD
 
     public GistMinerV3(final IGitHubClient ghc) {
+        this(ghc, new ParallelPageFetcher(1));
+    }
+
+    public GistMinerV3(final IGitHubClient ghc, final ParallelPageFetcher fetcher) {
         super();
-        service = new GistService(ghc);
+        service = new GistServiceV3(ghc, fetcher);
     }
 
     public List<Gist> getGists(final String user) {
@@ -0,0 +1,545 @@
+/*
+ * Copyright (c) 2011-2012 IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wagstrom.research.github.v3;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.eclipse.egit.github.core.client.GitHubRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A compact, indexed archive of GitHub API responses
+ *
+ * The archive is a directory of data segments and an index. The segments,
+ * <code>responses.dat</code> followed by <code>responses.1.dat</code>,
+ * <code>responses.2.dat</code> and so on, hold the responses one after the
+ * other, each individually compressed. A new segment is started once the
+ * current one reaches the segment size, so no single file grows without
+ * limit and finished segments can be copied or backed up while recording
+ * goes on. <code>responses.idx</code> maps the key of every response to
+ * its segment and offset, so a replay can jump straight to a response
+ * without reading the whole archive. Archives written before segments were
+ * introduced are a single segment.
+ *
+ * When the same key was recorded more than once the responses are handed out
+ * in the order they were recorded, and the last one is repeated after that.
+ * This way a replay sees the same sequence of responses as the recording.
+ * An ingest instead wants what GitHub said last, so {@link #latest(String)}
+ * always gives the newest response for a key. The graph being loaded rarely
+ * has the same bookmarks as the one that was crawled, so when a request
+ * isn't in the archive it falls back to the same request without a
+ * <code>since</code>, or failing that to the newest one with an earlier
+ * <code>since</code>. A later <code>since</code> would leave out updates, so
+ * such a response is never used.
+ *
+ * A recording that was killed can leave a partly written entry at the end
+ * of the index. It is ignored on replay and cut off when the archive is
+ * next opened for recording, so later entries are not appended behind it.
+ *
+ * @author patrick
+ */
+public class HttpArchive {
+    private static final Logger log = LoggerFactory.getLogger(HttpArchive.class); // NOPMD
+    public static final String DATA_FILE = "responses.dat";
+    public static final String INDEX_FILE = "responses.idx";
+    public static final long DEFAULT_SEGMENT_SIZE = 256L * 1024 * 1024;
+    // index locations hold the segment number above the offset in the segment
+    private static final int SEGMENT_SHIFT = 40;
+    private static final long OFFSET_MASK = (1L << SEGMENT_SHIFT) - 1;
+    private static final Pattern SINCE = Pattern.compile("(?<=[?&])since=[^&\\s]*&?");
+    private static final Pattern EMPTY_QUERY = Pattern.compile("[?&](?=\\s|$)");
+    private static final Pattern SINCE_VALUE = Pattern.compile("(?<=[?&])since=([^&\\s]*)");
+    private static final String SINCE_FORMAT = "yyyy-MM-dd'T'HH:mm:ss'Z'";
+    private static final Pattern PATH = Pattern.compile("^\\S+ ([^?\\s]*)");
+
+    private final File directory;
+    private final boolean writable;
+    private final long segmentSize;
+    private int segment = 0;
+    private DataOutputStream dataOutput = null;
+    private DataOutputStream indexOutput = null;
+    private long dataOffset = 0;
+    private final Map<Integer, RandomAccessFile> dataInputs = new HashMap<Integer, RandomAccessFile>();
+    private final Map<String, List<Long>> index = new HashMap<String, List<Long>>();
+    private final Map<String, Integer> cursors = new HashMap<String, Integer>();
+    // the keys of the requests that had a since parameter, by the key without it
+    private final Map<String, Set<String>> withoutSince = new HashMap<String, Set<String>>();
+    private final Set<String> served = new HashSet<String>();
+    private Set<String> paths = null;
+
+    /**
+     * A single recorded response
+     */
+    public static class Record {
+        private final String key;
+        private final int status;
+        private final Map<String, String> headers;
+        private final byte[] body;
+
+        /**
+         * @param key identifies the request, usually its URI
+         * @param status the HTTP status of the response
+         * @param headers interesting response headers
+         * @param body the body of the response, null if there was none
+         */
+        public Record(final String key, final int status, final Map<String, String> headers, final byte[] body) {
+            this.key = key;
+            this.status = status;
+            this.headers = headers;
+            this.body = body;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+
+        public Map<String, String> getHeaders() {
+            return headers;
+        }
+
+        public byte[] getBody() {
+            return body;
+        }
+    }
+
+    /**
+     * Opens an archive
+     *
+     * @param directory the directory holding the archive
+     * @param writable if true the archive is opened to record responses, which
+     *          are added to any that are already there. Otherwise it is
+     *          opened for replay.
+     * @throws IOException if the archive can't be opened
+     */
+    public HttpArchive(final File directory, final boolean writable) throws IOException {
+        this(directory, writable, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Opens an archive
+     *
+     * @param directory the directory holding the archive
+     * @param writable if true the archive is opened to record responses
+     * @param segmentSize the size in bytes at which a new segment is started
+     * @throws IOException if the archive can't be opened
+     */
+    public HttpArchive(final File directory, final boolean writable, final long segmentSize) throws IOException {
+        this.directory = directory;
+        this.writable = writable;
+        this.segmentSize = Math.min(segmentSize, OFFSET_MASK);
+        File indexFile = new File(directory, INDEX_FILE);
+        if (writable) {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Unable to create archive directory " + directory);
+            }
+            while (segmentFile(segment + 1).exists()) {
+                segment++;
+            }
+            if (indexFile.exists()) {
+                long valid = readIndex(indexFile, false);
+                if (valid < indexFile.length()) {
+                    log.warn("Truncating partly written entry at the end of {}", indexFile);
+                    RandomAccessFile truncate = new RandomAccessFile(indexFile, "rw");
+                    try {
+                        truncate.setLength(valid);
+                    } finally {
+                        truncate.close();
+                    }
+                }
+            }
+            File dataFile = segmentFile(segment);
+            dataOffset = dataFile.length();
+            dataOutput = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(dataFile, true)));
+            indexOutput = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile, true)));
+        } else {
+            readIndex(indexFile, true);
+        }
+    }
+
+    private File segmentFile(final int number) {
+        if (number == 0) {
+            return new File(directory, DATA_FILE);
+        }
+        return new File(directory, "responses." + number + ".dat");
+    }
+
+    /**
+     * Reads the index up to the last complete entry
+     *
+     * @param load if true the entries are added to the in memory index
+     * @return the length in bytes of the complete entries
+     */
+    private long readIndex(final File indexFile, final boolean load) throws IOException {
+        CountingInputStream counter = new CountingInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+        DataInputStream input = new DataInputStream(counter);
+        int count = 0;
+        long valid = 0;
+        try {
+            while (true) {
+                String key;
+                long offset;
+                try {
+                    key = input.readUTF();
+                    offset = input.readLong();
+                } catch (EOFException e) {
+                    break;
+                }
+                valid = counter.getCount();
+                count++;
+                if (!load) {
+                    continue;
+                }
+                addOffset(index, key, offset);
+                String general = withoutSince(key);
+                if (!general.equals(key)) {
+                    Set<String> keys = withoutSince.get(general);
+                    if (keys == null) {
+                        keys = new HashSet<String>();
+                        withoutSince.put(general, keys);
+                    }
+                    keys.add(key);
+                }
+            }
+        } finally {
+            input.close();
+        }
+        if (load) {
+            log.info("Loaded {} responses for {} requests from {}", new Object[]{count, index.size(), directory});
+        }
+        return valid;
+    }
+
+    private static void addOffset(final Map<String, List<Long>> offsets, final String key, final long offset) {
+        List<Long> keyOffsets = offsets.get(key);
+        if (keyOffsets == null) {
+            keyOffsets = new ArrayList<Long>(1);
+            offsets.put(key, keyOffsets);
+        }
+        keyOffsets.add(offset);
+    }
+
+    /**
+     * @return the key with any <code>since</code> parameter taken out of its URI
+     */
+    static String withoutSince(final String key) {
+        return EMPTY_QUERY.matcher(SINCE.matcher(key).replaceAll("")).replaceAll("");
+    }
+
+    /**
+     * @return the time given by the <code>since</code> parameter of a key,
+     *         or null if it has none that can be read
+     */
+    static Date sinceOf(final String key) {
+        Matcher matcher = SINCE_VALUE.matcher(key);
+        if (!matcher.find()) {
+            return null;
+        }
+        SimpleDateFormat format = new SimpleDateFormat(SINCE_FORMAT);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        try {
+            return format.parse(URLDecoder.decode(matcher.group(1), "UTF-8"));
+        } catch (ParseException e) {
+            return null;
+        } catch (UnsupportedEncodingException e) {
+            return null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Counts the bytes read through it, to find where the last complete
+     * index entry ends
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        private long count = 0;
+
+        CountingInputStream(final InputStream input) {
+            super(input);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = super.read();
+            if (value >= 0) {
+                count++;
+            }
+            return value;
+        }
+
+        @Override
+        public int read(final byte[] buffer, final int offset, final int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(final long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+
+        public long getCount() {
+            return count;
+        }
+    }
+
+    /**
+     * Adds a response to the end of the archive
+     */
+    public synchronized void append(final Record record) throws IOException {
+        if (!writable) {
+            throw new IOException("Archive " + directory + " is open for replay");
+        }
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(new DeflaterOutputStream(buffer));
+        output.writeUTF(record.getKey());
+        output.writeInt(record.getStatus());
+        output.writeInt(record.getHeaders().size());
+        for (Map.Entry<String, String> header : record.getHeaders().entrySet()) {
+            output.writeUTF(header.getKey());
+            output.writeUTF(header.getValue());
+        }
+        if (record.getBody() == null) {
+            output.writeInt(-1);
+        } else {
+            output.writeInt(record.getBody().length);
+            output.write(record.getBody());
+        }
+        output.close();
+        byte[] compressed = buffer.toByteArray();
+
+        if (dataOffset > 0 && dataOffset + 4 + compressed.length > segmentSize) {
+            dataOutput.close();
+            segment++;
+            dataOffset = 0;
+            log.info("Starting archive segment {}", segmentFile(segment));
+            dataOutput = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(segmentFile(segment), true)));
+        }
+        dataOutput.writeInt(compressed.length);
+        dataOutput.write(compressed);
+        dataOutput.flush();
+        indexOutput.writeUTF(record.getKey());
+        indexOutput.writeLong(((long) segment << SEGMENT_SHIFT) | dataOffset);
+        indexOutput.flush();
+        dataOffset += 4 + compressed.length;
+    }
+
+    /**
+     * Gets the next recorded response for a key
+     *
+     * @return the response, or null if the key was never recorded
+     */
+    public synchronized Record next(final String key) throws IOException {
+        List<Long> offsets = index.get(key);
+        if (offsets == null) {
+            return null;
+        }
+        Integer cursor = cursors.get(key);
+        int position = cursor == null ? 0 : cursor;
+        cursors.put(key, Math.min(position + 1, offsets.size() - 1));
+        served.add(key);
+        return read(offsets.get(position));
+    }
+
+    /**
+     * Gets the newest recorded response for a key. If the key itself was
+     * never recorded, this is the newest response to the same request without
+     * a <code>since</code>, or with the latest <code>since</code> that is no
+     * later than that of the key, as it lists everything the key would.
+     *
+     * @return the response, or null if nothing that covers the key was recorded
+     */
+    public synchronized Record latest(final String key) throws IOException {
+        long location;
+        List<Long> offsets = index.get(key);
+        if (offsets != null) {
+            location = offsets.get(offsets.size() - 1);
+        } else {
+            String general = withoutSince(key);
+            location = newest(index.get(general));
+            if (location == -1) {
+                location = newestCovering(general, sinceOf(key));
+            }
+            if (location == -1) {
+                return null;
+            }
+            log.debug("Using a response recorded with a different since for {}", key);
+        }
+        Record record = read(location);
+        served.add(record.getKey());
+        return record;
+    }
+
+    private Record read(final long location) throws IOException {
+        int number = (int) (location >>> SEGMENT_SHIFT);
+        RandomAccessFile dataInput = dataInputs.get(number);
+        if (dataInput == null) {
+            dataInput = new RandomAccessFile(segmentFile(number), "r");
+            dataInputs.put(number, dataInput);
+        }
+        dataInput.seek(location & OFFSET_MASK);
+        byte[] compressed = new byte[dataInput.readInt()];
+        dataInput.readFully(compressed);
+        DataInputStream input = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(compressed)));
+        try {
+            String key = input.readUTF();
+            int status = input.readInt();
+            int headerCount = input.readInt();
+            Map<String, String> headers = new LinkedHashMap<String, String>();
+            for (int i = 0; i < headerCount; i++) {
+                headers.put(input.readUTF(), input.readUTF());
+            }
+            int length = input.readInt();
+            byte[] body = null;
+            if (length >= 0) {
+                body = new byte[length];
+                input.readFully(body);
+            }
+            return new Record(key, status, headers, body);
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Creates the key a request is recorded under
+     *
+     * @param methodName the IGitHubClient method that made the request
+     * @param request the request
+     */
+    public static String keyFor(final String methodName, final GitHubRequest request) {
+        String key = methodName + " " + request.generateUri();
+        if (request.getResponseContentType() != null) {
+            key = key + " " + request.getResponseContentType();
+        }
+        return key;
+    }
+
+    /**
+     * @return the location of the newest of the offsets, which are in the
+     *         order they were written, or -1 if there are none
+     */
+    private static long newest(final List<Long> offsets) {
+        return offsets == null ? -1 : offsets.get(offsets.size() - 1);
+    }
+
+    /**
+     * @param since the since of the request, null if it had none or it
+     *          couldn't be read
+     * @return the location of the newest response to the request with a
+     *         since no later than the given one, or -1 if there is none
+     */
+    private long newestCovering(final String general, final Date since) {
+        Set<String> keys = withoutSince.get(general);
+        if (keys == null || since == null) {
+            return -1;
+        }
+        long location = -1;
+        for (String recorded : keys) {
+            Date recordedSince = sinceOf(recorded);
+            if (recordedSince != null && !recordedSince.after(since)) {
+                location = Math.max(location, newest(index.get(recorded)));
+            }
+        }
+        return location;
+    }
+
+    /**
+     * Checks whether any request for a path was recorded, whatever its
+     * method, query or response content type
+     *
+     * @param path a path such as <code>/users/pridkett</code>
+     */
+    public synchronized boolean hasRecorded(final String path) {
+        if (paths == null) {
+            paths = new HashSet<String>();
+            for (String key : index.keySet()) {
+                Matcher matcher = PATH.matcher(key);
+                if (matcher.find()) {
+                    paths.add(matcher.group(1));
+                }
+            }
+        }
+        return paths.contains(path);
+    }
+
+    /**
+     * @return the number of distinct requests available for replay
+     */
+    public synchronized int size() {
+        return index.size();
+    }
+
+    /**
+     * @return the number of distinct requests that have never been served
+     */
+    public synchronized int unservedSize() {
+        return index.size() - served.size();
+    }
+
+    public synchronized void close() throws IOException {
+        if (dataOutput != null) {
+            dataOutput.close();
+            indexOutput.close();
+            dataOutput = null;
+            indexOutput = null;
+        }
+        for (RandomAccessFile dataInput : dataInputs.values()) {
+            dataInput.close();
+        }
+        dataInputs.clear();
+    }
+}
@@ -16,9 +16,15 @@
 package net.wagstrom.research.github.v3;
 
 import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
 
 import org.eclipse.egit.github.core.Comment;
 import org.eclipse.egit.github.core.IRepositoryIdProvider;
@@ -26,6 +32,9 @@ import org.eclipse.egit.github.core.Issue;
 import org.eclipse.egit.github.core.IssueEvent;
 import org.eclipse.egit.github.core.PullRequest;
 import org.eclipse.egit.github.core.client.IGitHubClient;
+import org.eclipse.egit.github.core.client.NoSuchPageException;
+import org.eclipse.egit.github.core.client.PageIterator;
+import org.eclipse.egit.github.core.client.PagedRequest;
 import org.eclipse.egit.github.core.client.RequestException;
 import org.eclipse.egit.github.core.service.IssueService;
 import org.slf4j.Logger;
@@ -33,6 +42,8 @@ import org.slf4j.LoggerFactory;
 
 public class IssueMinerV3 extends AbstractMiner {
     private static final String ISSUES_DISABLED = "Issues are disabled for this repo";
+    private static final String STATE_ALL = "all";
+    private static final String SINCE_FORMAT = "yyyy-MM-dd'T'HH:mm:ss'Z'";
     private IssueService service;
 
     private Logger log = LoggerFactory.getLogger(IssueMinerV3.class); // NOPMD
@@ -47,8 +58,12 @@ public class IssueMinerV3 extends AbstractMiner {
     }
 
     public IssueMinerV3(final IGitHubClient ghc) {
+        this(ghc, new ParallelPageFetcher(1));
+    }
+
+    public IssueMinerV3(final IGitHubClient ghc, final ParallelPageFetcher fetcher) {
         this();
-        service = new IssueService(ghc);
+        service = new IssueServiceV3(ghc, fetcher);
     }
 
     public Collection<Issue> getIssues(final String username, final String reponame, final String state) {
@@ -71,6 +86,123 @@ public class IssueMinerV3 extends AbstractMiner {
         return issues;
     }
 
+    /**
+     * Hands the issues of a repository in the given state to a handler one
+     * page at a time instead of collecting them all first.
+     *
+     * @param username owner of the repository
+     * @param reponame name of the repository
+     * @param state {@link IssueService#STATE_OPEN} or {@link IssueService#STATE_CLOSED}
+     * @param handler receives each page of issues
+     * @return false if the issues could not be read, in which case the handler
+     *         may have seen some of the pages
+     */
+    public boolean forEachIssue(final String username, final String reponame, final String state,
+            final PageHandler<Issue> handler) {
+        HashMap<String, String> params = new HashMap<String, String>();
+        params.put(IssueService.FILTER_STATE, state);
+        try {
+            forEachPage(service, service.pageIssues(username, reponame, params), handler);
+            return true;
+        } catch (RequestException r) {
+            if (r.getError().getMessage().equals(ISSUES_DISABLED)) {
+                log.warn("Issues disabled for repository {}/{}", username, reponame);
+            }
+            log.error("Request exception in forEachIssue {}/{}", new Object[]{username, reponame, r});
+            log.warn("Message: {}", r.getError().getMessage());
+        } catch (IOException e) {
+            log.error("IOException in forEachIssue {}/{}", new Object[]{username, reponame, e});
+        } catch (NullPointerException e) {
+            log.error("NullPointerException in forEachIssue {}/{}", new Object[]{username, reponame, e});
+        }
+        return false;
+    }
+
+    /**
+     * Streaming version of {@link #getAllIssues(String, String)}, open issues
+     * are handed over first followed by closed issues.
+     *
+     * @return false if neither the open nor the closed issues could be read
+     */
+    public boolean forEachIssue(final String username, final String reponame, final PageHandler<Issue> handler) {
+        boolean open = forEachIssue(username, reponame, IssueService.STATE_OPEN, handler);
+        boolean closed = forEachIssue(username, reponame, IssueService.STATE_CLOSED, handler);
+        return open || closed;
+    }
+
+    /**
+     * Hands every issue of a repository, open or closed, that has been updated
+     * since the given time to a handler. The issues arrive oldest update first.
+     *
+     * An issue updated while the list is being read moves to the end of the
+     * list and every issue behind it moves up one place, so reading the list
+     * page by page could skip an issue. Instead each page is asked for afresh,
+     * starting at the newest update seen so far, and issues that were already
+     * handed over are left out. Only when every issue on a page was updated in
+     * the same second does it go on to the following page. An issue that is
+     * updated again while the list is read is handed over again.
+     *
+     * @param since the earliest update time of interest
+     * @return false if the issues could not be read
+     */
+    public boolean forEachIssueSince(final String username, final String reponame, final Date since,
+            final PageHandler<Issue> handler) {
+        Map<Integer, Date> seen = new HashMap<Integer, Date>();
+        Date from = since;
+        int page = PagedRequest.PAGE_FIRST;
+        try {
+            while (true) {
+                HashMap<String, String> params = new HashMap<String, String>();
+                params.put(IssueService.FILTER_STATE, STATE_ALL);
+                params.put(IssueService.FIELD_SORT, IssueService.SORT_UPDATED);
+                params.put(IssueService.FIELD_DIRECTION, IssueService.DIRECTION_ASCENDING);
+                params.put(IssueService.FIELD_SINCE, formatSince(from));
+                PageIterator<Issue> iterator = service.pageIssues(username, reponame, params, page, PagedRequest.PAGE_SIZE);
+                if (!iterator.hasNext()) {
+                    break;
+                }
+                List<Issue> fresh = new ArrayList<Issue>();
+                Date newest = from;
+                for (Issue issue : iterator.next()) {
+                    Date updated = issue.getUpdatedAt();
+                    if (updated != null && updated.after(newest)) {
+                        newest = updated;
+                    }
+                    if (updated == null || !updated.equals(seen.get(issue.getNumber()))) {
+                        seen.put(issue.getNumber(), updated);
+                        fresh.add(issue);
+                    }
+                }
+                if (!fresh.isEmpty()) {
+                    handler.handlePage(fresh);
+                }
+                if (!iterator.hasNext()) {
+                    break;
+                }
+                if (newest.after(from)) {
+                    from = newest;
+                    page = PagedRequest.PAGE_FIRST;
+                } else {
+                    page++;
+                }
+            }
+            return true;
+        } catch (NoSuchPageException e) {
+            log.error("IOException in forEachIssueSince {}/{}", new Object[]{username, reponame, e.getCause()});
+        }
+        return false;
+    }
+
+    /**
+     * @return the time as an ISO 8601 timestamp in UTC as expected by the
+     *         <code>since</code> parameter
+     */
+    protected static String formatSince(final Date since) {
+        SimpleDateFormat format = new SimpleDateFormat(SINCE_FORMAT, Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(since);
+    }
+
     public Collection<Issue> getOpenIssues(final String username, final String reponame) {
         return getIssues(username, reponame, IssueService.STATE_OPEN);
     }
@@ -92,6 +224,31 @@ public class IssueMinerV3 extends AbstractMiner {
         return openIssues;
     }
 
+    /**
+     * Hands the issue comments of every issue in a repository to a handler one
+     * page at a time. This takes one call for each page of comments rather
+     * than one for each issue.
+     *
+     * @param since only comments updated at or after this time, or null for all
+     * @return false if the comments could not be read, in which case the
+     *         handler may have seen some of the pages
+     */
+    public boolean forEachRepositoryComment(final IRepositoryIdProvider repo, final Date since,
+            final PageHandler<RepositoryComment> handler) {
+        if (!(service instanceof IssueServiceV3)) {
+            log.warn("Unable to list all issue comments for {} with {}", repo.generateId(), service.getClass().getName());
+            return false;
+        }
+        IssueServiceV3 serviceV3 = (IssueServiceV3) service;
+        try {
+            forEachPage(service, serviceV3.pageRepositoryComments(repo, since == null ? null : formatSince(since)), handler);
+            return true;
+        } catch (IOException e) {
+            log.error("IOException in forEachRepositoryComment {}", new Object[]{repo.generateId(), e});
+        }
+        return false;
+    }
+
     public Issue getIssue(final String username, final String reponame, final int issueId) {
         Issue issue = null;
         try {
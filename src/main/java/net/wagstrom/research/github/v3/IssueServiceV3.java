@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2011-2012 IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wagstrom.research.github.v3;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.egit.github.core.IRepositoryIdProvider;
+import org.eclipse.egit.github.core.client.IGitHubClient;
+import org.eclipse.egit.github.core.client.IGitHubConstants;
+import org.eclipse.egit.github.core.client.PageIterator;
+import org.eclipse.egit.github.core.client.PagedRequest;
+import org.eclipse.egit.github.core.service.IssueService;
+
+import com.google.gson.reflect.TypeToken;
+
+/**
+ * {@link IssueService} that reads paginated lists with a {@link ParallelPageFetcher}
+ *
+ * @author patrick
+ */
+public class IssueServiceV3 extends IssueService implements PagingService {
+    private final ParallelPageFetcher fetcher;
+
+    public IssueServiceV3(final IGitHubClient ghc, final ParallelPageFetcher fetcher) {
+        super(ghc);
+        this.fetcher = fetcher;
+    }
+
+    @Override
+    protected <V> List<V> getAll(final PageIterator<V> iterator) throws IOException {
+        return fetcher.getAll(client, iterator);
+    }
+
+    /**
+     * Pages through the issue comments of every issue in a repository
+     *
+     * @param since only comments updated at or after this time, an ISO 8601
+     *        timestamp, or null for all of them
+     */
+    public PageIterator<RepositoryComment> pageRepositoryComments(final IRepositoryIdProvider repository,
+            final String since) {
+        StringBuilder uri = new StringBuilder(IGitHubConstants.SEGMENT_REPOS);
+        uri.append('/').append(getId(repository));
+        uri.append(IGitHubConstants.SEGMENT_ISSUES);
+        uri.append(IGitHubConstants.SEGMENT_COMMENTS);
+        Map<String, String> params = new HashMap<String, String>();
+        params.put(FIELD_SORT, SORT_CREATED);
+        params.put(FIELD_DIRECTION, DIRECTION_ASCENDING);
+        if (since != null) {
+            params.put(FIELD_SINCE, since);
+        }
+        PagedRequest<RepositoryComment> request = createPagedRequest(PagedRequest.PAGE_FIRST, PagedRequest.PAGE_SIZE);
+        request.setUri(uri);
+        request.setParams(params);
+        request.setType(new TypeToken<List<RepositoryComment>>() {
+        }.getType());
+        return createPageIterator(request);
+    }
+
+    public <V> void forEachPage(final PageIterator<V> iterator, final PageHandler<V> handler) throws IOException {
+        fetcher.forEachPage(client, iterator, handler);
+    }
+}
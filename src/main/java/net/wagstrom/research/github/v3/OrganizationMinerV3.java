@@ -30,8 +30,12 @@ public class OrganizationMinerV3 extends AbstractMiner {
     private static final Logger log = LoggerFactory.getLogger(OrganizationMinerV3.class); // NOPMD
 
     public OrganizationMinerV3(final IGitHubClient ghc) {
+        this(ghc, new ParallelPageFetcher(1));
+    }
+
+    public OrganizationMinerV3(final IGitHubClient ghc, final ParallelPageFetcher fetcher) {
         super();
-        service = new OrganizationService(ghc);
+        service = new OrganizationServiceV3(ghc, fetcher);
     }
 
     public Collection<User> getMembers(final String organization) {
@@ -44,23 +48,32 @@ public class OrganizationMinerV3 extends AbstractMiner {
         return members;
     }
 
+    @SuppressWarnings("unchecked")
     public Collection<User> getPublicMembers(final String organization) {
-        Collection<User> members = null;
+        Collection<User> members = (Collection<User>) getCached(EntityCache.ORGANIZATION_PUBLIC_MEMBERS, organization);
+        if (members != null) {
+            return members;
+        }
         try {
             members = service.getPublicMembers(organization);
         } catch (IOException e) {
             log.error("IOException getting public organization members for {}: {}", organization, e);
         }
+        putCached(EntityCache.ORGANIZATION_PUBLIC_MEMBERS, organization, members);
         return members;
     }
 
     public User getOrganization(final String organization) {
-        User org = null;
+        User org = (User) getCached(EntityCache.ORGANIZATION, organization);
+        if (org != null) {
+            return org;
+        }
         try {
             org = service.getOrganization(organization);
         } catch (IOException e) {
             log.error("IOException getting organization {}: {}", organization, e);
         }
+        putCached(EntityCache.ORGANIZATION, organization, org);
         return org;
     }
 }
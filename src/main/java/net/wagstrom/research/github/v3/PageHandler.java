@@ -0,0 +1,34 @@
+/*
+ * Copyright (c) 2011-2012 IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wagstrom.research.github.v3;
+
+import java.util.Collection;
+
+/**
+ * Receives the pages of a list one at a time as they are read.
+ *
+ * Pages are always handed over in order and on the thread that asked for the
+ * list, so a handler that writes to the database is the only writer even when
+ * the pages themselves are fetched in parallel.
+ *
+ * @author patrick
+ */
+public interface PageHandler<V> {
+    /**
+     * @param page the elements on one page of the list
+     */
+    void handlePage(Collection<V> page);
+}
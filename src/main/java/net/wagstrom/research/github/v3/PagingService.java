@@ -0,0 +1,32 @@
+/*
+ * Copyright (c) 2011-2012 IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wagstrom.research.github.v3;
+
+import java.io.IOException;
+
+import org.eclipse.egit.github.core.client.PageIterator;
+
+/**
+ * A service that can hand the pages of a list over one at a time
+ *
+ * @author patrick
+ */
+public interface PagingService {
+    /**
+     * @see ParallelPageFetcher#forEachPage(org.eclipse.egit.github.core.client.IGitHubClient, PageIterator, PageHandler)
+     */
+    <V> void forEachPage(PageIterator<V> iterator, PageHandler<V> handler) throws IOException;
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) 2011-2012 IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wagstrom.research.github.v3;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.egit.github.core.client.GitHubResponse;
+import org.eclipse.egit.github.core.client.IGitHubClient;
+import org.eclipse.egit.github.core.client.NoSuchPageException;
+import org.eclipse.egit.github.core.client.PageIterator;
+import org.eclipse.egit.github.core.client.PagedRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads every page of a paginated list.
+ *
+ * The first page is read through the iterator as usual. Its
+ * <code>Link rel="last"</code> header says how many pages there are, so the
+ * remaining pages are then requested at the same time on a fixed pool of
+ * threads and put back in order. The pool is shared by every list being read,
+ * which bounds the number of requests in flight. The throttle underneath the
+ * client still spaces out the calls themselves.
+ *
+ * With a parallelism of one, or when a list doesn't say how long it is, the
+ * pages are read one after the other exactly like
+ * <code>GitHubService.getAll</code>.
+ *
+ * Long lists should be read with
+ * {@link #forEachPage(IGitHubClient, PageIterator, PageHandler)} so that only a
+ * few pages are held in memory at a time.
+ *
+ * @author patrick
+ */
+public class ParallelPageFetcher {
+    private static final Logger log = LoggerFactory.getLogger(ParallelPageFetcher.class); // NOPMD
+    private static final AtomicInteger threadCounter = new AtomicInteger();
+
+    private final int parallelism;
+    private final ExecutorService executor;
+
+    /**
+     * @param parallelism the most pages to request at once over all lists
+     */
+    public ParallelPageFetcher(final int parallelism) {
+        this.parallelism = parallelism;
+        if (parallelism > 1) {
+            executor = Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+                public Thread newThread(final Runnable runnable) {
+                    Thread thread = new Thread(runnable, "page-fetcher-" + threadCounter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        } else {
+            executor = null;
+        }
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Reads all of the elements of a list
+     *
+     * @param client the client to request the remaining pages with
+     * @param iterator iterator over the list, positioned at the first page
+     * @return all of the elements in order
+     * @throws IOException if any page can't be read
+     */
+    public <V> List<V> getAll(final IGitHubClient client, final PageIterator<V> iterator) throws IOException {
+        final List<V> elements = new ArrayList<V>();
+        forEachPage(client, iterator, new PageHandler<V>() {
+            public void handlePage(final Collection<V> page) {
+                elements.addAll(page);
+            }
+        });
+        return elements;
+    }
+
+    /**
+     * Hands each page of a list to a handler as soon as it and all of the
+     * pages before it have been read.
+     *
+     * At most one page per thread is requested ahead of the page being handled,
+     * so the memory used doesn't grow with the length of the list and the
+     * handler runs while the next pages are still on the wire.
+     *
+     * @param client the client to request the remaining pages with
+     * @param iterator iterator over the list, positioned at the first page
+     * @param handler called on this thread with each page in order
+     * @throws IOException if any page can't be read
+     */
+    public <V> void forEachPage(final IGitHubClient client, final PageIterator<V> iterator,
+            final PageHandler<V> handler) throws IOException {
+        try {
+            if (!iterator.hasNext()) {
+                return;
+            }
+            handler.handlePage(iterator.next());
+            int firstPage = iterator.getNextPage();
+            int lastPage = iterator.getLastPage();
+            if (executor == null || firstPage < 2 || lastPage <= firstPage) {
+                while (iterator.hasNext()) {
+                    handler.handlePage(iterator.next());
+                }
+                return;
+            }
+            fetchRemaining(client, iterator.getRequest(), firstPage, lastPage, handler);
+        } catch (NoSuchPageException pageException) {
+            throw pageException.getCause();
+        }
+    }
+
+    private <V> void fetchRemaining(final IGitHubClient client, final PagedRequest<V> template,
+            final int firstPage, final int lastPage, final PageHandler<V> handler) throws IOException {
+        log.debug("Fetching pages {}-{} of {} in parallel", new Object[]{firstPage, lastPage, template.getUri()});
+        LinkedList<Future<GitHubResponse>> futures = new LinkedList<Future<GitHubResponse>>();
+        int nextPage = firstPage;
+        GitHubResponse response = null;
+        try {
+            while (nextPage <= lastPage || !futures.isEmpty()) {
+                while (nextPage <= lastPage && futures.size() < parallelism) {
+                    futures.add(submitPage(client, template, nextPage));
+                    nextPage++;
+                }
+                response = futures.removeFirst().get();
+                handler.handlePage(this.<V>getElements(response));
+            }
+        } catch (InterruptedException e) {
+            cancel(futures);
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while fetching " + template.getUri());
+        } catch (ExecutionException e) {
+            cancel(futures);
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Unable to fetch " + template.getUri() + ": " + e.getCause());
+        } catch (RuntimeException e) {
+            cancel(futures);
+            throw e;
+        }
+
+        // the list may have grown since the first page was read
+        int page = lastPage;
+        while (response.getNext() != null) {
+            page++;
+            response = fetchPage(client, template, page);
+            handler.handlePage(this.<V>getElements(response));
+        }
+    }
+
+    private <V> Future<GitHubResponse> submitPage(final IGitHubClient client, final PagedRequest<V> template, final int page) {
+        return executor.submit(new Callable<GitHubResponse>() {
+            public GitHubResponse call() throws IOException {
+                return fetchPage(client, template, page);
+            }
+        });
+    }
+
+    private static void cancel(final List<Future<GitHubResponse>> futures) {
+        for (Future<GitHubResponse> future : futures) {
+            future.cancel(true);
+        }
+    }
+
+    private static <V> GitHubResponse fetchPage(final IGitHubClient client, final PagedRequest<V> template, final int page) throws IOException {
+        PagedRequest<V> request = new PagedRequest<V>(page, template.getPageSize());
+        request.setUri(template.getUri());
+        request.setParams(template.getParams());
+        request.setType(template.getType());
+        request.setArrayType(template.getArrayType());
+        request.setResponseContentType(template.getResponseContentType());
+        GitHubResponse response = client.get(request);
+        if (response == null) {
+            throw new IOException("Unable to fetch page " + page + " of " + template.getUri());
+        }
+        return response;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <V> Collection<V> getElements(final GitHubResponse response) {
+        Object body = response.getBody();
+        if (body == null) {
+            return Collections.emptyList();
+        } else if (body instanceof Collection) {
+            return (Collection<V>) body;
+        }
+        return Collections.singletonList((V) body);
+    }
+
+    /**
+     * Stops the threads used for fetching pages
+     */
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+}
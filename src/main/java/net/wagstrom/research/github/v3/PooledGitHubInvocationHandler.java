@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2011-2012 IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wagstrom.research.github.v3;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.HashSet;
+import java.util.Set;
+
+import net.wagstrom.research.github.ApiThrottle;
+import net.wagstrom.research.github.CrawlMetrics;
+import net.wagstrom.research.github.FailureType;
+import net.wagstrom.research.github.QuotaHoldException;
+import net.wagstrom.research.github.QuotaLedger;
+import net.wagstrom.research.github.RetryEngine;
+
+import org.eclipse.egit.github.core.client.RequestException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends each call to the credential in a {@link CredentialPool} with the most
+ * remaining budget and fails over to another credential when one is exhausted
+ * or revoked.
+ *
+ * A call the {@link QuotaLedger} holds back on one credential is tried on the
+ * others. Only when every credential holds it back does the call wait, for
+ * the shortest of the holds.
+ *
+ * In the same way a call that hits the rate limit of one credential is moved
+ * to the others, and when they have all hit it the call waits for the first
+ * of them to reset. Waiting for a reset isn't counted as a failed attempt,
+ * so a crawl with a single credential sleeps through an exhausted window
+ * rather than giving up on the call.
+ *
+ * @author patrick
+ */
+public class PooledGitHubInvocationHandler implements InvocationHandler {
+    private static final Logger log = LoggerFactory.getLogger(PooledGitHubInvocationHandler.class); // NOPMD
+    // how long to wait for exhausted credentials when none of them knows its reset
+    protected static final long UNKNOWN_RESET_WAIT = 60000;
+    private final CredentialPool pool;
+
+    public PooledGitHubInvocationHandler(final CredentialPool pool) {
+        this.pool = pool;
+    }
+
+    public Object invoke(final Object proxy, final Method method, final Object[] args)
+            throws Throwable {
+        // every credential gets a couple of chances before we give up on the call
+        int attempts = pool.size() * 2;
+        RequestException lastFailure = null;
+        Set<CredentialPool.Credential> held = new HashSet<CredentialPool.Credential>();
+        Set<CredentialPool.Credential> exhausted = new HashSet<CredentialPool.Credential>();
+        long holdTime = 0;
+        while (attempts > 0) {
+            Set<CredentialPool.Credential> excluded = new HashSet<CredentialPool.Credential>(held);
+            excluded.addAll(exhausted);
+            CredentialPool.Credential credential = pool.select(excluded);
+            if (credential == null) {
+                if (excluded.isEmpty()) {
+                    break;
+                }
+                if (exhausted.isEmpty()) {
+                    waitFor(method, holdTime, "Every credential is holding {} call back, waiting {}ms");
+                } else {
+                    long waitTime = resetWaitTime(exhausted);
+                    if (!held.isEmpty()) {
+                        waitTime = Math.min(waitTime, holdTime);
+                    }
+                    waitFor(method, waitTime, "Every credential is out of calls for {}, waiting {}ms for a reset");
+                }
+                held.clear();
+                exhausted.clear();
+                continue;
+            }
+            log.trace("[{}] Method invoked: {}", credential.getId(), method.getName());
+            try {
+                return method.invoke(credential.getClient(), args);
+            } catch (InvocationTargetException e) {
+                if (e.getCause() instanceof QuotaHoldException) {
+                    long waitTime = ((QuotaHoldException) e.getCause()).getWaitTime();
+                    holdTime = held.isEmpty() ? waitTime : Math.min(holdTime, waitTime);
+                    held.add(credential);
+                    continue;
+                }
+                if (!(e.getCause() instanceof RequestException)) {
+                    throw e.getCause();
+                }
+                lastFailure = (RequestException) e.getCause();
+                if (FailureType.RATE_LIMIT.equals(RetryEngine.classify(lastFailure))) {
+                    log.warn("[{}] Rate limit exceeded, moving {} to another credential", credential.getId(), method.getName());
+                    exhausted.add(credential);
+                    continue;
+                }
+                if (lastFailure.getStatus() == 401) {
+                    pool.revoke(credential);
+                } else if (lastFailure.getStatus() != 403) {
+                    throw lastFailure;
+                }
+                attempts--;
+                log.warn("[{}] Moving {} to another credential", credential.getId(), method.getName());
+            }
+        }
+        if (lastFailure != null) {
+            throw lastFailure;
+        }
+        throw new IOException("No usable GitHub credentials left");
+    }
+
+    /**
+     * @return how long until the first of the exhausted credentials resets
+     */
+    private long resetWaitTime(final Set<CredentialPool.Credential> exhausted) {
+        long reset = pool.getEarliestReset(exhausted);
+        long now = System.currentTimeMillis();
+        if (reset == -1 || reset <= now) {
+            return UNKNOWN_RESET_WAIT;
+        }
+        return reset - now + ApiThrottle.RESET_SKEW;
+    }
+
+    /**
+     * Waits for the first credential to let a held back call go ahead
+     *
+     * @param message the log message, given the method and the wait
+     */
+    private void waitFor(final Method method, final long waitTime, final String message) throws IOException {
+        log.info(message, method.getName(), waitTime);
+        long waitStart = System.nanoTime();
+        try {
+            Thread.sleep(waitTime);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while holding " + method.getName() + " call");
+        } finally {
+            CrawlMetrics.getInstance().recordThrottleWait((System.nanoTime() - waitStart) / 1000);
+        }
+    }
+}
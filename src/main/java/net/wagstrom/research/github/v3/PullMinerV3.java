@@ -34,8 +34,12 @@ public class PullMinerV3 extends AbstractMiner {
     private static final Logger log = LoggerFactory.getLogger(PullMinerV3.class); // NOPMD
 
     public PullMinerV3(final IGitHubClient ghc) {
+        this(ghc, new ParallelPageFetcher(1));
+    }
+
+    public PullMinerV3(final IGitHubClient ghc, final ParallelPageFetcher fetcher) {
         super();
-        service = new PullRequestService(ghc);
+        service = new PullRequestServiceV3(ghc, fetcher);
     }
 
     public Collection<PullRequest> getOpenPullRequests(final IRepositoryIdProvider repository) {
@@ -58,6 +62,39 @@ public class PullMinerV3 extends AbstractMiner {
         return pullrequests;
     }
 
+    /**
+     * Hands the pull requests of a repository in the given state to a handler
+     * one page at a time instead of collecting them all first.
+     *
+     * @param repository the repository of interest
+     * @param state {@link IssueService#STATE_OPEN} or {@link IssueService#STATE_CLOSED}
+     * @param handler receives each page of pull requests
+     * @return false if the pull requests could not be read, in which case the
+     *         handler may have seen some of the pages
+     */
+    public boolean forEachPullRequest(final IRepositoryIdProvider repository, final String state,
+            final PageHandler<PullRequest> handler) {
+        try {
+            forEachPage(service, service.pagePullRequests(repository, state), handler);
+            return true;
+        } catch (IOException e) {
+            log.error("IOException in forEachPullRequest {} {}", new Object[]{repository.generateId(), e});
+        }
+        return false;
+    }
+
+    /**
+     * Streaming version of {@link #getAllPullRequests(IRepositoryIdProvider)},
+     * open pull requests are handed over first followed by closed ones.
+     *
+     * @return false if neither the open nor the closed pull requests could be read
+     */
+    public boolean forEachPullRequest(final IRepositoryIdProvider repository, final PageHandler<PullRequest> handler) {
+        boolean open = forEachPullRequest(repository, IssueService.STATE_OPEN, handler);
+        boolean closed = forEachPullRequest(repository, IssueService.STATE_CLOSED, handler);
+        return open || closed;
+    }
+
     public Collection<PullRequest> getAllPullRequests(final IRepositoryIdProvider repository) {
         Collection<PullRequest> openIssues = getOpenPullRequests(repository);
         Collection<PullRequest> closedIssues = getClosedPullRequests(repository);
@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2011-2012 IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wagstrom.research.github.v3;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.egit.github.core.client.GitHubRequest;
+import org.eclipse.egit.github.core.client.GitHubResponse;
+import org.eclipse.egit.github.core.client.GsonUtils;
+import org.eclipse.egit.github.core.client.IGitHubClient;
+import org.eclipse.egit.github.core.client.RequestException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes every response seen by a client to an {@link HttpArchive} so that a
+ * crawl can later be replayed with {@link ReplayGitHubInvocationHandler}.
+ *
+ * Only reads are recorded. Errors returned by GitHub are recorded as well so
+ * a replay fails in the same places.
+ *
+ * @author patrick
+ */
+public class RecordingGitHubInvocationHandler implements InvocationHandler {
+    private static final Logger log = LoggerFactory.getLogger(RecordingGitHubInvocationHandler.class); // NOPMD
+    private static final List<String> RECORDED_HEADERS = Arrays.asList(GitHubHeaders.LINK,
+            GitHubHeaders.ETAG, GitHubHeaders.LAST_MODIFIED, GitHubHeaders.RATE_LIMIT,
+            GitHubHeaders.RATE_LIMIT_REMAINING, GitHubHeaders.RATE_LIMIT_RESET);
+
+    private final IGitHubClient wrapped;
+    private final HttpArchive archive;
+
+    public RecordingGitHubInvocationHandler(final IGitHubClient client, final HttpArchive archive) {
+        wrapped = client;
+        this.archive = archive;
+    }
+
+    public Object invoke(final Object proxy, final Method method, final Object[] args)
+            throws Throwable {
+        if (args != null && args.length == 1 && args[0] instanceof GitHubRequest) {
+            GitHubRequest request = (GitHubRequest) args[0];
+            if (method.getName().equals("get")) {
+                return recordGet(request);
+            } else if (method.getName().equals("getStream")) {
+                return recordStream(request);
+            }
+        }
+        try {
+            return method.invoke(wrapped, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private GitHubResponse recordGet(final GitHubRequest request) throws IOException {
+        String key = HttpArchive.keyFor("get", request);
+        GitHubResponse response;
+        try {
+            response = wrapped.get(request);
+        } catch (RequestException e) {
+            recordFailure(key, e);
+            throw e;
+        }
+        Map<String, String> headers = new LinkedHashMap<String, String>();
+        for (String header : RECORDED_HEADERS) {
+            String value = response.getHeader(header);
+            if (value != null) {
+                headers.put(header, value);
+            }
+        }
+        byte[] body = null;
+        if (response.getBody() != null) {
+            body = GsonUtils.toJson(response.getBody()).getBytes("UTF-8");
+        }
+        record(new HttpArchive.Record(key, body == null ? 204 : 200, headers, body));
+        return response;
+    }
+
+    private InputStream recordStream(final GitHubRequest request) throws IOException {
+        String key = HttpArchive.keyFor("getStream", request);
+        InputStream stream;
+        try {
+            stream = wrapped.getStream(request);
+        } catch (RequestException e) {
+            recordFailure(key, e);
+            throw e;
+        }
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = stream.read(buffer)) != -1) {
+                body.write(buffer, 0, read);
+            }
+        } finally {
+            stream.close();
+        }
+        Map<String, String> headers = Collections.emptyMap();
+        record(new HttpArchive.Record(key, 200, headers, body.toByteArray()));
+        return new ByteArrayInputStream(body.toByteArray());
+    }
+
+    private void recordFailure(final String key, final RequestException e) throws IOException {
+        byte[] body = null;
+        if (e.getError() != null) {
+            body = GsonUtils.toJson(e.getError()).getBytes("UTF-8");
+        }
+        Map<String, String> headers = Collections.emptyMap();
+        record(new HttpArchive.Record(key, e.getStatus(), headers, body));
+    }
+
+    /**
+     * Failing to record should never stop the crawl itself
+     */
+    private void record(final HttpArchive.Record record) {
+        try {
+            archive.append(record);
+        } catch (IOException e) {
+            log.error("Unable to record response for {}: {}", record.getKey(), e.getMessage());
+        }
+    }
+
+    public static IGitHubClient createRecordingGitHubClient(final IGitHubClient toWrap, final HttpArchive archive) {
+        return (IGitHubClient)(Proxy.newProxyInstance(Thread.currentThread().getContextClassLoader(),
+                new Class[] {IGitHubClient.class},
+                new RecordingGitHubInvocationHandler(toWrap, archive)));
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2011-2012 IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wagstrom.research.github.v3;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+
+/**
+ * A connection that never touches the network. It answers with a fixed
+ * status, headers and body, which is all {@link org.eclipse.egit.github.core.client.GitHubResponse}
+ * needs from it.
+ *
+ * @author patrick
+ */
+public class ReplayConnection extends HttpURLConnection {
+    private final Map<String, String> headers;
+    private final byte[] body;
+
+    public ReplayConnection(final URL url, final int status, final Map<String, String> headers, final byte[] body) {
+        super(url);
+        this.responseCode = status;
+        this.headers = headers;
+        this.body = body == null ? new byte[0] : body;
+        this.connected = true;
+    }
+
+    @Override
+    public String getHeaderField(final String name) {
+        if (name == null) {
+            return null;
+        }
+        for (Map.Entry<String, String> entry : headers.entrySet()) {
+            if (entry.getKey().equalsIgnoreCase(name)) {
+                return entry.getValue();
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public int getResponseCode() {
+        return responseCode;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return new ByteArrayInputStream(body);
+    }
+
+    @Override
+    public void connect() {
+    }
+
+    @Override
+    public void disconnect() {
+    }
+
+    @Override
+    public boolean usingProxy() {
+        return false;
+    }
+}
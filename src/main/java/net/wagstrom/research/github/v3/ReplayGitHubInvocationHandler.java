@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2011-2012 IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wagstrom.research.github.v3;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.lang.reflect.Type;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.egit.github.core.client.GitHubRequest;
+import org.eclipse.egit.github.core.client.GitHubResponse;
+import org.eclipse.egit.github.core.client.GsonUtils;
+import org.eclipse.egit.github.core.client.IGitHubClient;
+import org.eclipse.egit.github.core.client.IGitHubConstants;
+import org.eclipse.egit.github.core.client.RequestError;
+import org.eclipse.egit.github.core.client.RequestException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Serves responses from an {@link HttpArchive} instead of talking to GitHub.
+ *
+ * Every call is delayed by a configurable latency and carries simulated rate
+ * limit headers, so the throttle and retry logic above it behave as they would
+ * in a live crawl. Requests that were never recorded are answered with a 404.
+ * An ingest serves the newest response recorded for each request instead of
+ * the recorded sequence, see {@link HttpArchive#latest(String)}.
+ *
+ * @author patrick
+ */
+public class ReplayGitHubInvocationHandler implements InvocationHandler {
+    private static final Logger log = LoggerFactory.getLogger(ReplayGitHubInvocationHandler.class); // NOPMD
+    private static final long RATE_LIMIT_WINDOW = 3600000;
+
+    private final HttpArchive archive;
+    private final long latency;
+    private final int limit;
+    private final boolean newest;
+    private int remaining;
+    private long reset = -1;
+
+    /**
+     * @param archive the recorded responses
+     * @param latency delay in milliseconds before answering each call
+     * @param limit simulated number of calls allowed per hour
+     */
+    public ReplayGitHubInvocationHandler(final HttpArchive archive, final long latency, final int limit) {
+        this(archive, latency, limit, false);
+    }
+
+    /**
+     * @param archive the recorded responses
+     * @param latency delay in milliseconds before answering each call
+     * @param limit simulated number of calls allowed per hour
+     * @param newest if true every call gets the newest recorded response
+     */
+    public ReplayGitHubInvocationHandler(final HttpArchive archive, final long latency, final int limit,
+            final boolean newest) {
+        this.archive = archive;
+        this.latency = latency;
+        this.limit = limit;
+        this.newest = newest;
+        this.remaining = limit;
+    }
+
+    public Object invoke(final Object proxy, final Method method, final Object[] args)
+            throws Throwable {
+        String name = method.getName();
+        if (name.equals("get")) {
+            return replayGet((GitHubRequest) args[0]);
+        } else if (name.equals("getStream")) {
+            return replayStream((GitHubRequest) args[0]);
+        } else if (name.equals("getRateLimit")) {
+            return limit;
+        } else if (name.equals("getRateLimitRemaining")) {
+            return getRemaining();
+        } else if (name.equals("setCredentials") || name.equals("setOAuth2Token") || name.equals("setUserAgent")) {
+            return proxy;
+        } else if (name.equals("getUser")) {
+            return null;
+        }
+        throw new IOException("Method " + name + " is not available when replaying");
+    }
+
+    private GitHubResponse replayGet(final GitHubRequest request) throws IOException {
+        HttpArchive.Record record = replay(HttpArchive.keyFor("get", request));
+        Map<String, String> headers = new LinkedHashMap<String, String>(record.getHeaders());
+        headers.putAll(consumeRateLimit());
+        Object body = null;
+        if (record.getBody() != null) {
+            Type type = request.getType() != null ? request.getType() : request.getArrayType();
+            body = GsonUtils.fromJson(new String(record.getBody(), "UTF-8"), type);
+        }
+        return new GitHubResponse(new ReplayConnection(urlFor(request), record.getStatus(), headers, record.getBody()), body);
+    }
+
+    private InputStream replayStream(final GitHubRequest request) throws IOException {
+        HttpArchive.Record record = replay(HttpArchive.keyFor("getStream", request));
+        consumeRateLimit();
+        return new ByteArrayInputStream(record.getBody() == null ? new byte[0] : record.getBody());
+    }
+
+    /**
+     * Looks up the recorded response, waiting for the simulated latency and
+     * throwing recorded failures
+     */
+    private HttpArchive.Record replay(final String key) throws IOException {
+        if (latency > 0) {
+            try {
+                Thread.sleep(latency);
+            } catch (InterruptedException e) {
+                log.error("Sleep interrupted", e);
+                Thread.currentThread().interrupt();
+            }
+        }
+        HttpArchive.Record record = newest ? archive.latest(key) : archive.next(key);
+        if (record == null) {
+            log.warn("No recorded response for {}", key);
+            throw createException(404, "Not Found");
+        }
+        if (record.getStatus() >= 400) {
+            RequestError error = null;
+            if (record.getBody() != null) {
+                error = GsonUtils.fromJson(new String(record.getBody(), "UTF-8"), RequestError.class);
+            }
+            throw new RequestException(error, record.getStatus());
+        }
+        return record;
+    }
+
+    private synchronized int getRemaining() {
+        return remaining;
+    }
+
+    /**
+     * Counts a call against the simulated rate limit
+     *
+     * @return the rate limit headers for the response
+     */
+    private synchronized Map<String, String> consumeRateLimit() throws RequestException {
+        long now = System.currentTimeMillis();
+        if (now >= reset) {
+            remaining = limit;
+            reset = now + RATE_LIMIT_WINDOW;
+        }
+        if (remaining < 1) {
+            throw createException(403, "API Rate Limit Exceeded for replay");
+        }
+        remaining--;
+        Map<String, String> headers = new LinkedHashMap<String, String>();
+        headers.put(GitHubHeaders.RATE_LIMIT, String.valueOf(limit));
+        headers.put(GitHubHeaders.RATE_LIMIT_REMAINING, String.valueOf(remaining));
+        headers.put(GitHubHeaders.RATE_LIMIT_RESET, String.valueOf((reset + 999) / 1000));
+        return headers;
+    }
+
+    private static RequestException createException(final int status, final String message) {
+        RequestError error = GsonUtils.fromJson(GsonUtils.toJson(Collections.singletonMap("message", message)), RequestError.class);
+        return new RequestException(error, status);
+    }
+
+    private static URL urlFor(final GitHubRequest request) throws MalformedURLException {
+        String uri = request.generateUri();
+        if (uri.startsWith("http")) {
+            return new URL(uri);
+        }
+        return new URL(IGitHubConstants.PROTOCOL_HTTPS + "://" + IGitHubConstants.HOST_API + uri);
+    }
+
+    public static IGitHubClient createReplayGitHubClient(final HttpArchive archive, final long latency, final int limit) {
+        return (IGitHubClient)(Proxy.newProxyInstance(Thread.currentThread().getContextClassLoader(),
+                new Class[] {IGitHubClient.class},
+                new ReplayGitHubInvocationHandler(archive, latency, limit)));
+    }
+
+    /**
+     * @return a client that serves the newest recorded responses without
+     *         any latency or rate limit, to load an archive into a graph
+     */
+    public static IGitHubClient createIngestGitHubClient(final HttpArchive archive) {
+        return (IGitHubClient)(Proxy.newProxyInstance(Thread.currentThread().getContextClassLoader(),
+                new Class[] {IGitHubClient.class},
+                new ReplayGitHubInvocationHandler(archive, 0, Integer.MAX_VALUE, true)));
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2011-2012 IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wagstrom.research.github.v3;
+
+import org.eclipse.egit.github.core.Comment;
+
+/**
+ * A comment from the list of all the issue comments in a repository, which
+ * says which issue it belongs to
+ *
+ * @author patrick
+ */
+public class RepositoryComment extends Comment {
+    private static final long serialVersionUID = 1L;
+
+    private String issueUrl;
+
+    public String getIssueUrl() {
+        return issueUrl;
+    }
+
+    public RepositoryComment setIssueUrl(final String issueUrl) {
+        this.issueUrl = issueUrl;
+        return this;
+    }
+
+    /**
+     * @return the number of the issue from its URL, or -1 if there isn't one
+     */
+    public int getIssueNumber() {
+        if (issueUrl == null) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(issueUrl.substring(issueUrl.lastIndexOf('/') + 1));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
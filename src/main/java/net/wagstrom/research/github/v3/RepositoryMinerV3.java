@@ -33,22 +33,33 @@ public class RepositoryMinerV3 extends AbstractMiner {
     private static final Logger log = LoggerFactory.getLogger(RepositoryMinerV3.class); // NOPMD
 
     public RepositoryMinerV3(final IGitHubClient ghc) {
+        this(ghc, new ParallelPageFetcher(1));
+    }
+
+    public RepositoryMinerV3(final IGitHubClient ghc, final ParallelPageFetcher fetcher) {
         super();
-        service = new RepositoryService(ghc);
+        service = new RepositoryServiceV3(ghc, fetcher);
     }
 
     public Repository getRepository(final IRepositoryIdProvider repo) {
-        Repository repository = null;
+        Repository repository = (Repository) getCached(EntityCache.REPOSITORY, repo.generateId());
+        if (repository != null) {
+            return repository;
+        }
         try {
             repository = service.getRepository(repo);
         } catch (IOException e) {
             log.error("IO exception fetching Repository: {}", repo.generateId(), e);
         } 
+        putCached(EntityCache.REPOSITORY, repo.generateId(), repository);
         return repository;
     }
 
     public Repository getRepository(final String username, final String reponame) {
-        Repository repository = null;
+        Repository repository = (Repository) getCached(EntityCache.REPOSITORY, username + "/" + reponame);
+        if (repository != null) {
+            return repository;
+        }
         try {
             repository = service.getRepository(username, reponame);
         } catch (IOException e) {
@@ -56,11 +67,16 @@ public class RepositoryMinerV3 extends AbstractMiner {
         } catch (NullPointerException npe) {
             log.error("NullPointerException fetching repository {}/{}", new Object[]{username, reponame, npe});
         }
+        putCached(EntityCache.REPOSITORY, username + "/" + reponame, repository);
         return repository;
     }
 
+    @SuppressWarnings("unchecked")
     public List<Repository> getRepositories(final String login) {
-        List<Repository> repos = null;
+        List<Repository> repos = (List<Repository>) getCached(EntityCache.USER_REPOSITORIES, login);
+        if (repos != null) {
+            return repos;
+        }
         try {
             repos = service.getRepositories(login);
         } catch (IOException e) {
@@ -68,6 +84,7 @@ public class RepositoryMinerV3 extends AbstractMiner {
         } catch (NullPointerException npe) {
             log.error("NullPointerException in getRepositories: {}", login, npe);
         }
+        putCached(EntityCache.USER_REPOSITORIES, login, repos);
         return repos;
     }
 
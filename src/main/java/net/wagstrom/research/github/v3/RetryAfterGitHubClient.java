@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2011-2012 IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wagstrom.research.github.v3;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+
+import net.wagstrom.research.github.CrawlMetrics;
+import net.wagstrom.research.github.EndpointFamily;
+import net.wagstrom.research.github.RetryAfterException;
+
+import org.eclipse.egit.github.core.client.GitHubClient;
+import org.eclipse.egit.github.core.client.RequestException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * GitHubClient that keeps the <code>Retry-After</code> header of failed
+ * responses.
+ *
+ * The plain client throws the header away, so failures that carry one are
+ * turned into a {@link RetryAfterException}. The header is picked up when the
+ * rate limit headers are read, which the client does for every response just
+ * before it builds the exception, on the same thread.
+ *
+ * It also counts the bytes read from every response for {@link CrawlMetrics}.
+ *
+ * @author patrick
+ */
+public class RetryAfterGitHubClient extends GitHubClient {
+    private static final Logger log = LoggerFactory.getLogger(RetryAfterGitHubClient.class); // NOPMD
+    private static final String HTTP_DATE_FORMAT = "EEE, dd MMM yyyy HH:mm:ss zzz";
+
+    private final ThreadLocal<Long> retryAfter = new ThreadLocal<Long>();
+
+    public RetryAfterGitHubClient() {
+        super();
+    }
+
+    /**
+     * Creates a client for an API on another host, see
+     * {@link GitHubClient#GitHubClient(String, int, String)}
+     */
+    public RetryAfterGitHubClient(final String hostname, final int port, final String scheme) {
+        super(hostname, port, scheme);
+    }
+
+    @Override
+    protected GitHubClient updateRateLimits(final HttpURLConnection request) {
+        retryAfter.set(parseRetryAfter(request.getHeaderField(GitHubHeaders.RETRY_AFTER)));
+        return super.updateRateLimits(request);
+    }
+
+    @Override
+    protected IOException createException(final InputStream response, final int code, final String status) {
+        IOException exception = super.createException(response, code, status);
+        Long wait = retryAfter.get();
+        retryAfter.remove();
+        if (wait != null && exception instanceof RequestException) {
+            RequestException re = (RequestException) exception;
+            log.debug("Request failed with status {}, retry after {}ms", code, wait);
+            return new RetryAfterException(re.getError(), re.getStatus(), wait);
+        }
+        return exception;
+    }
+
+    @Override
+    protected InputStream getStream(final HttpURLConnection request) throws IOException {
+        String family = EndpointFamily.classify(request.getURL() == null ? null : request.getURL().getPath());
+        return new CountingInputStream(super.getStream(request), family);
+    }
+
+    /**
+     * Counts the bytes read through it and reports them when it is closed
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        private final String family;
+        private long count = 0;
+        private boolean reported = false;
+
+        CountingInputStream(final InputStream in, final String family) {
+            super(in);
+            this.family = family;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = super.read();
+            if (value != -1) {
+                count++;
+            }
+            return value;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!reported) {
+                reported = true;
+                CrawlMetrics.getInstance().recordBytes(family, count);
+            }
+            super.close();
+        }
+    }
+
+    /**
+     * @param value the header, either a number of seconds or an HTTP date
+     * @return milliseconds to wait or null if there is no usable header
+     */
+    protected static Long parseRetryAfter(final String value) {
+        if (value == null || value.trim().equals("")) {
+            return null;
+        }
+        try {
+            return Long.parseLong(value.trim()) * 1000L;
+        } catch (NumberFormatException e) {
+            try {
+                SimpleDateFormat format = new SimpleDateFormat(HTTP_DATE_FORMAT, Locale.US);
+                long wait = format.parse(value.trim()).getTime() - System.currentTimeMillis();
+                return Math.max(0, wait);
+            } catch (ParseException pe) {
+                log.warn("Unable to parse {} header: {}", GitHubHeaders.RETRY_AFTER, value);
+                return null;
+            }
+        }
+    }
+}
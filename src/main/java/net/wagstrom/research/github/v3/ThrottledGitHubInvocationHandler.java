@@ -26,7 +26,17 @@ import java.util.Set;
 
 import net.wagstrom.research.github.ApiThrottle;
 import net.wagstrom.research.github.AbstractInvocationHandler;
+import net.wagstrom.research.github.AdaptivePacer;
+import net.wagstrom.research.github.CrawlMetrics;
+import net.wagstrom.research.github.EndpointFamily;
+import net.wagstrom.research.github.FailureType;
+import net.wagstrom.research.github.QuotaHoldException;
+import net.wagstrom.research.github.QuotaLedger;
+import net.wagstrom.research.github.RetryAfterException;
+import net.wagstrom.research.github.RetryEngine;
 
+import org.eclipse.egit.github.core.client.GitHubRequest;
+import org.eclipse.egit.github.core.client.GitHubResponse;
 import org.eclipse.egit.github.core.client.IGitHubClient;
 import org.eclipse.egit.github.core.client.RequestException;
 import org.slf4j.Logger;
@@ -35,6 +45,8 @@ import org.slf4j.LoggerFactory;
 public class ThrottledGitHubInvocationHandler extends AbstractInvocationHandler implements InvocationHandler {
     private final IGitHubClient wrapped;
     private final ApiThrottle throttle;
+    private final boolean failover;
+    private final QuotaLedger ledger;
     private static final Logger log = LoggerFactory.getLogger(ThrottledGitHubInvocationHandler.class); // NOPMD
  
     // this acts as a shared white list of methods that don't get throttled
@@ -42,40 +54,200 @@ public class ThrottledGitHubInvocationHandler extends AbstractInvocationHandler
 
 
     public ThrottledGitHubInvocationHandler(final IGitHubClient client, final ApiThrottle throttle) {
-        super();
+        this(client, throttle, false);
+    }
+
+    /**
+     * @param client the client to wrap
+     * @param throttle the throttle for the credentials used by client
+     * @param failover if true, errors caused by the credentials being exhausted or
+     *          revoked are thrown to the caller rather than retried, so a
+     *          {@link CredentialPool} can move the call to another credential
+     */
+    public ThrottledGitHubInvocationHandler(final IGitHubClient client, final ApiThrottle throttle, final boolean failover) {
+        this(client, throttle, failover, new RetryEngine());
+    }
+
+    /**
+     * @param client the client to wrap
+     * @param throttle the throttle for the credentials used by client
+     * @param failover see {@link #ThrottledGitHubInvocationHandler(IGitHubClient, ApiThrottle, boolean)}
+     * @param retryEngine decides which failed calls are retried, may be shared
+     *          between several handlers
+     */
+    public ThrottledGitHubInvocationHandler(final IGitHubClient client, final ApiThrottle throttle, final boolean failover, final RetryEngine retryEngine) {
+        this(client, throttle, failover, retryEngine, null);
+    }
+
+    /**
+     * @param client the client to wrap
+     * @param throttle the throttle for the credentials used by client
+     * @param failover see {@link #ThrottledGitHubInvocationHandler(IGitHubClient, ApiThrottle, boolean)}
+     * @param retryEngine decides which failed calls are retried
+     * @param ledger accounts for the quota spent on each endpoint family and
+     *          holds back calls that are over their share, may be null
+     */
+    public ThrottledGitHubInvocationHandler(final IGitHubClient client, final ApiThrottle throttle, final boolean failover,
+            final RetryEngine retryEngine, final QuotaLedger ledger) {
+        super(retryEngine);
         wrapped = client;
         this.throttle = throttle;
+        this.failover = failover;
+        this.ledger = ledger;
     }
 
     public Object invoke(final Object proxy, final Method method, final Object[] args)
             throws Throwable {
-        Object returnVal = null;
         log.trace("Method invoked: {}", method.getName());
         if (METHODS.contains(method.getName())) {
-            returnVal = method.invoke(wrapped, args);
-        } else {
-        
-            throttle.callWait();
-            
-            try {
-                returnVal = method.invoke(wrapped, args);
-                // log.warn("Rate limit: {}/{}", wrapped.getRateLimitRemaining(), wrapped.getRateLimit());
-                throttle.setRateLimit(wrapped.getRateLimit());
-                throttle.setRateLimitRemaining(wrapped.getRateLimitRemaining());
-                failSleepDelay = SLEEP_DELAY;
-            } catch (UndeclaredThrowableException e) {
-                log.error("Undeclared Throwable Exception (propagated):", e);
-                throw e.getCause();
-            } catch (InvocationTargetException e) {
-                if (e.getCause() instanceof RequestException) {
-                    returnVal = handleInvocationException((RequestException) e.getCause(), proxy, method, args);
-                } else {
-                    log.error("Invocation target exception (propagated):", e);
-                    throw e.getCause();
+            return method.invoke(wrapped, args);
+        }
+        return invokeWithRetry(method, args);
+    }
+
+    protected Object invokeOnce(final Method method, final Object[] args) throws Exception {
+        CrawlMetrics metrics = CrawlMetrics.getInstance();
+        long waitStart = System.nanoTime();
+        String family = null;
+        if (ledger != null) {
+            family = EndpointFamily.classify(requestUri(args));
+            long waitTime = ledger.admit(family, throttle, System.currentTimeMillis());
+            if (waitTime > 0) {
+                if (failover) {
+                    // the pool may have a credential that isn't held back
+                    throw new QuotaHoldException(family, waitTime);
                 }
+                log.info("[{}] Holding {} call for {}ms", new Object[]{throttle.getId(), family, waitTime});
+                Thread.sleep(waitTime);
             }
         }
-        return returnVal;
+        throttle.callWait();
+        long callStart = System.nanoTime();
+        metrics.recordThrottleWait((callStart - waitStart) / 1000);
+        if (ledger != null) {
+            ledger.record(family, throttle);
+        }
+        try {
+            Object returnVal = method.invoke(wrapped, args);
+            metrics.recordCall(method.getName(), (System.nanoTime() - callStart) / 1000, null);
+            AdaptivePacer pacer = throttle.getPacer();
+            if (pacer != null) {
+                pacer.onSuccess();
+            }
+            throttle.setRateLimit(wrapped.getRateLimit());
+            throttle.setRateLimitRemaining(wrapped.getRateLimitRemaining());
+            if (returnVal instanceof GitHubResponse) {
+                updateThrottle((GitHubResponse) returnVal);
+            }
+            metrics.recordRateLimitRemaining(throttle.getId(), throttle.getRateLimitRemaining());
+            metrics.recordRateLimitReset(throttle.getId(), throttle.getRateLimitReset());
+            return returnVal;
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UndeclaredThrowableException) {
+                log.error("Undeclared Throwable Exception (propagated):", cause);
+                cause = cause.getCause();
+            }
+            metrics.recordCall(method.getName(), (System.nanoTime() - callStart) / 1000, RetryEngine.classify(cause));
+            slowDownIfAsked(cause);
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Tells the pacer, if there is one, about secondary rate limit responses
+     */
+    private void slowDownIfAsked(final Throwable cause) {
+        AdaptivePacer pacer = throttle.getPacer();
+        if (pacer != null && FailureType.SECONDARY_LIMIT.equals(RetryEngine.classify(cause))) {
+            long retryAfter = -1;
+            if (cause instanceof RetryAfterException) {
+                retryAfter = ((RetryAfterException) cause).getRetryAfter();
+            }
+            pacer.onSlowDown(retryAfter);
+        }
+    }
+
+    /**
+     * Finds the uri a call requests, either from a request object or a plain
+     * string argument
+     */
+    private static String requestUri(final Object[] args) {
+        if (args == null) {
+            return null;
+        }
+        for (Object arg : args) {
+            if (arg instanceof GitHubRequest) {
+                return ((GitHubRequest) arg).getUri();
+            } else if (arg instanceof String) {
+                return (String) arg;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * In failover mode problems with the credentials, and calls the ledger
+     * holds back, go back to the {@link CredentialPool} rather than being
+     * retried with the same ones.
+     */
+    protected boolean propagate(final Exception e) {
+        if (failover && e instanceof QuotaHoldException) {
+            return true;
+        }
+        return failover && e instanceof RequestException && isCredentialFailure((RequestException) e);
+    }
+
+    /**
+     * Checks if an exception means the credentials can't be used right now
+     *
+     * This is the case if they have been revoked or the rate limit for them has
+     * been exceeded. In the latter case the throttle is marked as exhausted.
+     *
+     * @param re the exception to check
+     * @return true if the call should be moved to other credentials
+     */
+    private boolean isCredentialFailure(final RequestException re) {
+        if (re.getStatus() == 401) {
+            log.warn("[{}] Credentials rejected: {}", throttle.getId(), re.getMessage());
+            return true;
+        }
+        if (re.getStatus() == 403 && re.getMessage() != null && re.getMessage().startsWith("API Rate Limit Exceeded for")) {
+            log.warn("[{}] Rate limit exceeded", throttle.getId());
+            throttle.setRateLimitRemaining(0);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Feeds the rate limit headers from a response to the throttle
+     *
+     * The headers are more accurate than the values cached by the client as
+     * they also carry the time when the current window resets.
+     *
+     * @param response the response to read the headers from
+     */
+    private void updateThrottle(final GitHubResponse response) {
+        try {
+            String limit = response.getHeader(GitHubHeaders.RATE_LIMIT);
+            String remaining = response.getHeader(GitHubHeaders.RATE_LIMIT_REMAINING);
+            String reset = response.getHeader(GitHubHeaders.RATE_LIMIT_RESET);
+            if (limit != null) {
+                throttle.setRateLimit(Integer.parseInt(limit.trim()));
+            }
+            if (remaining != null) {
+                throttle.setRateLimitRemaining(Integer.parseInt(remaining.trim()));
+            }
+            if (reset != null) {
+                throttle.setRateLimitReset(Long.parseLong(reset.trim()));
+            }
+        } catch (NumberFormatException e) {
+            log.warn("Unable to parse rate limit headers: {}", e.getMessage());
+        }
     }
 
     public static IGitHubClient createThrottledGitHubClient(final IGitHubClient toWrap, final ApiThrottle throttle) {
@@ -83,4 +255,23 @@ public class ThrottledGitHubInvocationHandler extends AbstractInvocationHandler
                 new Class[] {IGitHubClient.class},
                 new ThrottledGitHubInvocationHandler(toWrap, throttle)));		
     }
+
+    public static IGitHubClient createThrottledGitHubClient(final IGitHubClient toWrap, final ApiThrottle throttle, final boolean failover) {
+        return (IGitHubClient)(Proxy.newProxyInstance(Thread.currentThread().getContextClassLoader(),
+                new Class[] {IGitHubClient.class},
+                new ThrottledGitHubInvocationHandler(toWrap, throttle, failover)));
+    }
+
+    public static IGitHubClient createThrottledGitHubClient(final IGitHubClient toWrap, final ApiThrottle throttle, final boolean failover, final RetryEngine retryEngine) {
+        return (IGitHubClient)(Proxy.newProxyInstance(Thread.currentThread().getContextClassLoader(),
+                new Class[] {IGitHubClient.class},
+                new ThrottledGitHubInvocationHandler(toWrap, throttle, failover, retryEngine)));
+    }
+
+    public static IGitHubClient createThrottledGitHubClient(final IGitHubClient toWrap, final ApiThrottle throttle, final boolean failover,
+            final RetryEngine retryEngine, final QuotaLedger ledger) {
+        return (IGitHubClient)(Proxy.newProxyInstance(Thread.currentThread().getContextClassLoader(),
+                new Class[] {IGitHubClient.class},
+                new ThrottledGitHubInvocationHandler(toWrap, throttle, failover, retryEngine, ledger)));
+    }
 }
@@ -30,12 +30,19 @@ public class UserMinerV3 extends AbstractMiner {
     private static final Logger log = LoggerFactory.getLogger(UserMinerV3.class); // NOPMD
 
     public UserMinerV3(final IGitHubClient ghc) {
+        this(ghc, new ParallelPageFetcher(1));
+    }
+
+    public UserMinerV3(final IGitHubClient ghc, final ParallelPageFetcher fetcher) {
         super();
-        service = new UserService(ghc);
+        service = new UserServiceV3(ghc, fetcher);
     }
 
     public User getUser(final String login) {
-        User user = null;
+        User user = (User) getCached(EntityCache.USER, login);
+        if (user != null) {
+            return user;
+        }
         try {
             user = service.getUser(login);
         } catch (IOException e) {
@@ -43,6 +50,7 @@ public class UserMinerV3 extends AbstractMiner {
         } catch (NullPointerException npe) {
             log.error("NullPointerException in getting user {}", login, npe);
         }
+        putCached(EntityCache.USER, login, user);
         return user;
     }
 
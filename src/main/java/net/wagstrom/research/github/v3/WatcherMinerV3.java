@@ -32,8 +32,12 @@ public class WatcherMinerV3 extends AbstractMiner {
     private static final Logger log = LoggerFactory.getLogger(WatcherMinerV3.class); // NOPMD
 
     public WatcherMinerV3(final IGitHubClient ghc) {
+        this(ghc, new ParallelPageFetcher(1));
+    }
+
+    public WatcherMinerV3(final IGitHubClient ghc, final ParallelPageFetcher fetcher) {
         super();
-        service = new WatcherService(ghc);
+        service = new WatcherServiceV3(ghc, fetcher);
     }
 
     public List<User> getWatchers(final IRepositoryIdProvider repo) {
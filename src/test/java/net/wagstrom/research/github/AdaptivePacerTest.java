@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2011-2012 IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wagstrom.research.github;
+
+import java.util.concurrent.CountDownLatch;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class AdaptivePacerTest extends TestCase {
+    @Test
+    public void testRateGrowsWhileHealthy() {
+        AdaptivePacer pacer = new AdaptivePacer(1.0, 0.1, 5.0);
+        for (int i = 0; i < 100; i++) {
+            pacer.onSuccess();
+        }
+        assertTrue(pacer.getRate() > 1.0);
+        for (int i = 0; i < 100000; i++) {
+            pacer.onSuccess();
+        }
+        assertEquals(5.0, pacer.getRate(), 0.0001);
+        assertEquals(200000000L, pacer.getIntervalNanos());
+    }
+
+    @Test
+    public void testSlowDownHalvesAndPauses() {
+        AdaptivePacer pacer = new AdaptivePacer(4.0, 0.5, 10.0);
+        long now = 1000000000000L;
+        pacer.onSlowDown(60000, now);
+        assertEquals(2.0, pacer.getRate(), 0.0001);
+        assertEquals(now + 60000, pacer.getPausedUntil());
+        // other calls turned away during the pause don't cut the rate again
+        pacer.onSlowDown(60000, now + 1000);
+        pacer.onSlowDown(-1, now + 2000);
+        assertEquals(2.0, pacer.getRate(), 0.0001);
+        assertEquals(now + 61000, pacer.getPausedUntil());
+        pacer.onSlowDown(-1, now + 62000);
+        assertEquals(1.0, pacer.getRate(), 0.0001);
+        pacer.onSlowDown(-1, now + 62000 + AdaptivePacer.SLOW_DOWN_WINDOW - 1);
+        assertEquals(1.0, pacer.getRate(), 0.0001);
+        pacer.onSlowDown(-1, now + 62000 + AdaptivePacer.SLOW_DOWN_WINDOW);
+        pacer.onSlowDown(-1, now + 62000 + 2 * AdaptivePacer.SLOW_DOWN_WINDOW);
+        assertEquals(0.5, pacer.getRate(), 0.0001);
+    }
+
+    @Test
+    public void testConcurrentSlowDownsCutOnce() throws Exception {
+        final AdaptivePacer pacer = new AdaptivePacer(8.0, 0.1, 10.0);
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[16];
+        for (int i = 0; i < threads.length; i++) {
+            final long retryAfter = i % 2 == 0 ? 30000 : -1;
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int j = 0; j < 10; j++) {
+                        pacer.onSlowDown(retryAfter);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(4.0, pacer.getRate(), 0.0001);
+    }
+
+    @Test
+    public void testThrottleHonoursPause() {
+        ApiThrottle throttle = new ApiThrottle();
+        AdaptivePacer pacer = new AdaptivePacer(1000.0, 1.0, 1000.0);
+        throttle.setPacer(pacer);
+        assertEquals(0, throttle.computeSleepTime(System.currentTimeMillis()));
+        pacer.onSlowDown(30000);
+        long sleep = throttle.computeSleepTime(System.currentTimeMillis());
+        assertTrue(sleep > 29000 && sleep <= 30000);
+    }
+}
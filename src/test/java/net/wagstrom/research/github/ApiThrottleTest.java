@@ -0,0 +1,207 @@
+package net.wagstrom.research.github;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+import junit.framework.TestCase;
+
+public class ApiThrottleTest extends TestCase {
+    private static final long START = 1350000000000L;
+
+    @Test
+    public void testSteadyPacing() throws Exception {
+        RateLimitReplay replay = new RateLimitReplay("ratelimit/steady.txt");
+        long[] sleeps = replay.replay(new ApiThrottle());
+        // 1200 calls left over 1200 seconds should be one call per second
+        for (long sleep : sleeps) {
+            assertTrue("sleep was " + sleep, sleep >= 990 && sleep <= 1010);
+        }
+    }
+
+    @Test
+    public void testExhaustedSleepsUntilReset() throws Exception {
+        RateLimitReplay replay = new RateLimitReplay("ratelimit/exhausted.txt");
+        long[] sleeps = replay.replay(new ApiThrottle());
+        assertEquals(5, sleeps.length);
+        // last call of the window comes in at START+1200, reset is START+300000
+        assertEquals(300000 - 1200 + ApiThrottle.RESET_SKEW, sleeps[3]);
+        // the new window spreads 4999 calls over the next hour
+        assertTrue("sleep was " + sleeps[4], sleeps[4] > 700 && sleeps[4] < 740);
+    }
+
+    @Test
+    public void testNoSleepAfterReset() {
+        ApiThrottle throttle = new ApiThrottle();
+        throttle.recordCall(START);
+        throttle.setRateLimit(5000);
+        throttle.setRateLimitRemaining(0);
+        throttle.setRateLimitReset(START / 1000 + 60);
+        assertEquals(0, throttle.computeSleepTime(START + 61000));
+    }
+
+    @Test
+    public void testMaxRateStillApplies() {
+        ApiThrottle throttle = new ApiThrottle();
+        throttle.setMaxRate(1, 10);
+        throttle.recordCall(START);
+        throttle.setRateLimit(5000);
+        throttle.setRateLimitRemaining(4000);
+        throttle.setRateLimitReset(START / 1000 + 60);
+        assertEquals(10000, throttle.computeSleepTime(START));
+    }
+
+    /**
+     * Simulates a server that decrements the remaining count on every call and
+     * checks that the budget lasts right up until the window resets.
+     */
+    @Test
+    public void testBudgetLastsUntilReset() {
+        ApiThrottle throttle = new ApiThrottle();
+        long reset = START + 100000;
+        int remaining = 100;
+        long now = START;
+        throttle.setRateLimit(5000);
+        throttle.setRateLimitRemaining(remaining);
+        throttle.setRateLimitReset(reset / 1000);
+        while (remaining > 0) {
+            now += throttle.computeSleepTime(now);
+            assertTrue(now <= reset);
+            throttle.recordCall(now);
+            remaining--;
+            throttle.setRateLimitRemaining(remaining);
+        }
+        // calls should be spread out rather than made in a burst at the start
+        assertTrue("last call at " + (now - START), now - START > 90000);
+    }
+
+    /**
+     * Many threads reserving at once must each get their own slot and the
+     * slots must still honour the configured maximum rate.
+     */
+    @Test
+    public void testConcurrentReservationsAreSpaced() throws Exception {
+        final ApiThrottle throttle = new ApiThrottle();
+        throttle.setMaxRate(100, 1);
+        final int threads = 8;
+        final int perThread = 50;
+        final long[] slots = new long[threads * perThread];
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            final int offset = i * perThread;
+            workers[i] = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int j = 0; j < perThread; j++) {
+                        slots[offset + j] = throttle.reserve();
+                    }
+                }
+            };
+            workers[i].start();
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        Arrays.sort(slots);
+        for (int i = 1; i < slots.length; i++) {
+            assertTrue("slots " + (i - 1) + " and " + i + " too close",
+                    slots[i] - slots[i - 1] >= 10000000L);
+        }
+    }
+
+    /**
+     * Threads reserving once the budget is used up, or as they use up the
+     * last of it, must not all be let through at the reset.
+     */
+    @Test
+    public void testConcurrentReservationsAfterExhaustion() throws Exception {
+        final ApiThrottle throttle = new ApiThrottle();
+        final long reset = (System.currentTimeMillis() / 1000 + 60) * 1000;
+        throttle.setRateLimit(3600);
+        throttle.setRateLimitRemaining(2);
+        throttle.setRateLimitReset(reset / 1000);
+        final int threads = 8;
+        final long[] slots = new long[threads * 5];
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            final int offset = i * 5;
+            workers[i] = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int j = 0; j < 5; j++) {
+                        slots[offset + j] = throttle.reserve();
+                    }
+                }
+            };
+            workers[i].start();
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        Arrays.sort(slots);
+        long afterReset = (reset + ApiThrottle.RESET_SKEW) * 1000000L;
+        // the two calls left come before the reset, no others do
+        assertTrue(slots[1] < reset * 1000000L);
+        assertEquals(afterReset, slots[2]);
+        assertEquals(0, throttle.getRateLimitRemaining());
+        // 3600 calls an hour after the reset is one a second
+        for (int i = 3; i < slots.length; i++) {
+            assertEquals(afterReset + (i - 2) * 1000000000L, slots[i]);
+        }
+    }
+
+    /**
+     * Two throttles sharing state, as two processes would, space their calls
+     * as one and draw from one remaining count.
+     */
+    @Test
+    public void testSharedStateSpacesCallsAcrossThrottles() throws Exception {
+        File directory = File.createTempFile("throttle", "");
+        directory.delete();
+        SharedThrottleState stateA = new SharedThrottleState(directory, "token");
+        SharedThrottleState stateB = new SharedThrottleState(directory, "token");
+        try {
+            ApiThrottle a = new ApiThrottle();
+            ApiThrottle b = new ApiThrottle();
+            a.setMaxRate(100, 1);
+            b.setMaxRate(100, 1);
+            a.setSharedState(stateA);
+            b.setSharedState(stateB);
+            a.setRateLimit(5000);
+            a.setRateLimitRemaining(4000);
+            a.setRateLimitReset(System.currentTimeMillis() / 1000 + 3600);
+
+            long[] slots = new long[20];
+            for (int i = 0; i < slots.length; i++) {
+                slots[i] = (i % 2 == 0 ? a : b).reserve();
+            }
+            for (int i = 1; i < slots.length; i++) {
+                assertTrue("slots " + (i - 1) + " and " + i + " too close",
+                        slots[i] - slots[i - 1] >= 10000000L);
+            }
+            // b never saw a response but knows about the calls a made
+            b.reserve();
+            assertEquals(5000, b.getRateLimit());
+            assertEquals(3980, b.getRateLimitRemaining());
+        } finally {
+            stateA.close();
+            stateB.close();
+            stateA.getFile().delete();
+            directory.delete();
+        }
+    }
+}
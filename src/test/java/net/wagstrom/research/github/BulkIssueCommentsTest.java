@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2011-2012 IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wagstrom.research.github;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import net.wagstrom.research.github.v3.RepositoryComment;
+
+import org.eclipse.egit.github.core.Comment;
+import org.eclipse.egit.github.core.Issue;
+import org.eclipse.egit.github.core.Repository;
+import org.eclipse.egit.github.core.User;
+import org.eclipse.egit.github.core.client.PagedRequest;
+import org.junit.Test;
+
+import com.tinkerpop.blueprints.Vertex;
+
+public class BulkIssueCommentsTest extends TestCase {
+    private static final long BASE = 1300000000000L;
+
+    private static Issue issue(final int number, final Date created, final long updated, final int comments) {
+        return new Issue().setNumber(number).setCreatedAt(created)
+                .setUpdatedAt(new Date(updated)).setComments(comments);
+    }
+
+    private static RepositoryComment comment(final long id, final int issue) {
+        RepositoryComment comment = new RepositoryComment().setIssueUrl("https://api.github.com/repos/o/r/issues/" + issue);
+        comment.setId(id);
+        return comment;
+    }
+
+    @Test
+    public void testGroup() {
+        BulkIssueComments bulk = new BulkIssueComments();
+        bulk.add(issue(1, new Date(BASE), BASE, 2), null);
+        bulk.add(issue(2, new Date(BASE), BASE, 1), null);
+        RepositoryComment unwanted = comment(12, 3);
+        RepositoryComment noIssue = new RepositoryComment();
+        Map<Integer, List<Comment>> byIssue = bulk.group(Arrays.asList(
+                comment(10, 1), comment(11, 2), unwanted, comment(13, 1), noIssue));
+        assertEquals(2, byIssue.size());
+        List<Long> ids = new ArrayList<Long>();
+        for (Comment comment : byIssue.get(1)) {
+            ids.add(comment.getId());
+        }
+        assertEquals(Arrays.asList(10L, 13L), ids);
+        assertEquals(1, byIssue.get(2).size());
+        assertFalse(byIssue.containsKey(3));
+    }
+
+    @Test
+    public void testSince() {
+        BulkIssueComments bulk = new BulkIssueComments();
+        assertNull(bulk.getSince(null));
+        bulk.add(issue(1, new Date(BASE), BASE + 5000, 1), new Date(BASE + 3000));
+        assertEquals(new Date(BASE + 3000), bulk.getSince(null));
+        // an issue whose comments were never fetched can't have any from before it was created
+        bulk.add(issue(2, new Date(BASE + 2000), BASE + 5000, 1), null);
+        assertEquals(new Date(BASE + 2000), bulk.getSince(null));
+        bulk.add(issue(3, new Date(BASE + 4000), BASE + 5000, 1), null);
+        assertEquals(new Date(BASE + 2000), bulk.getSince(null));
+        // the time the issues were listed from wins when there is one
+        assertEquals(new Date(BASE + 9000), bulk.getSince(new Date(BASE + 9000)));
+        // without a creation time every comment has to be listed
+        bulk.add(issue(4, null, BASE + 5000, 1), null);
+        assertNull(bulk.getSince(null));
+    }
+
+    @Test
+    public void testEstimatedPages() {
+        BulkIssueComments bulk = new BulkIssueComments();
+        bulk.listed(issue(1, new Date(BASE), BASE + 1000, PagedRequest.PAGE_SIZE * 3));
+        bulk.listed(issue(2, new Date(BASE), BASE + 5000, PagedRequest.PAGE_SIZE));
+        Issue stale = issue(3, new Date(BASE), BASE + 6000, 1);
+        bulk.listed(stale);
+        bulk.add(stale, new Date(BASE + 4000));
+
+        assertEquals(5, bulk.getEstimatedPages(null));
+        assertEquals(2, bulk.getEstimatedPages(new Date(BASE + 4000)));
+        assertEquals(1, bulk.getEstimatedPages(new Date(BASE + 6000)));
+        assertEquals(0, bulk.getEstimatedPages(new Date(BASE + 7000)));
+        // one stale issue takes one call on its own, less than listing two pages
+        assertFalse(bulk.isWorthListing(new Date(BASE + 4000)));
+        assertTrue(bulk.isWorthListing(new Date(BASE + 6000)));
+        bulk.add(issue(4, new Date(BASE), BASE + 5000, PagedRequest.PAGE_SIZE), new Date(BASE + 4000));
+        assertTrue(bulk.isWorthListing(new Date(BASE + 4000)));
+    }
+
+    private static Vertex issueVertex(final BlueprintsDriver bp, final String id) {
+        for (Vertex vertex : bp.getGraph().getVertices()) {
+            if (id.equals(vertex.getProperty(IdCols.ISSUE))) {
+                return vertex;
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void testMarkAdded() {
+        BlueprintsDriver bp = new BlueprintsDriver("tinkergraph", "", new HashMap<String, String>());
+        Repository repo = new Repository().setOwner(new User().setLogin("o")).setName("r");
+        Issue issue = issue(1, new Date(BASE), BASE, 1).setState("open").setTitle("listed")
+                .setLabels(Collections.<org.eclipse.egit.github.core.Label>emptyList());
+
+        bp.saveRepositoryIssues(repo, Collections.singletonList(issue));
+        // a page of the list saves the comments without marking the issue
+        bp.saveIssueComments(repo, issue, Collections.singletonList(comment(10, 1)), false);
+        assertTrue(bp.getIssueCommentsAddedAt("o/r").containsKey(1));
+        assertNull(bp.getIssueCommentsAddedAt("o/r").get(1));
+
+        // marking it once the whole list is read leaves the issue as saved
+        issue.setTitle("changed");
+        bp.setIssueCommentsAdded(repo, issue);
+        assertNotNull(bp.getIssueCommentsAddedAt("o/r").get(1));
+        assertEquals("listed", issueVertex(bp, "o/r:1").getProperty(PropertyName.TITLE));
+        bp.shutdown();
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2011-2012 IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wagstrom.research.github;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class CrawlMetricsTest extends TestCase {
+    @Test
+    public void testEta() {
+        assertEquals(0, CrawlMetrics.eta(0, 0, 0));
+        assertEquals(-1, CrawlMetrics.eta(10, 0, 5000));
+        // 20 tasks in 10 seconds leaves 5 seconds for 10 more
+        assertEquals(5, CrawlMetrics.eta(10, 20, 10000));
+    }
+
+    @Test
+    public void testRate() {
+        assertEquals(0.0, CrawlMetrics.rate(10, 0), 0.0001);
+        assertEquals(2.5, CrawlMetrics.rate(10, 4000), 0.0001);
+    }
+
+    @Test
+    public void testStatus() {
+        CrawlMetrics metrics = CrawlMetrics.getInstance();
+        long writes = metrics.getGraphWrites();
+        metrics.recordSaved(VertexType.GOLLUM, Arrays.asList("a", "b"));
+        metrics.recordSaved(VertexType.GOLLUM, null);
+        metrics.setPhase("defunkt/resque", "watchers");
+        // nothing is written for a list that couldn't be fetched
+        assertEquals(writes + 1, metrics.getGraphWrites());
+        String status = metrics.getStatus();
+        assertTrue(status.contains("GOLLUM: 2 "));
+        assertTrue(status.contains("defunkt/resque: watchers"));
+        metrics.clearPhase("defunkt/resque");
+        assertFalse(metrics.getStatus().contains("defunkt/resque"));
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2011-2012 IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wagstrom.research.github;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import com.tinkerpop.blueprints.Vertex;
+
+public class CrawlPlannerTest extends TestCase {
+    @Test
+    public void testPages() {
+        assertEquals(1, CrawlPlanner.pages(-1));
+        assertEquals(1, CrawlPlanner.pages(0));
+        assertEquals(1, CrawlPlanner.pages(CrawlPlanner.PAGE_SIZE));
+        assertEquals(2, CrawlPlanner.pages(CrawlPlanner.PAGE_SIZE + 1));
+    }
+
+    @Test
+    public void testUserCalls() {
+        // user, 3 pages of followers, 1 of following, watched, 1 of repositories
+        assertEquals(7, CrawlPlanner.userCalls(250, 10, 5, 0, true, false, false));
+        assertEquals(3 + 1, CrawlPlanner.userCalls(250, 10, 5, 0, false, true, true));
+        assertEquals(0, CrawlPlanner.userCalls(250, 10, 5, 0, false, false, false));
+    }
+
+    @Test
+    public void testHours() {
+        assertEquals(2.0, CrawlPlanner.hours(20000, 2, 5000.0), 0.0001);
+        assertEquals(1.0, CrawlPlanner.hours(5000, 0, 5000.0), 0.0001);
+    }
+
+    private static int countVertices(final BlueprintsDriver bp) {
+        int count = 0;
+        for (Vertex vertex : bp.getGraph().getVertices()) {
+            count++;
+        }
+        return count;
+    }
+
+    @Test
+    public void testPlanDoesNotWriteGraph() {
+        BlueprintsDriver bp = new BlueprintsDriver("tinkergraph", "", new HashMap<String, String>());
+        Vertex known = bp.getOrCreateRepository("o/known");
+        bp.setProperty(known, PropertyName.WATCHERS, 250);
+        bp.setProperty(known, PropertyName.SYS_LAST_UPDATED, new Date());
+        Vertex user = bp.getOrCreateUser("someone");
+        bp.setProperty(user, PropertyName.FOLLOWERS, 150);
+        int vertices = countVertices(bp);
+
+        Properties props = new Properties();
+        props.setProperty(PropNames.GITHUB_PROJECT_NAMES, "o/known,o/unknown");
+        props.setProperty(PropNames.GITHUB_USERNAMES, "someone,nobody");
+        props.setProperty(PropNames.GITHUB_ORGANIZATIONS, "someorg");
+        props.setProperty(PropNames.GITHUB_INCREMENTAL_ISSUES, "true");
+        CrawlPlanner planner = new CrawlPlanner(props, bp);
+        planner.plan();
+
+        assertEquals(vertices, countVertices(bp));
+        assertNull(bp.getRepository("o/unknown"));
+        assertNull(bp.getUser("nobody"));
+        // three pages of watchers for the known repository, one for the unknown
+        assertEquals(Long.valueOf(3 + 1), planner.getPhases().get("watchers"));
+        assertTrue(planner.getTotal() > 0);
+        bp.shutdown();
+    }
+}
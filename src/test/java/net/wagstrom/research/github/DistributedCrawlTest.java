@@ -0,0 +1,153 @@
+package net.wagstrom.research.github;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import net.wagstrom.research.github.crawler.WorkQueue;
+import net.wagstrom.research.github.standin.StandInServer;
+import net.wagstrom.research.github.standin.SyntheticDataset;
+
+import org.eclipse.egit.github.core.Repository;
+import org.eclipse.egit.github.core.User;
+import org.junit.Test;
+
+public class DistributedCrawlTest extends TestCase {
+    private static final long TIMEOUT = 120000;
+
+    private StandInServer server;
+    private File directory;
+
+    @Override
+    protected void setUp() throws Exception {
+        Properties sizes = new Properties();
+        sizes.setProperty(SyntheticDataset.ISSUES_PER_REPO, "4");
+        sizes.setProperty(SyntheticDataset.CLOSED_FRACTION, "0.5");
+        for (String key : new String[]{SyntheticDataset.PULLS_PER_REPO, SyntheticDataset.COMMENTS_PER_ISSUE,
+                SyntheticDataset.EVENTS_PER_ISSUE, SyntheticDataset.COMMENTS_PER_PULL, SyntheticDataset.WATCHERS_PER_REPO,
+                SyntheticDataset.FORKS_PER_REPO, SyntheticDataset.CONTRIBUTORS_PER_REPO,
+                SyntheticDataset.COLLABORATORS_PER_REPO, SyntheticDataset.FOLLOWERS_PER_USER,
+                SyntheticDataset.FOLLOWING_PER_USER, SyntheticDataset.REPOS_PER_USER, SyntheticDataset.WATCHED_PER_USER,
+                SyntheticDataset.GISTS_PER_USER, SyntheticDataset.EVENTS_PER_USER, SyntheticDataset.MEMBERS_PER_ORG}) {
+            sizes.setProperty(key, "2");
+        }
+        server = new StandInServer(0, 42, 0);
+        server.start(sizes);
+        directory = TempDirectory.create("distributed");
+    }
+
+    @Override
+    protected void tearDown() {
+        server.stop();
+        TempDirectory.delete(directory);
+    }
+
+    /**
+     * @param graph the directory of the graph the process crawls into
+     */
+    private Properties properties(final String graph) {
+        Properties props = new Properties();
+        props.setProperty(PropNames.DBENGINE, "tinkergraph");
+        props.setProperty(PropNames.DBURL, new File(directory, graph).getPath());
+        props.setProperty(PropNames.GITHUB_API_HOST, "localhost");
+        props.setProperty(PropNames.GITHUB_API_PORT, String.valueOf(server.getPort()));
+        props.setProperty(PropNames.GITHUB_API_SCHEME, "http");
+        props.setProperty(PropNames.GITHUB_TOKEN, "stand-in");
+        props.setProperty(PropNames.EMAIL_ADDRESS, "gitminer@example.com");
+        // the stand-in has no rate limit to keep to
+        props.setProperty(PropNames.GITHUB_THROTTLE_MAX_CALLS, "0");
+        props.setProperty(PropNames.GITHUB_QUEUE_DIR, new File(directory, "queue").getPath());
+        props.setProperty(PropNames.GITHUB_QUEUE_POLL_INTERVAL, "1");
+        props.setProperty(PropNames.GITHUB_PROJECT_NAMES, "rails/rails,defunkt/resque");
+        props.setProperty(PropNames.GITHUB_USERNAMES, "pridkett");
+        props.setProperty(PropNames.GITHUB_ORGANIZATIONS, "");
+        props.setProperty(PropNames.GITHUB_MINE_REPO_USERS, "true");
+        return props;
+    }
+
+    @Test
+    public void testCoordinatorLoadsWhatWorkersFetch() throws Exception {
+        // the coordinator's graph already knows the repository, and a
+        // watcher the workers won't see, from an earlier crawl
+        BlueprintsDriver bp = new BlueprintsDriver("tinkergraph", new File(directory, "main").getPath(),
+                new HashMap<String, String>());
+        bp.setProperty(bp.getOrCreateRepository("rails/rails"), PropertyName.SYS_LAST_UPDATED, new Date());
+        bp.saveRepositoryWatchers(new Repository().setOwner(new User().setLogin("rails")).setName("rails"),
+                Arrays.asList(new User().setLogin("formerwatcher")));
+        bp.shutdown();
+        long apiErrors = CrawlMetrics.getInstance().getErrors();
+
+        final List<Exception> errors = Collections.synchronizedList(new ArrayList<Exception>());
+        final DistributedCrawl coordinator = new DistributedCrawl(properties("main"));
+        List<Thread> threads = new ArrayList<Thread>();
+        threads.add(new Thread() {
+            public void run() {
+                try {
+                    coordinator.coordinate();
+                } catch (Exception e) {
+                    errors.add(e);
+                }
+            }
+        });
+        threads.get(0).start();
+        WorkQueue queue = new WorkQueue(new File(directory, "queue"), 60000);
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (queue.getPending() < 3 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(3, queue.getPending());
+        for (int i = 1; i <= 2; i++) {
+            final String name = "worker" + i;
+            final DistributedCrawl worker = new DistributedCrawl(properties(name));
+            Thread thread = new Thread() {
+                public void run() {
+                    try {
+                        worker.work(name);
+                    } catch (Exception e) {
+                        errors.add(e);
+                    }
+                }
+            };
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join(Math.max(1, deadline - System.currentTimeMillis()));
+            assertFalse(thread.isAlive());
+        }
+        assertTrue(errors.toString(), errors.isEmpty());
+        assertTrue(queue.isFinished());
+        // no request failed, whether to the stand-in or from an archive
+        assertEquals(apiErrors, CrawlMetrics.getInstance().getErrors());
+
+        bp = new BlueprintsDriver("tinkergraph", new File(directory, "main").getPath(), new HashMap<String, String>());
+        try {
+            for (String reponame : new String[]{"rails/rails", "defunkt/resque"}) {
+                assertEquals(2, bp.getRepositoryCount(reponame, PropertyName.WATCHERS));
+                Map<Integer, Date> comments = bp.getIssueCommentsAddedAt(reponame);
+                assertEquals(4, comments.size());
+                // the comments of every issue were found in the archive
+                assertFalse(comments.containsValue(null));
+                assertEquals(4 * 2, bp.getIssueCommentCount(reponame));
+                for (Map.Entry<String, Date> user : bp.getProjectUsersLastFullUpdate(reponame).entrySet()) {
+                    if (user.getKey().equals("formerwatcher")) {
+                        assertNull(user.getValue());
+                    } else {
+                        assertNotNull(user.getKey(), user.getValue());
+                    }
+                }
+            }
+            assertNotNull(bp.getUserSysDate("pridkett", PropertyName.SYS_LAST_FULL_UPDATE));
+        } finally {
+            bp.shutdown();
+        }
+    }
+}
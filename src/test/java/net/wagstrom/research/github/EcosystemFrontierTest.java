@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2011-2012 IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wagstrom.research.github;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class EcosystemFrontierTest extends TestCase {
+    @Test
+    public void testLevelsRankedAndDeduplicated() {
+        EcosystemFrontier frontier = new EcosystemFrontier(2, 3, 0, 2);
+        frontier.addSeed("rails/rails");
+        assertTrue(frontier.canExpand(1, 0));
+        Map<String, Integer> shared = new HashMap<String, Integer>();
+        shared.put("Rails/Rails", 50);
+        shared.put("defunkt/resque", 12);
+        shared.put("mojombo/jekyll", 30);
+        shared.put("lonely/repo", 1);
+        shared.put("/", 99);
+        List<String> level = frontier.nextLevel(shared);
+        assertEquals(2, level.size());
+        assertEquals("mojombo/jekyll", level.get(0));
+        assertEquals("defunkt/resque", level.get(1));
+
+        shared.put("sinatra/sinatra", 5);
+        shared.put("tinkerpop/blueprints", 4);
+        level = frontier.nextLevel(shared);
+        assertEquals(1, level.size());
+        assertEquals("sinatra/sinatra", level.get(0));
+        assertFalse(frontier.canExpand(2, 0));
+    }
+
+    @Test
+    public void testStopsAtDepthAndBudget() {
+        EcosystemFrontier frontier = new EcosystemFrontier(1, 100, 500, 1);
+        frontier.setStartCalls(1000);
+        assertTrue(frontier.canExpand(1, 1499));
+        assertFalse(frontier.canExpand(1, 1500));
+        assertFalse(frontier.canExpand(2, 1000));
+        assertTrue(frontier.withinBudget(1499));
+        assertFalse(frontier.withinBudget(1500));
+    }
+
+    @Test
+    public void testBudgetIgnoresRepositoryLimit() {
+        // a full level can still be crawled, only the budget stops it
+        EcosystemFrontier frontier = new EcosystemFrontier(2, 1, 0, 1);
+        Map<String, Integer> shared = new HashMap<String, Integer>();
+        shared.put("mojombo/jekyll", 3);
+        assertEquals(1, frontier.nextLevel(shared).size());
+        assertFalse(frontier.canExpand(2, 0));
+        assertTrue(frontier.withinBudget(0));
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2011-2012 IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wagstrom.research.github;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest extends TestCase {
+    @Test
+    public void testBucketsCoverEveryValue() {
+        int last = -1;
+        for (long value = 0; value < 100000; value++) {
+            int index = LatencyHistogram.indexOf(value);
+            assertTrue(index == last || index == last + 1);
+            assertTrue(LatencyHistogram.highestValueAt(index) >= value);
+            last = index;
+        }
+    }
+
+    @Test
+    public void testPercentilesWithinPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long micros = 1; micros <= 10000; micros++) {
+            histogram.record(micros * 100);
+        }
+        assertEquals(10000, histogram.getCount());
+        assertEquals(1000000, histogram.getMax());
+        long p50 = histogram.getPercentile(50);
+        long p99 = histogram.getPercentile(99);
+        assertTrue("p50 " + p50, Math.abs(p50 - 500000) <= 500000 / LatencyHistogram.SUB_BUCKETS);
+        assertTrue("p99 " + p99, Math.abs(p99 - 990000) <= 990000 / LatencyHistogram.SUB_BUCKETS);
+        assertEquals(1000000, histogram.getPercentile(100));
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2011-2012 IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wagstrom.research.github;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class QuotaLedgerTest extends TestCase {
+    private static final long NOW = 1000000000000L;
+
+    private ApiThrottle throttle(final int limit, final int remaining) {
+        ApiThrottle throttle = new ApiThrottle();
+        throttle.setId("test");
+        throttle.setRateLimit(limit);
+        throttle.setRateLimitRemaining(remaining);
+        throttle.setRateLimitReset(NOW / 1000 + 600);
+        return throttle;
+    }
+
+    @Test
+    public void testClassify() {
+        assertEquals(EndpointFamily.REPOSITORY, EndpointFamily.classify("/repos/rails/rails"));
+        assertEquals(EndpointFamily.REPOSITORY, EndpointFamily.classify("/repos/rails/rails/forks?page=2"));
+        assertEquals(EndpointFamily.ISSUES, EndpointFamily.classify("/repos/rails/rails/issues/12/comments"));
+        assertEquals(EndpointFamily.PULLS, EndpointFamily.classify("/api/v3/repos/rails/rails/pulls"));
+        assertEquals(EndpointFamily.WATCHERS, EndpointFamily.classify("/repos/rails/rails/watchers"));
+        assertEquals(EndpointFamily.USERS, EndpointFamily.classify("/users/dhh/followers"));
+        assertEquals(EndpointFamily.GISTS, EndpointFamily.classify("/users/dhh/gists"));
+        assertEquals(EndpointFamily.EVENTS, EndpointFamily.classify("/users/dhh/events"));
+        assertEquals(EndpointFamily.ORGANIZATIONS, EndpointFamily.classify("/orgs/rails/members"));
+        assertEquals(EndpointFamily.OTHER, EndpointFamily.classify("/rate_limit"));
+    }
+
+    @Test
+    public void testReserveHoldsBackLowPriority() {
+        QuotaLedger ledger = new QuotaLedger();
+        ledger.setCoreReserve(0.1);
+        ApiThrottle throttle = throttle(5000, 400);
+        assertEquals(0, ledger.admit(EndpointFamily.ISSUES, throttle, NOW));
+        long wait = ledger.admit(EndpointFamily.GISTS, throttle, NOW);
+        assertEquals(600000 + ApiThrottle.RESET_SKEW, wait);
+        // once the window has reset everything goes again
+        assertEquals(0, ledger.admit(EndpointFamily.GISTS, throttle, NOW + 600000));
+    }
+
+    @Test
+    public void testShareCapsFamily() {
+        QuotaLedger ledger = new QuotaLedger();
+        ledger.setShare(EndpointFamily.EVENTS, 0.001);
+        ApiThrottle throttle = throttle(5000, 4000);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, ledger.admit(EndpointFamily.EVENTS, throttle, NOW));
+            ledger.record(EndpointFamily.EVENTS, throttle);
+        }
+        assertTrue(ledger.admit(EndpointFamily.EVENTS, throttle, NOW) > 0);
+        assertEquals(0, ledger.admit(EndpointFamily.USERS, throttle, NOW));
+        assertEquals(Long.valueOf(5), ledger.getSpent().get(EndpointFamily.EVENTS));
+    }
+}
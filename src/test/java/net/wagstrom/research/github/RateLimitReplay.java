@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2011-2012 IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wagstrom.research.github;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Replays a recorded sequence of rate limit headers against an {@link ApiThrottle}
+ *
+ * Each non-comment line of a recording has four whitespace separated columns:
+ * the time the response was received in milliseconds since the epoch, and the
+ * values of the X-RateLimit-Limit, X-RateLimit-Remaining and X-RateLimit-Reset
+ * headers.
+ *
+ * @author patrick
+ */
+public class RateLimitReplay {
+    private final List<long[]> records = new ArrayList<long[]>();
+
+    public RateLimitReplay(final String resource) throws IOException {
+        InputStream input = getClass().getClassLoader().getResourceAsStream(resource);
+        if (input == null) {
+            throw new IOException("Unable to find recording " + resource);
+        }
+        BufferedReader reader = new BufferedReader(new InputStreamReader(input, "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.equals("") || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split("\\s+");
+                long[] record = new long[fields.length];
+                for (int i = 0; i < fields.length; i++) {
+                    record[i] = Long.parseLong(fields[i]);
+                }
+                records.add(record);
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Feeds each recorded response to the throttle as if a call had just been
+     * made and returns how long the throttle wants to wait before the next call.
+     *
+     * @param throttle the throttle to replay against
+     * @return the computed sleep time after each recorded response
+     */
+    public long[] replay(final ApiThrottle throttle) {
+        long[] sleeps = new long[records.size()];
+        for (int i = 0; i < records.size(); i++) {
+            long[] record = records.get(i);
+            throttle.recordCall(record[0]);
+            throttle.setRateLimit((int) record[1]);
+            throttle.setRateLimitRemaining((int) record[2]);
+            throttle.setRateLimitReset(record[3]);
+            sleeps[i] = throttle.computeSleepTime(record[0]);
+        }
+        return sleeps;
+    }
+
+    public int size() {
+        return records.size();
+    }
+}
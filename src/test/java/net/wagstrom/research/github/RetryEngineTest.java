@@ -0,0 +1,84 @@
+package net.wagstrom.research.github;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+
+import org.eclipse.egit.github.core.client.RequestException;
+import org.junit.Test;
+
+import junit.framework.TestCase;
+
+public class RetryEngineTest extends TestCase {
+    private static RequestException requestException(final int status, final String message) {
+        return new RequestException(null, status) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public String getMessage() {
+                return message;
+            }
+        };
+    }
+
+    @Test
+    public void testClassify() {
+        assertEquals(FailureType.RATE_LIMIT, RetryEngine.classify(requestException(403, "API Rate Limit Exceeded for 10.0.0.1")));
+        assertEquals(FailureType.SECONDARY_LIMIT, RetryEngine.classify(requestException(403, "You have exceeded a secondary rate limit")));
+        assertEquals(FailureType.SECONDARY_LIMIT, RetryEngine.classify(requestException(429, null)));
+        assertEquals(FailureType.SERVER_ERROR, RetryEngine.classify(requestException(502, "Bad Gateway")));
+        assertEquals(FailureType.NOT_FOUND, RetryEngine.classify(requestException(404, "Not Found")));
+        assertEquals(FailureType.CLIENT_ERROR, RetryEngine.classify(requestException(422, "Validation Failed")));
+        assertEquals(FailureType.CONNECT, RetryEngine.classify(new ConnectException("Connection refused")));
+        assertEquals(FailureType.CONNECT, RetryEngine.classify(new IOException(new SocketTimeoutException())));
+        assertEquals(FailureType.IO, RetryEngine.classify(new IOException("broken")));
+        assertEquals(FailureType.FATAL, RetryEngine.classify(new IllegalStateException()));
+    }
+
+    @Test
+    public void testBackoffIsJitteredAndBounded() {
+        RetryEngine engine = new RetryEngine();
+        engine.setBaseDelay(100);
+        engine.setMaxDelay(1000);
+        boolean varied = false;
+        long first = engine.backoff(FailureType.SERVER_ERROR, 3);
+        for (int i = 0; i < 100; i++) {
+            long delay = engine.backoff(FailureType.SERVER_ERROR, 3);
+            assertTrue(delay >= 0 && delay < 400);
+            varied |= delay != first;
+            assertTrue(engine.backoff(FailureType.SERVER_ERROR, 40) < 1000);
+        }
+        assertTrue(varied);
+        assertTrue(engine.backoff(FailureType.SECONDARY_LIMIT, 1) >= RetryEngine.SECONDARY_LIMIT_DELAY);
+    }
+
+    @Test
+    public void testGivesUp() {
+        RetryEngine engine = new RetryEngine();
+        engine.setMaxAttempts(3);
+        assertTrue(engine.nextDelay(FailureType.SERVER_ERROR, 2, "get") >= 0);
+        assertEquals(-1, engine.nextDelay(FailureType.SERVER_ERROR, 3, "get"));
+        assertEquals(-1, engine.nextDelay(FailureType.CLIENT_ERROR, 1, "get"));
+    }
+
+    @Test
+    public void testBudgetLimitsRetries() {
+        RetryEngine engine = new RetryEngine();
+        engine.setBaseDelay(1);
+        engine.setBudgetRatio(0.5);
+        int allowed = 0;
+        while (engine.nextDelay(FailureType.SERVER_ERROR, 1, "get") >= 0) {
+            allowed++;
+        }
+        assertEquals(RetryEngine.MIN_BUDGET, allowed);
+        // rate limit retries are paced by the throttle, not the budget
+        assertTrue(engine.nextDelay(FailureType.RATE_LIMIT, 1, "get") >= 0);
+        for (int i = 0; i < 4; i++) {
+            engine.recordCall();
+        }
+        assertTrue(engine.nextDelay(FailureType.SERVER_ERROR, 1, "get") >= 0);
+        assertTrue(engine.nextDelay(FailureType.SERVER_ERROR, 1, "get") >= 0);
+        assertEquals(-1, engine.nextDelay(FailureType.SERVER_ERROR, 1, "get"));
+        assertEquals(Long.valueOf(RetryEngine.MIN_BUDGET + 3), engine.getRetryCounts().get("get"));
+    }
+}
@@ -0,0 +1,37 @@
+package net.wagstrom.research.github;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Temporary directories for tests that keep files on disk
+ */
+public final class TempDirectory {
+    private TempDirectory() {
+    }
+
+    /**
+     * @param prefix the start of the directory name
+     * @return a new path in the temporary directory, which doesn't exist yet
+     */
+    public static File create(final String prefix) throws IOException {
+        File directory = File.createTempFile(prefix, "");
+        if (!directory.delete()) {
+            throw new IOException("Unable to delete " + directory);
+        }
+        return directory;
+    }
+
+    /**
+     * Deletes a file or a directory and everything in it
+     */
+    public static void delete(final File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
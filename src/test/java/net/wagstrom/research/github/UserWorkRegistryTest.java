@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2011-2012 IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wagstrom.research.github;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class UserWorkRegistryTest extends TestCase {
+    @Test
+    public void testEachPartClaimedOnce() {
+        UserWorkRegistry registry = new UserWorkRegistry();
+        assertEquals(UserWorkRegistry.FULL | UserWorkRegistry.EVENTS,
+                registry.claim("dhh", UserWorkRegistry.FULL | UserWorkRegistry.EVENTS));
+        assertEquals(UserWorkRegistry.GISTS,
+                registry.claim("DHH", UserWorkRegistry.FULL | UserWorkRegistry.GISTS));
+        assertEquals(0, registry.claim("dhh", UserWorkRegistry.EVENTS));
+        assertEquals(2, registry.getDuplicates());
+        assertEquals(UserWorkRegistry.FULL, registry.claim("defunkt", UserWorkRegistry.FULL));
+    }
+
+    @Test
+    public void testReleasedPartsCanBeClaimedAgain() {
+        UserWorkRegistry registry = new UserWorkRegistry();
+        registry.claim("mojombo", UserWorkRegistry.FULL | UserWorkRegistry.EVENTS);
+        registry.release("mojombo", UserWorkRegistry.EVENTS);
+        assertEquals(UserWorkRegistry.EVENTS,
+                registry.claim("mojombo", UserWorkRegistry.FULL | UserWorkRegistry.EVENTS));
+        assertEquals("full,events", UserWorkRegistry.describe(UserWorkRegistry.FULL | UserWorkRegistry.EVENTS));
+    }
+}
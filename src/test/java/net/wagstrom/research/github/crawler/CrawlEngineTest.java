@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) 2011-2012 IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wagstrom.research.github.crawler;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class CrawlEngineTest extends TestCase {
+    private final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+
+    private class Recording extends CrawlTask {
+        private final boolean fail;
+
+        Recording(final String name, final boolean fail, final CrawlTask... dependencies) {
+            super(name, dependencies);
+            this.fail = fail;
+        }
+
+        @Override
+        protected void execute() throws Exception {
+            Thread.sleep(5);
+            order.add(getName());
+            if (fail) {
+                throw new IllegalStateException(getName());
+            }
+        }
+    }
+
+    @Test
+    public void testDependentsWaitForChildren() throws Exception {
+        CrawlEngine engine = new CrawlEngine(4, 16);
+        CrawlTask parent = engine.submit(new CrawlTask("parent") {
+            protected void execute() {
+                for (int i = 0; i < 10; i++) {
+                    spawn(new Recording("child" + i, false));
+                }
+            }
+        });
+        CrawlTask after = engine.submit(new Recording("after", false, parent));
+        engine.awaitCompletion();
+        engine.shutdown();
+        assertEquals(11, order.size());
+        assertEquals("after", order.get(10));
+        assertEquals(CrawlTask.State.SUCCEEDED, parent.getState());
+        assertEquals(CrawlTask.State.SUCCEEDED, after.getState());
+        assertEquals(12, engine.getSucceeded());
+    }
+
+    @Test
+    public void testCompletedAfterChildren() throws Exception {
+        CrawlEngine engine = new CrawlEngine(4, 16);
+        engine.submit(new CrawlTask("parent") {
+            protected void execute() {
+                for (int i = 0; i < 5; i++) {
+                    spawn(new Recording("child" + i, i == 2));
+                }
+            }
+
+            @Override
+            protected void completed(final CrawlTask.State result) {
+                order.add("completed " + result);
+            }
+        });
+        engine.awaitCompletion();
+        engine.shutdown();
+        assertEquals(6, order.size());
+        // a failed child doesn't fail its parent
+        assertEquals("completed SUCCEEDED", order.get(5));
+    }
+
+    @Test
+    public void testFailureSkipsDependents() throws Exception {
+        CrawlEngine engine = new CrawlEngine(2, 16);
+        CrawlTask broken = engine.submit(new Recording("broken", true));
+        CrawlTask skipped = engine.submit(new Recording("skipped", false, broken));
+        CrawlTask alsoSkipped = engine.submit(new Recording("alsoSkipped", false, skipped));
+        CrawlTask other = engine.submit(new Recording("other", false));
+        engine.awaitCompletion();
+        engine.shutdown();
+        assertEquals(CrawlTask.State.FAILED, broken.getState());
+        assertEquals(CrawlTask.State.SKIPPED, skipped.getState());
+        assertEquals(CrawlTask.State.SKIPPED, alsoSkipped.getState());
+        assertEquals(CrawlTask.State.SUCCEEDED, other.getState());
+        assertFalse(order.contains("skipped"));
+        assertEquals(1, engine.getFailed());
+        assertEquals(2, engine.getSkipped());
+    }
+
+    @Test
+    public void testRunAfterFailures() throws Exception {
+        CrawlEngine engine = new CrawlEngine(2, 16);
+        CrawlTask broken = engine.submit(new Recording("broken", true));
+        CrawlTask fine = engine.submit(new Recording("fine", false));
+        CrawlTask after = engine.submit(new Recording("after", false, broken, fine).setRunAfterFailures(true));
+        engine.awaitCompletion();
+        engine.shutdown();
+        assertEquals(CrawlTask.State.SUCCEEDED, after.getState());
+        assertEquals("after", order.get(2));
+        assertEquals(1, engine.getFailed());
+        assertEquals(0, engine.getSkipped());
+    }
+
+    @Test
+    public void testJournalResumesCrawl() throws Exception {
+        File file = File.createTempFile("crawl", ".journal");
+        file.delete();
+        try {
+            CrawlEngine engine = new CrawlEngine(2, 16);
+            CrawlJournal journal = new CrawlJournal(file);
+            engine.setJournal(journal);
+            CrawlTask first = engine.submit(new Recording("first", false));
+            engine.submit(new Recording("second", true, first));
+            engine.awaitCompletion();
+            engine.shutdown();
+            journal.close();
+            assertEquals(1, journal.getPending());
+
+            order.clear();
+            engine = new CrawlEngine(2, 16);
+            journal = new CrawlJournal(file);
+            engine.setJournal(journal);
+            assertTrue(journal.wasDone("first"));
+            first = engine.submit(new Recording("first", false));
+            engine.submit(new Recording("second", false, first));
+            engine.awaitCompletion();
+            engine.shutdown();
+            assertEquals(1, order.size());
+            assertEquals("second", order.get(0));
+            assertEquals(0, journal.getPending());
+            journal.compact();
+            journal.complete();
+            assertFalse(file.exists());
+        } finally {
+            file.delete();
+        }
+    }
+
+    private CrawlTask parentOf(final String child, final boolean fail) {
+        return new CrawlTask("parent") {
+            protected void execute() {
+                order.add("parent");
+                spawn(new CrawlTask("middle") {
+                    protected void execute() {
+                        spawn(new Recording(child, fail));
+                    }
+                });
+                spawn(new Recording("sibling", false));
+            }
+        };
+    }
+
+    @Test
+    public void testJournalResumesFailedChild() throws Exception {
+        File file = File.createTempFile("crawl", ".journal");
+        file.delete();
+        try {
+            CrawlEngine engine = new CrawlEngine(2, 16);
+            CrawlJournal journal = new CrawlJournal(file);
+            engine.setJournal(journal);
+            CrawlTask parent = engine.submit(parentOf("child", true));
+            engine.awaitCompletion();
+            engine.shutdown();
+            journal.close();
+            // the parent succeeded, but isn't done while its grandchild failed
+            assertEquals(CrawlTask.State.SUCCEEDED, parent.getState());
+            assertEquals(3, journal.getPending());
+
+            order.clear();
+            engine = new CrawlEngine(2, 16);
+            journal = new CrawlJournal(file);
+            engine.setJournal(journal);
+            assertTrue(journal.wasDone("sibling"));
+            assertFalse(journal.wasDone("parent"));
+            assertFalse(journal.wasDone("middle"));
+            engine.submit(parentOf("child", false));
+            engine.awaitCompletion();
+            engine.shutdown();
+            assertEquals(2, order.size());
+            assertEquals("parent", order.get(0));
+            assertEquals("child", order.get(1));
+            assertEquals(0, journal.getPending());
+            journal.close();
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testStalestRunsFirst() throws Exception {
+        CrawlEngine engine = new CrawlEngine(1, 16);
+        long now = System.currentTimeMillis();
+        CrawlTask gate = engine.submit(new Recording("gate", false));
+        engine.submit(new Recording("fresh", false, gate).setPriority(
+                Staleness.priority(Staleness.WEIGHT_USER, now, new Date(now - 3600000L))));
+        engine.submit(new Recording("never", false, gate).setPriority(
+                Staleness.priority(Staleness.WEIGHT_USER, now, (Date) null)));
+        engine.submit(new Recording("stale", false, gate).setPriority(
+                Staleness.priority(Staleness.WEIGHT_REPOSITORY, now, new Date(now - 86400000L))));
+        engine.awaitCompletion();
+        engine.shutdown();
+        assertEquals("gate", order.get(0));
+        assertEquals("never", order.get(1));
+        assertEquals("stale", order.get(2));
+        assertEquals("fresh", order.get(3));
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2011-2012 IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wagstrom.research.github.crawler;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import net.wagstrom.research.github.TempDirectory;
+
+import org.junit.Test;
+
+public class WorkQueueTest extends TestCase {
+    private File directory;
+
+    @Override
+    protected void setUp() throws IOException {
+        directory = TempDirectory.create("queue");
+    }
+
+    @Override
+    protected void tearDown() {
+        TempDirectory.delete(directory);
+    }
+
+    @Test
+    public void testEachItemClaimedOnce() throws Exception {
+        final WorkQueue queue = new WorkQueue(directory, 60000);
+        for (int i = 0; i < 50; i++) {
+            assertTrue(queue.offer("repository:owner/project" + i));
+        }
+        assertFalse(queue.offer("repository:owner/project0"));
+        final Set<String> claimed = Collections.synchronizedSet(new HashSet<String>());
+        Thread[] workers = new Thread[4];
+        for (int i = 0; i < workers.length; i++) {
+            // a second queue on the same directory stands in for another process
+            final WorkQueue worker = new WorkQueue(directory, 60000);
+            workers[i] = new Thread() {
+                public void run() {
+                    WorkQueue.Claim claim;
+                    while ((claim = worker.poll()) != null) {
+                        assertTrue(claimed.add(claim.getItem()));
+                    }
+                }
+            };
+            workers[i].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        assertEquals(50, claimed.size());
+        assertEquals(0, queue.getPending());
+        assertEquals(50, queue.getClaimed());
+    }
+
+    @Test
+    public void testStaleClaimIsRequeued() throws Exception {
+        WorkQueue queue = new WorkQueue(directory, 60000);
+        queue.offer("user:defunkt");
+        WorkQueue.Claim claim = queue.poll();
+        assertEquals("user:defunkt", claim.getItem());
+        assertNull(queue.poll());
+        assertEquals(0, queue.requeueStale());
+        assertTrue(new File(new File(directory, "claimed"), "user%3Adefunkt")
+                .setLastModified(System.currentTimeMillis() - 120000));
+        assertEquals(1, queue.requeueStale());
+        assertEquals("user:defunkt", queue.poll().getItem());
+    }
+
+    @Test
+    public void testPublishedResultsAreLoaded() throws Exception {
+        WorkQueue queue = new WorkQueue(directory, 60000);
+        queue.offer("repository:defunkt/resque");
+        WorkQueue.Claim claim = queue.poll();
+        File result = queue.getWorkDirectory(claim, "worker@host");
+        assertTrue(result.mkdirs());
+        assertFalse(queue.isFinished());
+        queue.publish(claim, result);
+        assertEquals(0, queue.getClaimed());
+        File ready = queue.nextResult();
+        assertEquals("repository:defunkt/resque", WorkQueue.getResultItem(ready));
+        assertFalse(queue.isFinished());
+        queue.loaded(ready);
+        assertNull(queue.nextResult());
+        assertTrue(queue.isFinished());
+        // an item can be crawled again once it is done
+        assertTrue(queue.offer("repository:defunkt/resque"));
+    }
+}
@@ -0,0 +1,88 @@
+package net.wagstrom.research.github.standin;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Properties;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+import junit.framework.TestCase;
+
+public class StandInServerTest extends TestCase {
+    private StandInServer server;
+
+    @Override
+    protected void setUp() throws Exception {
+        Properties sizes = new Properties();
+        sizes.setProperty(SyntheticDataset.FOLLOWERS_PER_USER + ".dhh", "100000");
+        sizes.setProperty(SyntheticDataset.ISSUES_PER_REPO, "95");
+        server = new StandInServer(0, 42, 5000);
+        server.start(sizes);
+    }
+
+    @Override
+    protected void tearDown() {
+        server.stop();
+    }
+
+    private HttpURLConnection get(final String path) throws Exception {
+        return (HttpURLConnection) new URL("http://localhost:" + server.getPort() + path).openConnection();
+    }
+
+    private static String read(final HttpURLConnection connection) throws Exception {
+        InputStream input = connection.getInputStream();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = input.read(buffer)) != -1) {
+            output.write(buffer, 0, read);
+        }
+        input.close();
+        return output.toString("UTF-8");
+    }
+
+    @Test
+    public void testPaginationLinks() throws Exception {
+        HttpURLConnection connection = get("/api/v3/users/dhh/followers?per_page=100&page=2");
+        assertEquals(200, connection.getResponseCode());
+        String link = connection.getHeaderField("Link");
+        assertTrue(link, link.contains("page=3>; rel=\"next\""));
+        assertTrue(link, link.contains("/api/v3/users/dhh/followers?per_page=100&page=1000>; rel=\"last\""));
+        assertTrue(link, link.contains("page=1>; rel=\"prev\""));
+        assertEquals("4999", connection.getHeaderField("X-RateLimit-Remaining"));
+        String body = read(connection);
+        assertEquals(100, body.split("\"login\"").length - 1);
+        // every gravatar id has the 32 digits of a real one
+        assertFalse(body, Pattern.compile("\"gravatar_id\":\"(?![0-9a-f]{32}\")").matcher(body).find());
+        // the same page always has the same content
+        assertEquals(body, read(get("/users/dhh/followers?per_page=100&page=2")));
+    }
+
+    @Test
+    public void testIssuesByState() throws Exception {
+        // 95 issues with 70% closed leaves 28 open, numbered 68 to 95
+        HttpURLConnection connection = get("/repos/rails/rails/issues?state=open&per_page=30");
+        String body = read(connection);
+        assertNull(connection.getHeaderField("Link"));
+        assertTrue(body.startsWith("[{\"id\":"));
+        assertTrue(body.contains("\"number\":95,"));
+        assertTrue(body.contains("\"number\":68,"));
+        assertFalse(body.contains("\"number\":67,"));
+        assertEquals(404, get("/repos/rails/rails/issues/96").getResponseCode());
+    }
+
+    @Test
+    public void testNotModified() throws Exception {
+        HttpURLConnection connection = get("/users/pridkett");
+        read(connection);
+        String etag = connection.getHeaderField("ETag");
+        String remaining = connection.getHeaderField("X-RateLimit-Remaining");
+        HttpURLConnection again = get("/users/pridkett");
+        again.setRequestProperty("If-None-Match", etag);
+        assertEquals(304, again.getResponseCode());
+        assertEquals(remaining, again.getHeaderField("X-RateLimit-Remaining"));
+    }
+}
@@ -0,0 +1,70 @@
+package net.wagstrom.research.github.v3;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import net.wagstrom.research.github.TempDirectory;
+
+import org.junit.Test;
+
+import junit.framework.TestCase;
+
+public class ConditionalRequestCacheTest extends TestCase {
+    private File directory;
+
+    @Override
+    protected void setUp() throws IOException {
+        directory = TempDirectory.create("cache");
+    }
+
+    @Override
+    protected void tearDown() {
+        TempDirectory.delete(directory);
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        ConditionalRequestCache cache = new ConditionalRequestCache(directory);
+        String key = "/repos/rails/rails/watchers?page=2";
+        byte[] body = "[{\"login\":\"dhh\"}]".getBytes("UTF-8");
+        assertNull(cache.get(key));
+        cache.put(new ConditionalRequestCache.Entry(key, "\"abc\"", null, "<https://api.github.com/x?page=3>; rel=\"next\"", body));
+
+        // a new instance reads what the previous run left behind
+        ConditionalRequestCache.Entry entry = new ConditionalRequestCache(directory).get(key);
+        assertNotNull(entry);
+        assertEquals("\"abc\"", entry.getEtag());
+        assertNull(entry.getLastModified());
+        assertEquals("<https://api.github.com/x?page=3>; rel=\"next\"", entry.getLink());
+        assertTrue(Arrays.equals(body, entry.getBody()));
+        assertNull(cache.get("/repos/rails/rails/watchers?page=3"));
+    }
+
+    @Test
+    public void testReplace() throws Exception {
+        ConditionalRequestCache cache = new ConditionalRequestCache(directory);
+        String key = "/users/pridkett";
+        cache.put(new ConditionalRequestCache.Entry(key, "\"1\"", null, null, new byte[] {1}));
+        cache.put(new ConditionalRequestCache.Entry(key, "\"2\"", "Tue, 01 Jan 2013 00:00:00 GMT", null, new byte[] {2, 2}));
+        ConditionalRequestCache.Entry entry = cache.get(key);
+        assertEquals("\"2\"", entry.getEtag());
+        assertEquals("Tue, 01 Jan 2013 00:00:00 GMT", entry.getLastModified());
+        assertEquals(2, entry.getBody().length);
+    }
+
+    @Test
+    public void testKeyedByCredential() throws Exception {
+        ConditionalRequestCache cache = new ConditionalRequestCache(directory);
+        CachingGitHubClient first = new CachingGitHubClient(cache);
+        first.setOAuth2Token("first");
+        CachingGitHubClient second = new CachingGitHubClient(cache);
+        second.setOAuth2Token("second");
+        CachingGitHubClient again = new CachingGitHubClient(cache);
+        again.setOAuth2Token("first");
+        String uri = "/repos/rails/rails";
+        assertFalse(first.cacheKey(uri, null).equals(second.cacheKey(uri, null)));
+        assertEquals(first.cacheKey(uri, null), again.cacheKey(uri, null));
+        assertFalse(first.cacheKey(uri, null).contains("first"));
+    }
+}
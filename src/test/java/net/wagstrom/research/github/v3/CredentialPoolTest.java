@@ -0,0 +1,156 @@
+package net.wagstrom.research.github.v3;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.wagstrom.research.github.ApiThrottle;
+import net.wagstrom.research.github.CrawlMetrics;
+import net.wagstrom.research.github.EndpointFamily;
+import net.wagstrom.research.github.QuotaLedger;
+import net.wagstrom.research.github.RetryEngine;
+
+import org.eclipse.egit.github.core.client.IGitHubClient;
+import org.eclipse.egit.github.core.client.RequestError;
+import org.eclipse.egit.github.core.client.RequestException;
+import org.junit.Test;
+
+import junit.framework.TestCase;
+
+public class CredentialPoolTest extends TestCase {
+    private ApiThrottle createThrottle(final String id, final int remaining, final long resetSeconds) {
+        ApiThrottle throttle = new ApiThrottle();
+        throttle.setId(id);
+        throttle.setRateLimit(5000);
+        throttle.setRateLimitRemaining(remaining);
+        throttle.setRateLimitReset(resetSeconds);
+        return throttle;
+    }
+
+    /**
+     * A client that notes which credential each call was made with
+     */
+    private IGitHubClient createClient(final String id, final List<String> calls) {
+        return (IGitHubClient) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class[] {IGitHubClient.class}, new InvocationHandler() {
+                    public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                        if (method.getName().equals("getRateLimit")) {
+                            return 5000;
+                        } else if (method.getName().equals("getRateLimitRemaining")) {
+                            return 4000;
+                        }
+                        calls.add(id);
+                        return id;
+                    }
+                });
+    }
+
+    @Test
+    public void testSelectsMostRemaining() {
+        long reset = System.currentTimeMillis() / 1000 + 600;
+        CredentialPool pool = new CredentialPool();
+        pool.addCredential(null, createThrottle("a", 100, reset));
+        pool.addCredential(null, createThrottle("b", 4000, reset));
+        pool.addCredential(null, createThrottle("c", 0, reset));
+        assertEquals("b", pool.select().getId());
+    }
+
+    @Test
+    public void testSkipsRevoked() {
+        long reset = System.currentTimeMillis() / 1000 + 600;
+        CredentialPool pool = new CredentialPool();
+        pool.addCredential(null, createThrottle("a", 100, reset));
+        pool.addCredential(null, createThrottle("b", 4000, reset));
+        pool.revoke(pool.select());
+        assertEquals("a", pool.select().getId());
+        pool.revoke(pool.select());
+        assertNull(pool.select());
+    }
+
+    @Test
+    public void testExhaustedPicksEarliestReset() {
+        long now = System.currentTimeMillis() / 1000;
+        CredentialPool pool = new CredentialPool();
+        pool.addCredential(null, createThrottle("a", 0, now + 900));
+        pool.addCredential(null, createThrottle("b", 0, now + 60));
+        pool.addCredential(null, createThrottle("c", 0, now + 300));
+        assertEquals("b", pool.select().getId());
+    }
+
+    @Test
+    public void testHeldCallMovesToAnotherCredential() throws Exception {
+        long reset = System.currentTimeMillis() / 1000 + 600;
+        QuotaLedger ledger = new QuotaLedger();
+        ledger.setShare(EndpointFamily.EVENTS, 0.001);
+        CredentialPool pool = new CredentialPool(new RetryEngine(), ledger);
+        List<String> calls = new ArrayList<String>();
+        ApiThrottle a = createThrottle("a", 4000, reset);
+        pool.addCredential(createClient("a", calls), a);
+        pool.addCredential(createClient("b", calls), createThrottle("b", 3000, reset));
+        for (int i = 0; i < 5; i++) {
+            ledger.record(EndpointFamily.EVENTS, a);
+        }
+        long start = System.currentTimeMillis();
+        assertEquals("b", pool.createClient().post("/users/dhh/events", null, null));
+        assertTrue(System.currentTimeMillis() - start < 1000);
+        // other families still use the credential with the most left
+        assertEquals("a", pool.createClient().post("/users/dhh", null, null));
+    }
+
+    @Test
+    public void testWaitsWhenEveryCredentialHolds() throws Exception {
+        long reset = System.currentTimeMillis() / 1000 + 1;
+        QuotaLedger ledger = new QuotaLedger();
+        ledger.setCoreReserve(0.5);
+        CredentialPool pool = new CredentialPool(new RetryEngine(), ledger);
+        List<String> calls = new ArrayList<String>();
+        pool.addCredential(createClient("a", calls), createThrottle("a", 100, reset));
+        pool.addCredential(createClient("b", calls), createThrottle("b", 200, reset));
+        long waited = CrawlMetrics.getInstance().getThrottleWaitMillis();
+        assertNotNull(pool.createClient().post("/users/dhh/gists", null, null));
+        assertEquals(1, calls.size());
+        assertTrue(CrawlMetrics.getInstance().getThrottleWaitMillis() - waited >= 1000);
+    }
+
+    /**
+     * A single credential hitting its rate limit more times than a call has
+     * attempts waits for each reset rather than failing the call
+     */
+    @Test
+    public void testWaitsForResetWhenExhausted() throws Exception {
+        final ApiThrottle throttle = createThrottle("a", 4000, System.currentTimeMillis() / 1000 + 600);
+        final List<String> calls = new ArrayList<String>();
+        CredentialPool pool = new CredentialPool();
+        pool.addCredential((IGitHubClient) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class[] {IGitHubClient.class}, new InvocationHandler() {
+                    public Object invoke(final Object proxy, final Method method, final Object[] args) throws Exception {
+                        if (method.getName().equals("getRateLimit")) {
+                            return 5000;
+                        } else if (method.getName().equals("getRateLimitRemaining")) {
+                            return 4000;
+                        }
+                        calls.add("a");
+                        if (calls.size() <= 3) {
+                            // GitHub says when the window resets along with the error
+                            throttle.setRateLimitReset(System.currentTimeMillis() / 1000 + 1);
+                            throw new RequestException(new RequestError() {
+                                private static final long serialVersionUID = 1L;
+
+                                @Override
+                                public String getMessage() {
+                                    return "API Rate Limit Exceeded for a";
+                                }
+                            }, 403);
+                        }
+                        return "a";
+                    }
+                }), throttle);
+        long start = System.currentTimeMillis();
+        assertEquals("a", pool.createClient().post("/users/dhh", null, null));
+        assertEquals(4, calls.size());
+        // each failure waited for the reset after it
+        assertTrue(System.currentTimeMillis() - start >= 3 * ApiThrottle.RESET_SKEW);
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2011-2012 IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wagstrom.research.github.v3;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class EntityCacheTest extends TestCase {
+    @Test
+    public void testHitsAndEviction() {
+        EntityCache cache = new EntityCache(2, 60000);
+        cache.put(EntityCache.USER, "DHH", "dhh");
+        cache.put(EntityCache.USER, "defunkt", null);
+        assertEquals("dhh", cache.get(EntityCache.USER, "dhh"));
+        assertNull(cache.get(EntityCache.ORGANIZATION, "dhh"));
+        assertNull(cache.get(EntityCache.USER, "defunkt"));
+        cache.put(EntityCache.USER, "mojombo", "mojombo");
+        cache.put(EntityCache.USER, "pjhyett", "pjhyett");
+        // dhh was used least recently
+        assertNull(cache.get(EntityCache.USER, "dhh"));
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getHits());
+        assertEquals(3, cache.getMisses());
+    }
+
+    @Test
+    public void testEntriesExpire() throws Exception {
+        EntityCache cache = new EntityCache(10, 10);
+        cache.put(EntityCache.REPOSITORY, "rails/rails", "rails");
+        Thread.sleep(30);
+        assertNull(cache.get(EntityCache.REPOSITORY, "rails/rails"));
+        assertEquals(0, cache.size());
+    }
+}
@@ -0,0 +1,201 @@
+package net.wagstrom.research.github.v3;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import net.wagstrom.research.github.TempDirectory;
+
+import org.junit.Test;
+
+import junit.framework.TestCase;
+
+public class HttpArchiveTest extends TestCase {
+    private File directory;
+
+    @Override
+    protected void setUp() throws IOException {
+        directory = TempDirectory.create("archive");
+    }
+
+    @Override
+    protected void tearDown() {
+        TempDirectory.delete(directory);
+    }
+
+    private static HttpArchive.Record record(final String key, final int status, final String body) throws IOException {
+        Map<String, String> headers = new LinkedHashMap<String, String>();
+        headers.put(GitHubHeaders.LINK, "<https://api.github.com/x?page=2>; rel=\"next\"");
+        return new HttpArchive.Record(key, status, headers, body == null ? null : body.getBytes("UTF-8"));
+    }
+
+    @Test
+    public void testReplayInRecordedOrder() throws Exception {
+        HttpArchive archive = new HttpArchive(directory, true);
+        archive.append(record("get /users/a", 200, "[1]"));
+        archive.append(record("get /users/b", 404, null));
+        archive.append(record("get /users/a", 200, "[2]"));
+        archive.close();
+
+        archive = new HttpArchive(directory, false);
+        assertEquals(2, archive.size());
+        assertEquals("[1]", new String(archive.next("get /users/a").getBody(), "UTF-8"));
+        assertEquals("[2]", new String(archive.next("get /users/a").getBody(), "UTF-8"));
+        // the last response keeps being served
+        assertEquals("[2]", new String(archive.next("get /users/a").getBody(), "UTF-8"));
+        HttpArchive.Record missing = archive.next("get /users/b");
+        assertEquals(404, missing.getStatus());
+        assertNull(missing.getBody());
+        assertEquals("<https://api.github.com/x?page=2>; rel=\"next\"", missing.getHeaders().get(GitHubHeaders.LINK));
+        assertNull(archive.next("get /users/c"));
+        archive.close();
+    }
+
+    @Test
+    public void testRecordingAppends() throws Exception {
+        HttpArchive archive = new HttpArchive(directory, true);
+        archive.append(record("get /users/a", 200, "[1]"));
+        archive.close();
+        archive = new HttpArchive(directory, true);
+        Map<String, String> noHeaders = Collections.emptyMap();
+        archive.append(new HttpArchive.Record("get /users/b", 200, noHeaders, "[3]".getBytes("UTF-8")));
+        archive.close();
+
+        archive = new HttpArchive(directory, false);
+        assertEquals("[1]", new String(archive.next("get /users/a").getBody(), "UTF-8"));
+        assertEquals("[3]", new String(archive.next("get /users/b").getBody(), "UTF-8"));
+        archive.close();
+    }
+
+    @Test
+    public void testSegments() throws Exception {
+        HttpArchive archive = new HttpArchive(directory, true, 64);
+        for (int i = 0; i < 5; i++) {
+            archive.append(record("get /users/" + i, 200, "[" + i + "]"));
+        }
+        archive.close();
+        assertTrue(new File(directory, "responses.4.dat").exists());
+        archive = new HttpArchive(directory, true, 64);
+        archive.append(record("get /users/5", 200, "[5]"));
+        archive.close();
+        assertTrue(new File(directory, "responses.5.dat").exists());
+
+        archive = new HttpArchive(directory, false);
+        assertEquals(6, archive.size());
+        for (int i = 5; i >= 0; i--) {
+            assertEquals("[" + i + "]", new String(archive.next("get /users/" + i).getBody(), "UTF-8"));
+        }
+        archive.close();
+    }
+
+    @Test
+    public void testTruncatedIndexEntry() throws Exception {
+        HttpArchive archive = new HttpArchive(directory, true);
+        archive.append(record("get /users/a", 200, "[1]"));
+        archive.append(record("get /users/b", 200, "[2]"));
+        archive.close();
+        // cut the last entry off in the middle of its offset
+        File indexFile = new File(directory, HttpArchive.INDEX_FILE);
+        RandomAccessFile index = new RandomAccessFile(indexFile, "rw");
+        index.setLength(index.length() - 3);
+        index.close();
+
+        archive = new HttpArchive(directory, false);
+        assertEquals(1, archive.size());
+        assertNull(archive.next("get /users/b"));
+        archive.close();
+
+        archive = new HttpArchive(directory, true);
+        archive.append(record("get /users/c", 200, "[3]"));
+        archive.close();
+        archive = new HttpArchive(directory, false);
+        assertEquals(2, archive.size());
+        assertEquals("[1]", new String(archive.next("get /users/a").getBody(), "UTF-8"));
+        assertEquals("[3]", new String(archive.next("get /users/c").getBody(), "UTF-8"));
+        archive.close();
+    }
+
+    @Test
+    public void testLatestForIngest() throws Exception {
+        HttpArchive archive = new HttpArchive(directory, true);
+        archive.append(record("get /users/a", 200, "[1]"));
+        archive.append(record("get /repos/o/r/issues?since=2012-01-01T00:00:00Z&page=1 application/json", 200, "[2]"));
+        archive.append(record("get /users/a", 200, "[3]"));
+        archive.append(record("get /repos/o/r/issues?page=1&since=2012-02-01T00:00:00Z application/json", 200, "[4]"));
+        archive.append(record("get /users/b", 200, "[5]"));
+        archive.close();
+
+        archive = new HttpArchive(directory, false);
+        assertEquals("[3]", new String(archive.latest("get /users/a").getBody(), "UTF-8"));
+        assertEquals("[3]", new String(archive.latest("get /users/a").getBody(), "UTF-8"));
+        // a recorded since is served as it is, others get the newest with any since
+        assertEquals("[2]", new String(archive.latest(
+                "get /repos/o/r/issues?since=2012-01-01T00:00:00Z&page=1 application/json").getBody(), "UTF-8"));
+        assertEquals("[4]", new String(archive.latest(
+                "get /repos/o/r/issues?since=2012-03-01T00:00:00Z&page=1 application/json").getBody(), "UTF-8"));
+        assertNull(archive.latest("get /repos/o/r/issues?since=2012-03-01T00:00:00Z&page=2 application/json"));
+        assertEquals(1, archive.unservedSize());
+        // the same request without a since at all
+        assertEquals("[5]", new String(archive.latest("get /users/b?since=2012-03-01T00:00:00Z").getBody(), "UTF-8"));
+        assertEquals(0, archive.unservedSize());
+        archive.close();
+    }
+
+    @Test
+    public void testLatestNeverNarrower() throws Exception {
+        HttpArchive archive = new HttpArchive(directory, true);
+        archive.append(record("get /repos/o/r/issues?since=2012-01-01T00:00:00Z application/json", 200, "[1]"));
+        archive.append(record("get /repos/o/r/issues?since=2012-03-01T00:00:00Z application/json", 200, "[2]"));
+        archive.append(record("get /repos/o/r/pulls?since=2012-03-01T00:00:00Z application/json", 200, "[3]"));
+        archive.append(record("get /repos/o/r/pulls application/json", 200, "[4]"));
+        archive.close();
+
+        archive = new HttpArchive(directory, false);
+        // the newer response lists less than was asked for
+        assertEquals("[1]", new String(archive.latest(
+                "get /repos/o/r/issues?since=2012-02-01T00:00:00Z application/json").getBody(), "UTF-8"));
+        assertEquals("[2]", new String(archive.latest(
+                "get /repos/o/r/issues?since=2012-04-01T00:00:00Z application/json").getBody(), "UTF-8"));
+        assertNull(archive.latest("get /repos/o/r/issues?since=2011-12-01T00:00:00Z application/json"));
+        assertNull(archive.latest("get /repos/o/r/issues application/json"));
+        // one without a since lists everything, however old it is
+        assertEquals("[4]", new String(archive.latest(
+                "get /repos/o/r/pulls?since=2012-04-01T00:00:00Z application/json").getBody(), "UTF-8"));
+        archive.close();
+    }
+
+    @Test
+    public void testHasRecorded() throws Exception {
+        HttpArchive archive = new HttpArchive(directory, true);
+        archive.append(record("get /users/a", 200, "[1]"));
+        archive.append(record("get /users/b/events?page=2 application/json", 200, "[2]"));
+        archive.close();
+
+        archive = new HttpArchive(directory, false);
+        assertTrue(archive.hasRecorded("/users/a"));
+        assertTrue(archive.hasRecorded("/users/b/events"));
+        assertFalse(archive.hasRecorded("/users/b"));
+        assertFalse(archive.hasRecorded("/users/ab"));
+        archive.close();
+    }
+
+    @Test
+    public void testSinceOf() {
+        assertEquals(new Date(1330560000000L), HttpArchive.sinceOf("get /x?page=1&since=2012-03-01T00:00:00Z t"));
+        assertEquals(new Date(1330560000000L), HttpArchive.sinceOf("get /x?since=2012-03-01T00%3A00%3A00Z&page=1 t"));
+        assertNull(HttpArchive.sinceOf("get /x?page=1 t"));
+        assertNull(HttpArchive.sinceOf("get /x?since=yesterday t"));
+    }
+
+    @Test
+    public void testWithoutSince() {
+        assertEquals("get /x?page=1 t", HttpArchive.withoutSince("get /x?since=2012-01-01T00:00:00Z&page=1 t"));
+        assertEquals("get /x?page=1 t", HttpArchive.withoutSince("get /x?page=1&since=2012-01-01T00:00:00Z t"));
+        assertEquals("get /x", HttpArchive.withoutSince("get /x?since=2012-01-01T00:00:00Z"));
+        assertEquals("get /x?sincere=1", HttpArchive.withoutSince("get /x?sincere=1"));
+    }
+}
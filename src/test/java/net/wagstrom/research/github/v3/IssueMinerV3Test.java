@@ -0,0 +1,148 @@
+package net.wagstrom.research.github.v3;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+import org.eclipse.egit.github.core.Issue;
+import org.eclipse.egit.github.core.client.PageIterator;
+import org.eclipse.egit.github.core.client.PagedRequest;
+import org.eclipse.egit.github.core.service.IssueService;
+import org.junit.Test;
+
+import junit.framework.TestCase;
+
+public class IssueMinerV3Test extends TestCase {
+    private static final long BASE = 1300000000000L;
+
+    /**
+     * Lists issues the way GitHub does when sorted by update, and can update
+     * an issue once a given number of pages have been served
+     */
+    private static class ListingService extends IssueService {
+        private final List<Issue> issues = new ArrayList<Issue>();
+        private int pagesServed = 0;
+        private int updateAfter = -1;
+        private int updateIssue = 0;
+
+        void add(final int number, final long updated) {
+            issues.add(new Issue().setNumber(number).setUpdatedAt(new Date(updated)));
+        }
+
+        void updateAfter(final int pages, final int number) {
+            updateAfter = pages;
+            updateIssue = number;
+        }
+
+        @Override
+        public PageIterator<Issue> pageIssues(final String user, final String repository,
+                final Map<String, String> filterData, final int start, final int size) {
+            if (pagesServed++ == updateAfter) {
+                for (Issue issue : issues) {
+                    if (issue.getNumber() == updateIssue) {
+                        issue.setUpdatedAt(new Date(BASE + 1000000));
+                    }
+                }
+            }
+            SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US);
+            format.setTimeZone(TimeZone.getTimeZone("UTC"));
+            Date since;
+            try {
+                since = format.parse(filterData.get(IssueService.FIELD_SINCE));
+            } catch (ParseException e) {
+                throw new IllegalArgumentException(e);
+            }
+            List<Issue> listed = new ArrayList<Issue>();
+            for (Issue issue : issues) {
+                if (!issue.getUpdatedAt().before(since)) {
+                    listed.add(issue);
+                }
+            }
+            Collections.sort(listed, new Comparator<Issue>() {
+                public int compare(final Issue a, final Issue b) {
+                    int order = a.getUpdatedAt().compareTo(b.getUpdatedAt());
+                    return order != 0 ? order : a.getNumber() - b.getNumber();
+                }
+            });
+            int from = Math.min((start - 1) * size, listed.size());
+            int to = Math.min(start * size, listed.size());
+            return new OnePage(start, size, new ArrayList<Issue>(listed.subList(from, to)), to < listed.size());
+        }
+    }
+
+    private static class OnePage extends PageIterator<Issue> {
+        private final List<Issue> page;
+        private final boolean more;
+        private boolean read = false;
+
+        OnePage(final int start, final int size, final List<Issue> page, final boolean more) {
+            super(new PagedRequest<Issue>(start, size), null);
+            this.page = page;
+            this.more = more;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !read || more;
+        }
+
+        @Override
+        public Collection<Issue> next() {
+            read = true;
+            return page;
+        }
+    }
+
+    private static Map<Integer, Integer> list(final ListingService service) {
+        final Map<Integer, Integer> handled = new HashMap<Integer, Integer>();
+        IssueMinerV3 miner = new IssueMinerV3(service);
+        assertTrue(miner.forEachIssueSince("o", "r", new Date(BASE), new PageHandler<Issue>() {
+            public void handlePage(final Collection<Issue> page) {
+                for (Issue issue : page) {
+                    Integer count = handled.get(issue.getNumber());
+                    handled.put(issue.getNumber(), count == null ? 1 : count + 1);
+                }
+            }
+        }));
+        return handled;
+    }
+
+    @Test
+    public void testIssueUpdatedWhileListing() {
+        ListingService service = new ListingService();
+        int count = PagedRequest.PAGE_SIZE * 2 + 50;
+        for (int i = 1; i <= count; i++) {
+            service.add(i, BASE + i * 1000L);
+        }
+        // the first issue moves to the end of the list after the first page
+        service.updateAfter(1, 1);
+        Map<Integer, Integer> handled = list(service);
+        assertEquals(count, handled.size());
+        assertEquals(Integer.valueOf(2), handled.get(1));
+        assertEquals(Integer.valueOf(1), handled.get(PagedRequest.PAGE_SIZE + 1));
+    }
+
+    @Test
+    public void testPageUpdatedInOneSecond() {
+        ListingService service = new ListingService();
+        int count = PagedRequest.PAGE_SIZE * 2 + 10;
+        for (int i = 1; i <= count; i++) {
+            service.add(i, BASE + 5000);
+        }
+        service.add(count + 1, BASE + 9000);
+        Map<Integer, Integer> handled = list(service);
+        assertEquals(count + 1, handled.size());
+        for (Integer times : handled.values()) {
+            assertEquals(Integer.valueOf(1), times);
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package net.wagstrom.research.github.v3;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Type;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.eclipse.egit.github.core.client.GitHubRequest;
+import org.eclipse.egit.github.core.client.GitHubResponse;
+import org.eclipse.egit.github.core.client.IGitHubClient;
+import org.eclipse.egit.github.core.client.PageIterator;
+import org.eclipse.egit.github.core.client.PagedRequest;
+import org.junit.Test;
+
+import junit.framework.TestCase;
+
+public class ParallelPageFetcherTest extends TestCase {
+    private static final Pattern PAGE = Pattern.compile("[?&]page=(\\d+)");
+    private static final int PAGE_SIZE = 2;
+
+    /**
+     * Serves a list of numbered elements two to a page
+     */
+    private static class PagingClient implements IGitHubClient {
+        private final int pages;
+        private final int advertisedPages;
+        private final boolean advertiseLast;
+        private final int failingPage;
+        private final List<Integer> requested = Collections.synchronizedList(new ArrayList<Integer>());
+
+        /**
+         * @param pages the number of pages in the list
+         * @param advertisedPages the last page given in the Link header
+         * @param advertiseLast whether the Link header gives the last page at all
+         * @param failingPage a page that can't be read, 0 for none
+         */
+        PagingClient(final int pages, final int advertisedPages, final boolean advertiseLast, final int failingPage) {
+            this.pages = pages;
+            this.advertisedPages = advertisedPages;
+            this.advertiseLast = advertiseLast;
+            this.failingPage = failingPage;
+        }
+
+        public GitHubResponse get(final GitHubRequest request) throws IOException {
+            Matcher matcher = PAGE.matcher(request.generateUri());
+            int page = matcher.find() ? Integer.parseInt(matcher.group(1)) : 1;
+            requested.add(page);
+            try {
+                // later pages come back first
+                Thread.sleep(5L * (pages - page));
+            } catch (InterruptedException e) {
+                throw new IOException("interrupted");
+            }
+            if (page == failingPage) {
+                throw new IOException("page " + page + " failed");
+            }
+            List<Integer> elements = new ArrayList<Integer>();
+            for (int i = (page - 1) * PAGE_SIZE; i < page * PAGE_SIZE; i++) {
+                elements.add(i);
+            }
+            StringBuilder link = new StringBuilder();
+            if (page < pages) {
+                link.append("<https://api.github.com/items?page=").append(page + 1)
+                        .append("&per_page=").append(PAGE_SIZE).append(">; rel=\"next\"");
+                if (advertiseLast) {
+                    link.append(", <https://api.github.com/items?page=").append(advertisedPages)
+                            .append("&per_page=").append(PAGE_SIZE).append(">; rel=\"last\"");
+                }
+            }
+            return new GitHubResponse(connection(link.toString()), elements);
+        }
+
+        public List<Integer> getRequested() {
+            synchronized (requested) {
+                List<Integer> sorted = new ArrayList<Integer>(requested);
+                Collections.sort(sorted);
+                return sorted;
+            }
+        }
+
+        public IGitHubClient setCredentials(final String user, final String password) {
+            return this;
+        }
+
+        public IGitHubClient setOAuth2Token(final String token) {
+            return this;
+        }
+
+        public IGitHubClient setUserAgent(final String agent) {
+            return this;
+        }
+
+        public String getUser() {
+            return null;
+        }
+
+        public InputStream getStream(final GitHubRequest request) throws IOException {
+            throw new IOException("not supported");
+        }
+
+        public <V> V post(final String uri, final Object params, final Type type) throws IOException {
+            throw new IOException("not supported");
+        }
+
+        public <V> V put(final String uri, final Object params, final Type type) throws IOException {
+            throw new IOException("not supported");
+        }
+
+        public void delete(final String uri) throws IOException {
+            throw new IOException("not supported");
+        }
+
+        public int getRateLimit() {
+            return -1;
+        }
+
+        public int getRateLimitRemaining() {
+            return -1;
+        }
+    }
+
+    private static HttpURLConnection connection(final String link) throws IOException {
+        return new HttpURLConnection(new URL("https://api.github.com/items")) {
+            @Override
+            public String getHeaderField(final String name) {
+                return "Link".equalsIgnoreCase(name) && link.length() > 0 ? link : null;
+            }
+
+            @Override
+            public void connect() {
+            }
+
+            @Override
+            public void disconnect() {
+            }
+
+            @Override
+            public boolean usingProxy() {
+                return false;
+            }
+        };
+    }
+
+    private static PageIterator<Integer> iterator(final IGitHubClient client) {
+        PagedRequest<Integer> request = new PagedRequest<Integer>(1, PAGE_SIZE);
+        request.setUri("/items");
+        return new PageIterator<Integer>(request, client);
+    }
+
+    private static List<Integer> range(final int from, final int to) {
+        List<Integer> values = new ArrayList<Integer>();
+        for (int i = from; i < to; i++) {
+            values.add(i);
+        }
+        return values;
+    }
+
+    @Test
+    public void testPagesInOrder() throws Exception {
+        ParallelPageFetcher fetcher = new ParallelPageFetcher(4);
+        PagingClient client = new PagingClient(7, 7, true, 0);
+        assertEquals(range(0, 14), fetcher.getAll(client, iterator(client)));
+        assertEquals(range(1, 8), client.getRequested());
+        fetcher.shutdown();
+    }
+
+    @Test
+    public void testSequential() throws Exception {
+        ParallelPageFetcher fetcher = new ParallelPageFetcher(1);
+        PagingClient client = new PagingClient(4, 4, true, 0);
+        assertEquals(range(0, 8), fetcher.getAll(client, iterator(client)));
+        assertEquals(range(1, 5), client.getRequested());
+    }
+
+    @Test
+    public void testWithoutLastPage() throws Exception {
+        ParallelPageFetcher fetcher = new ParallelPageFetcher(4);
+        PagingClient client = new PagingClient(3, 0, false, 0);
+        assertEquals(range(0, 6), fetcher.getAll(client, iterator(client)));
+        assertEquals(range(1, 4), client.getRequested());
+        fetcher.shutdown();
+    }
+
+    @Test
+    public void testListGrew() throws Exception {
+        // the first page says there are three pages but there are five by the time they're read
+        ParallelPageFetcher fetcher = new ParallelPageFetcher(4);
+        PagingClient client = new PagingClient(5, 3, true, 0);
+        assertEquals(range(0, 10), fetcher.getAll(client, iterator(client)));
+        assertEquals(range(1, 6), client.getRequested());
+        fetcher.shutdown();
+    }
+
+    @Test
+    public void testFailurePartway() throws Exception {
+        ParallelPageFetcher fetcher = new ParallelPageFetcher(2);
+        PagingClient client = new PagingClient(6, 6, true, 3);
+        final List<Integer> handled = new ArrayList<Integer>();
+        try {
+            fetcher.forEachPage(client, iterator(client), new PageHandler<Integer>() {
+                public void handlePage(final Collection<Integer> page) {
+                    handled.addAll(page);
+                }
+            });
+            fail("expected the failed page to be reported");
+        } catch (IOException e) {
+            assertEquals("page 3 failed", e.getMessage());
+        }
+        // only the pages before the failed one were handled
+        assertEquals(range(0, 4), handled);
+        fetcher.shutdown();
+    }
+
+    @Test
+    public void testSequentialFailure() throws Exception {
+        ParallelPageFetcher fetcher = new ParallelPageFetcher(1);
+        PagingClient client = new PagingClient(4, 4, true, 2);
+        try {
+            fetcher.getAll(client, iterator(client));
+            fail("expected the failed page to be reported");
+        } catch (IOException e) {
+            assertEquals("page 2 failed", e.getMessage());
+        }
+    }
+}
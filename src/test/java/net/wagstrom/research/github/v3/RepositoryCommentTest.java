@@ -0,0 +1,38 @@
+/*
+ * Copyright (c) 2011-2012 IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wagstrom.research.github.v3;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.eclipse.egit.github.core.client.GsonUtils;
+import org.junit.Test;
+
+import com.google.gson.reflect.TypeToken;
+
+public class RepositoryCommentTest extends TestCase {
+    @Test
+    public void testIssueNumberFromUrl() {
+        List<RepositoryComment> comments = GsonUtils.fromJson(
+                "[{\"id\":1,\"issue_url\":\"https://api.github.com/repos/rails/rails/issues/1234\"},{\"id\":2}]",
+                new TypeToken<List<RepositoryComment>>() {
+                }.getType());
+        assertEquals(1234, comments.get(0).getIssueNumber());
+        assertEquals(-1, comments.get(1).getIssueNumber());
+        assertEquals(-1, new RepositoryComment().setIssueUrl("https://api.github.com/repos/rails/rails/issues/x").getIssueNumber());
+    }
+}